@@ -14,6 +14,10 @@ public final class Main {
 
     private static Logger log = LoggerFactory.getLogger(Main.class);
 
+    private static final String SERIALIZABLE_PACKAGES_PROPERTY = "org.apache.activemq.SERIALIZABLE_PACKAGES";
+
+    private static final String DEFAULT_SERIALIZABLE_PACKAGES = "java.lang,java.util,java.math,java.sql,org.mokai,org.apache.activemq";
+
     /**
      * This class shouldn't be instantiated.
      */
@@ -21,9 +25,14 @@ public final class Main {
     }
 
     public static void main(String[] args) {
-        // start spring context
-        System.setProperty("org.apache.activemq.SERIALIZABLE_PACKAGES", "*");
+        // the messages are sent as bytes, only the Java serialized messages of previous versions that are still in
+        // the broker and the serialized property values of the BinaryMessageCodec need to be trusted. It can be
+        // overridden with -Dorg.apache.activemq.SERIALIZABLE_PACKAGES
+        if (System.getProperty(SERIALIZABLE_PACKAGES_PROPERTY) == null) {
+            System.setProperty(SERIALIZABLE_PACKAGES_PROPERTY, DEFAULT_SERIALIZABLE_PACKAGES);
+        }
 
+        // start spring context
         String[] configLocations = new String[]{
             "conf/core-context.xml", "conf/jogger-context.xml", "conf/admin-console-context.xml"
         };
@@ -1,10 +1,6 @@
 package org.mokai.connector.smpp;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
@@ -32,6 +28,7 @@ import org.mokai.Serviceable;
 import org.mokai.annotation.Description;
 import org.mokai.annotation.Name;
 import org.mokai.annotation.Resource;
+import org.mokai.persist.SequenceAllocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +51,11 @@ public class SmppServerConnector implements Processor, Configurable, Serviceable
 	 */
 	private static final String SEQUENCE_NUMBER_EXT = ".seq";
 
+	/**
+	 * The extension of the memory mapped file used by the {@link SequenceAllocator}.
+	 */
+	private static final String SEQUENCE_ALLOCATOR_EXT = ".seqmap";
+
 	@Resource
 	private ConnectorContext context;
 
@@ -64,6 +66,11 @@ public class SmppServerConnector implements Processor, Configurable, Serviceable
 
 	private SmppServer smppServer;
 
+	/**
+	 * Allocates the message ids of the submit_sm responses. It is opened when the connector is configured.
+	 */
+	private volatile SequenceAllocator sequenceAllocator;
+
 	public SmppServerConnector() {
 		this(new SmppServerConfiguration());
 	}
@@ -136,6 +143,12 @@ public class SmppServerConnector implements Processor, Configurable, Serviceable
 
 	@Override
 	public void configure() throws Exception {
+		// the first time, start from the number of the text file used by previous versions, if it exists
+		File legacyFile = new File(SEQUENCE_NUMBER_FOLDER + context.getId() + SEQUENCE_NUMBER_EXT);
+		long initialValue = SequenceAllocator.readTextValue(legacyFile, 1);
+		sequenceAllocator = new SequenceAllocator(
+				new File(SEQUENCE_NUMBER_FOLDER + context.getId() + SEQUENCE_ALLOCATOR_EXT), initialValue);
+
 		smppServer = new SmppServer(configuration.getPort(), new CustomPacketProcessor());
 	}
 
@@ -155,52 +168,26 @@ public class SmppServerConnector implements Processor, Configurable, Serviceable
 
 	@Override
 	public void destroy() throws Exception {
+		if (sequenceAllocator != null) {
+			sequenceAllocator.close();
+			sequenceAllocator = null;
+		}
 	}
 
 	/**
 	 * Helper method that will return a sequence number used to return the message id of a submit_sm response.
-	 * It reads the number from a file, increments it, saves it again in the file and
-	 * returns it.
+	 * The number is allocated by the {@link SequenceAllocator} that is opened when the connector is configured.
 	 *
 	 * @return the sequence number used to return the message id of the submit_sm response
-	 * @throws Exception if anything goes wrong.
+	 * @throws IllegalStateException if the connector is not configured.
 	 */
-	private synchronized int nextMessageId() throws Exception {
-		int sequence = 1;
-
-		// check if the file exists and read the number
-		File file = new File(SEQUENCE_NUMBER_FOLDER + context.getId() + SEQUENCE_NUMBER_EXT);
-		if (file.exists()) {
-
-			BufferedReader in = null;
-
-			try {
-				in = new BufferedReader(new FileReader(file));
-				sequence = Integer.parseInt(in.readLine());
-			} finally {
-				if (in != null) {
-					try { in.close(); } catch (Exception e) {}
-				}
-			}
-
-		}
-
-		// create the directories if they aren't created already
-		File fDir = new File(SEQUENCE_NUMBER_FOLDER);
-		fDir.mkdirs();
-
-		// increment the number and save it in the file
-		PrintWriter out = null;
-		try {
-			out = new PrintWriter(new FileWriter(SEQUENCE_NUMBER_FOLDER + context.getId() + SEQUENCE_NUMBER_EXT));
-			out.println(sequence + 1);
-		} finally {
-			if (out != null) {
-				try { out.close(); } catch (Exception e) {}
-			}
+	private int nextMessageId() throws IllegalStateException {
+		SequenceAllocator allocator = sequenceAllocator;
+		if (allocator == null) {
+			throw new IllegalStateException("SMPP server connector not configured");
 		}
 
-		return sequence;
+		return allocator.next();
 	}
 
 	/**
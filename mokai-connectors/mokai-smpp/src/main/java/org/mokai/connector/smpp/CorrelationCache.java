@@ -0,0 +1,182 @@
+package org.mokai.connector.smpp;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mokai.Message;
+
+/**
+ * <p>Keeps the messages sent by a {@link SmppConnector} in memory, indexed by sequence number and by the message id
+ * assigned by the SMSC, so that submit responses and delivery receipts can be matched without querying the
+ * {@link org.mokai.persist.MessageStore}.</p>
+ *
+ * <p>Entries expire after a fixed time to live and the cache holds a maximum number of entries, evicting the oldest
+ * ones first. Because all the entries have the same time to live, the oldest entries are also the first to expire.
+ * The store is still used when an entry is not found (e.g. after a restart or if it was evicted).</p>
+ *
+ * @author German Escobar
+ */
+public class CorrelationCache {
+
+	private final Map<String,Entry> entries;
+
+	private final long ttl;
+
+	/**
+	 * Constructor. Creates an instance with the specified size and time to live.
+	 *
+	 * @param maxSize the maximum number of entries, the oldest entries are evicted when it is exceeded.
+	 * @param ttl the time in milliseconds after which an entry expires.
+	 */
+	public CorrelationCache(final int maxSize, long ttl) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize must be greater than 0");
+		}
+		if (ttl <= 0) {
+			throw new IllegalArgumentException("ttl must be greater than 0");
+		}
+
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<String,CorrelationCache.Entry>(16, 0.75f, false) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,CorrelationCache.Entry> eldest) {
+				return size() > maxSize;
+			}
+
+		};
+	}
+
+	/**
+	 * Adds a message that was sent with the specified sequence number.
+	 *
+	 * @param sequenceNumber the sequence number of the submit_sm.
+	 * @param message the message that was sent.
+	 * @param persisted true if the message has already been saved in the message store, false otherwise.
+	 */
+	public void putBySequenceNumber(int sequenceNumber, Message message, boolean persisted) {
+		put("seq:" + sequenceNumber, message, persisted);
+	}
+
+	/**
+	 * @param sequenceNumber the sequence number of the submit_sm response.
+	 * @return the entry of the message that was sent with the sequence number or null if not found or expired.
+	 */
+	public Entry getBySequenceNumber(int sequenceNumber) {
+		return get("seq:" + sequenceNumber);
+	}
+
+	public void removeBySequenceNumber(int sequenceNumber) {
+		remove("seq:" + sequenceNumber);
+	}
+
+	/**
+	 * Adds a message that was assigned the specified message id by the SMSC.
+	 *
+	 * @param messageId the message id of the submit_sm response.
+	 * @param message the message that was sent, it must have been saved in the message store.
+	 */
+	public void putByMessageId(String messageId, Message message) {
+		put("id:" + messageId, message, true);
+	}
+
+	/**
+	 * @param messageId the message id of the delivery receipt.
+	 * @return the entry of the message that was assigned the message id or null if not found or expired.
+	 */
+	public Entry getByMessageId(String messageId) {
+		return get("id:" + messageId);
+	}
+
+	/**
+	 * @return the number of entries in the cache, some of which may have already expired.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	private synchronized void put(String key, Message message, boolean persisted) {
+		long now = System.currentTimeMillis();
+		purge(now);
+
+		// remove it first so that the entry is moved to the end of the insertion order
+		entries.remove(key);
+		entries.put(key, new Entry(message, persisted, now + ttl));
+	}
+
+	private synchronized Entry get(String key) {
+		Entry entry = entries.get(key);
+		if (entry == null) {
+			return null;
+		}
+
+		if (entry.expirationTime <= System.currentTimeMillis()) {
+			entries.remove(key);
+			return null;
+		}
+
+		return entry;
+	}
+
+	private synchronized void remove(String key) {
+		entries.remove(key);
+	}
+
+	/**
+	 * Helper method. Removes the expired entries from the beginning of the map, where the oldest entries are.
+	 */
+	private void purge(long now) {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (entry.expirationTime > now) {
+				return;
+			}
+
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * An entry of the cache.
+	 *
+	 * @author German Escobar
+	 */
+	public static class Entry {
+
+		private final Message message;
+
+		private final boolean persisted;
+
+		private final long expirationTime;
+
+		private Entry(Message message, boolean persisted, long expirationTime) {
+			this.message = message;
+			this.persisted = persisted;
+			this.expirationTime = expirationTime;
+		}
+
+		public Message getMessage() {
+			return message;
+		}
+
+		/**
+		 * @return true if the message was retrieved from (or has already been saved in) the message store so it
+		 * can be updated directly, false if it is the message that was passed to the connector and it hasn't been
+		 * saved yet. The message passed to the connector is the one that is saved afterwards, so it is considered
+		 * persisted as soon as it has an id.
+		 */
+		public boolean isPersisted() {
+			return persisted || message.getId() != null;
+		}
+
+	}
+
+}
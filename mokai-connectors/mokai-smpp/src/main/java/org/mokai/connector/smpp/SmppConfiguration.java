@@ -22,6 +22,10 @@ public class SmppConfiguration {
 	private static final long DEFAULT_RECONNECT_DELAY = 5000;
 	private static final int DEFAULT_DATA_CODING = 0;
 	private static final DlrIdConversion DEFAULT_DLR_ID_CONVERSION = DlrIdConversion.NO_CONVERSION;
+	private static final int DEFAULT_MAX_TPS = 50;
+	private static final long DEFAULT_CORRELATION_CACHE_TTL = 60 * 60 * 1000;
+	private static final long DEFAULT_WINDOW_TIMEOUT = 30000;
+	private static final long DEFAULT_LOOKUP_PERIOD = 7L * 24 * 60 * 60 * 1000;
 
 	/**
 	 * Tells whether the connection will be in transmitter, receiver or
@@ -151,6 +155,59 @@ public class SmppConfiguration {
 	@Label("Failed Command Statuses")
 	private List<String> failedCommandStatuses = new ArrayList<String>();
 
+	/**
+	 * The maximum number of sent messages that are kept in memory to match the submit responses and delivery
+	 * receipts. If 0 (the default), the cache holds the messages sent at <code>maxTps</code> during the
+	 * <code>correlationCacheTtl</code>.
+	 */
+	@Label("Correlation Cache Size")
+	private int correlationCacheSize = 0;
+
+	/**
+	 * The maximum number of messages per second that are sent to the SMSC (usually the max tps of the connector),
+	 * used to size the correlation cache.
+	 */
+	@Label("Max TPS")
+	private int maxTps = DEFAULT_MAX_TPS;
+
+	/**
+	 * The time in milliseconds that a sent message is kept in memory to match the submit responses and delivery
+	 * receipts.
+	 */
+	@Label("Correlation Cache TTL")
+	private long correlationCacheTtl = DEFAULT_CORRELATION_CACHE_TTL;
+
+	/**
+	 * The maximum number of submit_sm requests that can be waiting for a response on a bind. If greater than 0, a
+	 * message waits for free slots before it is sent, but not for its responses. If 0 (the default), the number
+	 * of requests waiting for a response is not limited.
+	 */
+	@Label("Window Size")
+	private int windowSize = 0;
+
+	/**
+	 * The maximum time in milliseconds to wait for the slots of a message in the window and for its responses. A
+	 * message whose responses don't arrive in time is marked as unacknowledged, it is not failed nor sent again.
+	 */
+	@Label("Window Timeout")
+	private long windowTimeout = DEFAULT_WINDOW_TIMEOUT;
+
+	/**
+	 * The number of binds that are opened to the SMSC. Messages are sent through the bind with the least
+	 * outstanding requests.
+	 */
+	@Label("Number of Binds")
+	private int numBinds = 1;
+
+	/**
+	 * The time in milliseconds before now in which the messages are searched in the message store when they are not
+	 * found in the correlation cache (e.g. to match a delivery receipt). Bounds the creation time of the queries so
+	 * only the recent partitions of a partitioned table are probed. If 0, the messages are searched in the whole
+	 * table.
+	 */
+	@Label("Lookup Period")
+	private long lookupPeriod = DEFAULT_LOOKUP_PERIOD;
+
 	@ManagedAttribute
 	public final String getHost() {
 		return host;
@@ -341,4 +398,67 @@ public class SmppConfiguration {
 	public void addFailedCommandStatus(int failedCommandStatus) {
 		this.failedCommandStatuses.add(failedCommandStatus + "");
 	}
+
+	@ManagedAttribute
+	public int getCorrelationCacheSize() {
+		return correlationCacheSize;
+	}
+
+	public void setCorrelationCacheSize(int correlationCacheSize) {
+		this.correlationCacheSize = correlationCacheSize;
+	}
+
+	@ManagedAttribute
+	public int getMaxTps() {
+		return maxTps;
+	}
+
+	public void setMaxTps(int maxTps) {
+		this.maxTps = maxTps;
+	}
+
+	@ManagedAttribute
+	public long getCorrelationCacheTtl() {
+		return correlationCacheTtl;
+	}
+
+	public void setCorrelationCacheTtl(long correlationCacheTtl) {
+		this.correlationCacheTtl = correlationCacheTtl;
+	}
+
+	@ManagedAttribute
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	public void setWindowSize(int windowSize) {
+		this.windowSize = windowSize;
+	}
+
+	@ManagedAttribute
+	public long getWindowTimeout() {
+		return windowTimeout;
+	}
+
+	public void setWindowTimeout(long windowTimeout) {
+		this.windowTimeout = windowTimeout;
+	}
+
+	@ManagedAttribute
+	public int getNumBinds() {
+		return numBinds;
+	}
+
+	public void setNumBinds(int numBinds) {
+		this.numBinds = numBinds;
+	}
+
+	@ManagedAttribute
+	public long getLookupPeriod() {
+		return lookupPeriod;
+	}
+
+	public void setLookupPeriod(long lookupPeriod) {
+		this.lookupPeriod = lookupPeriod;
+	}
 }
@@ -21,11 +21,8 @@ import ie.omk.smpp.util.DefaultAlphabetEncoding;
 import ie.omk.smpp.util.Latin1Encoding;
 import ie.omk.smpp.util.UCS2Encoding;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -36,6 +33,8 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.mokai.ConnectorContext;
 import org.mokai.ExposableConfiguration;
@@ -52,6 +51,7 @@ import org.mokai.connector.smpp.SmppConfiguration.BindType;
 import org.mokai.connector.smpp.SmppConfiguration.DlrIdConversion;
 import org.mokai.persist.MessageCriteria;
 import org.mokai.persist.MessageStore;
+import org.mokai.persist.SequenceAllocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -78,6 +78,22 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 	 */
 	private static final String SEQUENCE_NUMBER_EXT = ".seq";
 
+	/**
+	 * The extension of the memory mapped file used by the {@link SequenceAllocator}.
+	 */
+	private static final String SEQUENCE_ALLOCATOR_EXT = ".seqmap";
+
+	/**
+	 * The minimum number of entries of the {@link CorrelationCache} when its size is derived from the max tps.
+	 */
+	private static final int MIN_CORRELATION_CACHE_SIZE = 1000;
+
+	/**
+	 * The number of times a submit_sm response is retried (every 500 millis) waiting for its message to be saved
+	 * before the message store is queried.
+	 */
+	private static final int MAX_UNSAVED_RETRIES = 20;
+
 	/**
 	 * Holds information about the processor like the assigned id. It is used to add a
 	 * header on every log message and to create the file that will hold the sequence
@@ -105,14 +121,15 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 	private SmppConfiguration configuration;
 
 	/**
-	 * The status of the connector.
+	 * The binds to the SMSC. They are created when the connector is started according to the
+	 * {@link SmppConfiguration#getNumBinds()} value.
 	 */
-	private Status status = MonitorStatusBuilder.unknown();
+	private volatile Session[] sessions = new Session[0];
 
 	/**
-	 * The smppapi Connection used to connect to the SMSC.
+	 * Used to choose a session when two or more have the same number of outstanding requests.
 	 */
-	private Connection connection;
+	private final AtomicInteger nextSession = new AtomicInteger();
 
 	/**
 	 * Tells if the processor is started so we keep trying to connect
@@ -120,13 +137,6 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 	 */
 	private volatile boolean started = false;
 
-	private volatile boolean connecting = false;
-
-	/**
-	 * Tells if the session is bound.
-	 */
-	private volatile boolean bound;
-
 	/**
 	 * Stores the submit responses until they are processed by the SubmitSmResponseThread
 	 * (defined in this same class).
@@ -139,6 +149,17 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 	 */
 	private List<DeliveryReceipt> deliveryReceipts = Collections.synchronizedList(new ArrayList<DeliveryReceipt>());
 
+	/**
+	 * Keeps the sent messages in memory to match the submit responses and delivery receipts without querying the
+	 * message store. It is created when the connector is started.
+	 */
+	private CorrelationCache correlationCache;
+
+	/**
+	 * Allocates the sequence numbers of the submit_sm requests. It is opened when the connector is started.
+	 */
+	private volatile SequenceAllocator sequenceAllocator;
+
 	/**
 	 * Constructor. Creates an instance with the default configuration information.
 	 *
@@ -168,18 +189,32 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 
 		started = true;
 
-		// try to connect in this same thread (only one attempt)
-		// the reason for this is that if the processor service
-		// has queued messages and it is started without setting
-		// up the connection, some messages will fail until the
-		// connection is up
-		new ConnectionThread(1, 0).run();
-
-		// if we couldn't connect the first time, start a thread to keep trying
-		if (status.equals(Status.FAILED)) {
-			new Thread(
-				new ConnectionThread(Integer.MAX_VALUE, configuration.getInitialReconnectDelay())
-			).start();
+		if (sequenceAllocator == null) {
+			sequenceAllocator = openSequenceAllocator();
+		}
+
+		correlationCache = new CorrelationCache(getCorrelationCacheSize(), configuration.getCorrelationCacheTtl());
+
+		Session[] newSessions = new Session[Math.max(1, configuration.getNumBinds())];
+		for (int i=0; i < newSessions.length; i++) {
+			newSessions[i] = new Session(i + 1);
+		}
+		sessions = newSessions;
+
+		for (Session session : newSessions) {
+			// try to connect in this same thread (only one attempt)
+			// the reason for this is that if the processor service
+			// has queued messages and it is started without setting
+			// up the connection, some messages will fail until the
+			// connection is up
+			new ConnectionThread(session, 1, 0).run();
+
+			// if we couldn't connect the first time, start a thread to keep trying
+			if (session.status.equals(Status.FAILED)) {
+				new Thread(
+					new ConnectionThread(session, Integer.MAX_VALUE, configuration.getInitialReconnectDelay())
+				).start();
+			}
 		}
 
 		// sends enquire links periodically to check connection
@@ -198,18 +233,29 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 	@Override
 	public void doStop() throws Exception {
 		started = false;
-		status = MonitorStatusBuilder.unknown();
 
-		if (!bound) {
-			log.debug(getLogHead() + " connection not bound");
-			return;
+		if (sequenceAllocator != null) {
+			sequenceAllocator.close();
+			sequenceAllocator = null;
 		}
 
-		bound = false;
-		try {
-			connection.unbind();
-		} catch (Exception e) {
-			log.warn(getLogHead() + "Exception unbinding: " + e.getMessage(), e);
+		for (Session session : sessions) {
+			session.status = MonitorStatusBuilder.unknown();
+
+			// release the messages that are waiting for a response
+			session.clearWindow();
+
+			if (!session.bound) {
+				log.debug(getLogHead() + " connection of " + session + " not bound");
+				continue;
+			}
+
+			session.bound = false;
+			try {
+				session.connection.unbind();
+			} catch (Exception e) {
+				log.warn(getLogHead() + "Exception unbinding " + session + ": " + e.getMessage(), e);
+			}
 		}
 	}
 
@@ -225,17 +271,48 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 	 */
 	@Override
 	public void process(Message message) throws Exception {
-		int sequenceNumber = getSequenceNumber();
-		log.debug(getLogHead() + "processing message with sequence '" + sequenceNumber + "', to '" + message.getProperty("to", String.class)
-				+ "' and text '" + message.getProperty("text", String.class) + "'");
-
-		if (!status.equals(Status.OK)) {
+		Session session = selectSession();
+		if (session == null) {
 			throw new IllegalStateException("SMPP client not connected.");
 		}
 
+		session.inFlight.incrementAndGet();
+		try {
+			process(message, session);
+		} finally {
+			session.inFlight.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Helper method that sends the segments of a message through a session.
+	 *
+	 * @param message the message to send.
+	 * @param session the session (bind) used to send the message.
+	 * @throws Exception if anything goes wrong.
+	 */
+	private void process(Message message, Session session) throws Exception {
+		int sequenceNumber = getSequenceNumber();
+		log.debug(getLogHead() + "processing message with sequence '" + sequenceNumber + "', to '" + message.getProperty("to", String.class)
+				+ "' and text '" + message.getProperty("text", String.class) + "' through " + session);
+
 		int msgRefNum = new Random().nextInt(10000); // used if we send more than one segment
 
 		String[] texts = getMessageTexts( message.getProperty("text", String.class) );
+
+		// if the window is enabled, wait for the slots of all the segments before sending the first one, so the
+		// message can still fail without being sent
+		SubmitWindow window = session.window;
+		SubmitWindow.PendingSubmit pendingSubmit = null;
+		if (window != null) {
+			pendingSubmit = window.open(sequenceNumber, texts.length);
+			if (!pendingSubmit.acquire(configuration.getWindowTimeout())) {
+				window.cancel(pendingSubmit);
+				throw new TimeoutException("no slot available in the SMPP window after "
+						+ configuration.getWindowTimeout() + " millis");
+			}
+		}
+
 		for (int i=0; i < texts.length; i++) {
 			log.trace("sending segment " + (i+1) + " of " + texts.length);
 
@@ -253,10 +330,65 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 
 			if (i == 0) {
 				message.setProperty("sequenceNumber", request.getSequenceNum());
+
+				// cache the message before sending it, the response could arrive before this method returns
+				if (correlationCache != null) {
+					correlationCache.putBySequenceNumber(sequenceNumber, message, message.getId() != null);
+				}
 			}
 
-			connection.sendRequest(request);
+			try {
+				session.connection.sendRequest(request);
+			} catch (Exception e) {
+				if (i == 0) {
+					if (pendingSubmit != null) {
+						window.cancel(pendingSubmit);
+					}
+					throw e;
+				}
 
+				// the first segments were already sent, failing the message would send them again
+				log.warn(getLogHead() + "Exception sending segment " + (i+1) + " of message with sequence '"
+						+ sequenceNumber + "': " + e.getMessage(), e);
+				if (pendingSubmit == null) {
+					markUnacknowledged(sequenceNumber);
+				}
+				return;
+			}
+
+		}
+
+		// the responses are processed by the SubmitSmResponseThread, which also expires the pending submits
+	}
+
+	/**
+	 * Helper method that queues an update for a message that was sent but whose submit_sm responses are not going to
+	 * arrive (e.g. they timed out or the connection was lost). The message is not failed because the SMSC could have
+	 * received it; it is saved with the <code>unacknowledged</code> property instead.
+	 *
+	 * @param sequenceNumber the sequence number of the message.
+	 */
+	private void markUnacknowledged(int sequenceNumber) {
+		log.warn(getLogHead() + "submit_sm with sequence '" + sequenceNumber + "' was not acknowledged");
+
+		SubmitSMResp response = new SubmitSMResp();
+		response.setSequenceNum(sequenceNumber);
+
+		SubmitSmResp submitSmResponse = new SubmitSmResp();
+		submitSmResponse.submitSMResp = response;
+		submitSmResponse.unacknowledged = true;
+
+		submitSmResponses.add(submitSmResponse);
+	}
+
+	/**
+	 * Helper method that marks as unacknowledged the messages of the list.
+	 *
+	 * @param pendingSubmits the messages that are not going to be acknowledged.
+	 */
+	private void markUnacknowledged(List<SubmitWindow.PendingSubmit> pendingSubmits) {
+		for (SubmitWindow.PendingSubmit pendingSubmit : pendingSubmits) {
+			markUnacknowledged(pendingSubmit.getSequenceNumber());
 		}
 	}
 
@@ -329,46 +461,79 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 
 	/**
 	 * Helper method that will return a sequence number that is sent with the request to the
-	 * SMSC. It reads the number from a file, increments it, saves it again in the file and
-	 * returns it.
+	 * SMSC. The number is allocated by the {@link SequenceAllocator} that is opened when the
+	 * connector is started.
 	 *
 	 * @return the sequence number to use in the request that is going to be sent to the SMSC.
-	 * @throws Exception if anything goes wrong.
+	 * @throws IllegalStateException if the connector is not started.
 	 */
-	private synchronized int getSequenceNumber() throws Exception {
-		int sequence = 1;
+	private int getSequenceNumber() throws IllegalStateException {
+		SequenceAllocator allocator = sequenceAllocator;
+		if (allocator == null) {
+			throw new IllegalStateException("SMPP connector not started");
+		}
 
-		// check if the file exists and read the number
-		File file = new File(SEQUENCE_NUMBER_FOLDER + context.getId() + SEQUENCE_NUMBER_EXT);
-		if (file.exists()) {
-			BufferedReader in = null;
+		return allocator.next();
+	}
 
-			try {
-				in = new BufferedReader(new FileReader(file));
-				sequence = Integer.parseInt(in.readLine());
-			} finally {
-				if (in != null) {
-					try { in.close(); } catch (Exception e) {}
-				}
+	/**
+	 * Helper method that opens the {@link SequenceAllocator} of this connector. The first time, the
+	 * sequence is initialized with the number of the text file used by previous versions, if it exists.
+	 *
+	 * @return an initialized SequenceAllocator.
+	 * @throws IOException if the file of the allocator can't be opened.
+	 */
+	private SequenceAllocator openSequenceAllocator() throws IOException {
+		File legacyFile = new File(SEQUENCE_NUMBER_FOLDER + context.getId() + SEQUENCE_NUMBER_EXT);
+		long initialValue = SequenceAllocator.readTextValue(legacyFile, 1);
+
+		return new SequenceAllocator(new File(SEQUENCE_NUMBER_FOLDER + context.getId() + SEQUENCE_ALLOCATOR_EXT),
+				initialValue);
+	}
+
+	/**
+	 * Helper method that chooses the session used to send a message: the bound session with the least
+	 * outstanding requests. Ties are broken in a round robin fashion.
+	 *
+	 * @return the session to use or null if there are no bound sessions.
+	 */
+	private Session selectSession() {
+		Session[] current = sessions;
+		if (current.length == 0) {
+			return null;
+		}
+
+		int start = (nextSession.getAndIncrement() & Integer.MAX_VALUE) % current.length;
+
+		Session selected = null;
+		int minOutstanding = Integer.MAX_VALUE;
+		for (int i=0; i < current.length; i++) {
+			Session session = current[(start + i) % current.length];
+			if (!session.bound || !session.status.equals(Status.OK)) {
+				continue;
+			}
+
+			int outstanding = session.getOutstanding();
+			if (outstanding < minOutstanding) {
+				selected = session;
+				minOutstanding = outstanding;
 			}
 		}
 
-		// create the directories if they aren't created already
-		File fDir = new File(SEQUENCE_NUMBER_FOLDER);
-		fDir.mkdirs();
+		return selected;
+	}
 
-		// increment the number and save it in the file
-		PrintWriter out = null;
-		try {
-			out = new PrintWriter(new FileWriter(SEQUENCE_NUMBER_FOLDER + context.getId() + SEQUENCE_NUMBER_EXT));
-			out.println(sequence + 1);
-		} finally {
-			if (out != null) {
-				try { out.close(); } catch (Exception e) {}
+	/**
+	 * @return true if at least one session is bound, false otherwise.
+	 */
+	private boolean isBound() {
+		for (Session session : sessions) {
+			if (session.bound) {
+				return true;
 			}
 		}
 
-		return sequence;
+		return false;
 	}
 
 	@Override
@@ -392,13 +557,22 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 	 *
 	 * <ul>
 	 * 	<li>Status.UNKNOWN - if the connector is stopped.</li>
-	 * 	<li>Status.OK - if the connector is bound to the SMSC.</li>
-	 * 	<li>Status.FAILED - if the connection to the SMSC has failed.</li>
+	 * 	<li>Status.OK - if at least one of the binds is bound to the SMSC.</li>
+	 * 	<li>Status.FAILED - if the connections of all the binds to the SMSC have failed.</li>
 	 * </ul>
 	 */
 	@Override
 	public Status getStatus() {
-		return status;
+		Status failed = null;
+		for (Session session : sessions) {
+			if (session.status.equals(Status.OK)) {
+				return session.status;
+			} else if (failed == null && session.status.equals(Status.FAILED)) {
+				failed = session.status;
+			}
+		}
+
+		return failed != null ? failed : MonitorStatusBuilder.unknown();
 	}
 
 	/**
@@ -414,6 +588,33 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 		return false;
 	}
 
+	/**
+	 * Helper method. Returns the configured size of the {@link CorrelationCache} or, if it is not set, the number of
+	 * messages that are sent at the max tps during the time to live of the entries.
+	 *
+	 * @return the maximum number of entries of the correlation cache.
+	 */
+	private int getCorrelationCacheSize() {
+		if (configuration.getCorrelationCacheSize() > 0) {
+			return configuration.getCorrelationCacheSize();
+		}
+
+		long size = (long) configuration.getMaxTps() * configuration.getCorrelationCacheTtl() / 1000;
+		return (int) Math.min(Math.max(size, MIN_CORRELATION_CACHE_SIZE), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Helper method. Limits the criteria to the messages created during the configured lookup period, so the
+	 * message store only probes the partitions of that period.
+	 *
+	 * @param criteria the criteria used to search a message in the message store.
+	 */
+	private void addLookupPeriod(MessageCriteria criteria) {
+		if (configuration.getLookupPeriod() > 0) {
+			criteria.createdFrom(new Date(System.currentTimeMillis() - configuration.getLookupPeriod()));
+		}
+	}
+
 	/**
 	 * Helper method that returns the header that should be appended to all log messages.
 	 *
@@ -431,6 +632,11 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 	 */
 	private class ConnectionThread implements Runnable {
 
+		/**
+		 * The session that is going to be connected
+		 */
+		private Session session;
+
 		/**
 		 * The maximum number of retries before it gives up
 		 */
@@ -444,23 +650,25 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 		/**
 		 * Constructor. Creates an instance with the specified parameters.
 		 *
+		 * @param session the session that is going to be connected.
 		 * @param maxRetries the maximum number of retries.
 		 * @param initialDelay the initial delay before the first try.
 		 */
-		public ConnectionThread(int maxRetries, long initialDelay) {
+		public ConnectionThread(Session session, int maxRetries, long initialDelay) {
+			this.session = session;
 			this.maxRetries = maxRetries;
 			this.initialDelay = initialDelay;
 		}
 
 		@Override
 		public void run() {
-			if (connecting) {
-				log.debug(getLogHead() + "wont start connection thread because it looks like there is another already running");
+			if (session.connecting) {
+				log.debug(getLogHead() + "wont start connection thread for " + session + " because it looks like there is another already running");
 				return;
 			}
 
-			connecting = true;
-			log.info(getLogHead() + "schedule connect after " + initialDelay + " millis");
+			session.connecting = true;
+			log.info(getLogHead() + "schedule connect of " + session + " after " + initialDelay + " millis");
 			try {
 				Thread.sleep(initialDelay);
 			} catch (InterruptedException e) {
@@ -470,26 +678,26 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 			int attempt = 0;
 			while (attempt < maxRetries
 					&& started
-					&& !bound) {
+					&& !session.bound) {
 
 				try {
-					log.info(getLogHead() +  "trying to connect to " + getConfiguration().getHost() + " - attempt #" + (++attempt) + "...");
+					log.info(getLogHead() +  "trying to connect " + session + " to " + getConfiguration().getHost() + " - attempt #" + (++attempt) + "...");
 
 					// try to bind
-					connection = bind();
+					session.connection = bind();
 
 					// if bound, change the status and show log that we are connected
-					bound = true;
-					status = MonitorStatusBuilder.ok();
-					log.info(getLogHead() +  "connected to '" + configuration.getHost() + ":" + configuration.getPort() + "'");
+					session.bound = true;
+					session.status = MonitorStatusBuilder.ok();
+					log.info(getLogHead() +  session + " connected to '" + configuration.getHost() + ":" + configuration.getPort() + "'");
 
 				} catch (Exception e) {
 					// log the exception and change status
 					logException(e, attempt == 1);
-					status = MonitorStatusBuilder.failed("could not connect", e);
+					session.status = MonitorStatusBuilder.failed("could not connect", e);
 
 					// close session just in case
-					try { connection.closeLink(); } catch (Exception f) {}
+					try { session.connection.closeLink(); } catch (Exception f) {}
 
 					// wait the configured delay between reconnects
 					try {
@@ -499,7 +707,7 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 
 				}
 			}
-			connecting = false;
+			session.connecting = false;
 
 		}
 
@@ -514,10 +722,11 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 
 			try {
 				link = new TcpLink(configuration.getHost(), configuration.getPort());
-				connection = new Connection(link, true);
+				Connection connection = new Connection(link, true);
+				session.connection = connection;
 				autoAckMessages(connection);
 
-				MessageListener messageListener = new MessageListener();
+				MessageListener messageListener = new MessageListener(session);
 				connection.addObserver(messageListener);
 
 				connection.bind(getConnectionType(configuration), configuration.getSystemId(), configuration.getPassword(), configuration.getSystemType(),
@@ -585,7 +794,7 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 		 * @param firstTime
 		 */
 		private void logException(Exception e, boolean firstTime) {
-			String logError = getLogHead() + "failed to connect";
+			String logError = getLogHead() + session + " failed to connect";
 
 			// print the exception only the first time
 			if (firstTime) {
@@ -611,21 +820,24 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 					// sleep the amount of time determined in the configuration
 					Thread.sleep(configuration.getEnquireLinkTimer());
 
-					if (bound) {
-						// send the request
-						boolean success = enquireLink();
+					for (Session session : sessions) {
+						if (session.bound) {
+							// send the request
+							boolean success = enquireLink(session);
 
-						// if not success, try to restart the connection
-						if (!success) {
-							bound = false;
-							status = MonitorStatusBuilder.failed("enquire link failed");
+							// if not success, try to restart the connection
+							if (!success) {
+								session.bound = false;
+								session.status = MonitorStatusBuilder.failed("enquire link failed");
 
-							try { connection.closeLink(); } catch (Exception e) {}
+								try { session.connection.closeLink(); } catch (Exception e) {}
+								session.clearWindow();
 
-							log.info("creating new ConnectionThread after a enquire link failed");
-							new Thread(
-								new ConnectionThread(Integer.MAX_VALUE, configuration.getInitialReconnectDelay())
-							).start();
+								log.info("creating new ConnectionThread for " + session + " after a enquire link failed");
+								new Thread(
+									new ConnectionThread(session, Integer.MAX_VALUE, configuration.getInitialReconnectDelay())
+								).start();
+							}
 						}
 					}
 				} catch (InterruptedException e) {}
@@ -635,12 +847,13 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 		/**
 		 * Helper method that actually sends the request.
 		 *
+		 * @param session the session whose connection is checked.
 		 * @return true if the connection is alive, false otherwise.
 		 */
-		private boolean enquireLink() {
+		private boolean enquireLink(Session session) {
 			try {
 				EnquireLink request = new EnquireLink();
-				connection.sendRequest(request);
+				session.connection.sendRequest(request);
 
 				log.trace(getLogHead() + "Enquire Link: " + request.toString());
 
@@ -664,7 +877,7 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 		public void run() {
 			while (started) {
 				try {
-					if (bound) {
+					if (isBound()) {
 						process();
 
 						synchronized (submitSmResponses) {
@@ -682,6 +895,10 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 		 * the lastProcessTime is null or it hasn't been checked in the last 500 ms.
 		 */
 		private void process() {
+			for (Session session : sessions) {
+				session.expireWindow();
+			}
+
 			List<SubmitSmResp> submitSmResponseCopy = new ArrayList<SubmitSmResp>(submitSmResponses);
 
 			if (submitSmResponseCopy.size() > 10) {
@@ -697,7 +914,8 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 
 		/**
 		 * Helper method that will process a submit_sm response. It will try to find the message that originated the
-		 * response and update the messageId and the commandStatus
+		 * response and update the messageId and the commandStatus, or mark it as unacknowledged if the response
+		 * is not going to arrive.
 		 *
 		 * @param response the submit_sm response to be processed
 		 */
@@ -716,27 +934,25 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 				return;
 			}
 
-			// try to find a message that matches the criteria
-			MessageCriteria criteria = new MessageCriteria()
-				.direction(context.getDirection())
-				.addProperty("destination", context.getId())
-				.addProperty("smsc_sequencenumber", response.submitSMResp.getSequenceNum());
-
-			long startTime = new Date().getTime();
-			Collection<Message> messages = messageStore.list(criteria);
-			long endTime = new Date().getTime();
-			log.trace(getLogHead() + "retrieve message with smsc_sequencenumber " + response.submitSMResp.getSequenceNum()
-					+ " took " + (endTime - startTime) + " milis");
-
-			Message message = null;
-			if (!messages.isEmpty()) {
-				message = messages.iterator().next();
-			}
+			Message message = findMessage(response);
 
 			// if the message is found, update it, otherwise, try later
-			if (message != null) {
+			if (message != null && response.unacknowledged) {
 				submitSmResponses.remove(response);
 
+				// keep the message in the cache, the response could still arrive
+				message.setProperty("unacknowledged", true);
+				messageStore.saveOrUpdate(message);
+			} else if (message != null) {
+				submitSmResponses.remove(response);
+
+				// the sequence number is not needed anymore, the delivery receipts are matched by message id
+				correlationCache.removeBySequenceNumber(sequenceNumber);
+				if (messageId != null) {
+					correlationCache.putByMessageId(messageId, message);
+				}
+
+				message.removeProperty("unacknowledged");
 				message.setProperty("messageId", messageId);
 				message.setProperty("commandStatus", commandStatus);
 				message.setProperty("reponseTime", new Date());
@@ -745,9 +961,9 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 					message.setStatus(Message.STATUS_FAILED);
 				}
 
-				startTime = new Date().getTime();
+				long startTime = new Date().getTime();
 				messageStore.saveOrUpdate(message);
-				endTime = new Date().getTime();
+				long endTime = new Date().getTime();
 				log.trace(getLogHead() + "update message with id " + message.getId() + " took " + (endTime - startTime)
 						+ " milis");
 			} else {
@@ -764,6 +980,61 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 			}
 		}
 
+		/**
+		 * Helper method that will try to find the message that originated a submit_sm response. It first checks the
+		 * {@link CorrelationCache}: if the message has already been saved, it is updated directly; if it hasn't
+		 * been saved yet (e.g. the response arrived before the message was persisted), the response is retried
+		 * later without querying the message store until the message is saved. The message store is queried only
+		 * if the message is not in the cache or if it is not saved after {@link SmppConnector#MAX_UNSAVED_RETRIES} retries.
+		 *
+		 * @param response the submit_sm response.
+		 * @return the Message that originated the submit_sm response or null if not found (or not saved yet).
+		 */
+		private Message findMessage(SubmitSmResp response) {
+			int sequenceNumber = response.submitSMResp.getSequenceNum();
+
+			CorrelationCache.Entry entry = correlationCache.getBySequenceNumber(sequenceNumber);
+			if (entry != null && entry.isPersisted()) {
+				log.trace(getLogHead() + "message with smsc_sequencenumber " + sequenceNumber + " found in cache");
+				return entry.getMessage();
+			}
+
+			// the message is the one that will be saved, wait for it instead of querying the store
+			if (entry != null && response.retries < MAX_UNSAVED_RETRIES) {
+				log.trace(getLogHead() + "message with smsc_sequencenumber " + sequenceNumber + " not saved yet");
+				return null;
+			}
+
+			// try to find a message that matches the criteria
+			MessageCriteria criteria = new MessageCriteria()
+				.direction(context.getDirection())
+				.addProperty("destination", context.getId())
+				.addProperty("smsc_sequencenumber", sequenceNumber);
+			addLookupPeriod(criteria);
+
+			long startTime = new Date().getTime();
+			Collection<Message> messages = messageStore.list(criteria);
+			long endTime = new Date().getTime();
+			log.trace(getLogHead() + "retrieve message with smsc_sequencenumber " + sequenceNumber
+					+ " took " + (endTime - startTime) + " milis");
+
+			if (messages.isEmpty()) {
+				return null;
+			}
+
+			// if the sequence number has been reused, prefer the message we sent
+			if (entry != null && messages.size() > 1) {
+				String reference = entry.getMessage().getReference();
+				for (Message message : messages) {
+					if (reference != null && reference.equals(message.getReference())) {
+						return message;
+					}
+				}
+			}
+
+			return messages.iterator().next();
+		}
+
 	}
 
 	/**
@@ -776,7 +1047,7 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 		public void run() {
 			while (started) {
 				try {
-					if (bound) {
+					if (isBound()) {
 						process();
 
 						synchronized (deliveryReceipts) {
@@ -873,10 +1144,18 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 			String to = drMessage.getProperty("to", String.class);
 			String from = drMessage.getProperty("from", String.class);
 
+			// check the cache first, the message is added when the submit_sm response is processed
+			CorrelationCache.Entry entry = correlationCache.getByMessageId(messageId);
+			if (entry != null) {
+				log.trace(getLogHead() + "message with smsc_messageid " + messageId + " found in cache");
+				return entry.getMessage();
+			}
+
 			MessageCriteria criteria = new MessageCriteria()
 				.direction(context.getDirection())
 				.addProperty("destination", context.getId())
 				.addProperty("smsc_messageid", messageId);
+			addLookupPeriod(criteria);
 
 			long startTime = new Date().getTime();
 			Collection<Message> messages = messageStore.list(criteria);
@@ -931,8 +1210,17 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 
 	private class MessageListener implements ConnectionObserver {
 
+		/**
+		 * The session of the connection that is being observed.
+		 */
+		private Session session;
+
 		private BindResp bindResponse;
 
+		public MessageListener(Session session) {
+			this.session = session;
+		}
+
 		@Override
 		public void packetReceived(Connection source, SMPPPacket packet) {
 			if (packet.isRequest()) {
@@ -976,15 +1264,16 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 
 				// restart the connection if there was an exception
 				if (exitEvent.getReason() == ReceiverExitEvent.EXCEPTION) {
-					bound = false;
-					status = MonitorStatusBuilder.failed("received an exit event");
+					session.bound = false;
+					session.status = MonitorStatusBuilder.failed("received an exit event");
 
-					try { connection.closeLink(); } catch (Exception e) {}
+					try { session.connection.closeLink(); } catch (Exception e) {}
+					session.clearWindow();
 
-					log.info(getLogHead() + "creating new ConnectionThread after a ReceiverExitEvent");
-					if (!connecting) {
+					log.info(getLogHead() + "creating new ConnectionThread for " + session + " after a ReceiverExitEvent");
+					if (!session.connecting) {
 						new Thread(
-							new ConnectionThread(Integer.MAX_VALUE, configuration.getInitialReconnectDelay())
+							new ConnectionThread(session, Integer.MAX_VALUE, configuration.getInitialReconnectDelay())
 						).start();
 					}
 				}
@@ -1015,6 +1304,11 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 		private void handleSubmitSmResponse(SubmitSMResp response) {
 			log.debug(getLogHead() + "received submit_sm response with sequence '" + response.getSequenceNum() + "' and status " + response.getCommandStatus());
 
+			// release the slot of the window
+			if (session.window != null) {
+				session.window.acknowledge(response.getSequenceNum());
+			}
+
 			SubmitSmResp submitSmResponse = new SubmitSmResp();
 			submitSmResponse.submitSMResp = response;
 
@@ -1171,9 +1465,96 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 
 	}
 
+	/**
+	 * Holds the state of a bind to the SMSC. A connector opens {@link SmppConfiguration#getNumBinds()} sessions
+	 * that share the sequence numbers, the {@link CorrelationCache} and the queues of submit responses and
+	 * delivery receipts, so it doesn't matter which bind receives a response or delivery receipt.
+	 *
+	 * @author German Escobar
+	 */
+	private class Session {
+
+		private final int number;
+
+		/**
+		 * The smppapi Connection used to connect to the SMSC.
+		 */
+		private volatile Connection connection;
+
+		/**
+		 * Tells if the session is bound.
+		 */
+		private volatile boolean bound;
+
+		private volatile boolean connecting;
+
+		/**
+		 * The status of the session.
+		 */
+		private volatile Status status = MonitorStatusBuilder.unknown();
+
+		/**
+		 * Limits the number of submit_sm requests waiting for a response. It is null if the window size is 0.
+		 */
+		private final SubmitWindow window;
+
+		/**
+		 * The number of messages that are being sent through this session.
+		 */
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		public Session(int number) {
+			this.number = number;
+
+			if (configuration.getWindowSize() > 0) {
+				window = new SubmitWindow(configuration.getWindowSize());
+			} else {
+				window = null;
+			}
+		}
+
+		/**
+		 * @return the number of requests waiting for a response if the window is enabled, otherwise the number of
+		 * messages that are being sent.
+		 */
+		private int getOutstanding() {
+			if (window != null) {
+				return window.getOutstanding();
+			}
+
+			return inFlight.get();
+		}
+
+		/**
+		 * Releases the messages that are waiting for a response in the {@link SubmitWindow} and marks them as
+		 * unacknowledged. It is called when the connection is lost or the connector is stopped.
+		 */
+		private void clearWindow() {
+			if (window != null) {
+				markUnacknowledged(window.clear());
+			}
+		}
+
+		/**
+		 * Releases the messages that haven't been acknowledged after the window timeout and marks them as
+		 * unacknowledged.
+		 */
+		private void expireWindow() {
+			if (window != null) {
+				markUnacknowledged(window.expire(configuration.getWindowTimeout()));
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "bind #" + number;
+		}
+
+	}
+
 	/**
 	 * Helper class that wraps the submit_sm response with the last time it was tried to be processed and number
-	 * of retries.
+	 * of retries. If unacknowledged is true, the response didn't arrive and only its sequence number is set.
 	 *
 	 * @author German Escobar
 	 */
@@ -1181,6 +1562,7 @@ public class SmppConnector implements Processor, Serviceable, Monitorable,
 		public SubmitSMResp submitSMResp;
 		public Date lastProcessedTime;
 		public int retries = 0;
+		public boolean unacknowledged = false;
 	}
 
 	/**
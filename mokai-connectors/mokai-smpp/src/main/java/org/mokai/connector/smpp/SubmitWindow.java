@@ -0,0 +1,245 @@
+package org.mokai.connector.smpp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Limits the number of submit_sm requests that are waiting for a response from the SMSC (the SMPP window). The
+ * slots of a message are acquired before its first segment is sent and each one is released when a submit_sm
+ * response arrives, so up to <code>size</code> segments can be in flight on a bind at the same time.</p>
+ *
+ * <p>The thread that sends a message doesn't wait for the responses, it only waits for free slots. The segments of
+ * a message are sent with the same sequence number and are tracked by a {@link PendingSubmit} until all of them
+ * are acknowledged. Messages that are not acknowledged in time are removed with {@link #expire(long)}, releasing
+ * their slots.</p>
+ *
+ * @author German Escobar
+ */
+public class SubmitWindow {
+
+	private final int size;
+
+	private final Semaphore slots;
+
+	private final ConcurrentMap<Integer,PendingSubmit> pending = new ConcurrentHashMap<Integer,PendingSubmit>();
+
+	/**
+	 * Constructor. Creates a window with the specified number of slots.
+	 *
+	 * @param size the maximum number of segments that can be waiting for a response.
+	 */
+	public SubmitWindow(int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("size must be greater than 0");
+		}
+
+		this.size = size;
+		this.slots = new Semaphore(size, true);
+	}
+
+	/**
+	 * Starts tracking a message that is going to be sent.
+	 *
+	 * @param sequenceNumber the sequence number of the segments of the message.
+	 * @param segments the number of segments of the message.
+	 * @return a {@link PendingSubmit} used to acquire the slots of the segments.
+	 */
+	public PendingSubmit open(int sequenceNumber, int segments) {
+		PendingSubmit pendingSubmit = new PendingSubmit(sequenceNumber, segments);
+
+		PendingSubmit previous = pending.put(sequenceNumber, pendingSubmit);
+		if (previous != null) {
+			// the sequence number was reused before the previous message was acknowledged
+			cancel(previous);
+		}
+
+		return pendingSubmit;
+	}
+
+	/**
+	 * Acknowledges a segment, releasing its slot.
+	 *
+	 * @param sequenceNumber the sequence number of the submit_sm response.
+	 * @return true if a segment was waiting for the response, false otherwise.
+	 */
+	public boolean acknowledge(int sequenceNumber) {
+		PendingSubmit pendingSubmit = pending.get(sequenceNumber);
+		if (pendingSubmit == null) {
+			return false;
+		}
+
+		return pendingSubmit.acknowledge();
+	}
+
+	/**
+	 * Stops tracking a message, releasing the slots of the segments that haven't been acknowledged.
+	 *
+	 * @param pendingSubmit the message to stop tracking.
+	 */
+	public void cancel(PendingSubmit pendingSubmit) {
+		pendingSubmit.close();
+	}
+
+	/**
+	 * Stops tracking the messages that were sent more than <code>timeout</code> milliseconds ago and haven't been
+	 * acknowledged, releasing their slots.
+	 *
+	 * @param timeout the maximum time in milliseconds to wait for the responses of a message.
+	 * @return the messages that expired, an empty list if none.
+	 */
+	public List<PendingSubmit> expire(long timeout) {
+		long limit = System.currentTimeMillis() - timeout;
+
+		List<PendingSubmit> expired = new ArrayList<PendingSubmit>();
+		for (PendingSubmit pendingSubmit : pending.values()) {
+			if (pendingSubmit.isSentBefore(limit) && pendingSubmit.close()) {
+				expired.add(pendingSubmit);
+			}
+		}
+
+		return expired;
+	}
+
+	/**
+	 * Stops tracking all the messages, e.g. when the connection is lost.
+	 *
+	 * @return the messages that were sent and are not going to be acknowledged.
+	 */
+	public List<PendingSubmit> clear() {
+		List<PendingSubmit> cleared = new ArrayList<PendingSubmit>();
+		for (PendingSubmit pendingSubmit : new ArrayList<PendingSubmit>(pending.values())) {
+			if (pendingSubmit.close() && pendingSubmit.isSent()) {
+				cleared.add(pendingSubmit);
+			}
+		}
+
+		return cleared;
+	}
+
+	/**
+	 * @return the number of segments that are waiting for a response.
+	 */
+	public int getOutstanding() {
+		return size - slots.availablePermits();
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Tracks the slots and the acknowledged segments of a message.
+	 *
+	 * @author German Escobar
+	 */
+	public class PendingSubmit {
+
+		private final int sequenceNumber;
+
+		private final int segments;
+
+		/**
+		 * The number of slots held by the message. It is less than the number of segments only if the message has
+		 * more segments than the window.
+		 */
+		private int held;
+
+		private int acknowledged;
+
+		/**
+		 * The time in which the slots were acquired, 0 if they haven't been acquired.
+		 */
+		private long sentTime;
+
+		private boolean closed;
+
+		private PendingSubmit(int sequenceNumber, int segments) {
+			this.sequenceNumber = sequenceNumber;
+			this.segments = segments;
+		}
+
+		/**
+		 * Acquires the slots of all the segments of the message, waiting if the window is full. Must be called
+		 * before the first segment is sent, so the message can be rejected without sending anything. A message with
+		 * more segments than the window takes the whole window.
+		 *
+		 * @param timeout the maximum time in milliseconds to wait for the slots.
+		 * @return true if the slots were acquired, false if the timeout elapsed or the message was cancelled.
+		 * @throws InterruptedException if the thread is interrupted while waiting.
+		 */
+		public boolean acquire(long timeout) throws InterruptedException {
+			int permits = Math.min(segments, size);
+			if (!slots.tryAcquire(permits, timeout, TimeUnit.MILLISECONDS)) {
+				return false;
+			}
+
+			synchronized (this) {
+				if (closed) {
+					slots.release(permits);
+					return false;
+				}
+
+				held = permits;
+				sentTime = System.currentTimeMillis();
+			}
+
+			return true;
+		}
+
+		private synchronized boolean acknowledge() {
+			if (closed || !isSent()) {
+				return false;
+			}
+
+			acknowledged++;
+			if (acknowledged <= held) {
+				slots.release();
+			}
+
+			if (acknowledged == segments) {
+				closed = true;
+				pending.remove(sequenceNumber, this);
+			}
+
+			return true;
+		}
+
+		/**
+		 * Releases the slots that haven't been released.
+		 *
+		 * @return true if the message was closed by this call, false if it was already closed.
+		 */
+		private boolean close() {
+			synchronized (this) {
+				if (closed) {
+					return false;
+				}
+
+				closed = true;
+				slots.release(Math.max(held - acknowledged, 0));
+			}
+
+			pending.remove(sequenceNumber, this);
+
+			return true;
+		}
+
+		private synchronized boolean isSent() {
+			return sentTime > 0;
+		}
+
+		private synchronized boolean isSentBefore(long time) {
+			return sentTime > 0 && sentTime < time;
+		}
+
+		public int getSequenceNumber() {
+			return sequenceNumber;
+		}
+
+	}
+
+}
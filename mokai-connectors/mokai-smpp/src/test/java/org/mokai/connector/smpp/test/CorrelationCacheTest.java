@@ -0,0 +1,77 @@
+package org.mokai.connector.smpp.test;
+
+import org.mokai.Message;
+import org.mokai.connector.smpp.CorrelationCache;
+import org.mokai.connector.smpp.CorrelationCache.Entry;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CorrelationCacheTest {
+
+	@Test
+	public void shouldFindMessageBySequenceNumber() throws Exception {
+		CorrelationCache cache = new CorrelationCache(10, 60000);
+
+		Message message = new Message();
+		cache.putBySequenceNumber(1, message, false);
+
+		Entry entry = cache.getBySequenceNumber(1);
+		Assert.assertNotNull(entry);
+		Assert.assertTrue(entry.getMessage() == message);
+		Assert.assertFalse(entry.isPersisted());
+
+		Assert.assertNull(cache.getBySequenceNumber(2));
+
+		cache.removeBySequenceNumber(1);
+		Assert.assertNull(cache.getBySequenceNumber(1));
+	}
+
+	@Test
+	public void shouldFindMessageByMessageId() throws Exception {
+		CorrelationCache cache = new CorrelationCache(10, 60000);
+
+		Message message = new Message();
+		cache.putByMessageId("12000", message);
+
+		Entry entry = cache.getByMessageId("12000");
+		Assert.assertNotNull(entry);
+		Assert.assertTrue(entry.getMessage() == message);
+		Assert.assertTrue(entry.isPersisted());
+
+		// sequence numbers and message ids don't collide
+		Assert.assertNull(cache.getBySequenceNumber(12000));
+	}
+
+	@Test
+	public void shouldExpireEntries() throws Exception {
+		CorrelationCache cache = new CorrelationCache(10, 50);
+
+		cache.putBySequenceNumber(1, new Message(), false);
+		Assert.assertNotNull(cache.getBySequenceNumber(1));
+
+		Thread.sleep(100);
+
+		Assert.assertNull(cache.getBySequenceNumber(1));
+		Assert.assertEquals(cache.size(), 0);
+	}
+
+	@Test
+	public void shouldEvictOldestEntries() throws Exception {
+		CorrelationCache cache = new CorrelationCache(2, 60000);
+
+		cache.putBySequenceNumber(1, new Message(), false);
+		cache.putBySequenceNumber(2, new Message(), false);
+		cache.putBySequenceNumber(3, new Message(), false);
+
+		Assert.assertEquals(cache.size(), 2);
+		Assert.assertNull(cache.getBySequenceNumber(1));
+		Assert.assertNotNull(cache.getBySequenceNumber(2));
+		Assert.assertNotNull(cache.getBySequenceNumber(3));
+	}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void shouldFailWithInvalidSize() throws Exception {
+		new CorrelationCache(0, 60000);
+	}
+
+}
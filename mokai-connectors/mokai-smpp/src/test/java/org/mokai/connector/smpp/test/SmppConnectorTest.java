@@ -1,5 +1,11 @@
 package org.mokai.connector.smpp.test;
 
+import ie.omk.smpp.Connection;
+import ie.omk.smpp.message.SMPPRequest;
+import ie.omk.smpp.message.SMPPResponse;
+import ie.omk.smpp.message.SubmitSM;
+
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -8,6 +14,7 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.gescobar.smppserver.PacketProcessor;
 import net.gescobar.smppserver.Response;
@@ -227,6 +234,9 @@ private Logger log = LoggerFactory.getLogger(SmppConnectorTest.class);
 
 			connector.process(message);
 
+			// the message is saved after it is processed
+			message.setId(1L);
+
 			Assert.assertNotNull(message.getReference());
 
 			Mockito.verify(messageStore, Mockito.timeout(1000)).saveOrUpdate(Mockito.any(Message.class));
@@ -335,6 +345,185 @@ private Logger log = LoggerFactory.getLogger(SmppConnectorTest.class);
 		}
 	}
 
+	@Test
+	public void shouldSendSegmentsWithoutWaitingForResponses() throws Exception {
+		log.info("starting shouldSendSegmentsWithoutWaitingForResponses ... ");
+
+		// hold the submit_sm responses until the message is processed
+		final List<ResponseSender> responseSenders = Collections.synchronizedList(new ArrayList<ResponseSender>());
+		MockPacketProcessor pp = new MockPacketProcessor(new PacketProcessor() {
+
+			@Override
+			public void processPacket(SmppRequest packet, ResponseSender responseSender) {
+				if (packet.getCommandId() == SmppPacket.SUBMIT_SM) {
+					responseSenders.add(responseSender);
+					return;
+				}
+
+				responseSender.send( Response.OK );
+			}
+
+		});
+		server.setPacketProcessor(pp);
+
+		SmppConfiguration configuration = new SmppConfiguration();
+		configuration.setHost("localhost");
+		configuration.setPort(SERVER_PORT);
+		configuration.setSystemId("test");
+		configuration.setPassword("test");
+		configuration.setWindowSize(10);
+		configuration.setWindowTimeout(5000);
+
+		MockMessageStore messageStore = new MockMessageStore();
+		SmppConnector connector = createAndStartSmppConnector(configuration, messageStore, null);
+
+		try {
+			Message message = new Message();
+			message.setProperty("to", "3002175604");
+			message.setProperty("from", "3542");
+			message.setProperty("text", "This is a long message to test how the smpp is working with long message splitting them by the 160 character and sending two messages. Finish the first message This is the second message.");
+
+			// returns once both segments are sent, without waiting for the responses
+			long startTime = System.currentTimeMillis();
+			sendMessage(connector, messageStore, message);
+			Assert.assertTrue(System.currentTimeMillis() - startTime < configuration.getWindowTimeout());
+
+			List<SmppPacket> packets = pp.getPackets(2, DEFAULT_TIMEOUT);
+			Assert.assertEquals(packets.size(), 2);
+
+			long timeout = System.currentTimeMillis() + DEFAULT_TIMEOUT;
+			while (responseSenders.size() < 2 && System.currentTimeMillis() < timeout) {
+				Thread.sleep(100);
+			}
+			Assert.assertEquals(responseSenders.size(), 2);
+			Assert.assertNull(message.getProperty("messageId"));
+
+			// the responses arrive after the message was processed
+			for (ResponseSender responseSender : responseSenders) {
+				responseSender.send( Response.OK.withMessageId("12000") );
+			}
+
+			timeout = System.currentTimeMillis() + DEFAULT_TIMEOUT;
+			while (message.getProperty("messageId") == null && System.currentTimeMillis() < timeout) {
+				Thread.sleep(100);
+			}
+
+			Assert.assertEquals(message.getProperty("messageId"), "12000");
+			Assert.assertNull(message.getProperty("unacknowledged"));
+		} finally {
+			connector.doStop();
+		}
+	}
+
+	@Test
+	public void shouldMarkMessageUnacknowledgedIfLaterSegmentFailsWithoutWindow() throws Exception {
+		log.info("starting shouldMarkMessageUnacknowledgedIfLaterSegmentFailsWithoutWindow ... ");
+
+		server.setPacketProcessor(new PacketProcessor() {
+
+			@Override
+			public void processPacket(SmppRequest packet, ResponseSender responseSender) {
+				// never respond the submit_sm, the message is only updated because of the failed segment
+				if (packet.getCommandId() != SmppPacket.SUBMIT_SM) {
+					responseSender.send( Response.OK );
+				}
+			}
+
+		});
+
+		// the window is disabled by default
+		SmppConfiguration configuration = new SmppConfiguration();
+		configuration.setHost("localhost");
+		configuration.setPort(SERVER_PORT);
+		configuration.setSystemId("test");
+		configuration.setPassword("test");
+
+		MockMessageStore messageStore = new MockMessageStore();
+		SmppConnector connector = createAndStartSmppConnector(configuration, messageStore, null);
+
+		// fail the second segment
+		Connection connection = getConnection(connector);
+		setConnection(connector, new FailingConnection(connection, 2));
+
+		try {
+			Message message = new Message();
+			message.setProperty("to", "3002175604");
+			message.setProperty("from", "3542");
+			message.setProperty("text", "This is a long message to test how the smpp is working with long message splitting them by the 160 character and sending two messages. Finish the first message This is the second message.");
+
+			// the first segment was already sent, so the exception is not thrown
+			sendMessage(connector, messageStore, message);
+
+			long timeout = System.currentTimeMillis() + DEFAULT_TIMEOUT;
+			while (message.getProperty("unacknowledged") == null && System.currentTimeMillis() < timeout) {
+				Thread.sleep(100);
+			}
+
+			Assert.assertEquals(message.getProperty("unacknowledged"), Boolean.TRUE);
+			Assert.assertTrue(message.getStatus() != Message.STATUS_FAILED);
+		} finally {
+			setConnection(connector, connection);
+			connector.doStop();
+		}
+	}
+
+	@Test
+	public void shouldMarkMessageUnacknowledgedIfNoResponse() throws Exception {
+		log.info("starting shouldMarkMessageUnacknowledgedIfNoResponse ... ");
+
+		server.setPacketProcessor(new PacketProcessor() {
+
+			@Override
+			public void processPacket(SmppRequest packet, ResponseSender responseSender) {
+				// never respond the submit_sm
+				if (packet.getCommandId() != SmppPacket.SUBMIT_SM) {
+					responseSender.send( Response.OK );
+				}
+			}
+
+		});
+
+		SmppConfiguration configuration = new SmppConfiguration();
+		configuration.setHost("localhost");
+		configuration.setPort(SERVER_PORT);
+		configuration.setSystemId("test");
+		configuration.setPassword("test");
+		configuration.setWindowSize(1);
+		configuration.setWindowTimeout(1000);
+
+		MockMessageStore messageStore = new MockMessageStore();
+		SmppConnector connector = createAndStartSmppConnector(configuration, messageStore, null);
+
+		try {
+			Message message = new Message();
+			message.setProperty("to", "3002175604");
+			message.setProperty("from", "3542");
+			message.setProperty("text", "This is the test");
+
+			// the message is sent although the response doesn't arrive
+			sendMessage(connector, messageStore, message);
+			Assert.assertNull(message.getProperty("unacknowledged"));
+
+			// the slot is released after the window timeout and the message is not failed
+			long timeout = System.currentTimeMillis() + DEFAULT_TIMEOUT;
+			while (message.getProperty("unacknowledged") == null && System.currentTimeMillis() < timeout) {
+				Thread.sleep(100);
+			}
+
+			Assert.assertEquals(message.getProperty("unacknowledged"), Boolean.TRUE);
+			Assert.assertTrue(message.getStatus() != Message.STATUS_FAILED);
+
+			// the window is free again
+			Message other = new Message();
+			other.setProperty("to", "3002175604");
+			other.setProperty("from", "3542");
+			other.setProperty("text", "This is another test");
+			connector.process(other);
+		} finally {
+			connector.doStop();
+		}
+	}
+
 	@Test
 	public void testReceiveMessage() throws Exception {
 		log.info("starting testReceiveMessage ... ");
@@ -544,6 +733,44 @@ private Logger log = LoggerFactory.getLogger(SmppConnectorTest.class);
 		}
 	}
 
+	@Test
+	public void shouldUpdateMessageWhenItIsSaved() throws Exception {
+		server.setPacketProcessor(new CustomPacketProcessor("12000"));
+
+		SmppConfiguration configuration = new SmppConfiguration();
+		configuration.setHost("localhost");
+		configuration.setPort(SERVER_PORT);
+		configuration.setSystemId("test");
+		configuration.setPassword("test");
+
+		MockMessageStore messageStore = new MockMessageStore();
+		SmppConnector connector = createAndStartSmppConnector(configuration, messageStore, null);
+
+		try {
+			Message message = new Message();
+			message.setProperty("to", "3542");
+			message.setProperty("from", "3002175604");
+			message.setProperty("text", "This is the test");
+			connector.process(message);
+
+			// the response waits until the message is saved
+			Thread.sleep(1000);
+			Assert.assertNull(message.getProperty("messageId"));
+			Assert.assertTrue(messageStore.messages.isEmpty());
+
+			messageStore.saveOrUpdate(message);
+
+			long timeout = System.currentTimeMillis() + DEFAULT_TIMEOUT;
+			while (message.getProperty("messageId") == null && System.currentTimeMillis() < timeout) {
+				Thread.sleep(100);
+			}
+			Assert.assertEquals(message.getProperty("messageId"), "12000");
+			Assert.assertEquals(messageStore.messages.size(), 1);
+		} finally {
+			connector.doStop();
+		}
+	}
+
 	@Test
 	public void testFailedCommandStatuses() throws Exception {
 		server.setPacketProcessor(new PacketProcessor() {
@@ -775,6 +1002,30 @@ private Logger log = LoggerFactory.getLogger(SmppConnectorTest.class);
 		return received;
 	}
 
+	private Connection getConnection(SmppConnector connector) throws Exception {
+		Object session = getSession(connector);
+
+		Field field = session.getClass().getDeclaredField("connection");
+		field.setAccessible(true);
+
+		return (Connection) field.get(session);
+	}
+
+	private void setConnection(SmppConnector connector, Connection connection) throws Exception {
+		Object session = getSession(connector);
+
+		Field field = session.getClass().getDeclaredField("connection");
+		field.setAccessible(true);
+		field.set(session, connection);
+	}
+
+	private Object getSession(SmppConnector connector) throws Exception {
+		Field field = SmppConnector.class.getDeclaredField("sessions");
+		field.setAccessible(true);
+
+		return ((Object[]) field.get(connector))[0];
+	}
+
 	private void injectResource(Object resource, Object connector) throws Exception {
 		Field[] fields = connector.getClass().getDeclaredFields();
 		for (Field field : fields) {
@@ -791,7 +1042,7 @@ private Logger log = LoggerFactory.getLogger(SmppConnectorTest.class);
 
 		private Bind bindPacket;
 
-		private List<SmppPacket> packets = new ArrayList<SmppPacket>();
+		private List<SmppPacket> packets = Collections.synchronizedList(new ArrayList<SmppPacket>());
 
 		private SmppRequest unbindPacket;
 
@@ -859,6 +1110,35 @@ private Logger log = LoggerFactory.getLogger(SmppConnectorTest.class);
 
 	}
 
+	/**
+	 * A Connection that sends the requests through another Connection but fails a submit_sm.
+	 */
+	private class FailingConnection extends Connection {
+
+		private Connection connection;
+
+		private int failedSubmit;
+
+		private int submits;
+
+		public FailingConnection(Connection connection, int failedSubmit) {
+			super(null, true);
+
+			this.connection = connection;
+			this.failedSubmit = failedSubmit;
+		}
+
+		@Override
+		public SMPPResponse sendRequest(SMPPRequest request) throws IOException {
+			if (request instanceof SubmitSM && ++submits == failedSubmit) {
+				throw new IOException("submit_sm " + submits + " failed");
+			}
+
+			return connection.sendRequest(request);
+		}
+
+	}
+
 	private class MockMessageProducer implements MessageProducer {
 
 		private List<Message> messages = new ArrayList<Message>();
@@ -896,8 +1176,13 @@ private Logger log = LoggerFactory.getLogger(SmppConnectorTest.class);
 
 		private Collection<Message> messages = new HashSet<Message>();
 
+		private AtomicLong ids = new AtomicLong();
+
 		@Override
 		public void saveOrUpdate(Message message) throws StoreException, RejectedException {
+			if (message.getId() == null) {
+				message.setId(ids.incrementAndGet());
+			}
 			messages.add(message);
 		}
 
@@ -0,0 +1,128 @@
+package org.mokai.connector.smpp.test;
+
+import java.util.List;
+
+import org.mokai.connector.smpp.SubmitWindow;
+import org.mokai.connector.smpp.SubmitWindow.PendingSubmit;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class SubmitWindowTest {
+
+	@Test
+	public void shouldReleaseSlotsWhenSegmentsAreAcknowledged() throws Exception {
+		SubmitWindow window = new SubmitWindow(5);
+
+		PendingSubmit pendingSubmit = window.open(1, 2);
+		Assert.assertTrue(pendingSubmit.acquire(100));
+		Assert.assertEquals(window.getOutstanding(), 2);
+
+		Assert.assertTrue(window.acknowledge(1));
+		Assert.assertEquals(window.getOutstanding(), 1);
+
+		Assert.assertTrue(window.acknowledge(1));
+		Assert.assertEquals(window.getOutstanding(), 0);
+
+		// no more segments are waiting for a response
+		Assert.assertFalse(window.acknowledge(1));
+		Assert.assertTrue(window.expire(0).isEmpty());
+	}
+
+	@Test
+	public void shouldWaitForSlotWhenWindowIsFull() throws Exception {
+		final SubmitWindow window = new SubmitWindow(1);
+
+		PendingSubmit first = window.open(1, 1);
+		Assert.assertTrue(first.acquire(100));
+
+		PendingSubmit second = window.open(2, 1);
+		Assert.assertFalse(second.acquire(50));
+
+		// acknowledge the first message in another thread
+		new Thread() {
+			@Override
+			public void run() {
+				try { Thread.sleep(100); } catch (InterruptedException e) {}
+				window.acknowledge(1);
+			}
+		}.start();
+
+		Assert.assertTrue(second.acquire(5000));
+		Assert.assertEquals(window.getOutstanding(), 1);
+	}
+
+	@Test
+	public void shouldTakeWholeWindowIfMoreSegmentsThanSlots() throws Exception {
+		SubmitWindow window = new SubmitWindow(2);
+
+		PendingSubmit pendingSubmit = window.open(1, 3);
+		Assert.assertTrue(pendingSubmit.acquire(100));
+		Assert.assertEquals(window.getOutstanding(), 2);
+
+		Assert.assertTrue(window.acknowledge(1));
+		Assert.assertTrue(window.acknowledge(1));
+		Assert.assertTrue(window.acknowledge(1));
+		Assert.assertEquals(window.getOutstanding(), 0);
+	}
+
+	@Test
+	public void shouldReleaseSlotsWhenCancelled() throws Exception {
+		SubmitWindow window = new SubmitWindow(3);
+
+		PendingSubmit pendingSubmit = window.open(1, 2);
+		Assert.assertTrue(pendingSubmit.acquire(100));
+		Assert.assertEquals(window.getOutstanding(), 2);
+
+		window.cancel(pendingSubmit);
+		Assert.assertEquals(window.getOutstanding(), 0);
+
+		// a late response doesn't release the slots again
+		Assert.assertFalse(window.acknowledge(1));
+		Assert.assertEquals(window.getOutstanding(), 0);
+
+		// a cancelled message can't acquire more slots
+		Assert.assertFalse(pendingSubmit.acquire(100));
+		Assert.assertEquals(window.getOutstanding(), 0);
+	}
+
+	@Test
+	public void shouldExpireMessagesNotAcknowledged() throws Exception {
+		SubmitWindow window = new SubmitWindow(5);
+
+		PendingSubmit pendingSubmit = window.open(1, 2);
+		Assert.assertTrue(pendingSubmit.acquire(100));
+		Assert.assertTrue(window.acknowledge(1));
+
+		// not expired yet
+		Assert.assertTrue(window.expire(10000).isEmpty());
+		Assert.assertEquals(window.getOutstanding(), 1);
+
+		Thread.sleep(20);
+
+		List<PendingSubmit> expired = window.expire(10);
+		Assert.assertEquals(expired.size(), 1);
+		Assert.assertEquals(expired.get(0).getSequenceNumber(), 1);
+		Assert.assertEquals(window.getOutstanding(), 0);
+
+		// a late response is ignored
+		Assert.assertFalse(window.acknowledge(1));
+		Assert.assertTrue(window.expire(0).isEmpty());
+	}
+
+	@Test
+	public void shouldReturnSentMessagesWhenCleared() throws Exception {
+		SubmitWindow window = new SubmitWindow(2);
+
+		PendingSubmit sent = window.open(1, 1);
+		Assert.assertTrue(sent.acquire(100));
+
+		// a message that is still waiting for slots is not returned
+		window.open(2, 1);
+
+		List<PendingSubmit> cleared = window.clear();
+		Assert.assertEquals(cleared.size(), 1);
+		Assert.assertEquals(cleared.get(0).getSequenceNumber(), 1);
+		Assert.assertEquals(window.getOutstanding(), 0);
+	}
+
+}
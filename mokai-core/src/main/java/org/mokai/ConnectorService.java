@@ -20,6 +20,45 @@ import org.mokai.Monitorable.Status;
  */
 public interface ConnectorService extends Service {
 
+	/**
+	 * How the messages are queued before they are processed by the connector.
+	 *
+	 * @author German Escobar
+	 */
+	public enum Transport {
+
+		/**
+		 * A persistent JMS queue. This is the default.
+		 */
+		JMS,
+
+		/**
+		 * A bounded in-process queue. The messages are not persisted nor serialized, so they are lost if the
+		 * gateway stops before processing them.
+		 */
+		MEMORY;
+
+	};
+
+	/**
+	 * What to do when a message is added to a full {@link Transport#MEMORY} queue.
+	 *
+	 * @author German Escobar
+	 */
+	public enum QueueFullPolicy {
+
+		/**
+		 * Wait until there is space in the queue. This is the default.
+		 */
+		BLOCK,
+
+		/**
+		 * Remove the oldest message of the queue, which is handled as a failed message.
+		 */
+		DROP_OLDEST;
+
+	};
+
 	/**
 	 * @return the assigned id.
 	 */
@@ -72,6 +111,79 @@ public interface ConnectorService extends Service {
 	 */
 	void setMaxConcurrentMsgs(int maxConcurrentMsgs);
 
+	/**
+	 * The maximum number of messages per second that can be processed by the connector. This only
+	 * applies to connectors that implement the {@link Processor} interface.
+	 * 
+	 * @return the maximum number of messages per second or 0 if there is no limit.
+	 */
+	int getMaxTps();
+
+	/**
+	 * Sets the maximum number of messages per second that can be processed by the connector. The
+	 * messages that exceed the rate wait in the queue of the connector. This only applies to connectors
+	 * that implement the {@link Processor} interface.
+	 * 
+	 * @param maxTps the maximum number of messages per second, 0 to disable the limit.
+	 */
+	void setMaxTps(int maxTps);
+
+	/**
+	 * The number of messages that can be processed at once, above the rate defined by 
+	 * {@link #getMaxTps()}, after the connector has been idle.
+	 * 
+	 * @return the maximum burst of messages.
+	 */
+	int getMaxBurst();
+
+	/**
+	 * Sets the number of messages that can be processed at once, above the rate defined by 
+	 * {@link #getMaxTps()}, after the connector has been idle.
+	 * 
+	 * @param maxBurst the maximum burst of messages, at least 1.
+	 */
+	void setMaxBurst(int maxBurst);
+
+	/**
+	 * @return the transport used to queue the messages before they are processed.
+	 */
+	Transport getTransport();
+
+	/**
+	 * Sets the transport used to queue the messages before they are processed. This only applies
+	 * to connectors that implement the {@link Processor} interface.
+	 * 
+	 * @param transport the transport, {@link Transport#JMS} by default.
+	 * @throws IllegalStateException if the queue of the connector was already created.
+	 */
+	void setTransport(Transport transport) throws IllegalStateException;
+
+	/**
+	 * @return the maximum number of messages of the {@link Transport#MEMORY} queue.
+	 */
+	int getQueueSize();
+
+	/**
+	 * Sets the maximum number of messages of the {@link Transport#MEMORY} queue.
+	 * 
+	 * @param queueSize the maximum number of messages, at least 1.
+	 * @throws IllegalStateException if the queue of the connector was already created.
+	 */
+	void setQueueSize(int queueSize) throws IllegalStateException;
+
+	/**
+	 * @return what to do when a message is added to a full {@link Transport#MEMORY} queue.
+	 */
+	QueueFullPolicy getQueueFullPolicy();
+
+	/**
+	 * Sets what to do when a message is added to a full {@link Transport#MEMORY} queue.
+	 * 
+	 * @param queueFullPolicy the policy, {@link QueueFullPolicy#BLOCK} by default.
+	 * @throws IllegalStateException if the queue of the connector was already created.
+	 */
+	void setQueueFullPolicy(QueueFullPolicy queueFullPolicy) throws IllegalStateException;
+
 	/**
 	 * The wrapped connector.
 	 * 
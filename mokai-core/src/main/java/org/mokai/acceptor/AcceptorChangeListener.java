@@ -0,0 +1,20 @@
+package org.mokai.acceptor;
+
+import org.mokai.Acceptor;
+
+/**
+ * Receives notifications when the configuration of an {@link ObservableAcceptor} changes.
+ *
+ * @author German Escobar
+ */
+public interface AcceptorChangeListener {
+
+	/**
+	 * Called after the configuration of the acceptor changed. Implementations should return quickly as this method
+	 * is called from the thread that changed the configuration.
+	 *
+	 * @param acceptor the {@link Acceptor} that changed.
+	 */
+	void acceptorChanged(Acceptor acceptor);
+
+}
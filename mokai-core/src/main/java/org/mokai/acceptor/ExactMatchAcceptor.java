@@ -1,6 +1,8 @@
 package org.mokai.acceptor;
 
-import org.mokai.Acceptor;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
 import org.mokai.ExposableConfiguration;
 import org.mokai.Message;
 import org.mokai.ui.annotation.Label;
@@ -11,7 +13,7 @@ import org.mokai.ui.annotation.List;
  *
  * @author German Escobar
  */
-public class ExactMatchAcceptor implements Acceptor, ExposableConfiguration<ExactMatchAcceptor> {
+public class ExactMatchAcceptor implements ObservableAcceptor, ExposableConfiguration<ExactMatchAcceptor> {
 
 	@Label("Field")
 	@List({"to", "from", "message"})
@@ -20,6 +22,12 @@ public class ExactMatchAcceptor implements Acceptor, ExposableConfiguration<Exac
 	@Label("Expression")
 	private String expression;
 
+	/**
+	 * Notified when the field or the expression change through the setters.
+	 */
+	private final transient Set<AcceptorChangeListener> changeListeners =
+		new CopyOnWriteArraySet<AcceptorChangeListener>();
+
 	public ExactMatchAcceptor() {
 
 	}
@@ -51,6 +59,7 @@ public class ExactMatchAcceptor implements Acceptor, ExposableConfiguration<Exac
 
 	public final void setField(String field) {
 		this.field = field;
+		notifyChangeListeners();
 	}
 
 	public final String getExpression() {
@@ -59,6 +68,23 @@ public class ExactMatchAcceptor implements Acceptor, ExposableConfiguration<Exac
 
 	public final void setExpression(String expression) {
 		this.expression = expression;
+		notifyChangeListeners();
+	}
+
+	@Override
+	public final void addChangeListener(AcceptorChangeListener listener) {
+		changeListeners.add(listener);
+	}
+
+	@Override
+	public final void removeChangeListener(AcceptorChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+
+	private void notifyChangeListeners() {
+		for (AcceptorChangeListener listener : changeListeners) {
+			listener.acceptorChanged(this);
+		}
 	}
 
 	@Override
@@ -0,0 +1,29 @@
+package org.mokai.acceptor;
+
+import org.mokai.Acceptor;
+
+/**
+ * An {@link Acceptor} whose configuration is indexed by the routers (i.e. copied when the routing table is built).
+ * It notifies its listeners when the configuration changes through its setters, so the connector services that
+ * use it can tell their routers to rebuild the routing table.
+ *
+ * @author German Escobar
+ */
+public interface ObservableAcceptor extends Acceptor {
+
+	/**
+	 * Adds a listener that is notified every time the configuration of this acceptor changes. Adding the same
+	 * listener twice has no effect.
+	 *
+	 * @param listener the {@link AcceptorChangeListener} to be added.
+	 */
+	void addChangeListener(AcceptorChangeListener listener);
+
+	/**
+	 * Removes a listener that was added with {@link #addChangeListener(AcceptorChangeListener)}.
+	 *
+	 * @param listener the {@link AcceptorChangeListener} to be removed.
+	 */
+	void removeChangeListener(AcceptorChangeListener listener);
+
+}
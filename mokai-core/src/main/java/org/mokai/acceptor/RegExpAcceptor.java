@@ -1,9 +1,10 @@
 package org.mokai.acceptor;
 
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.mokai.Acceptor;
 import org.mokai.ExposableConfiguration;
 import org.mokai.Message;
 import org.mokai.annotation.Description;
@@ -18,7 +19,7 @@ import org.mokai.ui.annotation.List;
  */
 @Name("Regular Expression Acceptor")
 @Description("Matches a field using the provided regular expression")
-public class RegExpAcceptor implements Acceptor, ExposableConfiguration<RegExpAcceptor> {
+public class RegExpAcceptor implements ObservableAcceptor, ExposableConfiguration<RegExpAcceptor> {
 
 	@Label("Field")
 	@List({"to", "from", "text"})
@@ -27,12 +28,30 @@ public class RegExpAcceptor implements Acceptor, ExposableConfiguration<RegExpAc
 	@Label("Regular Expression")
 	private String regexp;
 
+	/**
+	 * The compiled regexp. It is compiled again if the regexp changes, which can happen through the setter or
+	 * when the field is set directly while loading the configuration.
+	 */
+	private transient volatile Pattern pattern;
+
+	/**
+	 * Matchers are not thread safe so each thread reuses its own.
+	 */
+	private final transient ThreadLocal<Matcher> matchers = new ThreadLocal<Matcher>();
+
+	/**
+	 * Notified when the field or the regexp change through the setters.
+	 */
+	private final transient Set<AcceptorChangeListener> changeListeners =
+		new CopyOnWriteArraySet<AcceptorChangeListener>();
+
 	public RegExpAcceptor() {
 
 	}
 
 	public RegExpAcceptor(String regexp) {
 		this.regexp = regexp;
+		this.pattern = regexp != null ? Pattern.compile(regexp) : null;
 	}
 
 	@Override
@@ -40,8 +59,7 @@ public class RegExpAcceptor implements Acceptor, ExposableConfiguration<RegExpAc
 		String value = message.getProperty(field, String.class);
 
 		if (value != null) {
-			Pattern pattern = Pattern.compile(regexp);
-			Matcher matcher = pattern.matcher(value);
+			Matcher matcher = getMatcher(value);
 
 			if (matcher.matches()) {
 				return true;
@@ -51,6 +69,41 @@ public class RegExpAcceptor implements Acceptor, ExposableConfiguration<RegExpAc
 		return false;
 	}
 
+	/**
+	 * Helper method. Retrieves the matcher of the current thread reset with the value.
+	 *
+	 * @param value the value that is going to be matched.
+	 * @return a Matcher of the compiled regexp.
+	 */
+	private Matcher getMatcher(String value) {
+		Pattern pattern = getPattern();
+
+		Matcher matcher = matchers.get();
+		if (matcher == null || matcher.pattern() != pattern) {
+			matcher = pattern.matcher(value);
+			matchers.set(matcher);
+		} else {
+			matcher.reset(value);
+		}
+
+		return matcher;
+	}
+
+	/**
+	 * Helper method. Retrieves the compiled regexp, compiling it if it has changed.
+	 *
+	 * @return the compiled regexp.
+	 */
+	private Pattern getPattern() {
+		Pattern pattern = this.pattern;
+		if (pattern == null || !pattern.pattern().equals(regexp)) {
+			pattern = Pattern.compile(regexp);
+			this.pattern = pattern;
+		}
+
+		return pattern;
+	}
+
 	@Override
 	public final RegExpAcceptor getConfiguration() {
 		return this;
@@ -62,6 +115,7 @@ public class RegExpAcceptor implements Acceptor, ExposableConfiguration<RegExpAc
 
 	public final void setField(String field) {
 		this.field = field;
+		notifyChangeListeners();
 	}
 
 	public final String getRegexp() {
@@ -70,6 +124,24 @@ public class RegExpAcceptor implements Acceptor, ExposableConfiguration<RegExpAc
 
 	public final void setRegexp(String regexp) {
 		this.regexp = regexp;
+		this.pattern = regexp != null ? Pattern.compile(regexp) : null;
+		notifyChangeListeners();
+	}
+
+	@Override
+	public final void addChangeListener(AcceptorChangeListener listener) {
+		changeListeners.add(listener);
+	}
+
+	@Override
+	public final void removeChangeListener(AcceptorChangeListener listener) {
+		changeListeners.remove(listener);
+	}
+
+	private void notifyChangeListeners() {
+		for (AcceptorChangeListener listener : changeListeners) {
+			listener.acceptorChanged(this);
+		}
 	}
 
 	@Override
@@ -1,7 +1,9 @@
 package org.mokai.action;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.mokai.Action;
 import org.mokai.ExposableConfiguration;
@@ -10,8 +12,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * An action that replaces strings on a field. It uses the method String.replaceAll so you can use regular
- * expressions.
+ * An action that replaces strings on a field. It uses the same semantics of String.replaceAll so you can use
+ * regular expressions (which are compiled only once).
  *
  * @author German Escobar
  */
@@ -23,6 +25,12 @@ public class ReplaceAction implements Action, ExposableConfiguration<ReplaceActi
 
 	private Map<String,String> replace = new HashMap<String,String>();
 
+	/**
+	 * The compiled regular expressions of the replace map. They are compiled when the map is set and again only if
+	 * the map is modified afterwards (e.g. the XML configuration fills the map without calling the setter).
+	 */
+	private transient volatile CompiledReplace compiledReplace = new CompiledReplace(replace);
+
 	@Override
 	public void execute(Message message) throws Exception {
 		// check that field is not null
@@ -32,13 +40,20 @@ public class ReplaceAction implements Action, ExposableConfiguration<ReplaceActi
 
 		String fieldValue = message.getProperty(field, String.class);
 		if (fieldValue != null && !"".equals(fieldValue)) {
-			for (Map.Entry<String, String> entry : replace.entrySet()) {
+			CompiledReplace compiled = compiledReplace;
+			if (!compiled.isCompiledFrom(replace)) {
+				compiled = new CompiledReplace(replace);
+				compiledReplace = compiled;
+			}
+
+			int index = 0;
+			for (Map.Entry<String, String> entry : compiled.replace.entrySet()) {
 				String findString = entry.getKey();
 				String replaceString = entry.getValue();
 
 				log.trace("replacing '" + findString + "' with '" + replaceString + "' in field '" + field + "': '" + fieldValue + "'");
 
-				fieldValue = fieldValue.replaceAll(findString, replaceString);
+				fieldValue = compiled.patterns[index++].matcher(fieldValue).replaceAll(replaceString);
 			}
 
 			log.trace("new field value: " + fieldValue);
@@ -66,6 +81,32 @@ public class ReplaceAction implements Action, ExposableConfiguration<ReplaceActi
 
 	public void setReplace(Map<String, String> replace) {
 		this.replace = replace;
+		this.compiledReplace = new CompiledReplace(replace);
+	}
+
+	/**
+	 * Holds a copy of the replace map and the compiled regular expressions of its keys in the same order.
+	 */
+	private static class CompiledReplace {
+
+		private final Map<String,String> replace;
+
+		private final Pattern[] patterns;
+
+		public CompiledReplace(Map<String,String> replace) {
+			this.replace = new LinkedHashMap<String,String>(replace);
+			this.patterns = new Pattern[replace.size()];
+
+			int index = 0;
+			for (String regexp : this.replace.keySet()) {
+				patterns[index++] = Pattern.compile(regexp);
+			}
+		}
+
+		public boolean isCompiledFrom(Map<String,String> replace) {
+			return this.replace.equals(replace);
+		}
+
 	}
 
 }
@@ -18,6 +18,8 @@ import org.mokai.Acceptor;
 import org.mokai.Action;
 import org.mokai.Connector;
 import org.mokai.ConnectorService;
+import org.mokai.ConnectorService.QueueFullPolicy;
+import org.mokai.ConnectorService.Transport;
 import org.mokai.ExposableConfiguration;
 import org.mokai.Processor;
 import org.mokai.RoutingEngine;
@@ -39,6 +41,8 @@ public abstract class AbstractConfiguration implements Configuration {
 
 	private Logger log = LoggerFactory.getLogger(AbstractConfiguration.class);
 
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+
 	private String path = getDefaultPath();
 
 	protected RoutingEngine routingEngine;
@@ -123,6 +127,23 @@ public abstract class AbstractConfiguration implements Configuration {
 		int maxConcurrentMsgs = getMaxConcurrentMsgs(connectorElement);
 		processorService.setMaxConcurrentMsgs(maxConcurrentMsgs);
 
+		// set the maxTps and maxBurst of the ProcessorService
+		int maxTps = getIntAttribute(connectorElement, "maxTps", 0);
+		processorService.setMaxTps(maxTps);
+
+		int maxBurst = getIntAttribute(connectorElement, "maxBurst", 1);
+		processorService.setMaxBurst(maxBurst);
+
+		// set the queue size and queue full policy (used by the memory transport) before the transport
+		int queueSize = getIntAttribute(connectorElement, "queueSize", DEFAULT_QUEUE_SIZE);
+		processorService.setQueueSize(queueSize);
+
+		String queueFullPolicy = getStringAttribute(connectorElement, "queueFullPolicy", "block");
+		processorService.setQueueFullPolicy(QueueFullPolicy.valueOf(toEnumName(queueFullPolicy)));
+
+		String transport = getStringAttribute(connectorElement, "transport", "jms");
+		processorService.setTransport(Transport.valueOf(toEnumName(transport)));
+
 		// add acceptors to the processor
 		for (Acceptor acceptor : acceptors) {
 			processorService.addAcceptor(acceptor);
@@ -166,6 +187,34 @@ public abstract class AbstractConfiguration implements Configuration {
 		return maxConcurrentMsgs;
 	}
 
+	private int getIntAttribute(Element connectorElement, String name, int defaultValue) throws Exception {
+		int ret = defaultValue;
+
+		String value = connectorElement.attributeValue(name);
+		if (value != null && !"".equals(value)) {
+			ret = Integer.parseInt(value);
+		}
+
+		return ret;
+	}
+
+	private String getStringAttribute(Element connectorElement, String name, String defaultValue) {
+		String value = connectorElement.attributeValue(name);
+		if (value == null || "".equals(value)) {
+			return defaultValue;
+		}
+
+		return value;
+	}
+
+	/**
+	 * Helper method. Converts an attribute value (e.g. "dropOldest") to the name of an enum constant (e.g.
+	 * "DROP_OLDEST").
+	 */
+	private String toEnumName(String value) {
+		return value.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+	}
+
 	@SuppressWarnings("unchecked")
 	private Connector buildConnector(Element element, boolean hasConfigElement) throws ClassNotFoundException, InstantiationException, IllegalAccessException, SecurityException,
 				IllegalArgumentException, NoSuchFieldException, NoSuchMethodException {
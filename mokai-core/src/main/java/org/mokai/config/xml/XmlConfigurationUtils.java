@@ -110,6 +110,11 @@ public final class XmlConfigurationUtils {
 	public static void addConfigurationFields(Element element, Object configuration) throws Exception {
 		Field[] fields = configuration.getClass().getDeclaredFields();
 		for (Field field : fields) {
+			// static and transient fields are not part of the configuration
+			if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+				continue;
+			}
+
 			field.setAccessible(true);
 
 			Element propertyElement = element.addElement("property")
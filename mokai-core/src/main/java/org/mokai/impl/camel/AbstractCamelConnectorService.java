@@ -1,20 +1,31 @@
 package org.mokai.impl.camel;
 
-import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-
-import javax.management.InstanceNotFoundException;
-import javax.management.MBeanServer;
-import javax.management.MalformedObjectNameException;
-import javax.management.ObjectName;
-
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.ScheduledMessage;
 import org.apache.camel.CamelContext;
 import org.apache.camel.CamelExecutionException;
 import org.apache.camel.Exchange;
 import org.apache.camel.ProducerTemplate;
+import org.apache.camel.WaitForTaskToComplete;
 import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.component.seda.SedaEndpoint;
+import org.apache.camel.impl.DefaultExchange;
 import org.apache.camel.model.RouteDefinition;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
@@ -35,6 +46,8 @@ import org.mokai.ObjectAlreadyExistsException;
 import org.mokai.ObjectNotFoundException;
 import org.mokai.Processor;
 import org.mokai.Serviceable;
+import org.mokai.acceptor.AcceptorChangeListener;
+import org.mokai.acceptor.ObservableAcceptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -60,12 +73,65 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 	 */
 	private static final int DEFAULT_PRIORITY = 1000;
 
+	/**
+	 * The default maximum number of messages of the {@link Transport#MEMORY} queue.
+	 */
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+	/**
+	 * The header with the number of the attempt of a message that is redelivered, starting from 1.
+	 */
+	private static final String ATTEMPT_HEADER = "MokaiAttempt";
+
+	/**
+	 * The header of the messages that were deferred by the {@link ThrottlingProcessor} after reserving a token.
+	 */
+	private static final String RESERVED_HEADER = "MokaiTokenReserved";
+
+	/**
+	 * How far ahead of the rate (in nanoseconds) the messages can be deferred before the consumer of the connector
+	 * queue is suspended.
+	 */
+	private static final long MAX_THROTTLING_AHEAD = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * The milliseconds a message waits before it is tried again when the circuit breaker doesn't allow it.
+	 */
+	private static final long PARK_DELAY = 1000;
+
 	private String id;
 
 	private int priority;
 
 	private int maxConcurrentMsgs;
 
+	/**
+	 * Limits the rate at which the messages are processed, see {@link #setMaxTps(int)}.
+	 */
+	private TokenBucket tokenBucket;
+
+	private volatile Transport transport = Transport.JMS;
+
+	private int queueSize = DEFAULT_QUEUE_SIZE;
+
+	private QueueFullPolicy queueFullPolicy = QueueFullPolicy.BLOCK;
+
+	/**
+	 * Guards the creation of the {@link #memoryQueue} and the properties used to create it.
+	 */
+	private final Object queueLock = new Object();
+
+	/**
+	 * The queue of the SEDA endpoint used by the {@link Transport#MEMORY} transport. Created the first time the
+	 * endpoint is needed (when the connector is started or a message is routed to it).
+	 */
+	private volatile MemoryQueue memoryQueue;
+
+	/**
+	 * The number of messages that were removed from the full memory queue, see {@link QueueFullPolicy#DROP_OLDEST}.
+	 */
+	private final AtomicLong droppedMessages = new AtomicLong();
+
 	private List<Acceptor> acceptors;
 
 	private Connector connector;
@@ -85,7 +151,27 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 	private ConnectorServiceChangeListener changeListener;
 
 	/**
-	 * Used to send messages to Apache Camel endpoints.
+	 * The router that routes messages to this connector service. It is notified when the priority or the acceptors
+	 * change so it can rebuild its routing table.
+	 */
+	private AbstractRouter router;
+
+	/**
+	 * Added to the {@link ObservableAcceptor}s of this connector service so the router is also notified when their
+	 * configuration changes.
+	 */
+	private final AcceptorChangeListener acceptorChangeListener = new AcceptorChangeListener() {
+
+		@Override
+		public void acceptorChanged(Acceptor acceptor) {
+			routingChanged();
+		}
+
+	};
+
+	/**
+	 * Used to send messages to Apache Camel endpoints. It is shared by the {@link ActionsProcessor}s of this
+	 * connector service and stopped when the service is destroyed.
 	 */
 	private ProducerTemplate camelProducer;
 
@@ -104,7 +190,50 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 	/**
 	 * We keep a record of the messages that have failed consecutively.
 	 */
-	private int failedMessages;
+	private final AtomicInteger failedMessages = new AtomicInteger();
+
+	/**
+	 * Waits for the delay of the redeliveries of the {@link Transport#MEMORY} transport and executes the transitions
+	 * of the circuit breaker. Created when the service is started.
+	 */
+	private volatile ScheduledExecutorService scheduler;
+
+	/**
+	 * True while the consumer of the connector queue is suspended by a {@link ThrottleConsumerTask}.
+	 */
+	private final AtomicBoolean throttled = new AtomicBoolean();
+
+	/**
+	 * Executes the redeliveries of the {@link Transport#MEMORY} transport once their delay has passed, so a slow
+	 * connector doesn't delay the tasks of the scheduler. Created when the service is started.
+	 */
+	private volatile ExecutorService redeliveryExecutor;
+
+	/**
+	 * The redeliveries of the {@link Transport#MEMORY} transport that are waiting to be executed.
+	 */
+	private final Set<Redelivery> pendingRedeliveries = Collections.newSetFromMap(new ConcurrentHashMap<Redelivery,Boolean>());
+
+	/**
+	 * Executes the post-processing actions of the messages that are processed by a redelivery.
+	 */
+	private ActionsProcessor postProcessingActionsProcessor;
+
+	/**
+	 * Stops the consumption of messages when too many messages fail consecutively.
+	 */
+	private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+	/**
+	 * The route that consumes the messages from the connector queue, suspended while the circuit breaker is open.
+	 */
+	private RouteDefinition outboundConsumerRoute;
+
+	/**
+	 * The route that consumes the messages from the redelivery queue, null if the transport is
+	 * {@link Transport#MEMORY}. Suspended while the circuit breaker is open.
+	 */
+	private RouteDefinition redeliveryConsumerRoute;
 
 	/**
 	 * <p>Constructor. Initializes the object with the received arguments. Modifies the id of the connector by removing
@@ -137,11 +266,12 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 
 		this.priority = DEFAULT_PRIORITY;
 		this.maxConcurrentMsgs = DEFAULT_MAX_CONCURRENT_MSGS;
+		this.tokenBucket = new TokenBucket(0, 1);
 		this.connector = connector;
 
 		this.state = State.STOPPED;
 
-		this.acceptors = new ArrayList<Acceptor>();
+		this.acceptors = Collections.synchronizedList(new ArrayList<Acceptor>());
 
 		this.preProcessingActions = Collections.synchronizedList(new ArrayList<Action>());
 		this.postProcessingActions = Collections.synchronizedList(new ArrayList<Action>());
@@ -199,6 +329,9 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 	 * @return an initialized RouteBuilder (internal Camel object).
 	 */
 	private RouteBuilder createOutboundRouteBuilder() {
+		postProcessingActionsProcessor = new ActionsProcessor(postProcessingActions, getProcessedMessagesUri(),
+				camelProducer);
+
 		// these are the outbound routes
 		RouteBuilder outboundRouteBuilder = new RouteBuilder() {
 
@@ -218,13 +351,22 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 				// added first, although this is the second part of the route ... otherwise we could lose messages
 				// because this is a direct endpoint
 				from(getOutboundInternalUri())
+					.process(new ThrottlingProcessor()) // wait until the rate allows the message
 					.process(new ConnectorProcessor()) // execute the connector
-					.process(new ActionsProcessor(postProcessingActions, getProcessedMessagesUri()));
+					.process(postProcessingActionsProcessor);
+
+				// from the redelivery queue to the connector, the pre-processing actions were already executed
+				if (transport != Transport.MEMORY) {
+					redeliveryConsumerRoute = from(getRedeliveryUri());
+					redeliveryConsumerRoute.to(getOutboundInternalUri());
+				}
 
 				// from the connector queue to the pre-processing actions which puts the message(s) in an internal queue
-				from(getOutboundUri())
+				outboundConsumerRoute = from(getOutboundUri());
+				outboundConsumerRoute
 					.process(new OutboundMessageProcessor()) // sets the destination
-					.process(new ActionsProcessor(preProcessingActions, getOutboundInternalUri())); // pre-processing actions
+					.process(new ActionsProcessor(preProcessingActions, getOutboundInternalUri(),
+							camelProducer)); // pre-processing actions
 
 			}
 
@@ -249,7 +391,7 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 				// actions that puts the message(s) in the router URI
 				from(getInboundUri())
 					.process(new InboundMessageProcessor())
-					.process(new ActionsProcessor(postReceivingActions, getMessagesRouterUri()));
+					.process(new ActionsProcessor(postReceivingActions, getMessagesRouterUri(), camelProducer));
 			}
 
 		};
@@ -327,6 +469,7 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 	@Override
 	public final void setPriority(int priority) {
 		this.priority = priority;
+		routingChanged();
 	}
 
 	@Override
@@ -345,6 +488,99 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 		this.maxConcurrentMsgs = maxConcurrentMsgs;
 	}
 
+	@Override
+	public int getMaxTps() {
+		return tokenBucket.getTps();
+	}
+
+	@Override
+	public void setMaxTps(int maxTps) {
+		tokenBucket.setRate(maxTps, tokenBucket.getBurst());
+	}
+
+	@Override
+	public int getMaxBurst() {
+		return tokenBucket.getBurst();
+	}
+
+	@Override
+	public void setMaxBurst(int maxBurst) {
+		tokenBucket.setRate(tokenBucket.getTps(), maxBurst);
+	}
+
+	/**
+	 * @return the {@link TokenBucket} that limits the rate at which messages are processed.
+	 */
+	public TokenBucket getTokenBucket() {
+		return tokenBucket;
+	}
+
+	@Override
+	public Transport getTransport() {
+		return transport;
+	}
+
+	@Override
+	public void setTransport(Transport transport) throws IllegalStateException {
+		Validate.notNull(transport, "A transport must be provided");
+
+		synchronized (queueLock) {
+			checkQueueNotCreated("transport");
+			this.transport = transport;
+		}
+
+		// the routers need to send the messages to the new endpoint
+		routingChanged();
+	}
+
+	@Override
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	@Override
+	public void setQueueSize(int queueSize) throws IllegalStateException {
+		Validate.isTrue(queueSize > 0, "The queue size must be at least 1");
+
+		synchronized (queueLock) {
+			checkQueueNotCreated("queue size");
+			this.queueSize = queueSize;
+		}
+	}
+
+	@Override
+	public QueueFullPolicy getQueueFullPolicy() {
+		return queueFullPolicy;
+	}
+
+	@Override
+	public void setQueueFullPolicy(QueueFullPolicy queueFullPolicy) throws IllegalStateException {
+		Validate.notNull(queueFullPolicy, "A queue full policy must be provided");
+
+		synchronized (queueLock) {
+			checkQueueNotCreated("queue full policy");
+			this.queueFullPolicy = queueFullPolicy;
+		}
+	}
+
+	/**
+	 * Helper method. The properties of the queue can't be changed after it is created: for the JMS transport, when
+	 * the outbound routes are created; for the memory transport, when the SEDA endpoint is created.
+	 */
+	private void checkQueueNotCreated(String property) throws IllegalStateException {
+		if (memoryQueue != null || outboundRoutes != null) {
+			throw new IllegalStateException("The " + property + " of connector " + id + " can't be changed after its "
+					+ "queue is created");
+		}
+	}
+
+	/**
+	 * @return the number of messages that were removed from the full memory queue.
+	 */
+	public long getDroppedMessages() {
+		return droppedMessages.get();
+	}
+
 	@Override
 	public final Connector getConnector() {
 		return this.connector;
@@ -352,48 +588,37 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 
 	@Override
 	public final int getNumQueuedMessages() {
-		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
-
-		try {
-			ObjectName name = buildObjectName(getDirection());
-			if (name == null) {
-				return -1;
-			}
-
-			Object object = mBeanServer.getAttribute(name, "QueueSize");
-			if (object == null) {
-				return -1;
-			}
+		if (transport == Transport.MEMORY) {
+			MemoryQueue queue = memoryQueue;
+			return queue == null ? 0 : queue.size();
+		}
 
-			return ((Long) object).intValue();
-		} catch (InstanceNotFoundException e) {
-			return -1;
-		} catch (Exception e) {
-			log.error("Exception getting num queued messages: " + e.getMessage(), e);
+		QueueStatistics statistics = getQueueStatistics();
+		if (statistics == null) {
 			return -1;
 		}
+
+		return (int) statistics.getDepth();
 	}
 
 	/**
-	 * Helper method. Builds the object name we use to retrieve the queue size.
-	 *
-	 * @param direction
+	 * Returns the statistics of the JMS queue of the connector from the last sample of the
+	 * {@link QueueStatisticsSampler}, which is cheap enough to be called by monitors that poll every connector.
 	 *
-	 * @return an ObjectName instance or null if the <code>direction</code> is null.
-	 * @throws NullPointerException
-	 * @throws MalformedObjectNameException
+	 * @return the statistics of the queue or null if the connector uses the {@link Transport#MEMORY} transport, the
+	 * queue doesn't exist yet or no sampler is available.
 	 */
-	private ObjectName buildObjectName(Direction direction) throws MalformedObjectNameException, NullPointerException {
-		String name = "org.apache.activemq:type=Broker,brokerName=mokai-broker,destinationType=Queue,destinationName=";
-		if (direction == Direction.TO_APPLICATIONS) {
-			name += "application";
-		} else if (direction == Direction.TO_CONNECTIONS) {
-			name += "connection";
-		} else {
+	public final QueueStatistics getQueueStatistics() {
+		if (transport == Transport.MEMORY) {
 			return null;
 		}
 
-		return new ObjectName(name + "-" + getId());
+		QueueStatisticsSampler sampler = resourceRegistry.getResource(QueueStatisticsSampler.class);
+		if (sampler == null) {
+			return null;
+		}
+
+		return sampler.getStatistics(StringUtils.substringAfter(getOutboundUriPrefix(), ":") + id);
 	}
 
 	@Override
@@ -415,6 +640,10 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 
 		// add the acceptor to the collection of acceptors
 		this.acceptors.add(acceptor);
+		if (acceptor instanceof ObservableAcceptor) {
+			((ObservableAcceptor) acceptor).addChangeListener(acceptorChangeListener);
+		}
+		routingChanged();
 
 		return this;
 	}
@@ -429,6 +658,10 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 		if (!removed) {
 			throw new ObjectNotFoundException("Acceptor " + acceptor + " not found");
 		}
+		if (acceptor instanceof ObservableAcceptor) {
+			((ObservableAcceptor) acceptor).removeChangeListener(acceptorChangeListener);
+		}
+		routingChanged();
 
 		// destroy if it implements Configurable
 		LifecycleMethodsHelper.destroy(acceptor);
@@ -454,6 +687,7 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 
 		// inject the resources
 		ResourceInjector.inject(action, resourceRegistry);
+		ActionsProcessor.injectExecution(action);
 
 		// configure if it implements Configurable
 		LifecycleMethodsHelper.configure(action);
@@ -499,6 +733,7 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 
 		// inject the resources
 		ResourceInjector.inject(action, resourceRegistry);
+		ActionsProcessor.injectExecution(action);
 
 		// configure if it implements Configurable
 		LifecycleMethodsHelper.configure(action);
@@ -544,6 +779,7 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 
 		// inject the resources
 		ResourceInjector.inject(action, resourceRegistry);
+		ActionsProcessor.injectExecution(action);
 
 		// configure if it implements Configurable
 		LifecycleMethodsHelper.configure(action);
@@ -601,9 +837,34 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 			retStatus = status;
 		}
 
+		// the connector is not consuming messages while the circuit breaker is not closed
+		CircuitBreaker.State breakerState = circuitBreaker.getState();
+		if (!breakerState.equals(CircuitBreaker.State.CLOSED)) {
+			int failed = failedMessages.get();
+			retStatus = MonitorStatusBuilder.failed("Circuit breaker is " + breakerState + ": " + failed +
+					(failed == 1 ? " message has " : " messages have ") + "failed.");
+		}
+
 		return retStatus;
 	}
 
+	/**
+	 * @return the {@link CircuitBreaker} that stops the consumption of messages when they fail consecutively.
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Closes the circuit breaker and resumes the consumption of messages if it was open.
+	 */
+	public void resetCircuitBreaker() {
+		if (circuitBreaker.reset()) {
+			log.info("[processor=" + id + "] circuit breaker closed manually");
+			schedule(new ResumeConsumerTask(), 0);
+		}
+	}
+
 	/**
 	 * This is the queue where messages are stored after the connector service has accepted them. Remember that the
 	 * {@link ConnectionsRouter#route(Exchange)} method is the responsible of choosing the processor service that will
@@ -614,9 +875,111 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 	 * @see ConnectionsRouter
 	 */
 	private String getOutboundUri() {
+		if (transport == Transport.MEMORY) {
+			return getQueueUri();
+		}
+
 		return getOutboundUriPrefix() + id + "?maxConcurrentConsumers=" + maxConcurrentMsgs + "&consumer.prefetchSize=1";
 	}
 
+	/**
+	 * This is the endpoint to which the routers send the messages accepted by this connector service. If the
+	 * transport is {@link Transport#MEMORY}, the SEDA endpoint is created and registered in the CamelContext the
+	 * first time this method is called.
+	 *
+	 * @return an Apache Camel endpoint uri where the messages are queued before processing them.
+	 */
+	public final String getQueueUri() {
+		if (transport == Transport.MEMORY) {
+			createMemoryEndpoint();
+			return getMemoryUriPrefix() + id;
+		}
+
+		return getOutboundUriPrefix() + id;
+	}
+
+	/**
+	 * Helper method. Creates the SEDA endpoint of the memory transport (if it was not created) with a
+	 * {@link MemoryQueue} of {@link #queueSize} messages and {@link #maxConcurrentMsgs} consumers, and registers it
+	 * in the CamelContext so the routes and the routers use it.
+	 */
+	private void createMemoryEndpoint() {
+		if (memoryQueue != null) {
+			return;
+		}
+
+		synchronized (queueLock) {
+			if (memoryQueue != null) {
+				return;
+			}
+
+			MemoryQueue queue = new MemoryQueue(queueSize, queueFullPolicy, new MemoryQueue.OverflowHandler() {
+
+				@Override
+				public void dropped(Exchange exchange) {
+					droppedMessages.incrementAndGet();
+
+					Message message = exchange.getIn().getBody(Message.class);
+					log.warn("[processor=" + id + "] memory queue is full, message " + message.getReference()
+							+ " will be handled as failed");
+
+					message.setStatus(Message.STATUS_FAILED);
+					camelProducer.sendBody(getFailedMessagesUri(), message);
+				}
+
+			});
+
+			String uri = getMemoryUriPrefix() + id;
+			SedaEndpoint endpoint = new SedaEndpoint(uri, camelContext.getComponent("seda"), queue, maxConcurrentMsgs);
+			endpoint.setBlockWhenFull(queueFullPolicy == QueueFullPolicy.BLOCK);
+			endpoint.setWaitForTaskToComplete(WaitForTaskToComplete.Never);
+
+			try {
+				camelContext.addEndpoint(uri, endpoint);
+			} catch (Exception e) {
+				throw new ExecutionException(e);
+			}
+
+			memoryQueue = queue;
+		}
+	}
+
+	/**
+	 * Helper method. Called when the connector service is destroyed, sends the messages that are still in the memory
+	 * queue to the failed messages endpoint and removes the SEDA endpoint from the CamelContext.
+	 */
+	private void destroyMemoryEndpoint() {
+		MemoryQueue queue = memoryQueue;
+		if (queue == null) {
+			return;
+		}
+
+		List<Exchange> exchanges = new ArrayList<Exchange>();
+		queue.drainTo(exchanges);
+
+		for (Exchange exchange : exchanges) {
+			Message message = exchange.getIn().getBody(Message.class);
+			message.setStatus(Message.STATUS_FAILED);
+			camelProducer.sendBody(getFailedMessagesUri(), message);
+		}
+
+		try {
+			camelContext.removeEndpoints(getMemoryUriPrefix() + id);
+		} catch (Exception e) {
+			log.warn("Exception removing the memory endpoint of connector " + id + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * The prefix of the SEDA endpoint used when the transport is {@link Transport#MEMORY}. By default, the prefix
+	 * returned by {@link #getOutboundUriPrefix()} with the "seda" scheme.
+	 *
+	 * @return the prefix of the in-memory endpoint uri where the messages are queued before processing them.
+	 */
+	protected String getMemoryUriPrefix() {
+		return "seda:" + StringUtils.substringAfter(getOutboundUriPrefix(), ":");
+	}
+
 	/**
 	 * This is the queue where messages are stored after the pre-processing actions have executed. Notice that this
 	 * URI is the one that will have multiple concurrent consumers.
@@ -628,6 +991,28 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 		return getOutboundIntUriPrefix() + id;
 	}
 
+	/**
+	 * This is the queue where the messages that failed wait for their next attempt when the transport is
+	 * {@link Transport#JMS}. The messages are sent with a scheduled delay, so the broker must have the scheduler
+	 * support enabled.
+	 *
+	 * @return an Apache Camel endpoint uri where the messages are queued before they are redelivered.
+	 */
+	private String getRedeliveryUri() {
+		return getRedeliveryUriPrefix() + id + "?maxConcurrentConsumers=" + maxConcurrentMsgs
+				+ "&consumer.prefetchSize=1";
+	}
+
+	/**
+	 * The prefix of the redelivery queue. By default, the prefix returned by {@link #getOutboundUriPrefix()} with
+	 * "redelivery-" after the scheme.
+	 *
+	 * @return the prefix of the endpoint uri where the messages are queued before they are redelivered.
+	 */
+	protected String getRedeliveryUriPrefix() {
+		return StringUtils.replaceOnce(getOutboundUriPrefix(), ":", ":redelivery-");
+	}
+
 	/**
 	 * This is an endpoint where processors put the received messages before they are passed through the post-receiving
 	 * actions.
@@ -665,6 +1050,33 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 		// start the connector if is Serviceable
 		LifecycleMethodsHelper.start(connector);
 
+		circuitBreaker.reset();
+		throttled.set(false);
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "scheduler-" + id);
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+
+		redeliveryExecutor = Executors.newFixedThreadPool(maxConcurrentMsgs, new ThreadFactory() {
+
+			private int count;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "redelivery-" + id + "-" + (++count));
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+
 		// we need to start the outbound routes after starting the connector
 		try {
 			if (outboundRoutes == null) {
@@ -711,6 +1123,9 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 			throw new ExecutionException(e);
 		}
 
+		// stop the redeliveries before stopping the connector, the pending ones are sent to the failed messages
+		stopRedeliveries();
+
 		// stop the processor if it implements Configurable
 		LifecycleMethodsHelper.stop(connector);
 
@@ -734,6 +1149,36 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 		}
 	}
 
+	/**
+	 * Helper method. Stops the executors of the redeliveries and sends the messages that were waiting to be
+	 * redelivered in memory to the failed messages endpoint (they will be retried later). The redeliveries of the
+	 * JMS transport stay in the broker.
+	 */
+	private void stopRedeliveries() {
+		if (scheduler == null) {
+			return;
+		}
+
+		scheduler.shutdownNow();
+		scheduler = null;
+
+		redeliveryExecutor.shutdown();
+		try {
+			redeliveryExecutor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		redeliveryExecutor = null;
+
+		for (Redelivery redelivery : pendingRedeliveries) {
+			if (pendingRedeliveries.remove(redelivery)) {
+				Message message = redelivery.getMessage();
+				message.setStatus(Message.STATUS_FAILED);
+				camelProducer.sendBody(getFailedMessagesUri(), message);
+			}
+		}
+	}
+
 	private List<RouteDefinition> reverse(List<RouteDefinition> routes) {
 		List<RouteDefinition> reversedRoutes = new ArrayList<RouteDefinition>();
 
@@ -755,6 +1200,15 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 		stop();
 		LifecycleMethodsHelper.destroy(connector);
 
+		// the messages that were not processed are retried later
+		destroyMemoryEndpoint();
+
+		try {
+			camelProducer.stop();
+		} catch (Exception e) {
+			log.warn("Exception stopping the ProducerTemplate of connector " + id + ": " + e.getMessage(), e);
+		}
+
 	}
 
 	@Override
@@ -762,10 +1216,52 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 		return id;
 	}
 
+	/**
+	 * An Apache Camel Processor that reserves a token of the {@link TokenBucket} before the message is processed. If
+	 * the token is not available yet, the message is removed from the route and deferred until it is (keeping the
+	 * token), so the consumer thread is not blocked. If the consumption gets more than {@link #MAX_THROTTLING_AHEAD}
+	 * ahead of the rate, the consumer of the connector queue is suspended meanwhile, so the rest of the messages stay
+	 * in the queue.
+	 *
+	 * @author German Escobar
+	 */
+	private class ThrottlingProcessor implements org.apache.camel.Processor {
+
+		@Override
+		public void process(Exchange exchange) throws Exception {
+			// the token was reserved before the message was deferred
+			if (exchange.getIn().removeHeader(RESERVED_HEADER) != null) {
+				return;
+			}
+
+			long wait = tokenBucket.reserve();
+			if (wait <= 0) {
+				return;
+			}
+
+			Message message = exchange.getIn().getBody(Message.class);
+			Integer attempt = exchange.getIn().getHeader(ATTEMPT_HEADER, Integer.class);
+			if (!redeliver(message, attempt != null ? attempt : 1, wait, true)) {
+				// the service is stopping, wait for the token in this thread
+				TimeUnit.NANOSECONDS.sleep(wait);
+				return;
+			}
+
+			exchange.setProperty(Exchange.ROUTE_STOP, true);
+			log.trace("[processor=" + id + "] message throttled for " + TimeUnit.NANOSECONDS.toMillis(wait) + " millis");
+
+			if (wait > MAX_THROTTLING_AHEAD && throttled.compareAndSet(false, true)) {
+				schedule(new ThrottleConsumerTask(wait - MAX_THROTTLING_AHEAD), 0);
+			}
+		}
+
+	}
+
 	/**
 	 * An Apache Camel Processor that calls the {@link Processor#process(Message)}
-	 * method. It uses the {@link RedeliveryPolicy} to retry the message if it
-	 * fails.
+	 * method. If it fails, the message is removed from the route and its redelivery
+	 * is scheduled using the {@link RedeliveryPolicy}. The number of the attempt is taken from the
+	 * {@link #ATTEMPT_HEADER} of the messages that come from the redelivery queue.
 	 *
 	 * @author German Escobar
 	 */
@@ -774,81 +1270,454 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 		@Override
 		public void process(Exchange exchange) throws Exception {
 			Message message = exchange.getIn().getBody(Message.class);
+			Integer attempt = exchange.getIn().getHeader(ATTEMPT_HEADER, Integer.class);
+			if (attempt == null) {
+				attempt = 1;
+			}
+
+			// the consumer is being suspended or another message is probing the connector, put the message aside
+			// without trying it
+			if (!circuitBreaker.allowRequest()) {
+				exchange.setProperty(Exchange.ROUTE_STOP, true);
+				park(message, attempt);
+
+				// stop consuming until the probe finishes
+				if (circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN) {
+					schedule(new SuspendConsumerTask(), 0);
+				}
+				return;
+			}
 
 			// we know we support the message
-			boolean success = process(message, 1);
-			if (!success) {
+			try {
+				processMessage(message);
+			} catch (Exception e) {
 				exchange.setProperty(Exchange.ROUTE_STOP, true);
+				handleFailure(message, attempt, e);
 			}
 		}
 
-		private boolean process(Message message, int attempt) {
-			try {
-				if (!Processor.class.isInstance(connector)) {
-					// should not happen but just in case
-					throw new IllegalStateException("A message cannot be processed by connector " + id +
-							", it doesn't implements org.mokai.Processor");
+	}
+
+	/**
+	 * Helper method. Calls the {@link Processor#process(Message)} method and updates the status.
+	 *
+	 * @param message the message to process.
+	 * @throws Exception if the connector fails processing the message.
+	 */
+	private void processMessage(Message message) throws Exception {
+		if (!Processor.class.isInstance(connector)) {
+			// should not happen but just in case
+			throw new IllegalStateException("A message cannot be processed by connector " + id +
+					", it doesn't implements org.mokai.Processor");
+		}
+
+		// try to process the message
+		long startTime = System.currentTimeMillis();
+		Processor processor = (Processor) connector;
+		processor.process(message);
+		message.setStatus(Message.STATUS_PROCESSED);
+		long endTime = System.currentTimeMillis();
+		log.debug("[processor=" + id + "] processing message took " + (endTime - startTime) + " millis");
+
+		status = Monitorable.class.isInstance(processor) ? MonitorStatusBuilder.ok() : MonitorStatusBuilder.unknown();
+		failedMessages.set(0);
+
+		if (circuitBreaker.onSuccess()) {
+			log.info("[processor=" + id + "] circuit breaker closed");
+			schedule(new ResumeConsumerTask(), 0);
+		}
+	}
+
+	/**
+	 * Helper method. Schedules the redelivery of a message that failed or, if the max redeliveries have been
+	 * exceeded, sends it to the failed messages endpoint.
+	 *
+	 * @param message the message that failed.
+	 * @param attempt the number of the attempt that failed, starting from 1.
+	 * @param e the exception thrown by the connector.
+	 */
+	private void handleFailure(Message message, int attempt, Exception e) {
+		// while the circuit breaker is half-open the messages are probes, they are not retried
+		if (!circuitBreaker.getState().equals(CircuitBreaker.State.CLOSED)) {
+			log.debug("[processor=" + id + "] probe failed: " + e.getMessage());
+			if (circuitBreaker.onFailure(failedMessages.get())) {
+				circuitOpened();
+			}
+
+			park(message, attempt);
+			return;
+		}
+
+		// only retry if we haven't exceeded the max redeliveries
+		RedeliveryPolicy redeliveryPolicy = getRedeliveryPolicy();
+		int maxRetries = redeliveryPolicy.getMaxRedeliveries();
+		if (attempt < maxRetries) {
+			long delay = redeliveryPolicy.getRedeliveryDelay(attempt);
+			if (redeliver(message, attempt + 1, TimeUnit.MILLISECONDS.toNanos(delay), false)) {
+				log.debug("[processor=" + id + "] attempt " + attempt + " failed, retrying in " + delay + " millis: "
+						+ e.getMessage());
+				return;
+			}
+		}
+
+		// set the new status
+		int failed = failedMessages.incrementAndGet();
+		String failMessage = failed +
+			(failed == 1 ? " message has " : " messages have") + "failed.";
+		status = MonitorStatusBuilder.failed(failMessage, e);
+
+		// print the stack trace every 50 messages that fail consecutively
+		if (failed % 50 == 1) {
+			log.error("message failed after " + attempt + " attempts: " + e.getMessage(), e);
+		} else {
+			log.error("message failed after " + attempt + " attempts: " + e.getMessage());
+		}
+
+		if (circuitBreaker.onFailure(failed)) {
+			circuitOpened();
+		}
+
+		// send to failed messages
+		message.setStatus(Message.STATUS_FAILED);
+		camelProducer.sendBody(getFailedMessagesUri(), message);
+	}
+
+	/**
+	 * Helper method. Schedules the next attempt of a message. If the transport is {@link Transport#JMS}, the message
+	 * is sent to the redelivery queue with a scheduled delay, in the same transaction in which the current message is
+	 * acknowledged, so it is not lost if the node stops. Otherwise, the redelivery is kept in memory.
+	 *
+	 * @param message the message to redeliver.
+	 * @param attempt the number of the next attempt.
+	 * @param delay the nanoseconds to wait before the next attempt.
+	 * @param reserved true if a token of the {@link TokenBucket} was already reserved for the attempt.
+	 * @return true if the redelivery was scheduled, false otherwise.
+	 */
+	private boolean redeliver(Message message, int attempt, long delay, boolean reserved) {
+		if (transport == Transport.MEMORY) {
+			Redelivery redelivery = new Redelivery(message, attempt);
+			redelivery.reserved = reserved;
+
+			return scheduleRedelivery(redelivery, delay);
+		}
+
+		Map<String,Object> headers = new HashMap<String,Object>();
+		headers.put(ATTEMPT_HEADER, attempt);
+		if (reserved) {
+			headers.put(RESERVED_HEADER, true);
+		}
+
+		long millis = TimeUnit.NANOSECONDS.toMillis(delay);
+		if (millis > 0) {
+			headers.put(ScheduledMessage.AMQ_SCHEDULED_DELAY, millis);
+		}
+
+		try {
+			camelProducer.sendBodyAndHeaders(getRedeliveryUri(), message, headers);
+		} catch (CamelExecutionException e) {
+			log.error("[processor=" + id + "] couldn't schedule the redelivery: " + e.getMessage(), e);
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Helper method. Schedules a redelivery in memory, it will be executed by the {@link #redeliveryExecutor} after
+	 * the delay.
+	 *
+	 * @param redelivery the redelivery to schedule.
+	 * @param delay the nanoseconds to wait before executing it.
+	 * @return true if the redelivery was scheduled, false if the service is stopped.
+	 */
+	private boolean scheduleRedelivery(final Redelivery redelivery, long delay) {
+		final ExecutorService executor = redeliveryExecutor;
+		if (executor == null) {
+			return false;
+		}
+
+		pendingRedeliveries.add(redelivery);
+		boolean scheduled = schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					executor.execute(redelivery);
+				} catch (RejectedExecutionException e) {
+					// the service is stopping, the message is sent to the failed messages
 				}
+			}
 
-				// try to process the message
-				long startTime = System.currentTimeMillis();
-				Processor processor = (Processor) connector;
-				processor.process(message);
-				message.setStatus(Message.STATUS_PROCESSED);
-				long endTime = System.currentTimeMillis();
-				log.debug("[processor=" + id + "] processing message took " + (endTime - startTime) + " millis");
+		}, delay);
 
-				status = Monitorable.class.isInstance(processor) ? MonitorStatusBuilder.ok() : MonitorStatusBuilder.unknown();
-				failedMessages = 0;
+		if (!scheduled) {
+			pendingRedeliveries.remove(redelivery);
+			return false;
+		}
 
-				return true;
-			} catch (Exception e) {
+		return true;
+	}
 
-				// only retry if we haven't exceeded the max redeliveries
-				RedeliveryPolicy redeliveryPolicy = getRedeliveryPolicy();
-				int maxRetries = redeliveryPolicy.getMaxRedeliveries();
-				if (attempt < maxRetries) {
+	/**
+	 * Helper method. Schedules a task in the scheduler of the service.
+	 *
+	 * @param task the task to schedule.
+	 * @param delay the nanoseconds to wait before executing it.
+	 * @return true if the task was scheduled, false if the service is stopped.
+	 */
+	private boolean schedule(Runnable task, long delay) {
+		ScheduledExecutorService executor = scheduler;
+		if (executor == null) {
+			return false;
+		}
 
-					// wait redelivery delay
-					long delay = redeliveryPolicy.getMaxRedeliveryDelay();
-					try { this.wait(delay); } catch (Exception f) { }
+		try {
+			executor.schedule(task, delay, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			return false;
+		}
 
-					// MOKAI-20 - return keyword was missing
-					return process(message, attempt + 1);
-				} else {
+		return true;
+	}
 
-					// print the stack trace every 50 messages that fail consecutively
-					if (failedMessages % 50 == 0) {
-						log.error("message failed after " + maxRetries + " retries: " + e.getMessage(), e);
-					} else {
-						log.error("message failed after " + maxRetries + " retries: " + e.getMessage());
-					}
+	/**
+	 * Helper method. Puts aside a message that can't be processed while the circuit breaker is not closed, it will be
+	 * tried again (with the same attempt number) after {@link #PARK_DELAY} milliseconds. The message is not put back
+	 * in the connector queue because, with the {@link Transport#MEMORY} transport and the
+	 * {@link QueueFullPolicy#BLOCK} policy, the consumers would block forever on their own queue if it is full. If the
+	 * message can't be put aside, it is sent to the failed messages.
+	 *
+	 * @param message the message to put aside.
+	 * @param attempt the number of the attempt that was not executed.
+	 */
+	private void park(Message message, int attempt) {
+		// the message already took its token
+		if (redeliver(message, attempt, TimeUnit.MILLISECONDS.toNanos(PARK_DELAY), true)) {
+			return;
+		}
 
-					// set the new status
-					failedMessages++;
-					String failMessage = failedMessages +
-						(failedMessages == 1 ? " message has " : " messages have") + "failed.";
-					status = MonitorStatusBuilder.failed(failMessage, e);
+		message.setStatus(Message.STATUS_FAILED);
+		camelProducer.sendBody(getFailedMessagesUri(), message);
+	}
 
-					// send to failed messages
-					message.setStatus(Message.STATUS_FAILED);
-					camelProducer.sendBody(getFailedMessagesUri(), message);
+	/**
+	 * Helper method. Called when the circuit breaker opens: suspends the consumption of messages and schedules
+	 * the probing of the connector after the open timeout.
+	 */
+	private void circuitOpened() {
+		long openTimeout = circuitBreaker.getOpenTimeout();
+		log.warn("[processor=" + id + "] circuit breaker opened after " + failedMessages.get() + " failed messages, " +
+				"probing again in " + openTimeout + " millis");
+
+		schedule(new SuspendConsumerTask(), 0);
+		schedule(new HalfOpenTask(), TimeUnit.MILLISECONDS.toNanos(openTimeout));
+	}
+
+	/**
+	 * @return the routes that consume messages from the connector and redelivery queues.
+	 */
+	private List<RouteDefinition> getConsumerRoutes() {
+		List<RouteDefinition> routes = new ArrayList<RouteDefinition>();
+		if (outboundConsumerRoute != null) {
+			routes.add(outboundConsumerRoute);
+		}
+		if (redeliveryConsumerRoute != null) {
+			routes.add(redeliveryConsumerRoute);
+		}
+
+		return routes;
+	}
+
+	/**
+	 * Suspends the routes that consume the messages from the connector and redelivery queues while the circuit breaker
+	 * is not closed. It is executed in the scheduler because a route can't be suspended from one of its own threads.
+	 *
+	 * @author German Escobar
+	 */
+	private class SuspendConsumerTask implements Runnable {
+
+		@Override
+		public void run() {
+			if (circuitBreaker.getState() == CircuitBreaker.State.CLOSED) {
+				return;
+			}
+
+			for (RouteDefinition route : getConsumerRoutes()) {
+				try {
+					camelContext.suspendRoute(route.getId());
+				} catch (Exception e) {
+					log.error("[processor=" + id + "] couldn't suspend the consumer: " + e.getMessage(), e);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Resumes the routes that consume the messages from the connector and redelivery queues.
+	 *
+	 * @author German Escobar
+	 */
+	private class ResumeConsumerTask implements Runnable {
+
+		@Override
+		public void run() {
+			for (RouteDefinition route : getConsumerRoutes()) {
+				try {
+					camelContext.resumeRoute(route.getId());
+				} catch (Exception e) {
+					log.error("[processor=" + id + "] couldn't resume the consumer: " + e.getMessage(), e);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Suspends the consumer of the connector queue while the consumption is ahead of the rate of the
+	 * {@link TokenBucket} and resumes it after the specified pause (unless the circuit breaker is open).
+	 *
+	 * @author German Escobar
+	 */
+	private class ThrottleConsumerTask implements Runnable {
+
+		private final long pause;
+
+		public ThrottleConsumerTask(long pause) {
+			this.pause = pause;
+		}
+
+		@Override
+		public void run() {
+			try {
+				camelContext.suspendRoute(outboundConsumerRoute.getId());
+			} catch (Exception e) {
+				log.error("[processor=" + id + "] couldn't suspend the consumer: " + e.getMessage(), e);
+			}
+
+			boolean scheduled = schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					throttled.set(false);
+					if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+						return;
+					}
 
+					try {
+						camelContext.resumeRoute(outboundConsumerRoute.getId());
+					} catch (Exception e) {
+						log.error("[processor=" + id + "] couldn't resume the consumer: " + e.getMessage(), e);
+					}
 				}
 
-				return false;
+			}, pause);
+
+			if (!scheduled) {
+				throttled.set(false);
+			}
+		}
+
+	}
+
+	/**
+	 * Moves the circuit breaker to half-open after the open timeout and resumes the consumption of messages so that
+	 * the next message probes the connector. The consumption is suspended again until the probe finishes and resumed
+	 * when it succeeds.
+	 *
+	 * @author German Escobar
+	 */
+	private class HalfOpenTask implements Runnable {
 
+		@Override
+		public void run() {
+			if (circuitBreaker.halfOpen()) {
+				log.info("[processor=" + id + "] circuit breaker half-open, probing connector");
+				new ResumeConsumerTask().run();
 			}
 		}
 
-		private RedeliveryPolicy getRedeliveryPolicy() {
-			RedeliveryPolicy redeliveryPolicy = resourceRegistry.getResource(RedeliveryPolicy.class);
-			if (redeliveryPolicy == null) {
-				redeliveryPolicy = new RedeliveryPolicy();
+	}
+
+	private RedeliveryPolicy getRedeliveryPolicy() {
+		RedeliveryPolicy redeliveryPolicy = resourceRegistry.getResource(RedeliveryPolicy.class);
+		if (redeliveryPolicy == null) {
+			redeliveryPolicy = new RedeliveryPolicy();
+		}
+
+		return redeliveryPolicy;
+	}
+
+	/**
+	 * A scheduled attempt to process a message that failed when the transport is {@link Transport#MEMORY}. If it
+	 * succeeds, the message continues with the post-processing actions; otherwise, the next redelivery is scheduled
+	 * (or the message fails).
+	 *
+	 * @author German Escobar
+	 */
+	private class Redelivery implements Runnable {
+
+		private final Message message;
+
+		private final int attempt;
+
+		/**
+		 * True if a token of the {@link TokenBucket} was already reserved for this attempt.
+		 */
+		private boolean reserved;
+
+		public Redelivery(Message message, int attempt) {
+			this.message = message;
+			this.attempt = attempt;
+		}
+
+		@Override
+		public void run() {
+			// the service was stopped and the message was already sent to the failed messages
+			if (!pendingRedeliveries.remove(this)) {
+				return;
+			}
+
+			// respect the max tps without blocking the other redeliveries, the token is kept for the next run
+			long wait = reserved ? 0 : tokenBucket.reserve();
+			if (wait > 0) {
+				reserved = true;
+				if (scheduleRedelivery(this, wait)) {
+					return;
+				}
+			}
+
+			// the circuit breaker is open (or another message is probing the connector), the message is tried again
+			// later
+			if (!circuitBreaker.allowRequest()) {
+				park(message, attempt);
+				return;
+			}
+
+			try {
+				processMessage(message);
+			} catch (Exception e) {
+				handleFailure(message, attempt, e);
+				return;
+			}
+
+			try {
+				Exchange exchange = new DefaultExchange(camelContext);
+				exchange.getIn().setBody(message);
+				postProcessingActionsProcessor.process(exchange);
+			} catch (Exception e) {
+				log.error("[processor=" + id + "] exception executing post-processing actions: " + e.getMessage(), e);
+
+				message.setStatus(Message.STATUS_FAILED);
+				camelProducer.sendBody(getFailedMessagesUri(), message);
 			}
+		}
 
-			return redeliveryPolicy;
+		public Message getMessage() {
+			return message;
 		}
+
 	}
 
 	/**
@@ -895,6 +1764,20 @@ public abstract class AbstractCamelConnectorService implements ConnectorService
 
 	}
 
+	/**
+	 * Helper method. Tells the router (if any) that the priority or the acceptors of this connector service
+	 * changed.
+	 */
+	private void routingChanged() {
+		if (router != null) {
+			router.invalidate();
+		}
+	}
+
+	final void setRouter(AbstractRouter router) {
+		this.router = router;
+	}
+
 	public ConnectorServiceChangeListener getChangeListener() {
 		return changeListener;
 	}
@@ -1,7 +1,10 @@
 package org.mokai.impl.camel;
 
-import java.util.Date;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.RecipientList;
@@ -10,6 +13,7 @@ import org.mokai.ConnectorService;
 import org.mokai.Message;
 import org.mokai.Processor;
 import org.mokai.RoutingEngine;
+import org.mokai.impl.camel.RoutingTable.Route;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,6 +28,22 @@ public abstract class AbstractRouter {
 
 	protected RoutingEngine routingEngine;
 
+	/**
+	 * Incremented every time the connector services, their priorities or their acceptors change.
+	 */
+	private final AtomicInteger version = new AtomicInteger();
+
+	/**
+	 * The snapshot of the connector services used to route the messages. It is rebuilt lazily when the version
+	 * changes.
+	 */
+	private volatile RoutingTable routingTable;
+
+	/**
+	 * Notified every time the router is invalidated, can be null.
+	 */
+	private volatile RoutingChangeListener changeListener;
+
 	/**
 	 * This method is called from Apache Camel to route messages to connections or applications.
 	 *
@@ -34,11 +54,13 @@ public abstract class AbstractRouter {
 	public final String route(Exchange exchange) {
 		Message message = exchange.getIn().getBody(Message.class);
 
-		long startTime = new Date().getTime();
+		long startTime = System.currentTimeMillis();
 		String route =  route(message);
-		long endTime = new Date().getTime();
+		long endTime = System.currentTimeMillis();
 
-		log.trace("route took: " + (endTime - startTime) + " millis");
+		if (log.isTraceEnabled()) {
+			log.trace("route took: " + (endTime - startTime) + " millis");
+		}
 
 		return route;
 	}
@@ -50,14 +72,15 @@ public abstract class AbstractRouter {
 	 * @return
 	 */
 	public String route(Message message) {
+		RoutingTable table = getRoutingTable();
 
 		// check if the message already has a destination
 		if (message.getDestination() != null) {
 
-			ConnectorService connectorService = getConnectorService(message.getDestination());
+			Route route = table.getRoute(message.getDestination());
 
-			if (connectorService != null && acceptsMessage(connectorService, message, false)) {
-				return getUriPrefix() + connectorService.getId();
+			if (route != null && acceptsMessage(route, message, false)) {
+				return route.getUri();
 			}
 
 			// unroutable
@@ -65,11 +88,12 @@ public abstract class AbstractRouter {
 			return getUnroutableMessagesUri();
 		}
 
-		// try to route the message
-		List<ConnectorService> connectorServices = getConnectorServices();
-		for (ConnectorService connectorService : connectorServices) {
-			if (acceptsMessage(connectorService, message, true)) {
-				return getUriPrefix() + connectorService.getId();
+		// try to route the message, only the routes returned by the index could accept it
+		Route[] routes = table.getRoutes();
+		AcceptorIndex acceptorIndex = table.getAcceptorIndex();
+		for (int i = acceptorIndex.nextCandidate(message, 0); i >= 0; i = acceptorIndex.nextCandidate(message, i + 1)) {
+			if (acceptsMessage(routes[i], message, true)) {
+				return routes[i].getUri();
 			}
 		}
 
@@ -81,19 +105,18 @@ public abstract class AbstractRouter {
 	/**
 	 * Tells whether a connector service accepts a message or not.
 	 *
-	 * @param connectorService
+	 * @param route the {@link Route} that holds the connector service.
 	 * @param message
 	 * @param checkAcceptors if we have to check the acceptors
 	 * @return true if the connector service accepts a message, false otherwise.
 	 */
-	private boolean acceptsMessage(ConnectorService connectorService, Message message, boolean checkAcceptors) {
+	private boolean acceptsMessage(Route route, Message message, boolean checkAcceptors) {
 		// return if not a Processor instance
-		if (!Processor.class.isInstance(connectorService.getConnector())) {
+		Processor processor = route.getProcessor();
+		if (processor == null) {
 			return false;
 		}
 
-		Processor processor = (Processor) connectorService.getConnector();
-
 		// check if the processor supports the message
 		boolean supported = false;
 		if (processor.supports(message)) {
@@ -102,14 +125,14 @@ public abstract class AbstractRouter {
 
 		// check the acceptors only if the message is supported
 		if (supported && checkAcceptors) {
-			List<Acceptor> acceptors = connectorService.getAcceptors();
-			for (Acceptor acceptor : acceptors) {
+			Acceptor[] acceptors = route.getAcceptors();
+			for (int i=0; i < acceptors.length; i++) {
 				try {
-					if (acceptor.accepts(message)) {
+					if (acceptors[i].accepts(message)) {
 						return true;
 					}
 				} catch (Exception e) {
-					log.error("Exception while calling Acceptor " + acceptor + ": " + e.getMessage(), e);
+					log.error("Exception while calling Acceptor " + acceptors[i] + ": " + e.getMessage(), e);
 				}
 			}
 
@@ -119,24 +142,115 @@ public abstract class AbstractRouter {
 		return supported;
 	}
 
-	public final void setRoutingEngine(RoutingEngine routingContext) {
-		this.routingEngine = routingContext;
+	/**
+	 * Returns the current routing table, building a new one if the connector services changed since the last
+	 * one was built.
+	 *
+	 * @return a {@link RoutingTable} object.
+	 */
+	final RoutingTable getRoutingTable() {
+		int currentVersion = version.get();
+
+		RoutingTable table = routingTable;
+		if (table == null || table.getVersion() != currentVersion) {
+			// if the version changes while we are building the table, it will be rebuilt on the next call
+			table = RoutingTable.build(getConnectorServices(), getUriPrefix(), currentVersion);
+			routingTable = table;
+
+			log.debug("routing table rebuilt with " + table.getRoutes().length + " routes");
+		}
+
+		return table;
+	}
+
+	/**
+	 * Tells the router that the connector services, their priorities or their acceptors changed, so the routing
+	 * table is rebuilt before the next message is routed.
+	 */
+	public final void invalidate() {
+		version.incrementAndGet();
+
+		RoutingChangeListener listener = changeListener;
+		if (listener != null) {
+			try {
+				listener.routingChanged(this);
+			} catch (Exception e) {
+				log.error("Exception while calling RoutingChangeListener " + listener + ": " + e.getMessage(), e);
+			}
+		}
 	}
 
 	/**
-	 * Retrieves the list of connector services that the router will test to route the message.
+	 * Creates an {@link Acceptor} that accepts the messages that couldn't be routed with the <code>previous</code>
+	 * routing table but that could be routed by a route that was added or whose acceptors changed in the
+	 * <code>current</code> one. Routes that didn't change are not evaluated because they already rejected the
+	 * messages; routes that were removed can't route a message that was unroutable.
 	 *
-	 * @return a List of {@link ConnectorService} objects.
+	 * @param previous the routing table with which the messages were routed, null to consider all the routes.
+	 * @param current the routing table with which the messages are going to be routed again.
+	 * @return an Acceptor or null if no route was added or changed.
 	 */
-	protected abstract List<ConnectorService> getConnectorServices();
+	final Acceptor createChangedRoutesFilter(RoutingTable previous, RoutingTable current) {
+		final Route[] routes = current.getRoutes();
+		final boolean[] changed = new boolean[routes.length];
+		final Set<String> changedIds = new HashSet<String>();
+
+		for (int i=0; i < routes.length; i++) {
+			String id = routes[i].getConnectorService().getId();
+
+			Route previousRoute = previous != null ? previous.getRoute(id) : null;
+			if (previousRoute == null || previousRoute.getProcessor() != routes[i].getProcessor()
+					|| !Arrays.equals(previousRoute.getAcceptors(), routes[i].getAcceptors())
+					|| !Arrays.equals(previousRoute.getAcceptorConfigurations(), routes[i].getAcceptorConfigurations())) {
+				changed[i] = true;
+				changedIds.add(id);
+			}
+		}
+
+		if (changedIds.isEmpty()) {
+			return null;
+		}
+
+		final RoutingTable table = current;
+		return new Acceptor() {
+
+			@Override
+			public boolean accepts(Message message) {
+				if (message.getDestination() != null) {
+					Route route = table.getRoute(message.getDestination());
+					return route != null && changedIds.contains(message.getDestination())
+							&& acceptsMessage(route, message, false);
+				}
+
+				AcceptorIndex acceptorIndex = table.getAcceptorIndex();
+				for (int i = acceptorIndex.nextCandidate(message, 0); i >= 0;
+						i = acceptorIndex.nextCandidate(message, i + 1)) {
+					if (changed[i] && acceptsMessage(routes[i], message, true)) {
+						return true;
+					}
+				}
+
+				return false;
+			}
+
+		};
+	}
+
+	public final void setChangeListener(RoutingChangeListener changeListener) {
+		this.changeListener = changeListener;
+	}
+
+	public final void setRoutingEngine(RoutingEngine routingContext) {
+		this.routingEngine = routingContext;
+	}
 
 	/**
-	 * Retrieves the connector service given an id.
+	 * Retrieves the list of connector services that the router will test to route the message. It is only called
+	 * when the routing table needs to be rebuilt (see {@link #invalidate()}).
 	 *
-	 * @param id the id of the connector service to retrieve.
-	 * @return the {@link ConnectorService} object with the given id or null if not found.
+	 * @return a List of {@link ConnectorService} objects.
 	 */
-	protected abstract ConnectorService getConnectorService(String id);
+	protected abstract List<ConnectorService> getConnectorServices();
 
 	/**
 	 * @return the URI endpoint prefix where the message should me sent if the connector service accepts the
@@ -0,0 +1,351 @@
+package org.mokai.impl.camel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.mokai.Acceptor;
+import org.mokai.Message;
+import org.mokai.acceptor.ExactMatchAcceptor;
+import org.mokai.acceptor.ObservableAcceptor;
+import org.mokai.acceptor.RegExpAcceptor;
+import org.mokai.impl.camel.RoutingTable.Route;
+
+/**
+ * <p>Index of the acceptors of a {@link RoutingTable} used to find the routes that could accept a message without
+ * evaluating the acceptors of every route. {@link ExactMatchAcceptor}s are indexed in a hash table by field and
+ * expression, and {@link RegExpAcceptor}s with a number prefix (e.g. <code>^57300.*</code>) or a number literal
+ * (e.g. <code>57300123</code>) are indexed in a prefix tree or in the hash table respectively. Routes with at least
+ * one acceptor that can't be indexed are always considered candidates.</p>
+ *
+ * <p>The index only narrows the routes that need to be evaluated, the acceptors of a candidate route are still
+ * called to decide if it accepts the message. The index is built from the configuration of the acceptors when the
+ * routing table is built; the indexed acceptors notify the connector services when their setters are called (see
+ * {@link ObservableAcceptor}) so the routers rebuild their routing table before the next message is routed. Fields
+ * that are modified without their setters (e.g. through reflection) after the acceptor is added to a connector
+ * service are not seen until the router is invalidated.</p>
+ *
+ * @author German Escobar
+ */
+public final class AcceptorIndex {
+
+	/**
+	 * Matches the regular expressions that can be indexed: an optional start anchor, a number and an optional
+	 * ".*" suffix followed by an optional end anchor.
+	 */
+	private static final Pattern INDEXABLE_REGEXP = Pattern.compile("\\^?([0-9]+)(\\.\\*)?\\$?");
+
+	private static final int[] EMPTY = new int[0];
+
+	/**
+	 * The fields that have exact match entries.
+	 */
+	private final String[] exactFields;
+
+	/**
+	 * The exact match entries of each field (same order as exactFields): expression -> sorted route ordinals.
+	 */
+	private final Map<String,int[]>[] exactValues;
+
+	/**
+	 * The fields that have prefix entries.
+	 */
+	private final String[] prefixFields;
+
+	/**
+	 * The root of the prefix tree of each field (same order as prefixFields).
+	 */
+	private final PrefixNode[] prefixRoots;
+
+	/**
+	 * The sorted ordinals of the routes that have at least one acceptor that couldn't be indexed.
+	 */
+	private final int[] unindexed;
+
+	private AcceptorIndex(String[] exactFields, Map<String,int[]>[] exactValues, String[] prefixFields,
+			PrefixNode[] prefixRoots, int[] unindexed) {
+		this.exactFields = exactFields;
+		this.exactValues = exactValues;
+		this.prefixFields = prefixFields;
+		this.prefixRoots = prefixRoots;
+		this.unindexed = unindexed;
+	}
+
+	/**
+	 * Builds the index of the acceptors of the routes.
+	 *
+	 * @param routes the routes ordered by priority.
+	 * @return an initialized AcceptorIndex object.
+	 */
+	@SuppressWarnings("unchecked")
+	public static AcceptorIndex build(Route[] routes) {
+		Map<String,Map<String,List<Integer>>> exactBuilder = new LinkedHashMap<String,Map<String,List<Integer>>>();
+		Map<String,PrefixNode> prefixBuilder = new LinkedHashMap<String,PrefixNode>();
+		List<Integer> unindexedBuilder = new ArrayList<Integer>();
+
+		for (int i=0; i < routes.length; i++) {
+			Acceptor[] acceptors = routes[i].getAcceptors();
+
+			boolean linear = false;
+			for (Acceptor acceptor : acceptors) {
+				if (!index(acceptor, i, exactBuilder, prefixBuilder)) {
+					linear = true;
+				}
+			}
+
+			if (linear) {
+				unindexedBuilder.add(i);
+			}
+		}
+
+		String[] exactFields = exactBuilder.keySet().toArray(new String[exactBuilder.size()]);
+		Map<String,int[]>[] exactValues = new Map[exactFields.length];
+		for (int i=0; i < exactFields.length; i++) {
+			Map<String,int[]> values = new HashMap<String,int[]>();
+			for (Map.Entry<String,List<Integer>> entry : exactBuilder.get(exactFields[i]).entrySet()) {
+				values.put(entry.getKey(), toArray(entry.getValue()));
+			}
+
+			exactValues[i] = values;
+		}
+
+		String[] prefixFields = prefixBuilder.keySet().toArray(new String[prefixBuilder.size()]);
+		PrefixNode[] prefixRoots = new PrefixNode[prefixFields.length];
+		for (int i=0; i < prefixFields.length; i++) {
+			prefixRoots[i] = prefixBuilder.get(prefixFields[i]).freeze();
+		}
+
+		return new AcceptorIndex(exactFields, exactValues, prefixFields, prefixRoots, toArray(unindexedBuilder));
+	}
+
+	/**
+	 * Helper method. Adds an acceptor to the exact match or prefix entries if possible.
+	 *
+	 * @return true if the acceptor was indexed, false otherwise.
+	 */
+	private static boolean index(Acceptor acceptor, int route, Map<String,Map<String,List<Integer>>> exactBuilder,
+			Map<String,PrefixNode> prefixBuilder) {
+
+		if (ExactMatchAcceptor.class.isInstance(acceptor)) {
+			ExactMatchAcceptor exactMatchAcceptor = (ExactMatchAcceptor) acceptor;
+			if (exactMatchAcceptor.getField() == null || exactMatchAcceptor.getExpression() == null) {
+				return false;
+			}
+
+			addExact(exactBuilder, exactMatchAcceptor.getField(), exactMatchAcceptor.getExpression(), route);
+			return true;
+		}
+
+		if (RegExpAcceptor.class.isInstance(acceptor)) {
+			RegExpAcceptor regExpAcceptor = (RegExpAcceptor) acceptor;
+			if (regExpAcceptor.getField() == null || regExpAcceptor.getRegexp() == null) {
+				return false;
+			}
+
+			Matcher matcher = INDEXABLE_REGEXP.matcher(regExpAcceptor.getRegexp());
+			if (!matcher.matches()) {
+				return false;
+			}
+
+			String number = matcher.group(1);
+			if (matcher.group(2) == null) {
+				addExact(exactBuilder, regExpAcceptor.getField(), number, route);
+			} else {
+				PrefixNode root = prefixBuilder.get(regExpAcceptor.getField());
+				if (root == null) {
+					root = new PrefixNode();
+					prefixBuilder.put(regExpAcceptor.getField(), root);
+				}
+
+				root.add(number, 0, route);
+			}
+
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Describes the configuration of an acceptor that is used by the index, so changes to the acceptors can be
+	 * detected by comparing the descriptions.
+	 *
+	 * @param acceptor the acceptor to describe.
+	 * @return the field and expression of an {@link ExactMatchAcceptor} or the field and regexp of a
+	 * {@link RegExpAcceptor}, null for other acceptors.
+	 */
+	public static String getConfiguration(Acceptor acceptor) {
+		if (ExactMatchAcceptor.class.isInstance(acceptor)) {
+			ExactMatchAcceptor exactMatchAcceptor = (ExactMatchAcceptor) acceptor;
+			return "exact:" + exactMatchAcceptor.getField() + ":" + exactMatchAcceptor.getExpression();
+		}
+
+		if (RegExpAcceptor.class.isInstance(acceptor)) {
+			RegExpAcceptor regExpAcceptor = (RegExpAcceptor) acceptor;
+			return "regexp:" + regExpAcceptor.getField() + ":" + regExpAcceptor.getRegexp();
+		}
+
+		return null;
+	}
+
+	private static void addExact(Map<String,Map<String,List<Integer>>> exactBuilder, String field, String value,
+			int route) {
+
+		Map<String,List<Integer>> values = exactBuilder.get(field);
+		if (values == null) {
+			values = new HashMap<String,List<Integer>>();
+			exactBuilder.put(field, values);
+		}
+
+		List<Integer> routes = values.get(value);
+		if (routes == null) {
+			routes = new ArrayList<Integer>();
+			values.put(value, routes);
+		}
+
+		addRoute(routes, route);
+	}
+
+	/**
+	 * Helper method. Adds the route ordinal to the list if it isn't the last one. Routes are added in ascending
+	 * order so the list remains sorted without duplicates.
+	 */
+	private static void addRoute(List<Integer> routes, int route) {
+		if (routes.isEmpty() || routes.get(routes.size() - 1) != route) {
+			routes.add(route);
+		}
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		if (list == null || list.isEmpty()) {
+			return EMPTY;
+		}
+
+		int[] ret = new int[list.size()];
+		for (int i=0; i < ret.length; i++) {
+			ret[i] = list.get(i);
+		}
+
+		return ret;
+	}
+
+	/**
+	 * Finds the next route that could accept the message.
+	 *
+	 * @param message the message that is being routed.
+	 * @param from the ordinal of the first route to consider.
+	 * @return the lowest ordinal, greater or equal than <code>from</code>, of a route that could accept the
+	 * message or -1 if there are no more candidates.
+	 */
+	public int nextCandidate(Message message, int from) {
+		int next = next(unindexed, from, -1);
+
+		for (int i=0; i < exactFields.length; i++) {
+			Object value = message.getProperty(exactFields[i]);
+			if (value instanceof String) {
+				next = next(exactValues[i].get(value), from, next);
+			}
+		}
+
+		for (int i=0; i < prefixFields.length; i++) {
+			Object value = message.getProperty(prefixFields[i]);
+			if (value instanceof String) {
+				String str = (String) value;
+
+				PrefixNode node = prefixRoots[i];
+				for (int j=0; j < str.length() && node != null; j++) {
+					node = node.child(str.charAt(j));
+					if (node != null) {
+						next = next(node.routes, from, next);
+					}
+				}
+			}
+		}
+
+		return next;
+	}
+
+	/**
+	 * Helper method. Finds the lowest route in the sorted array that is greater or equal than <code>from</code> and
+	 * returns it if it is lower than <code>current</code>.
+	 */
+	private static int next(int[] routes, int from, int current) {
+		if (routes == null || routes.length == 0) {
+			return current;
+		}
+
+		// binary search of the first element that is greater or equal than from
+		int low = 0;
+		int high = routes.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (routes[mid] < from) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		if (low == routes.length) {
+			return current;
+		}
+
+		int candidate = routes[low];
+		if (current == -1 || candidate < current) {
+			return candidate;
+		}
+
+		return current;
+	}
+
+	/**
+	 * A node of the prefix tree. The routes of a node are the ones whose prefix ends in that node.
+	 *
+	 * @author German Escobar
+	 */
+	private static final class PrefixNode {
+
+		private Map<Character,PrefixNode> children = new HashMap<Character,PrefixNode>();
+
+		private List<Integer> routesBuilder = new ArrayList<Integer>();
+
+		private int[] routes = EMPTY;
+
+		private void add(String prefix, int index, int route) {
+			if (index == prefix.length()) {
+				addRoute(routesBuilder, route);
+				return;
+			}
+
+			Character c = prefix.charAt(index);
+			PrefixNode child = children.get(c);
+			if (child == null) {
+				child = new PrefixNode();
+				children.put(c, child);
+			}
+
+			child.add(prefix, index + 1, route);
+		}
+
+		private PrefixNode freeze() {
+			routes = toArray(routesBuilder);
+			routesBuilder = null;
+
+			for (PrefixNode child : children.values()) {
+				child.freeze();
+			}
+
+			return this;
+		}
+
+		private PrefixNode child(char c) {
+			return children.get(c);
+		}
+
+	}
+
+}
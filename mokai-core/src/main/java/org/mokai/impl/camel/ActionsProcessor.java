@@ -5,6 +5,7 @@ import java.util.List;
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
 import org.apache.camel.ProducerTemplate;
+import org.apache.commons.lang.Validate;
 import org.mokai.Action;
 import org.mokai.Execution;
 import org.mokai.Message;
@@ -13,10 +14,49 @@ import org.mokai.Message;
  * Camel Processor implementation used by {@link AbstractCamelConnectorService} to execute actions (pre-processing,
  * post-processing and post-receiving).
  *
+ * The {@link ProducerTemplate} is shared by all the processors of a connector service, which is responsible of
+ * stopping it when it is destroyed. The actions are executed in a loop by an {@link ActionsExecutor} that is reused
+ * by each thread, so nothing is allocated per message unless an action routes new messages.
+ *
+ * The actions receive a single {@link Execution} (see {@link #injectExecution(Action)}) that is injected once, when
+ * the action is added, and delegates to the executor that is running the action in the current thread. This way, the
+ * messages that are executed concurrently don't overwrite the execution of each other.
+ *
  * @author German Escobar
  */
 public class ActionsProcessor implements Processor {
 
+	/**
+	 * The executor that is running an action in the current thread, null if no action is running.
+	 */
+	private static final ThreadLocal<ActionsExecutor> currentExecutor = new ThreadLocal<ActionsExecutor>();
+
+	/**
+	 * The {@link Execution} that is injected into the actions.
+	 */
+	private static final Execution EXECUTION = new Execution() {
+
+		@Override
+		public void stop() {
+			getCurrentExecutor().stop();
+		}
+
+		@Override
+		public void route(Message message) throws Exception {
+			getCurrentExecutor().route(message);
+		}
+
+		private ActionsExecutor getCurrentExecutor() {
+			ActionsExecutor executor = currentExecutor.get();
+			if (executor == null) {
+				throw new IllegalStateException("The Execution can only be used inside the Action#execute method");
+			}
+
+			return executor;
+		}
+
+	};
+
 	/**
 	 * The list of actions to execute.
 	 */
@@ -27,53 +67,82 @@ public class ActionsProcessor implements Processor {
 	 */
 	private String endpoint;
 
-	public ActionsProcessor(List<Action> actions, String endpoint) {
+	/**
+	 * Used to route the messages to the endpoint.
+	 */
+	private ProducerTemplate producerTemplate;
+
+	/**
+	 * The executor of each thread, the actions are executed by the thread that consumes the message.
+	 */
+	private final ThreadLocal<ActionsExecutor> executors = new ThreadLocal<ActionsExecutor>() {
+
+		@Override
+		protected ActionsExecutor initialValue() {
+			return new ActionsExecutor();
+		}
+
+	};
+
+	public ActionsProcessor(List<Action> actions, String endpoint, ProducerTemplate producerTemplate) {
+		Validate.notNull(actions, "no actions specified");
+		Validate.notNull(endpoint, "no endpoint specified");
+		Validate.notNull(producerTemplate, "no ProducerTemplate specified");
+
 		this.actions = actions;
 		this.endpoint = endpoint;
+		this.producerTemplate = producerTemplate;
+	}
+
+	/**
+	 * Injects the {@link Execution} into the fields of an action annotated with {@link org.mokai.annotation.Resource}.
+	 * It has to be called once before the action is executed by an ActionsProcessor.
+	 *
+	 * @param action the action into which we are injecting the Execution.
+	 */
+	public static void injectExecution(Action action) {
+		ResourceInjector.inject(action, EXECUTION);
 	}
 
 	@Override
 	public final void process(Exchange exchange) throws Exception {
 		Message message = exchange.getIn().getBody(Message.class);
-		ProducerTemplate producerTemplate = exchange.getContext().createProducerTemplate();
 
-		// execute the actions recursively starting from the first one (index 0)
-		ActionsExecutor executor = new ActionsExecutor(producerTemplate, 0);
-		executor.route(message);
+		// execute the actions starting from the first one (index 0)
+		executors.get().execute(message, 0);
 
 		// stop the message flow
 		exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
 	}
 
 	/**
-	 * This class actually executes the actions. It implements {@link Execution} because I also use it to pass it to
-	 * the actions (recursively). For mor information see issue #34.
+	 * This class actually executes the actions. It implements {@link Execution} because the actions use it, through
+	 * the execution that is injected, to stop the message or route new ones (for more information see issue #34).
+	 * The index of the next action and the stopped flag are saved before executing each action and restored after,
+	 * so the same instance can be used by the actions that route new messages (which continue from the next action)
+	 * without affecting the message that is being executed.
+	 *
+	 * Notice that an instance is only used by one thread and that the actions can only use it inside the
+	 * {@link Action#execute(Message)} method.
 	 *
 	 * @author German Escobar
 	 */
-	class ActionsExecutor implements Execution {
+	class ActionsExecutor implements Execution, Processor {
 
 		/**
-		 * Used to route the messages to the specified endpoint.
+		 * The index of the action from which the messages routed by the current action continue.
 		 */
-		private ProducerTemplate producerTemplate;
-
-		private int initialIndex;
+		private int next;
 
 		/**
-		 * The index of the action that is being executed.
+		 * Tells if the current action stopped the execution.
 		 */
-		private int index;
+		private boolean stopped;
 
 		/**
-		 * Tells if the action stopped the execution.
+		 * The message that is being sent to the endpoint.
 		 */
-		private boolean stopped;
-
-		public ActionsExecutor(ProducerTemplate producerTemplate, int index) {
-			this.producerTemplate = producerTemplate;
-			this.initialIndex = index;
-		}
+		private Message outMessage;
 
 		@Override
 		public void stop() {
@@ -82,57 +151,63 @@ public class ActionsProcessor implements Processor {
 
 		@Override
 		public void route(Message message) throws Exception {
-			index = initialIndex; // reset index just in case it is called a second time
-			doRoute(message);
+			execute(message, next);
 		}
 
 		/**
-		 * Helper method. Used to execute the actions recursively.
+		 * Executes the actions starting from an index and, if none of them stops the execution, sends the message to
+		 * the endpoint.
 		 *
-		 * @param message
-		 *
-		 * @throws Exception
+		 * @param message the message to execute.
+		 * @param from the index of the first action to execute.
+		 * @throws Exception if an action or the endpoint fails.
 		 */
-		private void doRoute(final Message message) throws Exception {
-			// if last action (or no actions), route the message to the endpoint
-			if (index == actions.size()) {
-
-				producerTemplate.send(endpoint, new Processor() {
-					public void process(Exchange outExchange) {
-						outExchange.getIn().setBody(message);
-					}
-				});
-
-				return;
+		void execute(Message message, int from) throws Exception {
+			for (int i=from; i < actions.size(); i++) {
+				Action action = actions.get(i);
+
+				int savedNext = next;
+				boolean savedStopped = stopped;
+				ActionsExecutor savedExecutor = currentExecutor.get();
+
+				next = i + 1;
+				stopped = false;
+				currentExecutor.set(this);
+
+				boolean actionStopped;
+				try {
+					// execute the message, notice that the execution could be stopped or new messages routed
+					action.execute(message);
+				} finally {
+					actionStopped = stopped;
+
+					next = savedNext;
+					stopped = savedStopped;
+					currentExecutor.set(savedExecutor);
+				}
+
+				// if the action stopped the execution ...
+				if (actionStopped) {
+					return;
+				}
 			}
 
-			// retrieve the action
-			Action action = actions.get(index);
-
-			// inject the Execution interface implementation (ie. an instance of this class)
-			ActionsExecutor executor = new ActionsExecutor(producerTemplate, index + 1);
-			ResourceInjector.inject(action, executor);
-
-			// execute the message, notice that the execution could be stopped or new messages routed
-			action.execute(message);
-
-			// if the action stopped the execution ...
-			if (executor.isStopped()) {
-				return;
+			// route the message to the endpoint
+			Message savedOutMessage = outMessage;
+			outMessage = message;
+			try {
+				producerTemplate.send(endpoint, this);
+			} finally {
+				outMessage = savedOutMessage;
 			}
-
-			// recursive call to continue to execution
-			index++;
-			doRoute(message);
 		}
 
 		/**
-		 * Tells if the execution was stopped by the action.
-		 *
-		 * @return true if the execution was stopped, false otherwise.
+		 * Sets the message in the exchange that is sent to the endpoint.
 		 */
-		public boolean isStopped() {
-			return stopped;
+		@Override
+		public void process(Exchange outExchange) throws Exception {
+			outExchange.getIn().setBody(outMessage);
 		}
 
 	}
@@ -16,11 +16,6 @@ public class ApplicationsRouter extends AbstractRouter {
 		return routingEngine.getApplications();
 	}
 
-	@Override
-	protected ConnectorService getConnectorService(String id) {
-		return routingEngine.getApplication(id);
-	}
-
 	@Override
 	protected String getUriPrefix() {
 		return "activemq:application-";
@@ -0,0 +1,414 @@
+package org.mokai.impl.camel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.Validate;
+import org.mokai.Message;
+import org.mokai.persist.AbstractMessageStore;
+import org.mokai.persist.MessageStore;
+import org.mokai.persist.RejectedException;
+import org.mokai.persist.StoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Write-behind stage used by the {@link PersistenceProcessor} to persist messages asynchronously. Messages are
+ * added to a bounded buffer and a writer thread saves or updates them in batches using
+ * {@link AbstractMessageStore#saveOrUpdateAll(java.util.Collection)}. A batch is flushed when it reaches the batch
+ * size or when the flush interval has passed since its first message was taken from the buffer.</p>
+ *
+ * <p>If the buffer is full and no space is released during the enqueue timeout, the message is persisted
+ * synchronously by the calling thread, which slows down the producers until the writer catches up. Messages
+ * written while the writer is not started are also persisted synchronously. If the writer thread is interrupted,
+ * it persists the pending messages and stops, so the following messages are persisted synchronously.</p>
+ *
+ * @author German Escobar
+ */
+public class BatchMessageWriter {
+
+	private Logger log = LoggerFactory.getLogger(BatchMessageWriter.class);
+
+	/**
+	 * Used to retrieve the MessageStore every time we flush, in case it changes.
+	 */
+	private ResourceRegistry resourceRegistry;
+
+	/**
+	 * The maximum number of messages that can be waiting to be persisted.
+	 */
+	private int capacity = 10000;
+
+	/**
+	 * The maximum number of messages persisted in a batch.
+	 */
+	private int batchSize = 200;
+
+	/**
+	 * The maximum time in milliseconds that a message waits for the batch to be full.
+	 */
+	private long flushInterval = 100;
+
+	/**
+	 * The time in milliseconds a message waits for space in the buffer before it is persisted synchronously.
+	 */
+	private long enqueueTimeout = 1000;
+
+	private BlockingQueue<Message> queue;
+
+	private Thread writerThread;
+
+	private volatile boolean started;
+
+	// metrics
+	private final AtomicLong writtenMessages = new AtomicLong();
+	private final AtomicLong synchronousWrites = new AtomicLong();
+	private final AtomicLong failedMessages = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong totalFlushTime = new AtomicLong();
+	private volatile long lastFlushTime;
+	private volatile long maxFlushTime;
+
+	/**
+	 * Creates a writer that is configured by the {@link CamelRoutingEngine} when it is set.
+	 */
+	public BatchMessageWriter() {
+
+	}
+
+	public BatchMessageWriter(ResourceRegistry resourceRegistry) {
+		setResourceRegistry(resourceRegistry);
+	}
+
+	/**
+	 * Creates the buffer and starts the writer thread.
+	 *
+	 * @throws IllegalStateException if the resource registry has not been set.
+	 */
+	public final synchronized void start() throws IllegalStateException {
+		if (started) {
+			return;
+		}
+
+		if (resourceRegistry == null) {
+			throw new IllegalStateException("no resource registry specified");
+		}
+
+		queue = new ArrayBlockingQueue<Message>(capacity);
+		started = true;
+
+		writerThread = new Thread(new Writer(), "mokai-message-writer");
+		writerThread.setDaemon(true);
+		writerThread.start();
+
+		log.info("message writer started with capacity " + capacity + ", batch size " + batchSize
+				+ " and flush interval " + flushInterval + " millis");
+	}
+
+	/**
+	 * Stops accepting messages in the buffer, waits for the writer thread to flush the pending messages and stops it.
+	 * Messages written after this method is called are persisted synchronously.
+	 */
+	public final synchronized void stop() {
+		if (!started) {
+			return;
+		}
+
+		started = false;
+
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		// the writer thread drains the buffer before it finishes but a message could have been added concurrently
+		List<Message> pending = new ArrayList<Message>();
+		queue.drainTo(pending);
+		if (!pending.isEmpty()) {
+			flush(pending);
+		}
+
+		log.info("message writer stopped");
+	}
+
+	/**
+	 * Adds a message to the buffer. If the writer is not started or the buffer remains full during the enqueue
+	 * timeout, the message is persisted in the calling thread.
+	 *
+	 * @param message the message to be saved or updated.
+	 * @throws RejectedException if the message is persisted synchronously and the store rejects it.
+	 * @throws StoreException if the message is persisted synchronously and something goes wrong.
+	 */
+	public final void write(Message message) throws RejectedException, StoreException {
+		if (started) {
+			try {
+				if (queue.offer(message, enqueueTimeout, TimeUnit.MILLISECONDS)) {
+					// if the writer was stopped concurrently, the message could have been left in the buffer
+					if (started || !queue.remove(message)) {
+						return;
+					}
+				} else {
+					log.debug("message writer buffer is full, persisting message synchronously");
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		synchronousWrites.incrementAndGet();
+		getMessageStore().saveOrUpdate(message);
+		writtenMessages.incrementAndGet();
+	}
+
+	/**
+	 * Helper method. Persists a batch of messages. If the batch fails, each message is persisted separately so that
+	 * one message doesn't prevent the others from being persisted. The new messages (without an id) are persisted
+	 * again only if the message store persists the whole batch or none of it (see
+	 * {@link AbstractMessageStore#isAtomicBatch()}), otherwise some of them could have been saved by the failed
+	 * batch and would be saved twice, so they are counted as failed instead.
+	 *
+	 * @param batch the messages to be persisted.
+	 */
+	private void flush(List<Message> batch) {
+		MessageStore messageStore = getMessageStore();
+
+		long startTime = System.currentTimeMillis();
+		try {
+			AbstractMessageStore.saveOrUpdateAll(messageStore, batch);
+			writtenMessages.addAndGet(batch.size());
+		} catch (Exception e) {
+			log.warn("Exception persisting batch of " + batch.size() + " messages, persisting them one by one: "
+					+ e.getMessage());
+
+			boolean atomicBatch = AbstractMessageStore.isAtomicBatch(messageStore);
+
+			int skippedMessages = 0;
+			for (Message message : batch) {
+				if (message.getId() == null && !atomicBatch) {
+					skippedMessages++;
+					continue;
+				}
+
+				try {
+					messageStore.saveOrUpdate(message);
+					writtenMessages.incrementAndGet();
+				} catch (RejectedException re) {
+					failedMessages.incrementAndGet();
+					log.warn("the message can't be persisted: " + re.getMessage());
+				} catch (Exception se) {
+					failedMessages.incrementAndGet();
+					log.error("Exception saving a message: " + se.getMessage(), se);
+				}
+			}
+
+			if (skippedMessages > 0) {
+				failedMessages.addAndGet(skippedMessages);
+				log.error(skippedMessages + " new messages of the failed batch are not persisted again: the message "
+						+ "store doesn't guarantee that none of them was saved and they could be duplicated");
+			}
+		}
+
+		long flushTime = System.currentTimeMillis() - startTime;
+		flushes.incrementAndGet();
+		totalFlushTime.addAndGet(flushTime);
+		lastFlushTime = flushTime;
+		if (flushTime > maxFlushTime) {
+			maxFlushTime = flushTime;
+		}
+
+		if (log.isTraceEnabled()) {
+			log.trace("flushing " + batch.size() + " messages took " + flushTime + " millis");
+		}
+	}
+
+	private MessageStore getMessageStore() {
+		return resourceRegistry.getResource(MessageStore.class);
+	}
+
+	/**
+	 * Takes the messages from the buffer and flushes them in batches until the writer is stopped and the buffer is
+	 * empty.
+	 *
+	 * @author German Escobar
+	 */
+	private class Writer implements Runnable {
+
+		@Override
+		public void run() {
+			List<Message> batch = new ArrayList<Message>(batchSize);
+
+			while (started || !queue.isEmpty()) {
+				try {
+					Message first = queue.poll(500, TimeUnit.MILLISECONDS);
+					if (first == null) {
+						continue;
+					}
+
+					batch.add(first);
+
+					// wait for the batch to be full or for the flush interval to pass
+					long deadline = System.currentTimeMillis() + flushInterval;
+					while (batch.size() < batchSize) {
+						queue.drainTo(batch, batchSize - batch.size());
+
+						long remaining = deadline - System.currentTimeMillis();
+						if (batch.size() >= batchSize || remaining <= 0 || !started) {
+							break;
+						}
+
+						Message next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+						if (next != null) {
+							batch.add(next);
+						}
+					}
+
+					flush(batch);
+				} catch (InterruptedException e) {
+					// stop taking messages from the buffer, the pending ones are persisted before the thread exits and
+					// the following ones synchronously
+					log.warn("message writer interrupted, persisting " + (batch.size() + queue.size())
+							+ " pending messages and stopping");
+
+					started = false;
+					queue.drainTo(batch);
+					if (!batch.isEmpty()) {
+						flush(batch);
+					}
+
+					Thread.currentThread().interrupt();
+					return;
+				} catch (Exception e) {
+					log.error("Exception in message writer: " + e.getMessage(), e);
+				} finally {
+					batch.clear();
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Called by the {@link CamelRoutingEngine} before the writer is started.
+	 *
+	 * @param resourceRegistry the registry from which the {@link MessageStore} is retrieved.
+	 */
+	final void setResourceRegistry(ResourceRegistry resourceRegistry) {
+		Validate.notNull(resourceRegistry);
+		this.resourceRegistry = resourceRegistry;
+	}
+
+	/**
+	 * @return true if the writer thread is running, false otherwise.
+	 */
+	public final boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * @return the number of messages waiting in the buffer.
+	 */
+	public final int getQueueSize() {
+		return queue != null ? queue.size() : 0;
+	}
+
+	/**
+	 * @return the number of messages that have been persisted.
+	 */
+	public final long getWrittenMessages() {
+		return writtenMessages.get();
+	}
+
+	/**
+	 * @return the number of messages that were persisted by the calling thread because the buffer was full or the
+	 * writer was not started.
+	 */
+	public final long getSynchronousWrites() {
+		return synchronousWrites.get();
+	}
+
+	/**
+	 * @return the number of messages that couldn't be persisted by the writer thread.
+	 */
+	public final long getFailedMessages() {
+		return failedMessages.get();
+	}
+
+	/**
+	 * @return the number of batches that have been flushed.
+	 */
+	public final long getFlushes() {
+		return flushes.get();
+	}
+
+	/**
+	 * @return the time in milliseconds that the last flush took.
+	 */
+	public final long getLastFlushTime() {
+		return lastFlushTime;
+	}
+
+	/**
+	 * @return the maximum time in milliseconds that a flush has taken.
+	 */
+	public final long getMaxFlushTime() {
+		return maxFlushTime;
+	}
+
+	/**
+	 * @return the average time in milliseconds that a flush takes.
+	 */
+	public final long getAverageFlushTime() {
+		long numFlushes = flushes.get();
+		if (numFlushes == 0) {
+			return 0;
+		}
+
+		return totalFlushTime.get() / numFlushes;
+	}
+
+	public final int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @param capacity the maximum number of messages that can be waiting to be persisted. It takes effect the next
+	 * time the writer is started.
+	 */
+	public final void setCapacity(int capacity) {
+		Validate.isTrue(capacity > 0, "capacity must be greater than 0");
+		this.capacity = capacity;
+	}
+
+	public final int getBatchSize() {
+		return batchSize;
+	}
+
+	public final void setBatchSize(int batchSize) {
+		Validate.isTrue(batchSize > 0, "batchSize must be greater than 0");
+		this.batchSize = batchSize;
+	}
+
+	public final long getFlushInterval() {
+		return flushInterval;
+	}
+
+	public final void setFlushInterval(long flushInterval) {
+		Validate.isTrue(flushInterval >= 0, "flushInterval can't be negative");
+		this.flushInterval = flushInterval;
+	}
+
+	public final long getEnqueueTimeout() {
+		return enqueueTimeout;
+	}
+
+	public final void setEnqueueTimeout(long enqueueTimeout) {
+		Validate.isTrue(enqueueTimeout >= 0, "enqueueTimeout can't be negative");
+		this.enqueueTimeout = enqueueTimeout;
+	}
+
+}
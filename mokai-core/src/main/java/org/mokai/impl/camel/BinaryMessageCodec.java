@@ -0,0 +1,565 @@
+package org.mokai.impl.camel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.mokai.Message;
+import org.mokai.Message.Direction;
+
+/**
+ * <p>A {@link MessageCodec} that encodes the messages in a compact binary format. The integers, longs and dates are
+ * written as variable length numbers, the strings in UTF-8 and the direction and status in a single byte.</p>
+ *
+ * <p>The format (version 1) is:</p>
+ *
+ * <pre>
+ * magic (1 byte) | version (1 byte) | id (value) | status (1 byte) | direction (1 byte, 0 for null)
+ * | source (string) | destination (string) | reference (string) | creation time (value)
+ * | modification time (value) | number of properties (varint) | [key (string) | value (value)]*
+ * </pre>
+ *
+ * <p>A string is its length plus one as a varint (0 for null) followed by the UTF-8 bytes. A value is a tag (1 byte)
+ * followed by its data. The strings, numbers, booleans, characters, dates, byte arrays, <code>BigDecimal</code>s and
+ * <code>BigInteger</code>s have their own tag; any other <code>Serializable</code> value is written with Java
+ * serialization.</p>
+ *
+ * <p>The values written with Java serialization are only decoded if all their classes belong to a trusted package,
+ * otherwise the message is rejected. The trusted packages are taken from the
+ * <code>org.apache.activemq.SERIALIZABLE_PACKAGES</code> system property (the same list that is trusted by the
+ * broker, "*" trusts all the packages) or, if it is not set, {@link #DEFAULT_TRUSTED_PACKAGES}.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author German Escobar
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+	static final byte MAGIC = 0x4D;
+
+	static final byte VERSION = 1;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final byte NULL_DIRECTION = 0;
+
+	// the tags of the values
+	private static final byte TAG_NULL = 0;
+	private static final byte TAG_STRING = 1;
+	private static final byte TAG_INTEGER = 2;
+	private static final byte TAG_LONG = 3;
+	private static final byte TAG_TRUE = 4;
+	private static final byte TAG_FALSE = 5;
+	private static final byte TAG_DOUBLE = 6;
+	private static final byte TAG_FLOAT = 7;
+	private static final byte TAG_SHORT = 8;
+	private static final byte TAG_BYTE = 9;
+	private static final byte TAG_CHARACTER = 10;
+	private static final byte TAG_DATE = 11;
+	private static final byte TAG_BYTES = 12;
+	private static final byte TAG_BIG_DECIMAL = 13;
+	private static final byte TAG_BIG_INTEGER = 14;
+	private static final byte TAG_SERIALIZED = 127;
+
+	private static final String TRUSTED_PACKAGES_PROPERTY = "org.apache.activemq.SERIALIZABLE_PACKAGES";
+
+	/**
+	 * The packages whose classes can be deserialized if the system property is not set.
+	 */
+	public static final String DEFAULT_TRUSTED_PACKAGES = "java.lang,java.util,java.math,java.sql,org.mokai";
+
+	private final String[] trustedPackages;
+
+	/**
+	 * Constructor. Trusts the packages of the <code>org.apache.activemq.SERIALIZABLE_PACKAGES</code> system property
+	 * or the {@link #DEFAULT_TRUSTED_PACKAGES}.
+	 */
+	public BinaryMessageCodec() {
+		this(System.getProperty(TRUSTED_PACKAGES_PROPERTY, DEFAULT_TRUSTED_PACKAGES));
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param trustedPackages a comma separated list of the packages whose classes can be deserialized, "*" to trust
+	 * all the packages.
+	 */
+	public BinaryMessageCodec(String trustedPackages) {
+		this.trustedPackages = StringUtils.stripAll(StringUtils.split(trustedPackages, ','));
+	}
+
+	@Override
+	public byte[] encode(Message message) throws IllegalArgumentException {
+		Output out = new Output(256);
+
+		out.writeByte(MAGIC);
+		out.writeByte(VERSION);
+
+		writeValue(out, message.getId());
+		out.writeByte(message.getStatus());
+		out.writeByte(message.getDirection() == null ? NULL_DIRECTION : message.getDirection().value());
+		writeString(out, message.getSource());
+		writeString(out, message.getDestination());
+		writeString(out, message.getReference());
+		writeValue(out, message.getCreationTime());
+		writeValue(out, message.getModificationTime());
+
+		Map<String,Object> properties = new HashMap<String,Object>();
+		message.copyPropertiesTo(properties);
+
+		out.writeVarInt(properties.size());
+		for (Map.Entry<String,Object> entry : properties.entrySet()) {
+			writeString(out, entry.getKey());
+			writeValue(out, entry.getValue());
+		}
+
+		return out.toByteArray();
+	}
+
+	@Override
+	public Message decode(byte[] bytes) throws IllegalArgumentException {
+		Input in = new Input(bytes);
+
+		byte magic = in.readByte();
+		if (magic != MAGIC) {
+			throw new IllegalArgumentException("not an encoded message, invalid magic byte: " + magic);
+		}
+
+		byte version = in.readByte();
+		if (version != VERSION) {
+			throw new IllegalArgumentException("version " + version + " of the message format is not supported");
+		}
+
+		Message message = new Message();
+		message.setId(readValue(in));
+		message.setStatus(in.readByte());
+
+		byte direction = in.readByte();
+		message.setDirection(direction == NULL_DIRECTION ? null : Direction.getFlow(direction));
+
+		message.setSource(readString(in));
+		message.setDestination(readString(in));
+		message.setReference(readString(in));
+		message.setCreationTime((Date) readValue(in));
+		message.setModificationTime((Date) readValue(in));
+
+		int numProperties = in.readVarInt();
+		for (int i=0; i < numProperties; i++) {
+			String key = readString(in);
+			message.setProperty(key, readValue(in));
+		}
+
+		return message;
+	}
+
+	private void writeString(Output out, String value) {
+		if (value == null) {
+			out.writeVarInt(0);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeVarInt(bytes.length + 1);
+		out.writeBytes(bytes);
+	}
+
+	private String readString(Input in) {
+		int length = in.readVarInt() - 1;
+		if (length < 0) {
+			return null;
+		}
+
+		int offset = in.skip(length);
+		return new String(in.buffer, offset, length, UTF8);
+	}
+
+	private void writeValue(Output out, Object value) {
+		if (value == null) {
+			out.writeByte(TAG_NULL);
+			return;
+		}
+
+		// we compare the exact classes so subclasses (e.g. java.sql.Timestamp) are serialized with their type
+		Class<?> type = value.getClass();
+		if (type == String.class) {
+			out.writeByte(TAG_STRING);
+			writeString(out, (String) value);
+		} else if (type == Integer.class) {
+			out.writeByte(TAG_INTEGER);
+			out.writeVarInt(zigZag((Integer) value));
+		} else if (type == Long.class) {
+			out.writeByte(TAG_LONG);
+			out.writeVarLong(zigZag((Long) value));
+		} else if (type == Boolean.class) {
+			out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+		} else if (type == Double.class) {
+			out.writeByte(TAG_DOUBLE);
+			out.writeLong(Double.doubleToLongBits((Double) value));
+		} else if (type == Float.class) {
+			out.writeByte(TAG_FLOAT);
+			out.writeInt(Float.floatToIntBits((Float) value));
+		} else if (type == Short.class) {
+			out.writeByte(TAG_SHORT);
+			out.writeVarInt(zigZag((Short) value));
+		} else if (type == Byte.class) {
+			out.writeByte(TAG_BYTE);
+			out.writeByte((Byte) value);
+		} else if (type == Character.class) {
+			out.writeByte(TAG_CHARACTER);
+			out.writeVarInt((Character) value);
+		} else if (type == Date.class) {
+			out.writeByte(TAG_DATE);
+			out.writeVarLong(zigZag(((Date) value).getTime()));
+		} else if (type == byte[].class) {
+			out.writeByte(TAG_BYTES);
+			out.writeVarInt(((byte[]) value).length);
+			out.writeBytes((byte[]) value);
+		} else if (type == BigDecimal.class) {
+			out.writeByte(TAG_BIG_DECIMAL);
+			writeString(out, value.toString());
+		} else if (type == BigInteger.class) {
+			out.writeByte(TAG_BIG_INTEGER);
+			byte[] bytes = ((BigInteger) value).toByteArray();
+			out.writeVarInt(bytes.length);
+			out.writeBytes(bytes);
+		} else if (value instanceof Serializable) {
+			out.writeByte(TAG_SERIALIZED);
+			byte[] bytes = serialize(value);
+			out.writeVarInt(bytes.length);
+			out.writeBytes(bytes);
+		} else {
+			throw new IllegalArgumentException("can't encode value of type " + type.getName() + ", it is not serializable");
+		}
+	}
+
+	private Object readValue(Input in) {
+		byte tag = in.readByte();
+		switch (tag) {
+			case TAG_NULL:
+				return null;
+			case TAG_STRING:
+				return readString(in);
+			case TAG_INTEGER:
+				return unZigZag(in.readVarInt());
+			case TAG_LONG:
+				return unZigZag(in.readVarLong());
+			case TAG_TRUE:
+				return Boolean.TRUE;
+			case TAG_FALSE:
+				return Boolean.FALSE;
+			case TAG_DOUBLE:
+				return Double.longBitsToDouble(in.readLong());
+			case TAG_FLOAT:
+				return Float.intBitsToFloat(in.readInt());
+			case TAG_SHORT:
+				return (short) unZigZag(in.readVarInt());
+			case TAG_BYTE:
+				return in.readByte();
+			case TAG_CHARACTER:
+				return (char) in.readVarInt();
+			case TAG_DATE:
+				return new Date(unZigZag(in.readVarLong()));
+			case TAG_BYTES:
+				return readBytes(in);
+			case TAG_BIG_DECIMAL:
+				return new BigDecimal(readString(in));
+			case TAG_BIG_INTEGER:
+				return new BigInteger(readBytes(in));
+			case TAG_SERIALIZED:
+				return deserialize(readBytes(in));
+			default:
+				throw new IllegalArgumentException("unknown value tag: " + tag);
+		}
+	}
+
+	private byte[] readBytes(Input in) {
+		int length = in.readVarInt();
+		int offset = in.skip(length);
+
+		byte[] bytes = new byte[length];
+		System.arraycopy(in.buffer, offset, bytes, 0, length);
+
+		return bytes;
+	}
+
+	private byte[] serialize(Object value) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(value);
+			out.close();
+
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("can't serialize value of type " + value.getClass().getName(), e);
+		}
+	}
+
+	private Object deserialize(byte[] bytes) {
+		try {
+			ObjectInputStream in = new TrustedObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return in.readObject();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("can't deserialize value: " + e.getMessage(), e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException("can't deserialize value: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Helper method. Tells if a class can be deserialized.
+	 *
+	 * @param className the name of the class as returned by {@link ObjectStreamClass#getName()}.
+	 * @return true if the class (or the component type of an array) is primitive or belongs to a trusted package.
+	 */
+	private boolean isTrusted(String className) {
+		// the component type of an array, e.g. [Ljava.lang.String; or [I
+		String name = className;
+		if (name.startsWith("[")) {
+			name = StringUtils.stripStart(name, "[");
+			if (!name.startsWith("L")) {
+				return true;
+			}
+			name = name.substring(1, name.length() - 1);
+		}
+
+		for (String trustedPackage : trustedPackages) {
+			if ("*".equals(trustedPackage) || name.startsWith(trustedPackage + ".")) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static int zigZag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unZigZag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * An ObjectInputStream that rejects the classes that are not trusted before they are loaded.
+	 */
+	private class TrustedObjectInputStream extends ObjectInputStream {
+
+		public TrustedObjectInputStream(InputStream in) throws IOException {
+			super(in);
+		}
+
+		@Override
+		protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if (!isTrusted(desc.getName())) {
+				throw new InvalidClassException(desc.getName(), "class is not in a trusted package");
+			}
+
+			return super.resolveClass(desc);
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+			for (String name : interfaces) {
+				if (!isTrusted(name)) {
+					throw new InvalidClassException(name, "interface is not in a trusted package");
+				}
+			}
+
+			return super.resolveProxyClass(interfaces);
+		}
+
+	}
+
+	/**
+	 * A growable buffer to which the message is written.
+	 */
+	private static class Output {
+
+		private byte[] buffer;
+
+		private int position;
+
+		public Output(int capacity) {
+			buffer = new byte[capacity];
+		}
+
+		public void writeByte(int value) {
+			ensureCapacity(1);
+			buffer[position++] = (byte) value;
+		}
+
+		public void writeBytes(byte[] bytes) {
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+
+		public void writeInt(int value) {
+			ensureCapacity(4);
+			for (int shift=24; shift >= 0; shift -= 8) {
+				buffer[position++] = (byte) (value >>> shift);
+			}
+		}
+
+		public void writeLong(long value) {
+			ensureCapacity(8);
+			for (int shift=56; shift >= 0; shift -= 8) {
+				buffer[position++] = (byte) (value >>> shift);
+			}
+		}
+
+		/**
+		 * Writes an unsigned int in groups of 7 bits, the highest bit of each byte tells if there are more bytes.
+		 */
+		public void writeVarInt(int value) {
+			ensureCapacity(5);
+			while ((value & ~0x7F) != 0) {
+				buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte) value;
+		}
+
+		public void writeVarLong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte) value;
+		}
+
+		public byte[] toByteArray() {
+			byte[] bytes = new byte[position];
+			System.arraycopy(buffer, 0, bytes, 0, position);
+
+			return bytes;
+		}
+
+		private void ensureCapacity(int length) {
+			if (position + length > buffer.length) {
+				byte[] newBuffer = new byte[Math.max(buffer.length * 2, position + length)];
+				System.arraycopy(buffer, 0, newBuffer, 0, position);
+				buffer = newBuffer;
+			}
+		}
+
+	}
+
+	/**
+	 * Reads the message from the bytes.
+	 */
+	private static class Input {
+
+		private final byte[] buffer;
+
+		private int position;
+
+		public Input(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		public byte readByte() {
+			check(1);
+			return buffer[position++];
+		}
+
+		public int readInt() {
+			check(4);
+			int value = 0;
+			for (int i=0; i < 4; i++) {
+				value = (value << 8) | (buffer[position++] & 0xFF);
+			}
+
+			return value;
+		}
+
+		public long readLong() {
+			check(8);
+			long value = 0;
+			for (int i=0; i < 8; i++) {
+				value = (value << 8) | (buffer[position++] & 0xFF);
+			}
+
+			return value;
+		}
+
+		public int readVarInt() {
+			int value = 0;
+			for (int shift=0; shift < 35; shift += 7) {
+				byte b = readByte();
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+
+			throw new IllegalArgumentException("malformed varint at position " + position);
+		}
+
+		public long readVarLong() {
+			long value = 0;
+			for (int shift=0; shift < 70; shift += 7) {
+				byte b = readByte();
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+
+			throw new IllegalArgumentException("malformed varlong at position " + position);
+		}
+
+		/**
+		 * Skips a number of bytes.
+		 *
+		 * @return the position before skipping the bytes.
+		 */
+		public int skip(int length) {
+			if (length < 0) {
+				throw new IllegalArgumentException("negative length " + length + " at position " + position);
+			}
+
+			check(length);
+			int offset = position;
+			position += length;
+
+			return offset;
+		}
+
+		private void check(int length) {
+			if (position + length > buffer.length) {
+				throw new IllegalArgumentException("unexpected end of message at position " + position);
+			}
+		}
+
+	}
+
+}
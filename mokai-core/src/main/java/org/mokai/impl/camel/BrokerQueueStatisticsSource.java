@@ -0,0 +1,72 @@
+package org.mokai.impl.camel;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.activemq.broker.BrokerRegistry;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.Destination;
+import org.apache.activemq.broker.region.DestinationStatistics;
+import org.apache.activemq.command.ActiveMQDestination;
+
+/**
+ * A {@link QueueStatisticsSource} that reads the destination statistics of an embedded ActiveMQ broker (i.e. one that
+ * runs in the same JVM and is accessed with the <code>vm://</code> transport) directly from its regions, instead of
+ * going through JMX.
+ *
+ * @author German Escobar
+ */
+public class BrokerQueueStatisticsSource implements QueueStatisticsSource {
+
+	/**
+	 * The name of the broker, null to use the first broker that is registered.
+	 */
+	private String brokerName;
+
+	/**
+	 * Creates an instance that reads the statistics of the first broker that is registered in the JVM.
+	 */
+	public BrokerQueueStatisticsSource() {
+
+	}
+
+	public BrokerQueueStatisticsSource(String brokerName) {
+		this.brokerName = brokerName;
+	}
+
+	@Override
+	public Map<String,QueueStatistics> read() throws Exception {
+		BrokerService brokerService = brokerName == null ? BrokerRegistry.getInstance().findFirst()
+				: BrokerRegistry.getInstance().lookup(brokerName);
+		if (brokerService == null || brokerService.getBroker() == null) {
+			return Collections.emptyMap();
+		}
+
+		Map<ActiveMQDestination,Destination> destinations = brokerService.getBroker().getDestinationMap();
+
+		Map<String,QueueStatistics> statistics = new HashMap<String,QueueStatistics>(destinations.size() * 2);
+		for (Map.Entry<ActiveMQDestination,Destination> entry : destinations.entrySet()) {
+			if (!entry.getKey().isQueue()) {
+				continue;
+			}
+
+			DestinationStatistics destinationStatistics = entry.getValue().getDestinationStatistics();
+			statistics.put(entry.getKey().getPhysicalName(), new QueueStatistics(
+					destinationStatistics.getMessages().getCount(),
+					destinationStatistics.getEnqueues().getCount(),
+					destinationStatistics.getDequeues().getCount()));
+		}
+
+		return statistics;
+	}
+
+	public String getBrokerName() {
+		return brokerName;
+	}
+
+	public void setBrokerName(String brokerName) {
+		this.brokerName = brokerName;
+	}
+
+}
@@ -1,17 +1,23 @@
 package org.mokai.impl.camel;
 
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.management.InstanceAlreadyExistsException;
 
@@ -19,13 +25,13 @@ import net.gescobar.jmx.Management;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.camel.CamelContext;
-import org.apache.camel.ExchangePattern;
 import org.apache.camel.ProducerTemplate;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.component.jms.JmsComponent;
 import org.apache.camel.impl.DefaultCamelContext;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.Validate;
+import org.mokai.Acceptor;
 import org.mokai.Connector;
 import org.mokai.ConnectorService;
 import org.mokai.ExecutionException;
@@ -36,7 +42,6 @@ import org.mokai.ObjectAlreadyExistsException;
 import org.mokai.ObjectNotFoundException;
 import org.mokai.RoutingEngine;
 import org.mokai.persist.MessageCriteria;
-import org.mokai.persist.MessageCriteria.OrderType;
 import org.mokai.persist.MessageStore;
 import org.mokai.persist.impl.DefaultMessageStore;
 import org.slf4j.Logger;
@@ -51,6 +56,10 @@ public class CamelRoutingEngine implements RoutingEngine {
 
 	private Logger log = LoggerFactory.getLogger(CamelRoutingEngine.class);
 
+	private static final String DEFAULT_RETRY_CHECKPOINT_DIR = "data/retry/";
+	private static final long DEFAULT_UNROUTABLE_RETRY_DELAY = 5000;
+	private static final int DEFAULT_UNROUTABLE_RETRY_RATE = 100;
+
 	private Map<String,ConnectorService> applications = new ConcurrentHashMap<String,ConnectorService>();
 
 	private Map<String,ConnectorService> connections = new ConcurrentHashMap<String,ConnectorService>();
@@ -59,10 +68,64 @@ public class CamelRoutingEngine implements RoutingEngine {
 
 	private JmsComponent jmsComponent;
 
+	/**
+	 * Used by the {@link MessageRetrier}s to re-inject the messages, created when the CamelContext is started.
+	 */
+	private ProducerTemplate retryProducer;
+
+	/**
+	 * Converts the messages that are sent and received through the JMS queues, it uses a {@link BinaryMessageCodec}
+	 * by default.
+	 */
+	private final MessageCodecConverter messageConverter = new MessageCodecConverter(new BinaryMessageCodec());
+
 	private ResourceRegistry resourceRegistry;
 
 	private ConnectorServiceChangeListener connectorServiceChangeListener;
 
+	private ConnectionsRouter connectionsRouter;
+
+	private ApplicationsRouter applicationsRouter;
+
+	/**
+	 * The number of messages that are read from the {@link MessageStore} at once when retrying messages.
+	 */
+	private int retryPageSize = MessageRetrier.DEFAULT_PAGE_SIZE;
+
+	/**
+	 * The maximum number of messages per second that are re-injected when retrying messages, 0 for no limit.
+	 */
+	private int retryRate;
+
+	/**
+	 * The directory in which the page that is being retried is saved, null to disable it.
+	 */
+	private String retryCheckpointDir = DEFAULT_RETRY_CHECKPOINT_DIR;
+
+	/**
+	 * The milliseconds to wait after a routing change before retrying the unroutable messages, so that a batch of
+	 * changes (e.g. adding a connection and its acceptors) triggers a single retry.
+	 */
+	private long unroutableRetryDelay = DEFAULT_UNROUTABLE_RETRY_DELAY;
+
+	/**
+	 * The maximum number of unroutable messages per second that are re-injected after a routing change, 0 for no
+	 * limit.
+	 */
+	private int unroutableRetryRate = DEFAULT_UNROUTABLE_RETRY_RATE;
+
+	/**
+	 * The routing tables with which the unroutable messages were last retried, by direction.
+	 */
+	private final Map<Direction,RoutingTable> retriedRoutingTables = new EnumMap<Direction,RoutingTable>(Direction.class);
+
+	/**
+	 * Runs the retries of unroutable messages triggered by routing changes, created when the engine is started.
+	 */
+	private volatile ScheduledExecutorService unroutableRetryScheduler;
+
+	private final AtomicBoolean unroutableRetryScheduled = new AtomicBoolean();
+
 	private ExecutorService executor =
 			new ThreadPoolExecutor(2, 25, Long.MAX_VALUE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
 
@@ -79,7 +142,7 @@ public class CamelRoutingEngine implements RoutingEngine {
 	 */
 	private JmsComponent defaultJmsComponent() {
 		// a simple activemq connection factory
-		ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory("vm://broker1?broker.persistent=false");
+		ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory("vm://broker1?broker.persistent=false&broker.schedulerSupport=true");
                 connectionFactory.setTrustAllPackages(true);
 		// create the default JmsComponent
 		JmsComponent jmsComponent = new JmsComponent();
@@ -107,13 +170,29 @@ public class CamelRoutingEngine implements RoutingEngine {
 		camelContext = new DefaultCamelContext();
 		resourceRegistry.putResource(CamelContext.class, camelContext);
 
+		// samples the statistics of the queues that are reported by the connectors
+		QueueStatisticsSampler queueStatisticsSampler = new QueueStatisticsSampler(new BrokerQueueStatisticsSource());
+		resourceRegistry.putResource(QueueStatisticsSampler.class, queueStatisticsSampler);
+
+		jmsComponent.setMessageConverter(messageConverter);
 		camelContext.addComponent("activemq", jmsComponent);
 
-		final ConnectionsRouter connectionsRouter = new ConnectionsRouter();
+		RoutingChangeListener routingChangeListener = new RoutingChangeListener() {
+
+			@Override
+			public void routingChanged(AbstractRouter router) {
+				scheduleUnRoutableRetry();
+			}
+
+		};
+
+		connectionsRouter = new ConnectionsRouter();
 		connectionsRouter.setRoutingEngine(this);
+		connectionsRouter.setChangeListener(routingChangeListener);
 
-		final ApplicationsRouter applicationsRouter = new ApplicationsRouter();
+		applicationsRouter = new ApplicationsRouter();
 		applicationsRouter.setRoutingEngine(this);
+		applicationsRouter.setChangeListener(routingChangeListener);
 
 		try {
 			camelContext.addRoutes(new RouteBuilder() {
@@ -162,6 +241,8 @@ public class CamelRoutingEngine implements RoutingEngine {
 
 			// start the
 			camelContext.start();
+			retryProducer = camelContext.createProducerTemplate();
+			queueStatisticsSampler.start();
 
 			try {
 				Management.register( new RoutingEngineMBean(this), "org.mokai:type=RoutingEngine");
@@ -211,12 +292,33 @@ public class CamelRoutingEngine implements RoutingEngine {
 			});
 		}
 
+		// retry the unroutable messages with the current routing (it could have changed since the last run)
+		unroutableRetryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "unroutable-retry");
+				thread.setDaemon(true);
+
+				return thread;
+			}
+
+		});
+		scheduleUnRoutableRetry();
+
 		log.info("all connectors started");
 	}
 
 	public final synchronized void stop() throws ExecutionException {
 		log.debug("stopping all connectors ... ");
 
+		ScheduledExecutorService scheduler = unroutableRetryScheduler;
+		if (scheduler != null) {
+			unroutableRetryScheduler = null;
+			unroutableRetryScheduled.set(false);
+			scheduler.shutdownNow();
+		}
+
 		// stop applications
 		for (final ConnectorService cs : applications.values()) {
 			try {
@@ -249,11 +351,25 @@ public class CamelRoutingEngine implements RoutingEngine {
 	public final synchronized void shutdown() throws ExecutionException {
 		stop();
 
+		try {
+			retryProducer.stop();
+		} catch (Exception e) {
+			log.warn("Exception stopping the ProducerTemplate of the retries: " + e.getMessage(), e);
+		}
+
 		try {
 			camelContext.stop();
 		} catch (Exception e) {
 			log.error("Exception while shutting down Mokai: " + e.getMessage(), e);
 		}
+
+		resourceRegistry.getResource(QueueStatisticsSampler.class).stop();
+
+		// flush the messages that are waiting to be persisted
+		BatchMessageWriter messageWriter = resourceRegistry.getResource(BatchMessageWriter.class);
+		if (messageWriter != null) {
+			messageWriter.stop();
+		}
 	}
 
 	@Override
@@ -273,11 +389,13 @@ public class CamelRoutingEngine implements RoutingEngine {
 		// create the ConnectorService instance and set the change listener
 		CamelApplicationService applicationService = new CamelApplicationService(fixedId, connector, resourceRegistry);
 		applicationService.setChangeListener(connectorServiceChangeListener);
+		applicationService.setRouter(applicationsRouter);
 
 		// configure the connector
 		LifecycleMethodsHelper.configure(connector);
 
 		applications.put(fixedId, applicationService);
+		applicationsRouter.invalidate();
 
 		log.info("application with id " + fixedId + " added");
 
@@ -288,7 +406,7 @@ public class CamelRoutingEngine implements RoutingEngine {
 
 	@Override
 	public final RoutingEngine removeApplication(String id) throws IllegalArgumentException, ObjectNotFoundException {
-		removeAndDestroyConnector(id, applications, "applications");
+		removeAndDestroyConnector(id, applications, applicationsRouter, "applications");
 
 		return this;
 	}
@@ -320,11 +438,13 @@ public class CamelRoutingEngine implements RoutingEngine {
 		// create the ConnectorService instance and set the change listener
 		CamelConnectionService connectionService = new CamelConnectionService(fixedId, connector, resourceRegistry);
 		connectionService.setChangeListener(connectorServiceChangeListener);
+		connectionService.setRouter(connectionsRouter);
 
 		// configure the connector
 		LifecycleMethodsHelper.configure(connector);
 
 		connections.put(fixedId, connectionService);
+		connectionsRouter.invalidate();
 
 		log.info("connection with id " + fixedId + " added");
 
@@ -335,7 +455,7 @@ public class CamelRoutingEngine implements RoutingEngine {
 
 	@Override
 	public final RoutingEngine removeConnection(String id) throws IllegalArgumentException, ObjectNotFoundException {
-		removeAndDestroyConnector(id, connections, "connections");
+		removeAndDestroyConnector(id, connections, connectionsRouter, "connections");
 		return this;
 	}
 
@@ -369,13 +489,15 @@ public class CamelRoutingEngine implements RoutingEngine {
 		}
 	}
 
-	private void removeAndDestroyConnector(String id, Map<String,ConnectorService> map, String mapName) {
+	private void removeAndDestroyConnector(String id, Map<String,ConnectorService> map, AbstractRouter router,
+			String mapName) {
 		Validate.notEmpty(id);
 
 		ConnectorService cs = map.remove(id);
 		if (cs == null) {
 			throw new ObjectNotFoundException("Connector with id " + id + " doesnt exists in map of " + mapName);
 		}
+		router.invalidate();
 
 		// call the destroy method on the processor or receiver service
 		cs.destroy();
@@ -424,45 +546,187 @@ public class CamelRoutingEngine implements RoutingEngine {
 
 		long startTime = new Date().getTime();
 
-		MessageStore messageStore = resourceRegistry.getResource(MessageStore.class);
+		MessageRetrier retrier = createMessageRetrier();
 
-		ProducerTemplate producer = camelContext.createProducerTemplate();
-
-		MessageCriteria criteria = new MessageCriteria()
-				.addStatus(Message.STATUS_FAILED)
-				.orderBy("creation_time")
-				.orderType(OrderType.UPWARDS);
-
-		Collection<Message> messages = messageStore.list(criteria);
-		logCollectionSize(messages.size()); // log the size of the collection
-		for (Message message : messages) {
-			// update the message and send it
-			message.setStatus(Message.STATUS_RETRYING);
-			message.setModificationTime(new Date());
-			messageStore.saveOrUpdate(message);
-
-			if (message.getDirection().equals(Direction.TO_CONNECTIONS)) {
-				producer.sendBody(UriConstants.CONNECTIONS_ROUTER, ExchangePattern.InOnly, message);
-			} else if (message.getDirection().equals(Direction.TO_APPLICATIONS)) {
-				producer.sendBody(UriConstants.APPLICATIONS_ROUTER, ExchangePattern.InOnly, message);
-			} else {
-				log.warn("message with direction " + message.getDirection() + " cannot be retried ... ignoring");
-			}
-		}
+		int count = retrier.retry("failed", new MessageCriteria()
+				.direction(Direction.TO_CONNECTIONS)
+				.addStatus(Message.STATUS_FAILED), null);
+
+		count += retrier.retry("failed", new MessageCriteria()
+				.direction(Direction.TO_APPLICATIONS)
+				.addStatus(Message.STATUS_FAILED), null);
+
+		logCollectionSize(count); // log the number of messages
 
 		long endTime = new Date().getTime();
 
 		log.debug("retry failed messages took " + (endTime - startTime) + " milis.");
 	}
 
+	/**
+	 * Helper method. Creates a {@link MessageRetrier} with the current {@link MessageStore} and the retry settings.
+	 */
+	private MessageRetrier createMessageRetrier() {
+		MessageStore messageStore = resourceRegistry.getResource(MessageStore.class);
+
+		MessageRetrier retrier = new MessageRetrier(messageStore, retryProducer);
+		retrier.setPageSize(retryPageSize);
+		retrier.setRate(retryRate);
+		if (retryCheckpointDir != null) {
+			retrier.setCheckpoint(new RetryCheckpoint(new File(retryCheckpointDir)));
+		}
+
+		return retrier;
+	}
+
 	private void logCollectionSize(int size) {
 		if (size > 0) {
-			log.debug("processing " + size + " failed messages ...");
+			log.debug("retried " + size + " failed messages ...");
 		}
 	}
 
+	/**
+	 * Re-injects the unroutable messages that could be routed by the connections or applications that were added,
+	 * or whose acceptors changed, since the last time this method was called (the first time all the routes are
+	 * considered). The messages are read in pages and re-injected at the <code>unroutableRetryRate</code>.
+	 *
+	 * This method is called automatically after the routing changes while the engine is started.
+	 */
 	public final void retryUnRoutableMessages() {
+		synchronized (retriedRoutingTables) {
+			log.trace("retrying unroutable messages ... ");
+
+			long startTime = new Date().getTime();
+
+			MessageRetrier retrier = createMessageRetrier();
+			retrier.setRate(unroutableRetryRate);
 
+			int count = retryUnRoutableMessages(retrier, connectionsRouter, Direction.TO_CONNECTIONS);
+			count += retryUnRoutableMessages(retrier, applicationsRouter, Direction.TO_APPLICATIONS);
+
+			if (count > 0) {
+				log.info("retried " + count + " unroutable messages");
+			}
+
+			long endTime = new Date().getTime();
+
+			log.debug("retry unroutable messages took " + (endTime - startTime) + " milis.");
+		}
+	}
+
+	/**
+	 * Helper method. Re-injects the unroutable messages of a direction that could be routed by the routes that
+	 * changed since the last retry.
+	 *
+	 * @return the number of messages that were re-injected.
+	 */
+	private int retryUnRoutableMessages(MessageRetrier retrier, AbstractRouter router, Direction direction) {
+		RoutingTable previous = retriedRoutingTables.get(direction);
+		RoutingTable current = router.getRoutingTable();
+		if (previous == current) {
+			return 0;
+		}
+
+		int count = 0;
+
+		Acceptor filter = router.createChangedRoutesFilter(previous, current);
+		if (filter != null) {
+			count = retrier.retry("unroutable", new MessageCriteria()
+					.direction(direction)
+					.addStatus(Message.STATUS_UNROUTABLE), filter);
+		}
+
+		retriedRoutingTables.put(direction, current);
+
+		return count;
+	}
+
+	/**
+	 * Helper method. Schedules a retry of the unroutable messages after the <code>unroutableRetryDelay</code> if
+	 * the engine is started and there isn't one scheduled already.
+	 */
+	private void scheduleUnRoutableRetry() {
+		ScheduledExecutorService scheduler = unroutableRetryScheduler;
+		if (scheduler == null || !unroutableRetryScheduled.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			scheduler.schedule(new Runnable() {
+
+				@Override
+				public void run() {
+					// changes from now on schedule a new retry
+					unroutableRetryScheduled.set(false);
+
+					try {
+						retryUnRoutableMessages();
+					} catch (Exception e) {
+						log.error("Exception while retrying unroutable messages: " + e.getMessage(), e);
+					}
+				}
+
+			}, unroutableRetryDelay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// the engine is being stopped
+			unroutableRetryScheduled.set(false);
+		}
+	}
+
+	public final int getRetryPageSize() {
+		return retryPageSize;
+	}
+
+	public final void setRetryPageSize(int retryPageSize) {
+		Validate.isTrue(retryPageSize > 0, "The retry page size must be greater than 0");
+		this.retryPageSize = retryPageSize;
+	}
+
+	public final int getRetryRate() {
+		return retryRate;
+	}
+
+	public final void setRetryRate(int retryRate) {
+		this.retryRate = retryRate;
+	}
+
+	public final String getRetryCheckpointDir() {
+		return retryCheckpointDir;
+	}
+
+	public final void setRetryCheckpointDir(String retryCheckpointDir) {
+		this.retryCheckpointDir = retryCheckpointDir;
+	}
+
+	public final long getUnroutableRetryDelay() {
+		return unroutableRetryDelay;
+	}
+
+	public final void setUnroutableRetryDelay(long unroutableRetryDelay) {
+		this.unroutableRetryDelay = unroutableRetryDelay;
+	}
+
+	public final int getUnroutableRetryRate() {
+		return unroutableRetryRate;
+	}
+
+	public final void setUnroutableRetryRate(int unroutableRetryRate) {
+		this.unroutableRetryRate = unroutableRetryRate;
+	}
+
+	public final MessageCodec getMessageCodec() {
+		return messageConverter.getCodec();
+	}
+
+	/**
+	 * Sets the codec used to encode the messages that are sent through the JMS queues. The messages that were encoded
+	 * with the {@link BinaryMessageCodec} or sent as Java serialized objects can still be read after the codec is
+	 * changed.
+	 *
+	 * @param messageCodec the codec to use or null to send the messages as Java serialized objects.
+	 */
+	public final void setMessageCodec(MessageCodec messageCodec) {
+		messageConverter.setCodec(messageCodec);
 	}
 
 	public final RedeliveryPolicy getRedeliveryPolicy() {
@@ -470,7 +734,7 @@ public class CamelRoutingEngine implements RoutingEngine {
 	}
 
 	public final void setRedeliveryPolicy(RedeliveryPolicy redeliveryPolicy) {
-		resourceRegistry.getResource(RedeliveryPolicy.class);
+		resourceRegistry.putResource(RedeliveryPolicy.class, redeliveryPolicy);
 	}
 
 	@Override
@@ -486,6 +750,56 @@ public class CamelRoutingEngine implements RoutingEngine {
 		return camelContext;
 	}
 
+	public final BatchMessageWriter getMessageWriter() {
+		return resourceRegistry.getResource(BatchMessageWriter.class);
+	}
+
+	/**
+	 * Sets a {@link BatchMessageWriter} to persist the processed, failed and unroutable messages asynchronously
+	 * in batches and starts it. By default, messages are persisted synchronously. The writer is flushed and stopped
+	 * when the routing engine is shutdown.
+	 *
+	 * @param messageWriter the BatchMessageWriter to use or null to persist the messages synchronously.
+	 */
+	public final void setMessageWriter(BatchMessageWriter messageWriter) {
+		BatchMessageWriter oldMessageWriter = resourceRegistry.getResource(BatchMessageWriter.class);
+
+		if (messageWriter != null) {
+			messageWriter.setResourceRegistry(resourceRegistry);
+			messageWriter.start();
+			resourceRegistry.putResource(BatchMessageWriter.class, messageWriter);
+		} else {
+			resourceRegistry.removeResource(BatchMessageWriter.class);
+		}
+
+		if (oldMessageWriter != null && oldMessageWriter != messageWriter) {
+			oldMessageWriter.stop();
+		}
+	}
+
+	public final QueueStatisticsSampler getQueueStatisticsSampler() {
+		return resourceRegistry.getResource(QueueStatisticsSampler.class);
+	}
+
+	/**
+	 * Sets the {@link QueueStatisticsSampler} from which the connectors report the statistics of their queues and
+	 * starts it. By default, the statistics are sampled every second from the first embedded ActiveMQ broker.
+	 *
+	 * @param queueStatisticsSampler the sampler to use.
+	 */
+	public final void setQueueStatisticsSampler(QueueStatisticsSampler queueStatisticsSampler) {
+		Validate.notNull(queueStatisticsSampler);
+
+		QueueStatisticsSampler oldSampler = resourceRegistry.getResource(QueueStatisticsSampler.class);
+
+		queueStatisticsSampler.start();
+		resourceRegistry.putResource(QueueStatisticsSampler.class, queueStatisticsSampler);
+
+		if (oldSampler != null && oldSampler != queueStatisticsSampler) {
+			oldSampler.stop();
+		}
+	}
+
 	public ConnectorServiceChangeListener getConnectorServiceChangeListener() {
 		return connectorServiceChangeListener;
 	}
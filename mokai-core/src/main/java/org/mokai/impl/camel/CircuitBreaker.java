@@ -0,0 +1,158 @@
+package org.mokai.impl.camel;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>Keeps the state of the circuit breaker of a connector. The breaker starts <code>CLOSED</code> (messages flow
+ * normally); it <code>OPEN</code>s when a number of consecutive messages fail (the <code>threshold</code>) and the
+ * connector stops consuming messages. After the <code>openTimeout</code>, the breaker is <code>HALF_OPEN</code>:
+ * a single message is processed as a probe, if it succeeds the breaker is closed and if it fails the breaker is opened
+ * again. The rest of the messages are not allowed until the probe finishes.</p>
+ *
+ * <p>This class only keeps the state and tells the caller when a transition happened (using compare-and-set so that
+ * only one thread sees each transition); the {@link AbstractCamelConnectorService} is responsible of suspending and
+ * resuming the consumption of messages.</p>
+ *
+ * @author German Escobar
+ */
+public class CircuitBreaker {
+
+	/**
+	 * The states of the circuit breaker.
+	 *
+	 * @author German Escobar
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN;
+	}
+
+	private static final int DEFAULT_THRESHOLD = 10;
+	private static final long DEFAULT_OPEN_TIMEOUT = 30000;
+
+	private final AtomicReference<State> state = new AtomicReference<State>(State.CLOSED);
+
+	/**
+	 * The number of consecutive failed messages that open the breaker, 0 or less to disable it.
+	 */
+	private volatile int threshold = DEFAULT_THRESHOLD;
+
+	/**
+	 * The milliseconds the breaker stays open before probing the connector again.
+	 */
+	private volatile long openTimeout = DEFAULT_OPEN_TIMEOUT;
+
+	private volatile long openedAt;
+
+	/**
+	 * True while the breaker is half-open and a probe has been allowed.
+	 */
+	private final AtomicBoolean probing = new AtomicBoolean();
+
+	/**
+	 * Tells if a message can be processed. If the breaker is half-open, only the first caller is allowed (the probe)
+	 * until {@link #onSuccess()} or {@link #onFailure(int)} is called.
+	 *
+	 * @return true if the message can be processed, false otherwise.
+	 */
+	public boolean allowRequest() {
+		State current = state.get();
+		if (current == State.CLOSED) {
+			return true;
+		}
+		if (current == State.OPEN) {
+			return false;
+		}
+
+		return probing.compareAndSet(false, true);
+	}
+
+	/**
+	 * Called when a message is processed successfully.
+	 *
+	 * @return true if the breaker was closed by this call, false otherwise.
+	 */
+	public boolean onSuccess() {
+		State current = state.get();
+		if (current == State.CLOSED) {
+			return false;
+		}
+
+		if (state.compareAndSet(current, State.CLOSED)) {
+			probing.set(false);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Called when a message fails.
+	 *
+	 * @param consecutiveFailures the number of messages that have failed consecutively.
+	 * @return true if the breaker was opened by this call, false otherwise.
+	 */
+	public boolean onFailure(int consecutiveFailures) {
+		if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+			openedAt = System.currentTimeMillis();
+			probing.set(false);
+			return true;
+		}
+
+		if (threshold > 0 && consecutiveFailures >= threshold && state.compareAndSet(State.CLOSED, State.OPEN)) {
+			openedAt = System.currentTimeMillis();
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Moves the breaker from open to half-open.
+	 *
+	 * @return true if the breaker was half-opened by this call, false otherwise.
+	 */
+	public boolean halfOpen() {
+		return state.compareAndSet(State.OPEN, State.HALF_OPEN);
+	}
+
+	/**
+	 * Closes the breaker.
+	 *
+	 * @return true if the breaker wasn't closed, false otherwise.
+	 */
+	public boolean reset() {
+		boolean closed = state.getAndSet(State.CLOSED) != State.CLOSED;
+		probing.set(false);
+
+		return closed;
+	}
+
+	public State getState() {
+		return state.get();
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public void setThreshold(int threshold) {
+		this.threshold = threshold;
+	}
+
+	public long getOpenTimeout() {
+		return openTimeout;
+	}
+
+	public void setOpenTimeout(long openTimeout) {
+		this.openTimeout = openTimeout;
+	}
+
+	/**
+	 * @return the time (in millis) at which the breaker was opened the last time, 0 if it has never been opened.
+	 */
+	public long getOpenedAt() {
+		return openedAt;
+	}
+
+}
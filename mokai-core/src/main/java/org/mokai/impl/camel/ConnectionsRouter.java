@@ -16,11 +16,6 @@ public class ConnectionsRouter extends AbstractRouter {
 		return routingEngine.getConnections();
 	}
 
-	@Override
-	protected ConnectorService getConnectorService(String id) {
-		return routingEngine.getConnection(id);
-	}
-
 	@Override
 	protected String getUriPrefix() {
 		return "activemq:connection-";
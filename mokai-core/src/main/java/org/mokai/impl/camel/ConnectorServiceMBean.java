@@ -33,11 +33,99 @@ public class ConnectorServiceMBean {
 		return connectorService.getMaxConcurrentMsgs();
 	}
 
+	@ManagedAttribute(description="The transport of the queue of the connector: JMS or MEMORY")
+	public String getTransport() {
+		return connectorService.getTransport().name();
+	}
+
+	@ManagedAttribute(description="The number of messages removed from the full memory queue")
+	public long getDroppedMessages() {
+		return connectorService.getDroppedMessages();
+	}
+
+	@ManagedAttribute(description="The max number of messages per second, 0 if there is no limit")
+	public int getMaxTps() {
+		return connectorService.getMaxTps();
+	}
+
+	public void setMaxTps(int maxTps) {
+		connectorService.setMaxTps(maxTps);
+	}
+
+	@ManagedAttribute(description="The max number of messages that can be processed at once above the max tps")
+	public int getMaxBurst() {
+		return connectorService.getMaxBurst();
+	}
+
+	public void setMaxBurst(int maxBurst) {
+		connectorService.setMaxBurst(maxBurst);
+	}
+
+	@ManagedAttribute(description="The number of messages that had to wait because of the max tps")
+	public long getThrottledMessages() {
+		return connectorService.getTokenBucket().getThrottledCount();
+	}
+
+	@ManagedAttribute(description="The total time in millis that messages have waited because of the max tps")
+	public long getThrottleWaitMillis() {
+		return connectorService.getTokenBucket().getTotalWaitMillis();
+	}
+
+	@ManagedAttribute(description="The longest time in millis that a message has waited because of the max tps")
+	public long getMaxThrottleWaitMillis() {
+		return connectorService.getTokenBucket().getMaxWaitMillis();
+	}
+
+	@ManagedOperation(impact=Impact.ACTION, description="Resets the throttling metrics")
+	public void resetThrottleMetrics() {
+		connectorService.getTokenBucket().resetMetrics();
+	}
+
+	@ManagedAttribute(description="The state of the circuit breaker: CLOSED, OPEN or HALF_OPEN")
+	public String getCircuitBreakerState() {
+		return connectorService.getCircuitBreaker().getState().name();
+	}
+
+	@ManagedAttribute(description="The number of consecutive failed messages that open the circuit breaker, 0 to disable it")
+	public int getCircuitBreakerThreshold() {
+		return connectorService.getCircuitBreaker().getThreshold();
+	}
+
+	public void setCircuitBreakerThreshold(int threshold) {
+		connectorService.getCircuitBreaker().setThreshold(threshold);
+	}
+
+	@ManagedAttribute(description="The millis the circuit breaker stays open before probing the connector again")
+	public long getCircuitBreakerOpenTimeout() {
+		return connectorService.getCircuitBreaker().getOpenTimeout();
+	}
+
+	public void setCircuitBreakerOpenTimeout(long openTimeout) {
+		connectorService.getCircuitBreaker().setOpenTimeout(openTimeout);
+	}
+
+	@ManagedOperation(impact=Impact.ACTION, description="Closes the circuit breaker and resumes the consumption of messages")
+	public void resetCircuitBreaker() {
+		connectorService.resetCircuitBreaker();
+	}
+
 	@ManagedAttribute(description="The number of queued messages")
 	public int getNumQueuedMessages() {
 		return connectorService.getNumQueuedMessages();
 	}
 
+	@ManagedAttribute(description="The messages per second added to the JMS queue, sampled every second")
+	public double getEnqueueRate() {
+		QueueStatistics statistics = connectorService.getQueueStatistics();
+		return statistics == null ? 0 : statistics.getEnqueueRate();
+	}
+
+	@ManagedAttribute(description="The messages per second consumed from the JMS queue, sampled every second")
+	public double getDequeueRate() {
+		QueueStatistics statistics = connectorService.getQueueStatistics();
+		return statistics == null ? 0 : statistics.getDequeueRate();
+	}
+
 	@ManagedAttribute(description="The state of the connector: STARTED or STOPPED")
 	public String getState() {
 		return connectorService.getState().name();
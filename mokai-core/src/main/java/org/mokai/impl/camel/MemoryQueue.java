@@ -0,0 +1,78 @@
+package org.mokai.impl.camel;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.camel.Exchange;
+import org.mokai.ConnectorService.QueueFullPolicy;
+import org.mokai.ConnectorService.Transport;
+
+/**
+ * <p>The bounded in-process queue of a connector that uses the {@link Transport#MEMORY} transport. It is passed to
+ * the SEDA endpoint of the connector, whose producer calls <code>put</code> when the policy is
+ * {@link QueueFullPolicy#BLOCK} (waiting until there is space in the queue) or <code>add</code> otherwise.</p>
+ *
+ * <p>With the {@link QueueFullPolicy#DROP_OLDEST} policy, offering an exchange to a full queue removes the oldest
+ * exchanges until the new one fits. The removed exchanges are passed to an {@link OverflowHandler}.</p>
+ *
+ * @author German Escobar
+ */
+public class MemoryQueue extends LinkedBlockingQueue<Exchange> {
+
+	private static final long serialVersionUID = 4305614329838474592L;
+
+	/**
+	 * Receives the exchanges that are removed from a full queue.
+	 *
+	 * @author German Escobar
+	 */
+	public interface OverflowHandler {
+
+		/**
+		 * Called (in the thread that is adding an exchange) when an exchange is removed from the queue to make room
+		 * for a new one.
+		 *
+		 * @param exchange the exchange that was removed.
+		 */
+		void dropped(Exchange exchange);
+
+	}
+
+	private final QueueFullPolicy policy;
+
+	private final transient OverflowHandler overflowHandler;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param capacity the maximum number of exchanges in the queue.
+	 * @param policy what to do when the queue is full.
+	 * @param overflowHandler receives the exchanges that are dropped, can be null.
+	 */
+	public MemoryQueue(int capacity, QueueFullPolicy policy, OverflowHandler overflowHandler) {
+		super(capacity);
+
+		this.policy = policy;
+		this.overflowHandler = overflowHandler;
+	}
+
+	@Override
+	public boolean offer(Exchange exchange) {
+		if (policy != QueueFullPolicy.DROP_OLDEST) {
+			return super.offer(exchange);
+		}
+
+		while (!super.offer(exchange)) {
+			Exchange dropped = poll();
+			if (dropped != null && overflowHandler != null) {
+				overflowHandler.dropped(dropped);
+			}
+		}
+
+		return true;
+	}
+
+	public QueueFullPolicy getPolicy() {
+		return policy;
+	}
+
+}
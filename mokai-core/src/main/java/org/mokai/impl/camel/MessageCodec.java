@@ -0,0 +1,31 @@
+package org.mokai.impl.camel;
+
+import org.mokai.Message;
+
+/**
+ * Converts a {@link Message} to bytes and back. Used by the {@link MessageCodecConverter} to transport the messages
+ * through the JMS queues of the {@link CamelRoutingEngine}.
+ *
+ * @author German Escobar
+ */
+public interface MessageCodec {
+
+	/**
+	 * Encodes a message.
+	 *
+	 * @param message the message to encode.
+	 * @return the bytes that represent the message.
+	 * @throws IllegalArgumentException if the message (or one of its properties) can't be encoded.
+	 */
+	byte[] encode(Message message) throws IllegalArgumentException;
+
+	/**
+	 * Decodes a message that was encoded with the {@link #encode(Message)} method.
+	 *
+	 * @param bytes the bytes that represent the message.
+	 * @return the decoded message.
+	 * @throws IllegalArgumentException if the bytes are not a valid message or its version is not supported.
+	 */
+	Message decode(byte[] bytes) throws IllegalArgumentException;
+
+}
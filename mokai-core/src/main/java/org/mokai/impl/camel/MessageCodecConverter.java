@@ -0,0 +1,109 @@
+package org.mokai.impl.camel;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+import org.mokai.Message;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.springframework.jms.support.converter.MessageConverter;
+import org.springframework.jms.support.converter.SimpleMessageConverter;
+
+/**
+ * <p>A JMS <code>MessageConverter</code> that writes the {@link Message}s to <code>BytesMessage</code>s using a
+ * {@link MessageCodec}. It is set in the JMS component of the {@link CamelRoutingEngine}.</p>
+ *
+ * <p>The messages that were sent by previous versions as Java serialized <code>ObjectMessage</code>s (e.g. the ones
+ * that are still in the store of the broker) are read as before. Any other object is converted with the default
+ * converter.</p>
+ *
+ * @author German Escobar
+ */
+public class MessageCodecConverter implements MessageConverter {
+
+	/**
+	 * The name of the JMS property that identifies the messages encoded with a {@link MessageCodec}.
+	 */
+	public static final String CODEC_PROPERTY = "mokaiCodec";
+
+	private final MessageConverter defaultConverter = new SimpleMessageConverter();
+
+	private final MessageCodec binaryCodec = new BinaryMessageCodec();
+
+	/**
+	 * The codec used to encode the messages, null to send them as Java serialized ObjectMessages.
+	 */
+	private volatile MessageCodec codec;
+
+	public MessageCodecConverter(MessageCodec codec) {
+		this.codec = codec;
+	}
+
+	@Override
+	public javax.jms.Message toMessage(Object object, Session session) throws JMSException, MessageConversionException {
+		MessageCodec codec = this.codec;
+		if (codec == null || !(object instanceof Message)) {
+			return defaultConverter.toMessage(object, session);
+		}
+
+		byte[] bytes;
+		try {
+			bytes = codec.encode((Message) object);
+		} catch (IllegalArgumentException e) {
+			throw new MessageConversionException("couldn't encode message: " + e.getMessage(), e);
+		}
+
+		BytesMessage jmsMessage = session.createBytesMessage();
+		jmsMessage.setStringProperty(CODEC_PROPERTY, codec.getClass().getName());
+		jmsMessage.writeBytes(bytes);
+
+		return jmsMessage;
+	}
+
+	@Override
+	public Object fromMessage(javax.jms.Message jmsMessage) throws JMSException, MessageConversionException {
+		if (jmsMessage instanceof BytesMessage && jmsMessage.propertyExists(CODEC_PROPERTY)) {
+			return decode((BytesMessage) jmsMessage);
+		}
+
+		// fallback for the Java serialized messages
+		if (jmsMessage instanceof ObjectMessage) {
+			return ((ObjectMessage) jmsMessage).getObject();
+		}
+
+		return defaultConverter.fromMessage(jmsMessage);
+	}
+
+	private Message decode(BytesMessage jmsMessage) throws JMSException {
+		String codecName = jmsMessage.getStringProperty(CODEC_PROPERTY);
+
+		MessageCodec codec = this.codec;
+		if (codec == null || !codec.getClass().getName().equals(codecName)) {
+			// the message was encoded before the codec was changed or disabled
+			if (!BinaryMessageCodec.class.getName().equals(codecName)) {
+				throw new MessageConversionException("couldn't decode message, unknown codec: " + codecName);
+			}
+
+			codec = binaryCodec;
+		}
+
+		byte[] bytes = new byte[(int) jmsMessage.getBodyLength()];
+		jmsMessage.readBytes(bytes);
+
+		try {
+			return codec.decode(bytes);
+		} catch (IllegalArgumentException e) {
+			throw new MessageConversionException("couldn't decode message: " + e.getMessage(), e);
+		}
+	}
+
+	public MessageCodec getCodec() {
+		return codec;
+	}
+
+	public void setCodec(MessageCodec codec) {
+		this.codec = codec;
+	}
+
+}
@@ -0,0 +1,384 @@
+package org.mokai.impl.camel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.ProducerTemplate;
+import org.apache.commons.lang.Validate;
+import org.mokai.Acceptor;
+import org.mokai.Message;
+import org.mokai.Message.Direction;
+import org.mokai.persist.AbstractMessageStore;
+import org.mokai.persist.MessageCount;
+import org.mokai.persist.MessageCriteria;
+import org.mokai.persist.MessageCriteria.OrderType;
+import org.mokai.persist.MessageStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Re-injects persisted messages (e.g. failed or unroutable) into the routers. The messages of each destination
+ * are read in pages ordered by id, each page starting after the last id of the previous one (keyset pagination).
+ * The destinations are read in rounds: each round takes the next page of every destination that still has
+ * messages, so only one round is held in memory at a time no matter how many messages have to be retried, and a
+ * destination with many messages doesn't delay the others.</p>
+ *
+ * <p>For each round, the status of the messages is updated to {@link Message#STATUS_RETRYING} with a single
+ * {@link MessageStore#updateStatus(MessageCriteria, byte)} call and then the messages are re-injected, alternating
+ * between destinations, at the configured rate.</p>
+ *
+ * <p>If a {@link RetryCheckpoint} is set, the ids of the page are saved before updating their status. If the node
+ * restarts in the middle of a page, the messages of the page that are still retrying are re-injected the next time
+ * the retry runs; a message could be re-injected twice in that case.</p>
+ *
+ * @author German Escobar
+ */
+public class MessageRetrier {
+
+	private Logger log = LoggerFactory.getLogger(MessageRetrier.class);
+
+	public static final int DEFAULT_PAGE_SIZE = 500;
+
+	private final MessageStore messageStore;
+
+	private final ProducerTemplate producer;
+
+	private int pageSize = DEFAULT_PAGE_SIZE;
+
+	/**
+	 * Limits the rate at which the messages are re-injected, disabled by default.
+	 */
+	private final TokenBucket tokenBucket = new TokenBucket(0, 1);
+
+	private RetryCheckpoint checkpoint;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param messageStore the store from which the messages are read.
+	 * @param producer used to re-inject the messages.
+	 */
+	public MessageRetrier(MessageStore messageStore, ProducerTemplate producer) {
+		Validate.notNull(messageStore, "A MessageStore must be provided");
+		Validate.notNull(producer, "A ProducerTemplate must be provided");
+
+		this.messageStore = messageStore;
+		this.producer = producer;
+	}
+
+	/**
+	 * Re-injects all the messages that match the criteria.
+	 *
+	 * @param key identifies the retry in the checkpoint, e.g. "failed-to-connections".
+	 * @param criteria the criteria of the messages to retry; the direction and at least one status are required.
+	 * The order, limits and ids are set by this method.
+	 * @param filter if not null, only the messages accepted by the filter are retried.
+	 * @return the number of messages that were re-injected.
+	 */
+	public int retry(String key, MessageCriteria criteria, Acceptor filter) {
+		Direction direction = criteria.getDirection();
+		Validate.isTrue(Direction.TO_CONNECTIONS.equals(direction) || Direction.TO_APPLICATIONS.equals(direction),
+				"The direction must be TO_CONNECTIONS or TO_APPLICATIONS");
+		Validate.notEmpty(criteria.getStatus(), "At least one status must be provided");
+
+		int count = resume(key, direction);
+
+		List<Cursor> cursors = createCursors(criteria);
+
+		// the page size is shared by the destinations of a round
+		int cursorPageSize = Math.max(1, pageSize / cursors.size());
+
+		while (!cursors.isEmpty() && !Thread.currentThread().isInterrupted()) {
+			List<List<Message>> pages = new ArrayList<List<Message>>();
+
+			Iterator<Cursor> iterator = cursors.iterator();
+			while (iterator.hasNext()) {
+				Cursor cursor = iterator.next();
+
+				List<Message> page = cursor.next(cursorPageSize, filter);
+				if (!page.isEmpty()) {
+					pages.add(page);
+				}
+				if (!cursor.hasNext()) {
+					iterator.remove();
+				}
+			}
+
+			if (!pages.isEmpty()) {
+				count += retryPage(key, direction, criteria.getStatus(), interleave(pages));
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Helper method. Creates a {@link Cursor} for each destination that has messages matching the criteria. If the
+	 * destinations can't be told apart (e.g. the unroutable messages don't have a destination) or there is only one,
+	 * a single cursor reads all the messages.
+	 *
+	 * @return the cursors, at least one.
+	 */
+	private List<Cursor> createCursors(MessageCriteria criteria) {
+		Set<String> destinations = new LinkedHashSet<String>();
+		boolean withoutDestination = false;
+		for (MessageCount messageCount : AbstractMessageStore.countGrouped(messageStore, criteria)) {
+			if (messageCount.getDestination() == null) {
+				withoutDestination = true;
+			} else if (messageCount.getCount() > 0) {
+				destinations.add(messageCount.getDestination());
+			}
+		}
+
+		List<Cursor> cursors = new ArrayList<Cursor>();
+		if (withoutDestination || destinations.size() <= 1 || criteria.getDestination() != null) {
+			cursors.add(new Cursor(copy(criteria, criteria.getDestination())));
+			return cursors;
+		}
+
+		for (String destination : destinations) {
+			cursors.add(new Cursor(copy(criteria, destination)));
+		}
+
+		return cursors;
+	}
+
+	/**
+	 * Helper method. Copies the criteria that select the messages to retry.
+	 */
+	private MessageCriteria copy(MessageCriteria criteria, String destination) {
+		MessageCriteria copy = new MessageCriteria()
+			.direction(criteria.getDirection())
+			.destination(destination)
+			.createdFrom(criteria.getCreatedFrom())
+			.createdTo(criteria.getCreatedTo());
+		copy.setStatus(new ArrayList<Byte>(criteria.getStatus()));
+		copy.setProperties(new HashMap<String,Object>(criteria.getProperties()));
+
+		return copy;
+	}
+
+	/**
+	 * Helper method. Re-injects the messages of a page that was being retried when the node stopped.
+	 *
+	 * @return the number of messages that were re-injected.
+	 */
+	private int resume(String key, Direction direction) {
+		if (checkpoint == null) {
+			return 0;
+		}
+
+		String checkpointKey = getCheckpointKey(key, direction);
+		List<Object> ids = checkpoint.load(checkpointKey);
+		if (ids.isEmpty()) {
+			return 0;
+		}
+
+		MessageCriteria criteria = new MessageCriteria()
+			.direction(direction)
+			.addStatus(Message.STATUS_RETRYING);
+		criteria.setIds(ids);
+
+		Collection<Message> messages = messageStore.list(criteria);
+		log.info("resuming retry " + checkpointKey + " with " + messages.size() + " messages");
+
+		int count = send(direction, messages);
+		if (!Thread.currentThread().isInterrupted()) {
+			checkpoint.clear(checkpointKey);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Helper method. Updates the status of the messages to retrying and re-injects them.
+	 *
+	 * @return the number of messages that were re-injected.
+	 */
+	private int retryPage(String key, Direction direction, List<Byte> status, List<Message> messages) {
+		MessageCriteria updateCriteria = new MessageCriteria().direction(direction);
+		updateCriteria.setStatus(new ArrayList<Byte>(status));
+		for (Message message : messages) {
+			if (message.getId() != null) {
+				updateCriteria.addId(message.getId());
+			}
+		}
+
+		String checkpointKey = getCheckpointKey(key, direction);
+		if (checkpoint != null) {
+			checkpoint.save(checkpointKey, updateCriteria.getIds());
+		}
+
+		if (!updateCriteria.getIds().isEmpty()) {
+			messageStore.updateStatus(updateCriteria, Message.STATUS_RETRYING);
+		}
+
+		Date modificationTime = new Date();
+		for (Message message : messages) {
+			message.setStatus(Message.STATUS_RETRYING);
+			message.setModificationTime(modificationTime);
+		}
+
+		int count = send(direction, messages);
+
+		if (checkpoint != null && !Thread.currentThread().isInterrupted()) {
+			checkpoint.clear(checkpointKey);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Helper method. Sends the messages to the router of the direction at the configured rate.
+	 *
+	 * @return the number of messages that were sent.
+	 */
+	private int send(Direction direction, Collection<Message> messages) {
+		String uri = Direction.TO_CONNECTIONS.equals(direction) ? UriConstants.CONNECTIONS_ROUTER :
+			UriConstants.APPLICATIONS_ROUTER;
+
+		int count = 0;
+		for (Message message : messages) {
+			try {
+				tokenBucket.acquire();
+			} catch (InterruptedException e) {
+				// keep the flag, the checkpoint is kept so the rest of the messages are sent the next time
+				Thread.currentThread().interrupt();
+				return count;
+			}
+
+			message.setDirection(direction);
+			producer.sendBody(uri, ExchangePattern.InOnly, message);
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Helper method. Orders the pages so that the destinations alternate (the first message of each page, then the
+	 * second of each page, and so on), keeping the order of the messages of each page.
+	 *
+	 * @param pages the pages of the destinations.
+	 * @return a new list with the messages.
+	 */
+	private List<Message> interleave(List<List<Message>> pages) {
+		List<Iterator<Message>> iterators = new LinkedList<Iterator<Message>>();
+		int size = 0;
+		for (List<Message> page : pages) {
+			iterators.add(page.iterator());
+			size += page.size();
+		}
+
+		List<Message> ret = new ArrayList<Message>(size);
+		while (!iterators.isEmpty()) {
+			Iterator<Iterator<Message>> iterator = iterators.iterator();
+			while (iterator.hasNext()) {
+				Iterator<Message> page = iterator.next();
+				ret.add(page.next());
+				if (!page.hasNext()) {
+					iterator.remove();
+				}
+			}
+		}
+
+		return ret;
+	}
+
+	private String getCheckpointKey(String key, Direction direction) {
+		return key + "-" + direction.name().toLowerCase();
+	}
+
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public void setPageSize(int pageSize) {
+		Validate.isTrue(pageSize > 0, "The page size must be greater than 0");
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * @return the maximum number of messages re-injected per second, 0 if there is no limit.
+	 */
+	public int getRate() {
+		return tokenBucket.getTps();
+	}
+
+	/**
+	 * @param rate the maximum number of messages re-injected per second, 0 to disable the limit.
+	 */
+	public void setRate(int rate) {
+		tokenBucket.setRate(rate, 1);
+	}
+
+	public RetryCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	public void setCheckpoint(RetryCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Reads the messages of a destination in pages ordered by id.
+	 *
+	 * @author German Escobar
+	 */
+	private class Cursor {
+
+		private final MessageCriteria criteria;
+
+		private Object lastId;
+
+		private boolean hasNext = true;
+
+		public Cursor(MessageCriteria criteria) {
+			this.criteria = criteria;
+			this.criteria.orderBy("id").orderType(OrderType.UPWARDS).lowerLimit(0);
+		}
+
+		/**
+		 * Reads the next page.
+		 *
+		 * @param pageSize the maximum number of messages to read.
+		 * @param filter if not null, only the messages accepted by the filter are returned.
+		 * @return the messages of the page that were accepted by the filter, can be empty.
+		 */
+		public List<Message> next(int pageSize, Acceptor filter) {
+			criteria.afterId(lastId).numRecords(pageSize);
+			Collection<Message> messages = messageStore.list(criteria);
+
+			Object pageLastId = lastId;
+			List<Message> accepted = new ArrayList<Message>();
+			for (Message message : messages) {
+				if (message.getId() != null) {
+					pageLastId = message.getId();
+				}
+				if (filter == null || filter.accepts(message)) {
+					accepted.add(message);
+				}
+			}
+
+			// the last page or the store doesn't paginate by id
+			hasNext = messages.size() >= pageSize && pageLastId != null && !pageLastId.equals(lastId);
+			lastId = pageLastId;
+
+			return accepted;
+		}
+
+		public boolean hasNext() {
+			return hasNext;
+		}
+
+	}
+
+}
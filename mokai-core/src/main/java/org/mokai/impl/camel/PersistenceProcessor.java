@@ -13,7 +13,8 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Camel Processor implementation used by the {@link CamelRoutingEngine} to
- * save or update messages.
+ * save or update messages. If a {@link BatchMessageWriter} is registered and
+ * started, the messages are handed to it to be persisted asynchronously.
  *
  * @author German Escobar
  */
@@ -32,6 +33,13 @@ public class PersistenceProcessor implements Processor {
 		Message message = (Message) exchange.getIn().getBody(Message.class);
 
 		try {
+			// if there is a batch message writer, the message is persisted asynchronously
+			BatchMessageWriter messageWriter = resourceRegistry.getResource(BatchMessageWriter.class);
+			if (messageWriter != null && messageWriter.isStarted()) {
+				messageWriter.write(message);
+				return;
+			}
+
 			MessageStore messageStore = resourceRegistry.getResource(MessageStore.class);
 
 			boolean insert = message.getId() == null;
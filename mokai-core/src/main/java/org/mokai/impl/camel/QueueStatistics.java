@@ -0,0 +1,73 @@
+package org.mokai.impl.camel;
+
+/**
+ * An immutable snapshot of the statistics of a queue taken by the {@link QueueStatisticsSampler}: the number of
+ * messages in the queue, the total number of messages enqueued and dequeued since the queue was created, and the
+ * enqueue and dequeue rates (in messages per second) since the previous sample.
+ *
+ * @author German Escobar
+ */
+public class QueueStatistics {
+
+	private final long depth;
+
+	private final long enqueueCount;
+
+	private final long dequeueCount;
+
+	private final double enqueueRate;
+
+	private final double dequeueRate;
+
+	/**
+	 * Creates statistics without rates, used by the {@link QueueStatisticsSource} implementations.
+	 *
+	 * @param depth the number of messages in the queue.
+	 * @param enqueueCount the total number of messages enqueued.
+	 * @param dequeueCount the total number of messages dequeued.
+	 */
+	public QueueStatistics(long depth, long enqueueCount, long dequeueCount) {
+		this(depth, enqueueCount, dequeueCount, 0, 0);
+	}
+
+	public QueueStatistics(long depth, long enqueueCount, long dequeueCount, double enqueueRate, double dequeueRate) {
+		this.depth = depth;
+		this.enqueueCount = enqueueCount;
+		this.dequeueCount = dequeueCount;
+		this.enqueueRate = enqueueRate;
+		this.dequeueRate = dequeueRate;
+	}
+
+	public long getDepth() {
+		return depth;
+	}
+
+	public long getEnqueueCount() {
+		return enqueueCount;
+	}
+
+	public long getDequeueCount() {
+		return dequeueCount;
+	}
+
+	/**
+	 * @return the messages enqueued per second since the previous sample.
+	 */
+	public double getEnqueueRate() {
+		return enqueueRate;
+	}
+
+	/**
+	 * @return the messages dequeued per second since the previous sample.
+	 */
+	public double getDequeueRate() {
+		return dequeueRate;
+	}
+
+	@Override
+	public String toString() {
+		return "depth=" + depth + ", enqueued=" + enqueueCount + ", dequeued=" + dequeueCount + ", enqueueRate="
+				+ enqueueRate + ", dequeueRate=" + dequeueRate;
+	}
+
+}
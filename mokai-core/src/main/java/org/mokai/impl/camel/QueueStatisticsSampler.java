@@ -0,0 +1,174 @@
+package org.mokai.impl.camel;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Samples the statistics of the queues from a {@link QueueStatisticsSource} at a fixed interval in a single thread
+ * and calculates the enqueue and dequeue rates since the previous sample. Each sample is published as an immutable
+ * snapshot, so {@link #getStatistics(String)} is a lock-free map lookup that can be called as often as needed (e.g. by
+ * the monitors that poll the number of queued messages of every connector).</p>
+ *
+ * <p>The statistics are at most one interval old. They are not available until the first sample is taken.</p>
+ *
+ * @author German Escobar
+ */
+public class QueueStatisticsSampler {
+
+	private Logger log = LoggerFactory.getLogger(QueueStatisticsSampler.class);
+
+	public static final long DEFAULT_INTERVAL = 1000;
+
+	private final QueueStatisticsSource source;
+
+	/**
+	 * The milliseconds between samples.
+	 */
+	private long interval = DEFAULT_INTERVAL;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * The statistics of the last sample by queue name, replaced (never modified) by the sampling thread.
+	 */
+	private volatile Map<String,QueueStatistics> snapshot = Collections.emptyMap();
+
+	/**
+	 * The time of the last sample (System.nanoTime()), only accessed by the sampling thread.
+	 */
+	private long lastSampleTime;
+
+	public QueueStatisticsSampler(QueueStatisticsSource source) {
+		Validate.notNull(source);
+		this.source = source;
+	}
+
+	/**
+	 * Starts the thread that takes the samples. Does nothing if it is already started.
+	 */
+	public final synchronized void start() {
+		if (scheduler != null) {
+			return;
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "queue-statistics");
+				thread.setDaemon(true);
+
+				return thread;
+			}
+
+		});
+
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				sample();
+			}
+
+		}, 0, interval, TimeUnit.MILLISECONDS);
+
+		log.debug("queue statistics sampler started with interval " + interval + " millis");
+	}
+
+	/**
+	 * Stops the thread that takes the samples. The last snapshot remains available.
+	 */
+	public final synchronized void stop() {
+		if (scheduler == null) {
+			return;
+		}
+
+		scheduler.shutdownNow();
+		scheduler = null;
+
+		log.debug("queue statistics sampler stopped");
+	}
+
+	/**
+	 * Reads the statistics from the source, calculates the rates against the previous sample and publishes the new
+	 * snapshot. Called periodically by the sampling thread once started.
+	 */
+	public final synchronized void sample() {
+		Map<String,QueueStatistics> counters;
+		try {
+			counters = source.read();
+		} catch (Exception e) {
+			log.warn("Exception reading queue statistics: " + e.getMessage(), e);
+			return;
+		}
+
+		long now = System.nanoTime();
+		double elapsedSeconds = (now - lastSampleTime) / 1000000000.0;
+
+		Map<String,QueueStatistics> previous = snapshot;
+		Map<String,QueueStatistics> statistics = new HashMap<String,QueueStatistics>(counters.size() * 2);
+		for (Map.Entry<String,QueueStatistics> entry : counters.entrySet()) {
+			QueueStatistics current = entry.getValue();
+			QueueStatistics last = previous.get(entry.getKey());
+
+			double enqueueRate = 0;
+			double dequeueRate = 0;
+			if (last != null && elapsedSeconds > 0) {
+				enqueueRate = rate(last.getEnqueueCount(), current.getEnqueueCount(), elapsedSeconds);
+				dequeueRate = rate(last.getDequeueCount(), current.getDequeueCount(), elapsedSeconds);
+			}
+
+			statistics.put(entry.getKey(), new QueueStatistics(current.getDepth(), current.getEnqueueCount(),
+					current.getDequeueCount(), enqueueRate, dequeueRate));
+		}
+
+		lastSampleTime = now;
+		snapshot = Collections.unmodifiableMap(statistics);
+	}
+
+	/**
+	 * Helper method. The counters are reset when a queue is recreated, in which case the rate is 0.
+	 */
+	private double rate(long lastCount, long currentCount, double elapsedSeconds) {
+		return Math.max(0, (currentCount - lastCount) / elapsedSeconds);
+	}
+
+	/**
+	 * @param queueName the name of the queue.
+	 * @return the statistics of the queue from the last sample or null if the queue was not found.
+	 */
+	public QueueStatistics getStatistics(String queueName) {
+		return snapshot.get(queueName);
+	}
+
+	/**
+	 * @return an unmodifiable map with the statistics of every queue from the last sample, by queue name.
+	 */
+	public Map<String,QueueStatistics> getStatistics() {
+		return snapshot;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Sets the milliseconds between samples, applies the next time the sampler is started.
+	 *
+	 * @param interval the milliseconds between samples.
+	 */
+	public void setInterval(long interval) {
+		Validate.isTrue(interval > 0, "interval must be greater than 0");
+		this.interval = interval;
+	}
+
+}
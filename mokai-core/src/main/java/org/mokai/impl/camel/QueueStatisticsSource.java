@@ -0,0 +1,23 @@
+package org.mokai.impl.camel;
+
+import java.util.Map;
+
+/**
+ * Reads the current statistics of the queues. Used by the {@link QueueStatisticsSampler}, which is the only one
+ * calling it (from a single thread).
+ *
+ * @author German Escobar
+ */
+public interface QueueStatisticsSource {
+
+	/**
+	 * Reads the depth and the enqueue and dequeue counters of every queue (the rates are calculated by the
+	 * {@link QueueStatisticsSampler}).
+	 *
+	 * @return a map with the statistics of each queue, keyed by the name of the queue. An empty map if the queues are
+	 * not available.
+	 * @throws Exception if anything goes wrong.
+	 */
+	Map<String,QueueStatistics> read() throws Exception;
+
+}
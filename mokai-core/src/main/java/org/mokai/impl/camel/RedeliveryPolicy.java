@@ -1,22 +1,61 @@
 package org.mokai.impl.camel;
 
+import java.util.Random;
+
 
 /**
- * Defines the maximum redeliveries and delay between attempts that the
+ * <p>Defines the maximum redeliveries and delay between attempts that the
  * {@link CamelRoutingEngine} should perform on {@link org.mokaiProcessor}s
- * before declaring the message as failed.
+ * before declaring the message as failed.</p>
+ *
+ * <p>By default, every redelivery waits <code>maxRedeliveryDelay</code> milliseconds. The
+ * delay can grow exponentially: the first redelivery waits <code>redeliveryDelay</code>
+ * milliseconds and every subsequent one multiplies the previous delay by the
+ * <code>backOffMultiplier</code>, up to <code>maxRedeliveryDelay</code>. A random
+ * <code>jitter</code> (a fraction of the delay) can be added or subtracted so that the messages
+ * that failed at the same time are not redelivered at the same time.</p>
  *
  * @author German Escobar
  */
 public class RedeliveryPolicy {
 
 	private static final int DEFAULT_MAX_REDELIVERIES = 3;
+	private static final long DEFAULT_REDELIVERY_DELAY = -1;
 	private static final long DEFAULT_MAX_REDELIVERY_DELAY = 3000;
+	private static final double DEFAULT_BACK_OFF_MULTIPLIER = 1.0;
+	private static final double DEFAULT_JITTER = 0.0;
+
+	private final Random random = new Random();
 
 	private int maxRedeliveries = DEFAULT_MAX_REDELIVERIES;
 
+	private long redeliveryDelay = DEFAULT_REDELIVERY_DELAY;
+
 	private long maxRedeliveryDelay = DEFAULT_MAX_REDELIVERY_DELAY;
 
+	private double backOffMultiplier = DEFAULT_BACK_OFF_MULTIPLIER;
+
+	private double jitter = DEFAULT_JITTER;
+
+	/**
+	 * Calculates the delay before a redelivery.
+	 *
+	 * @param attempt the number of the attempt that failed, starting from 1.
+	 * @return the number of milliseconds to wait before the next attempt.
+	 */
+	public long getRedeliveryDelay(int attempt) {
+		long initialDelay = redeliveryDelay >= 0 ? redeliveryDelay : maxRedeliveryDelay;
+
+		double delay = initialDelay * Math.pow(backOffMultiplier, Math.max(attempt - 1, 0));
+		delay = Math.min(delay, maxRedeliveryDelay);
+
+		if (jitter > 0) {
+			delay += delay * jitter * (2 * random.nextDouble() - 1);
+		}
+
+		return Math.max(0, Math.min((long) delay, maxRedeliveryDelay));
+	}
+
 	public final int getMaxRedeliveries() {
 		return maxRedeliveries;
 	}
@@ -25,6 +64,18 @@ public class RedeliveryPolicy {
 		this.maxRedeliveries = maxRedeliveries;
 	}
 
+	public final long getRedeliveryDelay() {
+		return redeliveryDelay;
+	}
+
+	/**
+	 * @param redeliveryDelay the milliseconds to wait before the first redelivery. If negative (the default), the
+	 * <code>maxRedeliveryDelay</code> is used.
+	 */
+	public final void setRedeliveryDelay(long redeliveryDelay) {
+		this.redeliveryDelay = redeliveryDelay;
+	}
+
 	public final long getMaxRedeliveryDelay() {
 		return maxRedeliveryDelay;
 	}
@@ -33,4 +84,23 @@ public class RedeliveryPolicy {
 		this.maxRedeliveryDelay = maxRedeliveryDelay;
 	}
 
+	public final double getBackOffMultiplier() {
+		return backOffMultiplier;
+	}
+
+	public final void setBackOffMultiplier(double backOffMultiplier) {
+		this.backOffMultiplier = backOffMultiplier;
+	}
+
+	public final double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * @param jitter the fraction of the delay (between 0 and 1) that is randomly added or subtracted.
+	 */
+	public final void setJitter(double jitter) {
+		this.jitter = jitter;
+	}
+
 }
@@ -1,26 +1,36 @@
 package org.mokai.impl.camel;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.mokai.ExecutionException;
 import org.mokai.annotation.Resource;
 
 /**
  * Helper class to inject resources into objects. Resource objects must be
- * annotated with {@link Resource}.
+ * annotated with {@link Resource}. The annotated fields of each class are
+ * looked up once and cached.
  *
  * @author German Escobar
  */
 public final class ResourceInjector {
 
+	private static final Field[] NO_FIELDS = new Field[0];
+
+	/**
+	 * The fields annotated with {@link Resource} by class (already accessible).
+	 */
+	private static final ConcurrentMap<Class<?>,Field[]> resourceFields = new ConcurrentHashMap<Class<?>,Field[]>();
+
 	private ResourceInjector() {}
 
 	public static void inject(Object object, Object resource) {
-		Field[] fields = object.getClass().getDeclaredFields();
+		Field[] fields = getResourceFields(object.getClass());
 		for (Field field : fields) {
-			if (field.isAnnotationPresent(Resource.class)
-					&& field.getType().isInstance(resource)) {
-				field.setAccessible(true);
+			if (field.getType().isInstance(resource)) {
 				try {
 					field.set(object, resource);
 				} catch (Exception e) {
@@ -31,8 +41,41 @@ public final class ResourceInjector {
 	}
 
 	public static void inject(Object object, ResourceRegistry resourceRegistry) {
+		if (getResourceFields(object.getClass()).length == 0) {
+			return;
+		}
+
 		for (Object resource : resourceRegistry.getResources()) {
 			ResourceInjector.inject(object, resource);
 		}
 	}
+
+	/**
+	 * Helper method. Retrieves the fields of a class that are annotated with {@link Resource}, looking them up the
+	 * first time the class is used.
+	 *
+	 * @param clazz the class from which we are retrieving the fields.
+	 * @return an array of accessible Field objects, can be empty.
+	 */
+	private static Field[] getResourceFields(Class<?> clazz) {
+		Field[] fields = resourceFields.get(clazz);
+		if (fields != null) {
+			return fields;
+		}
+
+		List<Field> annotatedFields = new ArrayList<Field>();
+		for (Field field : clazz.getDeclaredFields()) {
+			if (field.isAnnotationPresent(Resource.class)) {
+				field.setAccessible(true);
+				annotatedFields.add(field);
+			}
+		}
+
+		fields = annotatedFields.isEmpty() ? NO_FIELDS : annotatedFields.toArray(new Field[annotatedFields.size()]);
+
+		// another thread could have cached the fields meanwhile, both arrays are equivalent
+		Field[] previous = resourceFields.putIfAbsent(clazz, fields);
+		return previous != null ? previous : fields;
+	}
+
 }
@@ -0,0 +1,147 @@
+package org.mokai.impl.camel;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Saves the ids of the page of messages that is being retried by a {@link MessageRetrier} so that, if the node
+ * restarts in the middle of a retry, the messages of that page that were marked as retrying but not re-injected are
+ * not left behind.</p>
+ *
+ * <p>Each retry has a key and its page is saved in a text file (one id per line) inside the directory of the
+ * checkpoint. The file is deleted when the page is completed.</p>
+ *
+ * @author German Escobar
+ */
+public class RetryCheckpoint {
+
+	private Logger log = LoggerFactory.getLogger(RetryCheckpoint.class);
+
+	private static final String EXTENSION = ".retry";
+
+	private final File dir;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param dir the directory in which the pages are saved, created if necessary.
+	 */
+	public RetryCheckpoint(File dir) {
+		if (dir == null) {
+			throw new IllegalArgumentException("no dir specified");
+		}
+
+		this.dir = dir;
+	}
+
+	/**
+	 * Saves the ids of the page that is going to be retried.
+	 *
+	 * @param key the key of the retry.
+	 * @param ids the ids of the messages of the page.
+	 */
+	public void save(String key, List<Object> ids) {
+		dir.mkdirs();
+
+		File tmpFile = new File(dir, key + EXTENSION + ".tmp");
+		Writer writer = null;
+		try {
+			writer = new FileWriter(tmpFile);
+			for (Object id : ids) {
+				writer.write(id.toString());
+				writer.write("\n");
+			}
+			writer.close();
+			writer = null;
+
+			// replace the previous page
+			File file = getFile(key);
+			if (file.exists()) {
+				file.delete();
+			}
+			if (!tmpFile.renameTo(file)) {
+				throw new IOException("couldn't rename " + tmpFile + " to " + file);
+			}
+		} catch (IOException e) {
+			log.warn("couldn't save the retry checkpoint " + key + ": " + e.getMessage(), e);
+		} finally {
+			if (writer != null) {
+				try { writer.close(); } catch (Exception e) {}
+			}
+		}
+	}
+
+	/**
+	 * Loads the ids of the page that was being retried.
+	 *
+	 * @param key the key of the retry.
+	 * @return the ids of the page or an empty list if there is no page in progress.
+	 */
+	public List<Object> load(String key) {
+		File file = getFile(key);
+		if (!file.exists()) {
+			return Collections.emptyList();
+		}
+
+		List<Object> ids = new ArrayList<Object>();
+
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(file));
+
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (!"".equals(line)) {
+					ids.add(parseId(line));
+				}
+			}
+		} catch (IOException e) {
+			log.warn("couldn't read the retry checkpoint " + key + ": " + e.getMessage(), e);
+		} finally {
+			if (reader != null) {
+				try { reader.close(); } catch (Exception e) {}
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Removes the page of a retry, called when all its messages have been re-injected.
+	 *
+	 * @param key the key of the retry.
+	 */
+	public void clear(String key) {
+		File file = getFile(key);
+		if (file.exists() && !file.delete()) {
+			log.warn("couldn't delete the retry checkpoint " + file);
+		}
+	}
+
+	/**
+	 * Helper method. The ids of the relational stores are numbers, the ones of MongoDB are strings.
+	 */
+	private Object parseId(String value) {
+		try {
+			return Long.valueOf(value);
+		} catch (NumberFormatException e) {
+			return value;
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(dir, key + EXTENSION);
+	}
+
+}
@@ -0,0 +1,19 @@
+package org.mokai.impl.camel;
+
+/**
+ * Receives notifications when the connector services of an {@link AbstractRouter}, their priorities or their
+ * acceptors change.
+ *
+ * @author German Escobar
+ */
+public interface RoutingChangeListener {
+
+	/**
+	 * Called after the router is invalidated. Implementations should return quickly as this method is called from
+	 * the thread that changed the configuration.
+	 *
+	 * @param router the {@link AbstractRouter} that changed.
+	 */
+	void routingChanged(AbstractRouter router);
+
+}
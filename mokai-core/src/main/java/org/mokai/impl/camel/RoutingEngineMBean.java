@@ -5,6 +5,7 @@ import net.gescobar.jmx.annotation.ManagedAttribute;
 import net.gescobar.jmx.annotation.ManagedOperation;
 
 import org.mokai.Message;
+import org.mokai.persist.AbstractMessageStore;
 import org.mokai.persist.MessageCriteria;
 
 /**
@@ -31,13 +32,43 @@ public class RoutingEngineMBean {
 		routingEngine.stop();
 	}
 
+	@ManagedOperation(description="Re-injects the unroutable messages that could be routed by the connectors that "
+			+ "changed since the last retry.", impact=Impact.ACTION)
+	public void retryUnRoutableMessages() {
+		routingEngine.retryUnRoutableMessages();
+	}
+
 	@ManagedAttribute(description="Number of messages that failed or are being retried.")
 	public int getNumFailedMessages() {
 		MessageCriteria criteria = new MessageCriteria()
 			.addStatus(Message.STATUS_FAILED)
 			.addStatus(Message.STATUS_RETRYING);
 
-		return routingEngine.getMessageStore().list(criteria).size();
+		return (int) AbstractMessageStore.count(routingEngine.getMessageStore(), criteria);
+	}
+
+	@ManagedAttribute(description="Number of messages waiting to be persisted by the message writer.")
+	public int getPersistenceQueueSize() {
+		BatchMessageWriter messageWriter = routingEngine.getMessageWriter();
+		return messageWriter != null ? messageWriter.getQueueSize() : 0;
+	}
+
+	@ManagedAttribute(description="Number of messages persisted synchronously because the message writer was full.")
+	public long getPersistenceSynchronousWrites() {
+		BatchMessageWriter messageWriter = routingEngine.getMessageWriter();
+		return messageWriter != null ? messageWriter.getSynchronousWrites() : 0;
+	}
+
+	@ManagedAttribute(description="Average time in milliseconds the message writer takes to persist a batch.")
+	public long getPersistenceAverageFlushTime() {
+		BatchMessageWriter messageWriter = routingEngine.getMessageWriter();
+		return messageWriter != null ? messageWriter.getAverageFlushTime() : 0;
+	}
+
+	@ManagedAttribute(description="Maximum time in milliseconds the message writer has taken to persist a batch.")
+	public long getPersistenceMaxFlushTime() {
+		BatchMessageWriter messageWriter = routingEngine.getMessageWriter();
+		return messageWriter != null ? messageWriter.getMaxFlushTime() : 0;
 	}
 
 }
@@ -0,0 +1,184 @@
+package org.mokai.impl.camel;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.mokai.Acceptor;
+import org.mokai.ConnectorService;
+import org.mokai.Processor;
+
+/**
+ * An immutable, priority ordered snapshot of the connector services used by the {@link AbstractRouter} to route
+ * messages. It is built once every time the connector services, their priorities or their acceptors change, so
+ * routing a message doesn't need to copy, sort or iterate collections.
+ *
+ * @author German Escobar
+ */
+public final class RoutingTable {
+
+	/**
+	 * The routes ordered by priority.
+	 */
+	private final Route[] routes;
+
+	/**
+	 * The routes indexed by the id of the connector service.
+	 */
+	private final Map<String,Route> routesById;
+
+	/**
+	 * The version of the router when this table was built.
+	 */
+	private final int version;
+
+	/**
+	 * The index of the acceptors of the routes.
+	 */
+	private final AcceptorIndex acceptorIndex;
+
+	private RoutingTable(Route[] routes, Map<String,Route> routesById, int version) {
+		this.routes = routes;
+		this.routesById = routesById;
+		this.version = version;
+		this.acceptorIndex = AcceptorIndex.build(routes);
+	}
+
+	/**
+	 * Builds a routing table from a list of connector services that is already ordered by priority.
+	 *
+	 * @param connectorServices the list of {@link ConnectorService} objects ordered by priority.
+	 * @param uriPrefix the prefix of the endpoint URI to which accepted messages are sent (if the connector service
+	 * doesn't provide its own).
+	 * @param version the version of the router that is building the table.
+	 * @return an initialized RoutingTable object.
+	 */
+	public static RoutingTable build(List<ConnectorService> connectorServices, String uriPrefix, int version) {
+		Route[] routes = new Route[connectorServices.size()];
+		Map<String,Route> routesById = new HashMap<String,Route>();
+
+		int index = 0;
+		for (ConnectorService connectorService : connectorServices) {
+			Route route = new Route(connectorService, getUri(connectorService, uriPrefix));
+
+			routes[index++] = route;
+			routesById.put(connectorService.getId(), route);
+		}
+
+		return new RoutingTable(routes, routesById, version);
+	}
+
+	/**
+	 * Helper method. The connector services of the {@link CamelRoutingEngine} know their endpoint (it depends on
+	 * their transport), the others use the prefix of the router.
+	 */
+	private static String getUri(ConnectorService connectorService, String uriPrefix) {
+		if (connectorService instanceof AbstractCamelConnectorService) {
+			return ((AbstractCamelConnectorService) connectorService).getQueueUri();
+		}
+
+		return uriPrefix + connectorService.getId();
+	}
+
+	/**
+	 * @return the routes ordered by priority. The returned array must not be modified.
+	 */
+	public Route[] getRoutes() {
+		return routes;
+	}
+
+	/**
+	 * Retrieves the route of a connector service.
+	 *
+	 * @param id the id of the connector service.
+	 * @return the {@link Route} of the connector service or null if not found.
+	 */
+	public Route getRoute(String id) {
+		return routesById.get(id);
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the {@link AcceptorIndex} used to find the routes that could accept a message.
+	 */
+	public AcceptorIndex getAcceptorIndex() {
+		return acceptorIndex;
+	}
+
+	/**
+	 * Holds the information of a connector service that is needed to route a message: the processor (if the
+	 * connector implements {@link Processor}), a copy of the acceptors, the configuration of the indexed acceptors
+	 * and the endpoint URI.
+	 *
+	 * @author German Escobar
+	 */
+	public static final class Route {
+
+		private final ConnectorService connectorService;
+
+		private final Processor processor;
+
+		private final Acceptor[] acceptors;
+
+		/**
+		 * The configuration of each acceptor when the route was built (see
+		 * {@link AcceptorIndex#getConfiguration(Acceptor)}), used to detect changes to the acceptors themselves.
+		 */
+		private final String[] acceptorConfigurations;
+
+		private final String uri;
+
+		private Route(ConnectorService connectorService, String uri) {
+			this.connectorService = connectorService;
+			this.uri = uri;
+
+			if (Processor.class.isInstance(connectorService.getConnector())) {
+				this.processor = (Processor) connectorService.getConnector();
+			} else {
+				this.processor = null;
+			}
+
+			this.acceptors = connectorService.getAcceptors().toArray(new Acceptor[0]);
+
+			this.acceptorConfigurations = new String[acceptors.length];
+			for (int i=0; i < acceptors.length; i++) {
+				acceptorConfigurations[i] = AcceptorIndex.getConfiguration(acceptors[i]);
+			}
+		}
+
+		public ConnectorService getConnectorService() {
+			return connectorService;
+		}
+
+		/**
+		 * @return the {@link Processor} of the connector service or null if the connector doesn't implement it.
+		 */
+		public Processor getProcessor() {
+			return processor;
+		}
+
+		/**
+		 * @return the acceptors of the connector service. The returned array must not be modified.
+		 */
+		public Acceptor[] getAcceptors() {
+			return acceptors;
+		}
+
+		/**
+		 * @return the configuration of the acceptors when the route was built. The returned array must not be
+		 * modified.
+		 */
+		public String[] getAcceptorConfigurations() {
+			return acceptorConfigurations;
+		}
+
+		public String getUri() {
+			return uri;
+		}
+
+	}
+
+}
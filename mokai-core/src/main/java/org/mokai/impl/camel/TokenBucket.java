@@ -0,0 +1,179 @@
+package org.mokai.impl.camel;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A lock-free token bucket used to limit the rate at which messages are processed by a connector. Tokens are
+ * added at a sustained rate (<code>tps</code>) and the bucket can hold up to <code>burst</code> tokens, so after an
+ * idle period up to <code>burst</code> messages are allowed immediately before the sustained rate applies.</p>
+ *
+ * <p>Instead of keeping a count of tokens, the bucket keeps the theoretical time at which the next token will be
+ * available and reserves tokens with a compare-and-set on that value, so no thread blocks another one while
+ * reserving. A token that is not available yet is still reserved: {@link #reserve()} returns the time until it is
+ * available without waiting, so the caller decides how to wait for it (e.g. the {@link AbstractCamelConnectorService}
+ * defers the message until then instead of blocking the consumer thread), while {@link #acquire()} sleeps until
+ * it is available.</p>
+ *
+ * <p>The rate and burst can be changed at any time; the new values apply to the next reservations. A rate of 0 (or
+ * less) disables the limit.</p>
+ *
+ * @author German Escobar
+ */
+public class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private volatile int tps;
+
+	private volatile int burst;
+
+	/**
+	 * The nanoseconds between two tokens, derived from the tps.
+	 */
+	private volatile long interval;
+
+	/**
+	 * The theoretical time (in nanoseconds) at which the bucket will be full again.
+	 */
+	private final AtomicLong fullAt;
+
+	private final AtomicLong throttled = new AtomicLong();
+
+	private final AtomicLong totalWait = new AtomicLong();
+
+	private final AtomicLong maxWait = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param tps the sustained number of tokens per second, 0 or less to disable the limit.
+	 * @param burst the maximum number of tokens that can be taken at once, at least 1 is used.
+	 */
+	public TokenBucket(int tps, int burst) {
+		setRate(tps, burst);
+		this.fullAt = new AtomicLong(nanoTime());
+	}
+
+	/**
+	 * Takes a token, sleeping until it is available if necessary.
+	 *
+	 * @return the number of milliseconds the thread waited for the token.
+	 * @throws InterruptedException if the thread is interrupted while waiting.
+	 */
+	public long acquire() throws InterruptedException {
+		long wait = reserve();
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+
+		return TimeUnit.NANOSECONDS.toMillis(wait);
+	}
+
+	/**
+	 * Reserves a token without waiting for it.
+	 *
+	 * @return the number of nanoseconds until the reserved token is available, 0 if it is available now.
+	 */
+	public long reserve() {
+		long interval = this.interval;
+		if (interval <= 0) {
+			return 0;
+		}
+
+		long capacity = interval * burst;
+
+		while (true) {
+			long now = nanoTime();
+			long current = fullAt.get();
+
+			// an idle bucket can't accumulate more than the burst
+			long next = Math.max(current, now) + interval;
+
+			if (fullAt.compareAndSet(current, next)) {
+				long wait = next - now - capacity;
+				if (wait <= 0) {
+					return 0;
+				}
+
+				record(wait);
+				return wait;
+			}
+		}
+	}
+
+	/**
+	 * Helper method. Updates the throttling metrics.
+	 */
+	private void record(long wait) {
+		throttled.incrementAndGet();
+		totalWait.addAndGet(wait);
+
+		long max = maxWait.get();
+		while (wait > max && !maxWait.compareAndSet(max, wait)) {
+			max = maxWait.get();
+		}
+	}
+
+	/**
+	 * Changes the rate and burst of the bucket.
+	 *
+	 * @param tps the sustained number of tokens per second, 0 or less to disable the limit.
+	 * @param burst the maximum number of tokens that can be taken at once, at least 1 is used.
+	 */
+	public final void setRate(int tps, int burst) {
+		this.tps = Math.max(tps, 0);
+		this.burst = Math.max(burst, 1);
+		this.interval = tps > 0 ? Math.max(NANOS_PER_SECOND / tps, 1) : 0;
+	}
+
+	/**
+	 * Returns the current time in nanoseconds. Can be overridden for testing.
+	 */
+	protected long nanoTime() {
+		return System.nanoTime();
+	}
+
+	public int getTps() {
+		return tps;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	public boolean isEnabled() {
+		return interval > 0;
+	}
+
+	/**
+	 * @return the number of tokens that had to wait to be available.
+	 */
+	public long getThrottledCount() {
+		return throttled.get();
+	}
+
+	/**
+	 * @return the sum of the time (in milliseconds) waited for tokens.
+	 */
+	public long getTotalWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(totalWait.get());
+	}
+
+	/**
+	 * @return the longest time (in milliseconds) waited for a token.
+	 */
+	public long getMaxWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWait.get());
+	}
+
+	/**
+	 * Resets the throttling metrics.
+	 */
+	public void resetMetrics() {
+		throttled.set(0);
+		totalWait.set(0);
+		maxWait.set(0);
+	}
+
+}
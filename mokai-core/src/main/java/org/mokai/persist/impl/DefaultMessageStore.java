@@ -4,6 +4,9 @@ import java.util.Collection;
 import java.util.Collections;
 
 import org.mokai.Message;
+import org.mokai.persist.AbstractMessageStore;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
 import org.mokai.persist.MessageCriteria;
 import org.mokai.persist.MessageStore;
 
@@ -13,18 +16,38 @@ import org.mokai.persist.MessageStore;
  *
  * @author German Escobar
  */
-public class DefaultMessageStore implements MessageStore {
+public class DefaultMessageStore extends AbstractMessageStore {
 
 	@Override
 	public Collection<Message> list(MessageCriteria criteria) {
 		return Collections.emptyList();
 	}
 
+	@Override
+	public void iterate(MessageCriteria criteria, MessageCallback callback) {
+
+	}
+
+	@Override
+	public long count(MessageCriteria criteria) {
+		return 0;
+	}
+
+	@Override
+	public Collection<MessageCount> countGrouped(MessageCriteria criteria) {
+		return Collections.emptyList();
+	}
+
 	@Override
 	public void saveOrUpdate(Message message) {
 
 	}
 
+	@Override
+	public void saveOrUpdateAll(Collection<Message> messages) {
+
+	}
+
 	@Override
 	public void updateStatus(MessageCriteria criteria, byte newStatus) {
 
@@ -0,0 +1,223 @@
+package org.mokai.persist.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+
+import org.mokai.Message;
+import org.mokai.persist.AbstractMessageStore;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
+import org.mokai.persist.MessageCriteria;
+
+/**
+ * <p>Base class of the {@link MessageHandler} implementations. The operations that were added after the
+ * {@link MessageHandler} interface was published are defined in this class instead of in the interface, so the
+ * handlers that implement the interface directly keep working. Each operation has a fallback implemented with the
+ * methods of the interface that implementations should override with a more efficient query or batch.</p>
+ *
+ * <p>The {@link JdbcMessageStore} uses the static helpers of this class (e.g.
+ * {@link #insertMessages(MessageHandler, Connection, List)}), which use the handler if it extends this class or
+ * the fallback otherwise.</p>
+ *
+ * @author German Escobar
+ */
+public abstract class AbstractMessageHandler implements MessageHandler {
+
+	/**
+	 * Inserts a list of {@link Message}s into the database reusing the same statement and, if the database
+	 * supports it, in a single batch. It doesn't set the ids of the messages. Defaults to calling
+	 * {@link #insertMessage(Connection, Message)} for each message.
+	 *
+	 * @param conn the Connection used to insert the messages.
+	 * @param messages the messages to be inserted.
+	 * @return the generated ids of the inserted messages in the same order of the list.
+	 * @throws SQLException if something goes wrong. Some of the messages could have been inserted (e.g. if the driver
+	 * continues the batch after an error), so the connection should not be in auto-commit mode.
+	 */
+	public long[] insertMessages(Connection conn, List<Message> messages) throws SQLException {
+		return insertEach(this, conn, messages);
+	}
+
+	/**
+	 * Updates a list of {@link Message} records from the database in a single batch. Defaults to calling
+	 * {@link #updateMessage(Connection, Message)} for each message.
+	 *
+	 * @param conn the Connection used to update the messages.
+	 * @param messages the messages to be updated.
+	 * @return an array with the same size of the messages list that tells if each message was found or not.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public boolean[] updateMessages(Connection conn, List<Message> messages) throws SQLException {
+		return updateEach(this, conn, messages);
+	}
+
+	/**
+	 * Retrieves the messages that matches the criteria in pages by ascending id and passes them one by one to the
+	 * callback, without holding them in memory. The callback is called while the result set is open, so it
+	 * shouldn't use the same connection. Defaults to retrieving the messages with
+	 * {@link #listMessages(Connection, MessageCriteria)}, which holds them in memory.
+	 *
+	 * @param conn the Connection used to retrieve the messages.
+	 * @param criteria the criteria used to select the messages that are going to be retrieved; the order and
+	 * limits are ignored by the implementations.
+	 * @param callback receives each message.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public void iterateMessages(Connection conn, MessageCriteria criteria, MessageCallback callback)
+			throws SQLException {
+
+		for (Message message : listMessages(conn, criteria)) {
+			callback.process(message);
+		}
+	}
+
+	/**
+	 * Counts the messages that matches the criteria without retrieving them. Defaults to the size of
+	 * {@link #listMessages(Connection, MessageCriteria)}.
+	 *
+	 * @param conn the Connection used to count the messages.
+	 * @param criteria the criteria used to select the messages that are going to be counted; the order and limits
+	 * are ignored by the implementations.
+	 * @return the number of messages that matched the criteria.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public long countMessages(Connection conn, MessageCriteria criteria) throws SQLException {
+		return listMessages(conn, criteria).size();
+	}
+
+	/**
+	 * Counts the messages that matches the criteria grouped by direction, status and destination. Defaults to
+	 * grouping the messages of {@link #listMessages(Connection, MessageCriteria)}.
+	 *
+	 * @param conn the Connection used to count the messages.
+	 * @param criteria the criteria used to select the messages that are going to be counted; the order and limits
+	 * are ignored by the implementations.
+	 * @return a {@link Collection} of {@link MessageCount} objects.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public Collection<MessageCount> countMessagesGrouped(Connection conn, MessageCriteria criteria)
+			throws SQLException {
+
+		return AbstractMessageStore.group(listMessages(conn, criteria));
+	}
+
+	/**
+	 * Tells if the statements executed by this handler in a transaction that is rolled back leave no rows behind,
+	 * so a {@link JdbcMessageStore} can persist a batch atomically. Defaults to false.
+	 *
+	 * @return true if the tables of this handler support transactions, false otherwise.
+	 */
+	public boolean supportsTransactions() {
+		return false;
+	}
+
+	/**
+	 * Helper method. Tells if a handler supports transactions (see {@link #supportsTransactions()}).
+	 *
+	 * @param handler the handler to check, can be null.
+	 * @return true if the handler is an AbstractMessageHandler that supports transactions, false otherwise.
+	 */
+	public static boolean supportsTransactions(MessageHandler handler) {
+		return handler instanceof AbstractMessageHandler && ((AbstractMessageHandler) handler).supportsTransactions();
+	}
+
+	/**
+	 * Helper method. Inserts the messages with the handler (see {@link #insertMessages(Connection, List)}) or, if it
+	 * is not an AbstractMessageHandler, one by one.
+	 */
+	public static long[] insertMessages(MessageHandler handler, Connection conn, List<Message> messages)
+			throws SQLException {
+
+		if (handler instanceof AbstractMessageHandler) {
+			return ((AbstractMessageHandler) handler).insertMessages(conn, messages);
+		}
+
+		return insertEach(handler, conn, messages);
+	}
+
+	/**
+	 * Helper method. Updates the messages with the handler (see {@link #updateMessages(Connection, List)}) or, if it
+	 * is not an AbstractMessageHandler, one by one.
+	 */
+	public static boolean[] updateMessages(MessageHandler handler, Connection conn, List<Message> messages)
+			throws SQLException {
+
+		if (handler instanceof AbstractMessageHandler) {
+			return ((AbstractMessageHandler) handler).updateMessages(conn, messages);
+		}
+
+		return updateEach(handler, conn, messages);
+	}
+
+	/**
+	 * Helper method. Iterates the messages with the handler (see
+	 * {@link #iterateMessages(Connection, MessageCriteria, MessageCallback)}) or, if it is not an
+	 * AbstractMessageHandler, with the messages of {@link MessageHandler#listMessages(Connection, MessageCriteria)}.
+	 */
+	public static void iterateMessages(MessageHandler handler, Connection conn, MessageCriteria criteria,
+			MessageCallback callback) throws SQLException {
+
+		if (handler instanceof AbstractMessageHandler) {
+			((AbstractMessageHandler) handler).iterateMessages(conn, criteria, callback);
+		} else {
+			for (Message message : handler.listMessages(conn, criteria)) {
+				callback.process(message);
+			}
+		}
+	}
+
+	/**
+	 * Helper method. Counts the messages with the handler (see {@link #countMessages(Connection, MessageCriteria)})
+	 * or, if it is not an AbstractMessageHandler, with the size of
+	 * {@link MessageHandler#listMessages(Connection, MessageCriteria)}.
+	 */
+	public static long countMessages(MessageHandler handler, Connection conn, MessageCriteria criteria)
+			throws SQLException {
+
+		if (handler instanceof AbstractMessageHandler) {
+			return ((AbstractMessageHandler) handler).countMessages(conn, criteria);
+		}
+
+		return handler.listMessages(conn, criteria).size();
+	}
+
+	/**
+	 * Helper method. Counts the messages grouped by direction, status and destination with the handler (see
+	 * {@link #countMessagesGrouped(Connection, MessageCriteria)}) or, if it is not an AbstractMessageHandler,
+	 * grouping the messages of {@link MessageHandler#listMessages(Connection, MessageCriteria)}.
+	 */
+	public static Collection<MessageCount> countMessagesGrouped(MessageHandler handler, Connection conn,
+			MessageCriteria criteria) throws SQLException {
+
+		if (handler instanceof AbstractMessageHandler) {
+			return ((AbstractMessageHandler) handler).countMessagesGrouped(conn, criteria);
+		}
+
+		return AbstractMessageStore.group(handler.listMessages(conn, criteria));
+	}
+
+	private static long[] insertEach(MessageHandler handler, Connection conn, List<Message> messages)
+			throws SQLException {
+
+		long[] ids = new long[messages.size()];
+		for (int i=0; i < ids.length; i++) {
+			ids[i] = handler.insertMessage(conn, messages.get(i));
+		}
+
+		return ids;
+	}
+
+	private static boolean[] updateEach(MessageHandler handler, Connection conn, List<Message> messages)
+			throws SQLException {
+
+		boolean[] found = new boolean[messages.size()];
+		for (int i=0; i < found.length; i++) {
+			found[i] = handler.updateMessage(conn, messages.get(i));
+		}
+
+		return found;
+	}
+
+}
@@ -0,0 +1,130 @@
+package org.mokai.persist.jdbc;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+
+/**
+ * <p>Base class of the {@link SqlEngine} implementations. The optional capabilities of a database are defined in
+ * this class with conservative defaults instead of in the {@link SqlEngine} interface, so engines that implement
+ * the interface directly keep working (they just use the defaults) and new capabilities can be added without
+ * breaking them.</p>
+ *
+ * @author German Escobar
+ */
+public abstract class AbstractSqlEngine implements SqlEngine {
+
+	/**
+	 * Tells if the JDBC driver returns the generated keys of all the rows inserted with a batch (i.e. using
+	 * addBatch and executeBatch). If it doesn't, the rows are inserted one by one. Defaults to false.
+	 *
+	 * @return true if the generated keys of a batch insert can be retrieved, false otherwise.
+	 */
+	public boolean supportsBatchGeneratedKeys() {
+		return false;
+	}
+
+	/**
+	 * Helper method. Tells if an engine returns the generated keys of a batch insert (see
+	 * {@link #supportsBatchGeneratedKeys()}).
+	 *
+	 * @param sqlEngine the engine to check, can be null.
+	 * @return true if the engine is an AbstractSqlEngine that supports it, false otherwise.
+	 */
+	public static boolean supportsBatchGeneratedKeys(SqlEngine sqlEngine) {
+		return sqlEngine instanceof AbstractSqlEngine && ((AbstractSqlEngine) sqlEngine).supportsBatchGeneratedKeys();
+	}
+
+	/**
+	 * Tells if the message tables support transactions, so the statements executed in a transaction that is rolled
+	 * back leave no rows behind (e.g. MySQL MyISAM tables ignore the rollback). Defaults to false.
+	 *
+	 * @return true if the message tables support transactions, false otherwise.
+	 */
+	public boolean supportsTransactions() {
+		return false;
+	}
+
+	/**
+	 * Helper method. Tells if an engine supports transactions (see {@link #supportsTransactions()}).
+	 *
+	 * @param sqlEngine the engine to check, can be null.
+	 * @return true if the engine is an AbstractSqlEngine that supports transactions, false otherwise.
+	 */
+	public static boolean supportsTransactions(SqlEngine sqlEngine) {
+		return sqlEngine instanceof AbstractSqlEngine && ((AbstractSqlEngine) sqlEngine).supportsTransactions();
+	}
+
+	/**
+	 * Tells if the message tables are partitioned by creation time, in which case the queries by id are also bounded
+	 * by the creation time of the message so only its partition is probed. Defaults to false.
+	 *
+	 * @return true if the message tables are partitioned by creation time, false otherwise.
+	 */
+	public boolean isPartitioned() {
+		return false;
+	}
+
+	/**
+	 * Helper method. Tells if an engine partitions the message tables (see {@link #isPartitioned()}).
+	 *
+	 * @param sqlEngine the engine to check, can be null.
+	 * @return true if the engine is an AbstractSqlEngine that partitions the tables, false otherwise.
+	 */
+	public static boolean isPartitioned(SqlEngine sqlEngine) {
+		return sqlEngine instanceof AbstractSqlEngine && ((AbstractSqlEngine) sqlEngine).isPartitioned();
+	}
+
+	/**
+	 * Configures a forward-only, read-only statement so that the JDBC driver streams the rows of the result set
+	 * instead of reading all of them into memory when the query is executed. Defaults to setting the fetch size,
+	 * which is enough for the drivers that honor it.
+	 *
+	 * @param stmt the statement to configure.
+	 * @param fetchSize the number of rows that should be fetched from the database at once, if the driver
+	 * supports it.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public void enableStreaming(Statement stmt, int fetchSize) throws SQLException {
+		stmt.setFetchSize(fetchSize);
+	}
+
+	/**
+	 * Helper method. Configures a statement to stream its rows with the engine (see
+	 * {@link #enableStreaming(Statement, int)}) or, if it is not an AbstractSqlEngine, with the default.
+	 *
+	 * @param sqlEngine the engine of the database, can be null.
+	 * @param stmt the statement to configure.
+	 * @param fetchSize the number of rows that should be fetched from the database at once.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public static void enableStreaming(SqlEngine sqlEngine, Statement stmt, int fetchSize) throws SQLException {
+		if (sqlEngine instanceof AbstractSqlEngine) {
+			((AbstractSqlEngine) sqlEngine).enableStreaming(stmt, fetchSize);
+		} else {
+			stmt.setFetchSize(fetchSize);
+		}
+	}
+
+	/**
+	 * Creates the partitions of the message tables that are needed to store the messages created up to the date (if
+	 * the engine is configured to partition the tables). Called periodically by the {@link PartitionMaintainer}, so
+	 * it should not do anything if the partitions already exist. Does nothing by default.
+	 *
+	 * @param until the date up to which the partitions should exist.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public void createPartitions(Date until) throws SQLException {}
+
+	/**
+	 * Removes the messages created before the date from the message tables without locking them for a long time:
+	 * the partitions that only contain older messages are dropped (or archived) at once and, if the tables are not
+	 * partitioned, the messages are deleted in small batches. Messages of a partition that also contains newer
+	 * messages can be kept until the whole partition expires. Does nothing by default, so the messages are kept.
+	 *
+	 * @param before the date before which the messages are removed.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public void removeMessages(Date before) throws SQLException {}
+
+}
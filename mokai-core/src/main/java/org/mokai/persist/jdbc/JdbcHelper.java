@@ -2,9 +2,12 @@ package org.mokai.persist.jdbc;
 
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.Date;
 
 import javax.sql.DataSource;
 
@@ -62,6 +65,49 @@ public final class JdbcHelper {
 		}
 	}
 
+	/**
+	 * Checks if the index exists in the table. If it doesn't, it creates it using the supplied script.
+	 *
+	 * @param dataSource the DataSource used to create the connection.
+	 * @param schema usually the database name, but can be null.
+	 * @param tableName the name of the table of the index.
+	 * @param indexName the name of the index to create.
+	 * @param creationScript the script to create the index.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public static void checkCreateIndex(DataSource dataSource, String schema, String tableName, String indexName,
+			String creationScript) throws SQLException {
+
+		Connection connection = null;
+		ResultSet rs = null;
+		Statement statement = null;
+
+		try {
+			connection = dataSource.getConnection();
+
+			boolean exists = false;
+			rs = connection.getMetaData().getIndexInfo(null, schema, tableName, false, true);
+			while (rs.next() && !exists) {
+				exists = indexName.equalsIgnoreCase(rs.getString("INDEX_NAME"));
+			}
+
+			if (!exists) {
+				statement = connection.createStatement();
+				statement.executeUpdate(creationScript);
+			}
+		} finally {
+			if (rs != null) {
+				try { rs.close(); } catch (Exception e) { }
+			}
+			if (statement != null) {
+				try { statement.close(); } catch(Exception e) { }
+			}
+			if (connection != null) {
+				try { connection.close(); } catch(Exception e) { }
+			}
+		}
+	}
+
 	/**
 	 * Helper method to retrieve the generated id after an insert.
 	 *
@@ -86,4 +132,107 @@ public final class JdbcHelper {
 			}
 		}
 	}
+
+	/**
+	 * Helper method to retrieve the generated ids after a batch insert.
+	 *
+	 * @param stmt the statement used in the batch insert.
+	 * @param numRows the number of rows that were inserted.
+	 * @return the generated ids in the same order the rows were added to the batch.
+	 * @throws SQLException if something goes wrong or if the statement didn't return a generated id for each row.
+	 */
+	public static long[] retrieveGeneratedIds(Statement stmt, int numRows) throws SQLException {
+		ResultSet rsKeys = null;
+
+		try {
+			long[] ids = new long[numRows];
+
+			int index = 0;
+			rsKeys = stmt.getGeneratedKeys();
+			while (rsKeys != null && index < numRows && rsKeys.next()) {
+				ids[index++] = rsKeys.getLong(1);
+			}
+
+			if (index < numRows) {
+				throw new SQLException("expected " + numRows + " generated ids but only " + index + " were returned");
+			}
+
+			return ids;
+		} finally {
+			if (rsKeys != null) {
+				try { rsKeys.close(); } catch (Exception e) {}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the rows of a message table created before the date in batches of <code>batchSize</code> rows, each
+	 * one with its own statement, so the table is never locked for long.
+	 *
+	 * @param dataSource the DataSource used to create the connection.
+	 * @param sqlEngine the SqlEngine used to limit the number of rows of each batch.
+	 * @param tableName the name of the message table.
+	 * @param before the date before which the rows are deleted.
+	 * @param batchSize the max number of rows deleted by each statement.
+	 * @return the number of deleted rows.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public static long deleteCreatedBefore(DataSource dataSource, SqlEngine sqlEngine, String tableName, Date before,
+			int batchSize) throws SQLException {
+
+		StringBuffer selectSQL = new StringBuffer("SELECT id FROM " + tableName + " WHERE creation_time < ? ORDER BY id");
+		sqlEngine.addLimitToQuery(selectSQL, 0, batchSize);
+
+		String deleteSQL = "DELETE FROM " + tableName + " WHERE creation_time < ? AND id <= ?";
+
+		Timestamp timestamp = new Timestamp(before.getTime());
+		long deleted = 0;
+
+		Connection connection = null;
+		PreparedStatement selectStmt = null;
+		PreparedStatement deleteStmt = null;
+
+		try {
+			connection = dataSource.getConnection();
+			selectStmt = connection.prepareStatement(selectSQL.toString());
+			deleteStmt = connection.prepareStatement(deleteSQL);
+
+			int count;
+			do {
+				// find the last id of the batch
+				long lastId = 0;
+				count = 0;
+
+				selectStmt.setTimestamp(1, timestamp);
+				ResultSet rs = selectStmt.executeQuery();
+				try {
+					while (rs.next()) {
+						lastId = rs.getLong(1);
+						count++;
+					}
+				} finally {
+					try { rs.close(); } catch (Exception e) { }
+				}
+
+				if (count > 0) {
+					deleteStmt.setTimestamp(1, timestamp);
+					deleteStmt.setLong(2, lastId);
+					deleted += deleteStmt.executeUpdate();
+				}
+			} while (count == batchSize);
+
+			return deleted;
+		} finally {
+			if (selectStmt != null) {
+				try { selectStmt.close(); } catch(Exception e) { }
+			}
+			if (deleteStmt != null) {
+				try { deleteStmt.close(); } catch(Exception e) { }
+			}
+			if (connection != null) {
+				try { connection.close(); } catch(Exception e) { }
+			}
+		}
+	}
+
 }
@@ -4,6 +4,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import javax.sql.DataSource;
 
@@ -11,6 +12,9 @@ import org.apache.commons.lang.Validate;
 import org.mokai.Message;
 import org.mokai.Message.Direction;
 import org.mokai.ObjectNotFoundException;
+import org.mokai.persist.AbstractMessageStore;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
 import org.mokai.persist.MessageCriteria;
 import org.mokai.persist.MessageStore;
 import org.mokai.persist.RejectedException;
@@ -27,7 +31,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author German Escobar
  */
-public class JdbcMessageStore implements MessageStore {
+public class JdbcMessageStore extends AbstractMessageStore {
 
 	private Logger log = LoggerFactory.getLogger(JdbcMessageStore.class);
 
@@ -142,6 +146,99 @@ public class JdbcMessageStore implements MessageStore {
 		}
 	}
 
+	/**
+	 * Checks that the handler supports all the messages and uses the same connection to insert the messages that
+	 * have not been persisted (using {@link AbstractMessageHandler#insertMessages(Connection, List)}) and to update
+	 * the ones that are already persisted (using {@link AbstractMessageHandler#updateMessages(Connection, List)}).
+	 *
+	 * All the messages are persisted in a single transaction and the ids of the inserted messages are assigned
+	 * only after it is committed. If anything fails, the transaction is rolled back (even if the driver continued
+	 * the batch after an error) and none of the messages gets an id. The rollback only removes the rows of the
+	 * tables that support transactions (see {@link #isAtomicBatch()}).
+	 *
+	 * @throws StoreException wraps any underlying exception from the database. None of the messages is persisted
+	 * if the tables support transactions.
+	 * @throws RejectedException if the handler doesn't supports at least one of the messages.
+	 * @throws ObjectNotFoundException if at least one of the messages that should be updated was not found. None of
+	 * the messages is persisted.
+	 * @throws IllegalStateException if the dataSource is null.
+	 * @throws IllegalArgumentException if the messages collection is null
+	 */
+	@Override
+	public final void saveOrUpdateAll(Collection<Message> messages) throws StoreException, RejectedException,
+			ObjectNotFoundException, IllegalStateException, IllegalArgumentException {
+
+		// validations
+		checkDataSourceNotNull();
+		Validate.notNull(messages);
+
+		List<Message> inserts = new ArrayList<Message>();
+		List<Message> updates = new ArrayList<Message>();
+
+		for (Message message : messages) {
+			Direction direction = message.getDirection();
+			if (!handler.supportsDirection(direction)) {
+				throw new RejectedException("this message store doesn't supports direction '" + direction + "'");
+			}
+
+			if (message.getId() == null) {
+				inserts.add(message);
+			} else {
+				updates.add(message);
+			}
+		}
+
+		if (inserts.isEmpty() && updates.isEmpty()) {
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+		Connection conn = null;
+		boolean autoCommit = true;
+		boolean committed = false;
+
+		try {
+			conn = dataSource.getConnection();
+			autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+
+			long[] ids = new long[0];
+			if (!inserts.isEmpty()) {
+				ids = AbstractMessageHandler.insertMessages(handler, conn, inserts);
+			}
+
+			if (!updates.isEmpty()) {
+				boolean[] found = AbstractMessageHandler.updateMessages(handler, conn, updates);
+
+				for (int i=0; i < found.length; i++) {
+					if (!found[i]) {
+						throw new ObjectNotFoundException("message with id " + updates.get(i).getId() + " not found");
+					}
+				}
+			}
+
+			conn.commit();
+			committed = true;
+
+			for (int i=0; i < ids.length; i++) {
+				inserts.get(i).setId(ids[i]);
+			}
+
+			log.trace("saving " + inserts.size() + " and updating " + updates.size() + " msgs to db took "
+					+ (System.currentTimeMillis() - startTime) + " millis");
+		} catch (SQLException e) {
+			throw new StoreException(e);
+		} finally {
+			if (conn != null) {
+				if (!committed) {
+					try { conn.rollback(); } catch (Exception e) {}
+				}
+				try { conn.setAutoCommit(autoCommit); } catch (Exception e) {}
+				try { conn.close(); } catch (Exception e) {}
+			}
+		}
+	}
+
 	@Override
 	public final void updateStatus(MessageCriteria criteria, byte newStatus) throws StoreException,
 			IllegalStateException {
@@ -206,6 +303,81 @@ public class JdbcMessageStore implements MessageStore {
 
 	}
 
+	@Override
+	public final void iterate(MessageCriteria criteria, MessageCallback callback) throws StoreException,
+			IllegalStateException, IllegalArgumentException {
+
+		checkDataSourceNotNull();
+		Validate.notNull(callback);
+
+		if (!supports(handler, criteria)) {
+			return;
+		}
+
+		Connection conn = null;
+
+		try {
+			long startTime = System.currentTimeMillis();
+			conn = dataSource.getConnection();
+
+			AbstractMessageHandler.iterateMessages(handler, conn, criteria, callback);
+
+			log.trace("iterate messages took " + (System.currentTimeMillis() - startTime) + " millis");
+		} catch (SQLException e) {
+			throw new StoreException(e);
+		} finally {
+			if (conn != null) {
+				try { conn.close(); } catch (Exception e) {}
+			}
+		}
+	}
+
+	@Override
+	public final long count(MessageCriteria criteria) throws StoreException, IllegalStateException {
+		checkDataSourceNotNull();
+
+		if (!supports(handler, criteria)) {
+			return 0;
+		}
+
+		Connection conn = null;
+
+		try {
+			conn = dataSource.getConnection();
+			return AbstractMessageHandler.countMessages(handler, conn, criteria);
+		} catch (SQLException e) {
+			throw new StoreException(e);
+		} finally {
+			if (conn != null) {
+				try { conn.close(); } catch (Exception e) {}
+			}
+		}
+	}
+
+	@Override
+	public final Collection<MessageCount> countGrouped(MessageCriteria criteria) throws StoreException,
+			IllegalStateException {
+
+		checkDataSourceNotNull();
+
+		if (!supports(handler, criteria)) {
+			return new ArrayList<MessageCount>();
+		}
+
+		Connection conn = null;
+
+		try {
+			conn = dataSource.getConnection();
+			return AbstractMessageHandler.countMessagesGrouped(handler, conn, criteria);
+		} catch (SQLException e) {
+			throw new StoreException(e);
+		} finally {
+			if (conn != null) {
+				try { conn.close(); } catch (Exception e) {}
+			}
+		}
+	}
+
 	/**
 	 * Helper method to check if the {@link MessageHandler} supports the type
 	 * and the direction specified in the criteria. If the type and/or
@@ -226,6 +398,15 @@ public class JdbcMessageStore implements MessageStore {
 		return supports;
 	}
 
+	/**
+	 * A batch is atomic if the handler supports transactions (see
+	 * {@link AbstractMessageHandler#supportsTransactions()}), MySQL MyISAM tables don't.
+	 */
+	@Override
+	public final boolean isAtomicBatch() {
+		return AbstractMessageHandler.supportsTransactions(handler);
+	}
+
 	/**
 	 * Helper method to check that the dataSource is not null.
 	 *
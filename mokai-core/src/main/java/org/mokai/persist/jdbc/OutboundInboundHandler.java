@@ -4,10 +4,13 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 import org.apache.commons.lang.Validate;
 import org.mokai.Message;
 import org.mokai.Message.Direction;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
 import org.mokai.persist.MessageCriteria;
 import org.mokai.persist.RejectedException;
 
@@ -22,7 +25,7 @@ import org.mokai.persist.RejectedException;
  *
  * @author German Escobar
  */
-public class OutboundInboundHandler implements MessageHandler {
+public class OutboundInboundHandler extends AbstractMessageHandler {
 
 	/**
 	 * The handler for the outbound messages.
@@ -61,6 +64,19 @@ public class OutboundInboundHandler implements MessageHandler {
 		return false;
 	}
 
+	/**
+	 * Supports transactions if both the outbound and the inbound handlers support them.
+	 *
+	 * @throws IllegalStateException if at least one of the handlers is null.
+	 */
+	@Override
+	public final boolean supportsTransactions() throws IllegalStateException {
+		checkHandlersNotNull();
+
+		return AbstractMessageHandler.supportsTransactions(outboundHandler)
+				&& AbstractMessageHandler.supportsTransactions(inboundHandler);
+	}
+
 	/**
 	 * If the direction of the message is {@link Direction#OUTBOUND}, it uses the
 	 * outbound handler. If the direction is {@link Direction#INBOUND}, it uses
@@ -121,6 +137,82 @@ public class OutboundInboundHandler implements MessageHandler {
 		}
 	}
 
+	/**
+	 * Splits the messages by direction and inserts the outbound messages with the outbound handler and the
+	 * inbound messages with the inbound handler.
+	 *
+	 * @throws RejectedException if the direction of at least one message is not outbound or inbound. In this case
+	 * none of the messages is inserted.
+	 * @throws IllegalStateException if at least one of the handlers is null.
+	 */
+	@Override
+	public final long[] insertMessages(Connection conn, List<Message> messages) throws SQLException,
+			RejectedException, IllegalStateException {
+
+		checkHandlersNotNull();
+
+		List<Message> outboundMessages = new ArrayList<Message>();
+		List<Message> inboundMessages = new ArrayList<Message>();
+		splitByDirection(messages, outboundMessages, inboundMessages);
+
+		long[] outboundIds = outboundMessages.isEmpty() ? new long[0] :
+			AbstractMessageHandler.insertMessages(outboundHandler, conn, outboundMessages);
+		long[] inboundIds = inboundMessages.isEmpty() ? new long[0] :
+			AbstractMessageHandler.insertMessages(inboundHandler, conn, inboundMessages);
+
+		// merge the results in the original order
+		long[] ids = new long[messages.size()];
+		int outboundIndex = 0;
+		int inboundIndex = 0;
+		for (int i=0; i < ids.length; i++) {
+			if (Direction.TO_CONNECTIONS.equals(messages.get(i).getDirection())) {
+				ids[i] = outboundIds[outboundIndex++];
+			} else {
+				ids[i] = inboundIds[inboundIndex++];
+			}
+		}
+
+		return ids;
+	}
+
+	/**
+	 * Splits the messages by direction and updates the outbound messages with the outbound handler and the
+	 * inbound messages with the inbound handler.
+	 *
+	 * @throws RejectedException if the direction of at least one message is not outbound or inbound. In this case
+	 * none of the messages is updated.
+	 * @throws IllegalStateException if at least one of the handlers is null.
+	 */
+	@Override
+	public final boolean[] updateMessages(Connection conn, List<Message> messages) throws SQLException,
+			RejectedException, IllegalStateException {
+
+		checkHandlersNotNull();
+
+		List<Message> outboundMessages = new ArrayList<Message>();
+		List<Message> inboundMessages = new ArrayList<Message>();
+		splitByDirection(messages, outboundMessages, inboundMessages);
+
+		boolean[] outboundFound = outboundMessages.isEmpty() ? new boolean[0] :
+			AbstractMessageHandler.updateMessages(outboundHandler, conn, outboundMessages);
+		boolean[] inboundFound = inboundMessages.isEmpty() ? new boolean[0] :
+			AbstractMessageHandler.updateMessages(inboundHandler, conn, inboundMessages);
+
+		// merge the results in the original order
+		boolean[] found = new boolean[messages.size()];
+		int outboundIndex = 0;
+		int inboundIndex = 0;
+		for (int i=0; i < found.length; i++) {
+			if (Direction.TO_CONNECTIONS.equals(messages.get(i).getDirection())) {
+				found[i] = outboundFound[outboundIndex++];
+			} else {
+				found[i] = inboundFound[inboundIndex++];
+			}
+		}
+
+		return found;
+	}
+
 	/**
 	 * If the direction is null, it updates the status in both handlers, otherwise,
 	 * if the direction is {@link Direction#OUTBOUND}, it uses only the outbound
@@ -183,6 +275,118 @@ public class OutboundInboundHandler implements MessageHandler {
 
 	}
 
+	/**
+	 * If the direction is null, it iterates the messages of the outbound handler
+	 * and then the messages of the inbound handler, otherwise, it iterates only
+	 * the messages of the handler of the direction, as in
+	 * {@link #listMessages(Connection, MessageCriteria)}.
+	 *
+	 * @throws IllegalStateException if at least one of the handlers is null.
+	 */
+	@Override
+	public final void iterateMessages(Connection conn, MessageCriteria criteria, MessageCallback callback)
+			throws SQLException, IllegalStateException {
+
+		checkHandlersNotNull();
+
+		Direction direction = null;
+		if (criteria != null) {
+			direction = criteria.getDirection();
+		}
+
+		if (direction == null || direction.equals(Direction.TO_CONNECTIONS) || direction.equals(Direction.UNKNOWN)) {
+			AbstractMessageHandler.iterateMessages(outboundHandler, conn, criteria, callback);
+		}
+
+		if (direction == null || direction.equals(Direction.TO_APPLICATIONS) || direction.equals(Direction.UNKNOWN)) {
+			AbstractMessageHandler.iterateMessages(inboundHandler, conn, criteria, callback);
+		}
+	}
+
+	/**
+	 * If the direction is null, it counts the messages of both handlers, otherwise,
+	 * it counts only the messages of the handler of the direction, as in
+	 * {@link #listMessages(Connection, MessageCriteria)}.
+	 *
+	 * @throws IllegalStateException if at least one of the handlers is null.
+	 */
+	@Override
+	public final long countMessages(Connection conn, MessageCriteria criteria) throws SQLException,
+			IllegalStateException {
+
+		checkHandlersNotNull();
+
+		long count = 0;
+
+		Direction direction = null;
+		if (criteria != null) {
+			direction = criteria.getDirection();
+		}
+
+		if (direction == null || direction.equals(Direction.TO_CONNECTIONS) || direction.equals(Direction.UNKNOWN)) {
+			count += AbstractMessageHandler.countMessages(outboundHandler, conn, criteria);
+		}
+
+		if (direction == null || direction.equals(Direction.TO_APPLICATIONS) || direction.equals(Direction.UNKNOWN)) {
+			count += AbstractMessageHandler.countMessages(inboundHandler, conn, criteria);
+		}
+
+		return count;
+	}
+
+	/**
+	 * If the direction is null, it counts the messages of both handlers, otherwise,
+	 * it counts only the messages of the handler of the direction, as in
+	 * {@link #listMessages(Connection, MessageCriteria)}.
+	 *
+	 * @throws IllegalStateException if at least one of the handlers is null.
+	 */
+	@Override
+	public final Collection<MessageCount> countMessagesGrouped(Connection conn, MessageCriteria criteria)
+			throws SQLException, IllegalStateException {
+
+		checkHandlersNotNull();
+
+		Collection<MessageCount> counts = new ArrayList<MessageCount>();
+
+		Direction direction = null;
+		if (criteria != null) {
+			direction = criteria.getDirection();
+		}
+
+		if (direction == null || direction.equals(Direction.TO_CONNECTIONS) || direction.equals(Direction.UNKNOWN)) {
+			counts.addAll(AbstractMessageHandler.countMessagesGrouped(outboundHandler, conn, criteria));
+		}
+
+		if (direction == null || direction.equals(Direction.TO_APPLICATIONS) || direction.equals(Direction.UNKNOWN)) {
+			counts.addAll(AbstractMessageHandler.countMessagesGrouped(inboundHandler, conn, criteria));
+		}
+
+		return counts;
+	}
+
+	/**
+	 * Helper method. Adds the outbound messages to the outboundMessages list and the inbound messages to the
+	 * inboundMessages list.
+	 *
+	 * @throws RejectedException if the direction of a message is not outbound or inbound.
+	 */
+	private void splitByDirection(List<Message> messages, List<Message> outboundMessages,
+			List<Message> inboundMessages) throws RejectedException {
+
+		for (Message message : messages) {
+			Direction direction = message.getDirection();
+
+			if (Direction.TO_CONNECTIONS.equals(direction)) {
+				outboundMessages.add(message);
+			} else if (Direction.TO_APPLICATIONS.equals(direction)) {
+				inboundMessages.add(message);
+			} else {
+				throw new RejectedException("can't save a message with direction: " + direction);
+			}
+		}
+	}
+
 	/**
 	 * Helper method to check that the handlers are not null.
 	 *
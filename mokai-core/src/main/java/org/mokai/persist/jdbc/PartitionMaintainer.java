@@ -0,0 +1,168 @@
+package org.mokai.persist.jdbc;
+
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Maintains the message tables of an {@link AbstractSqlEngine} at a fixed interval in a single thread: creates
+ * the partitions that will be needed in the next days (see {@link AbstractSqlEngine#createPartitions(Date)}) and, if
+ * a retention is configured, removes the messages that are older than the retention (see
+ * {@link AbstractSqlEngine#removeMessages(Date)}).
+ * </p>
+ *
+ * <p>Runs once when it is started, so the partitions of the current period exist before the first message is
+ * saved.</p>
+ *
+ * @author German Escobar
+ */
+public class PartitionMaintainer {
+
+	private Logger log = LoggerFactory.getLogger(PartitionMaintainer.class);
+
+	public static final long DEFAULT_INTERVAL = 60 * 60 * 1000;
+
+	public static final int DEFAULT_LOOKAHEAD_DAYS = 7;
+
+	private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+	private AbstractSqlEngine sqlEngine;
+
+	/**
+	 * The milliseconds between each maintenance.
+	 */
+	private long interval = DEFAULT_INTERVAL;
+
+	/**
+	 * The number of days ahead for which the partitions are created.
+	 */
+	private int lookaheadDays = DEFAULT_LOOKAHEAD_DAYS;
+
+	/**
+	 * The number of days the messages are kept, 0 to keep them forever.
+	 */
+	private int retentionDays;
+
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * Starts the thread that maintains the tables. Does nothing if it is already started.
+	 *
+	 * @throws IllegalStateException if the sqlEngine is null.
+	 */
+	public final synchronized void start() throws IllegalStateException {
+		if (sqlEngine == null) {
+			throw new IllegalStateException("no sqlEngine specified");
+		}
+
+		if (scheduler != null) {
+			return;
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "partition-maintainer");
+				thread.setDaemon(true);
+
+				return thread;
+			}
+
+		});
+
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				maintain();
+			}
+
+		}, 0, interval, TimeUnit.MILLISECONDS);
+
+		log.debug("partition maintainer started with interval " + interval + " millis");
+	}
+
+	/**
+	 * Stops the thread that maintains the tables.
+	 */
+	public final synchronized void stop() {
+		if (scheduler == null) {
+			return;
+		}
+
+		scheduler.shutdownNow();
+		scheduler = null;
+
+		log.debug("partition maintainer stopped");
+	}
+
+	/**
+	 * Creates the upcoming partitions and removes the expired messages. Called periodically by the maintenance thread
+	 * once started. A failure creating the partitions doesn't prevent the removal of the expired messages.
+	 */
+	public final synchronized void maintain() {
+		long now = System.currentTimeMillis();
+
+		try {
+			sqlEngine.createPartitions(new Date(now + lookaheadDays * DAY_MILLIS));
+		} catch (Exception e) {
+			log.error("Exception creating partitions: " + e.getMessage(), e);
+		}
+
+		if (retentionDays > 0) {
+			try {
+				sqlEngine.removeMessages(new Date(now - retentionDays * DAY_MILLIS));
+			} catch (Exception e) {
+				log.error("Exception removing expired messages: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	public AbstractSqlEngine getSqlEngine() {
+		return sqlEngine;
+	}
+
+	public void setSqlEngine(AbstractSqlEngine sqlEngine) {
+		this.sqlEngine = sqlEngine;
+	}
+
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Sets the milliseconds between each maintenance, applies the next time the maintainer is started.
+	 *
+	 * @param interval the milliseconds between each maintenance.
+	 */
+	public void setInterval(long interval) {
+		Validate.isTrue(interval > 0, "interval must be greater than 0");
+		this.interval = interval;
+	}
+
+	public int getLookaheadDays() {
+		return lookaheadDays;
+	}
+
+	public void setLookaheadDays(int lookaheadDays) {
+		Validate.isTrue(lookaheadDays >= 0, "lookaheadDays must not be negative");
+		this.lookaheadDays = lookaheadDays;
+	}
+
+	public int getRetentionDays() {
+		return retentionDays;
+	}
+
+	public void setRetentionDays(int retentionDays) {
+		Validate.isTrue(retentionDays >= 0, "retentionDays must not be negative");
+		this.retentionDays = retentionDays;
+	}
+
+}
@@ -0,0 +1,80 @@
+package org.mokai.persist.jdbc;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.apache.commons.lang.time.DateUtils;
+
+/**
+ * The period of time covered by each partition of the message tables, based on the creation time of the messages.
+ * @see AbstractSqlEngine#createPartitions(Date)
+ *
+ * @author German Escobar
+ */
+public enum PartitionPeriod {
+
+	DAILY("yyyyMMdd", Calendar.DAY_OF_MONTH),
+	MONTHLY("yyyyMM", Calendar.MONTH);
+
+	/**
+	 * The prefix of the partition names, which are followed by the start date of the partition.
+	 */
+	private static final String PREFIX = "p";
+
+	private final String namePattern;
+
+	private final int field;
+
+	private PartitionPeriod(String namePattern, int field) {
+		this.namePattern = namePattern;
+		this.field = field;
+	}
+
+	/**
+	 * @param date the date from which we are calculating the start of the period.
+	 * @return the start of the period that contains the date.
+	 */
+	public Date getStart(Date date) {
+		return DateUtils.truncate(date, field);
+	}
+
+	/**
+	 * @param date the date from which we are calculating the start of the next period.
+	 * @return the start of the period that follows the one that contains the date.
+	 */
+	public Date getNext(Date date) {
+		Date start = getStart(date);
+		return field == Calendar.MONTH ? DateUtils.addMonths(start, 1) : DateUtils.addDays(start, 1);
+	}
+
+	/**
+	 * @param date a date of the period.
+	 * @return the name of the partition of the period that contains the date, e.g. p20130521 or p201305.
+	 */
+	public String getPartitionName(Date date) {
+		return PREFIX + new SimpleDateFormat(namePattern).format(date);
+	}
+
+	/**
+	 * @param partitionName the name of a partition created with {@link #getPartitionName(Date)}.
+	 * @return the start of the period of the partition or null if the name doesn't belong to this period.
+	 */
+	public Date parsePartitionName(String partitionName) {
+		if (partitionName == null || !partitionName.startsWith(PREFIX)
+				|| partitionName.length() != PREFIX.length() + namePattern.length()) {
+			return null;
+		}
+
+		SimpleDateFormat format = new SimpleDateFormat(namePattern);
+		format.setLenient(false);
+
+		try {
+			return format.parse(partitionName.substring(PREFIX.length()));
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+}
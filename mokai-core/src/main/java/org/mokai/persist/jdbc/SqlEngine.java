@@ -2,6 +2,7 @@ package org.mokai.persist.jdbc;
 
 /**
  * Allows the initialization and custom dialect of a database. An implementation is required for each supported database.
+ * Implementations should extend {@link AbstractSqlEngine}, which defines the optional capabilities of a database.
  *
  * @author German Escobar
  */
@@ -14,14 +14,19 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.apache.commons.lang.Validate;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.mokai.Message;
 import org.mokai.Message.Direction;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
 import org.mokai.persist.MessageCriteria;
 import org.mokai.persist.MessageCriteria.OrderType;
+import org.mokai.persist.jdbc.AbstractMessageHandler;
 import org.mokai.persist.jdbc.JdbcHelper;
 import org.mokai.persist.jdbc.MessageHandler;
+import org.mokai.persist.jdbc.AbstractSqlEngine;
 import org.mokai.persist.jdbc.SqlEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,7 +35,7 @@ import org.slf4j.LoggerFactory;
  *
  * @author German Escobar
  */
-public abstract class AbstractSmsHandler implements MessageHandler {
+public abstract class AbstractSmsHandler extends AbstractMessageHandler {
 
 	private Logger log = LoggerFactory.getLogger(AbstractSmsHandler.class);
 
@@ -38,31 +43,32 @@ public abstract class AbstractSmsHandler implements MessageHandler {
 
 	private String tableName = getDefaultTableName();
 
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
+	/**
+	 * The number of messages retrieved per query by {@link #iterateMessages(Connection, MessageCriteria, MessageCallback)}.
+	 */
+	private int pageSize = DEFAULT_PAGE_SIZE;
+
+	private String insertSQL;
+
+	private String updateSQL;
+
+	private String boundedUpdateSQL;
+
+	/**
+	 * The margin in milliseconds around the creation time of a message that is used to bound the updates, see
+	 * {@link #buildUpdateSQL(boolean)}.
+	 */
+	private static final long CREATION_TIME_MARGIN = 60 * 1000;
+
 	private static final String[] KNOWN_PROPERTIES = { "to", "from", "text", "sequenceNumber", "messageId", "commandStatus", "receiptStatus", "receiptTime" };
 
 	@Override
 	public final long insertMessage(Connection conn, Message message) throws SQLException {
-		// create the SQL
-		final String strSQL = "INSERT INTO " + tableName + " (" +
-			"reference, " +
-			"source, " +
-			"destination, " +
-			"status, " +
-			"smsc_to, " +
-			"smsc_from, " +
-			"smsc_text, " +
-			"smsc_sequencenumber, " +
-			"smsc_messageid, " +
-			"smsc_commandstatus, " +
-			"smsc_receiptstatus, " +
-			"smsc_receipttime, " +
-			"other, " +
-			"creation_time) " +
-			"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
-
 		PreparedStatement stmt = null;
 		try {
-			stmt = conn.prepareStatement(strSQL, Statement.RETURN_GENERATED_KEYS);
+			stmt = conn.prepareStatement(getInsertSQL(), Statement.RETURN_GENERATED_KEYS);
 
 			// populate the prepared statement
 			populateInsertStatement(stmt, message);
@@ -79,6 +85,76 @@ public abstract class AbstractSmsHandler implements MessageHandler {
 		}
 	}
 
+	@Override
+	public final long[] insertMessages(Connection conn, List<Message> messages) throws SQLException {
+		if (messages.isEmpty()) {
+			return new long[0];
+		}
+
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(getInsertSQL(), Statement.RETURN_GENERATED_KEYS);
+
+			// use a batch only if we can map the generated ids back to the messages
+			if (AbstractSqlEngine.supportsBatchGeneratedKeys(sqlEngine)) {
+				for (Message message : messages) {
+					populateInsertStatement(stmt, message);
+					stmt.addBatch();
+				}
+
+				int[] counts = stmt.executeBatch();
+				for (int i=0; i < counts.length; i++) {
+					if (counts[i] == Statement.EXECUTE_FAILED) {
+						throw new SQLException("insert of message " + i + " of the batch failed");
+					}
+				}
+
+				return JdbcHelper.retrieveGeneratedIds(stmt, messages.size());
+			}
+
+			long[] ids = new long[messages.size()];
+			for (int i=0; i < ids.length; i++) {
+				populateInsertStatement(stmt, messages.get(i));
+				stmt.executeUpdate();
+
+				ids[i] = JdbcHelper.retrieveGeneratedId(stmt);
+			}
+
+			return ids;
+		} finally {
+			if (stmt != null) {
+				try { stmt.close(); } catch (Exception e) {}
+			}
+		}
+	}
+
+	private String getInsertSQL() {
+		if (insertSQL == null) {
+			insertSQL = buildInsertSQL();
+		}
+
+		return insertSQL;
+	}
+
+	private String buildInsertSQL() {
+		return "INSERT INTO " + tableName + " (" +
+			"reference, " +
+			"source, " +
+			"destination, " +
+			"status, " +
+			"smsc_to, " +
+			"smsc_from, " +
+			"smsc_text, " +
+			"smsc_sequencenumber, " +
+			"smsc_messageid, " +
+			"smsc_commandstatus, " +
+			"smsc_receiptstatus, " +
+			"smsc_receipttime, " +
+			"other, " +
+			"creation_time) " +
+			"VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	}
+
 	private void populateInsertStatement(PreparedStatement stmt, Message message) throws SQLException {
 		stmt.setString(1, message.getReference());
 		stmt.setString(2, message.getSource());
@@ -155,13 +231,130 @@ public abstract class AbstractSmsHandler implements MessageHandler {
 		return false;
 	}
 
+	/**
+	 * If the tables are partitioned (see {@link AbstractSqlEngine#isPartitioned(SqlEngine)}), the message is first
+	 * updated with the creation time bounded (see {@link #buildUpdateSQL(boolean)}) and, if it is not found that way
+	 * (e.g. the stored creation time was shifted by a timezone change), it is updated again only by id.
+	 */
 	@Override
 	public final boolean updateMessage(Connection conn, Message message) throws SQLException {
-		if (message.getModificationTime() == null) {
-			message.setModificationTime(new Date());
+		if (AbstractSqlEngine.isPartitioned(sqlEngine) && message.getCreationTime() != null
+				&& executeUpdate(conn, message, true)) {
+			return true;
+		}
+
+		return executeUpdate(conn, message, false);
+	}
+
+	private boolean executeUpdate(Connection conn, Message message, boolean bounded) throws SQLException {
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(getUpdateSQL(bounded));
+
+			populateUpdateStatement(stmt, message, bounded);
+
+			int affected = stmt.executeUpdate();
+
+			if (affected == 0) {
+				return false;
+			}
+
+			return true;
+		} finally {
+			if (stmt != null) {
+				try { stmt.close(); } catch (Exception e) {}
+			}
 		}
+	}
 
-		String strSQL = "UPDATE " + tableName + " SET " +
+	/**
+	 * Same as {@link #updateMessage(Connection, Message)} but each step is executed with a single batch.
+	 */
+	@Override
+	public final boolean[] updateMessages(Connection conn, List<Message> messages) throws SQLException {
+		boolean[] found = new boolean[messages.size()];
+		if (messages.isEmpty()) {
+			return found;
+		}
+
+		if (AbstractSqlEngine.isPartitioned(sqlEngine)) {
+			executeUpdates(conn, messages, found, true);
+		}
+
+		executeUpdates(conn, messages, found, false);
+
+		return found;
+	}
+
+	/**
+	 * Helper method. Updates the messages that are not found yet with a single batch, marking the ones that are
+	 * found.
+	 *
+	 * @param bounded if the creation time of the messages should be used to bound the update. Messages without
+	 * creation time are skipped in that case.
+	 */
+	private void executeUpdates(Connection conn, List<Message> messages, boolean[] found, boolean bounded)
+			throws SQLException {
+
+		List<Integer> indexes = new ArrayList<Integer>();
+		for (int i=0; i < found.length; i++) {
+			if (!found[i] && (!bounded || messages.get(i).getCreationTime() != null)) {
+				indexes.add(i);
+			}
+		}
+
+		if (indexes.isEmpty()) {
+			return;
+		}
+
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(getUpdateSQL(bounded));
+
+			for (int index : indexes) {
+				populateUpdateStatement(stmt, messages.get(index), bounded);
+				stmt.addBatch();
+			}
+
+			int[] affected = stmt.executeBatch();
+			for (int i=0; i < indexes.size(); i++) {
+				// some drivers don't report the number of affected rows
+				found[indexes.get(i)] = i < affected.length
+						&& (affected[i] > 0 || affected[i] == Statement.SUCCESS_NO_INFO);
+			}
+		} finally {
+			if (stmt != null) {
+				try { stmt.close(); } catch (Exception e) {}
+			}
+		}
+	}
+
+	private String getUpdateSQL(boolean bounded) {
+		if (bounded) {
+			if (boundedUpdateSQL == null) {
+				boundedUpdateSQL = buildUpdateSQL(true);
+			}
+
+			return boundedUpdateSQL;
+		}
+
+		if (updateSQL == null) {
+			updateSQL = buildUpdateSQL(false);
+		}
+
+		return updateSQL;
+	}
+
+	/**
+	 * Helper method. Builds the SQL used to update a message by id. If <code>bounded</code> is true, the update is
+	 * also bounded by the creation time of the message (with a margin, as the column may not store milliseconds), so
+	 * a table partitioned by creation time is only probed in the partition of the message instead of in all of
+	 * them.
+	 *
+	 * @return the SQL used to update a message.
+	 */
+	private String buildUpdateSQL(boolean bounded) {
+		return "UPDATE " + tableName + " SET " +
 				"status = ?, " +
 				"destination = ?, " +
 				"smsc_sequencenumber = ?, " +
@@ -171,9 +364,13 @@ public abstract class AbstractSmsHandler implements MessageHandler {
 				"smsc_receipttime = ?, " +
 				"other = ?, " +
 				"modification_time = ? " +
-				"WHERE id = ?";
+				"WHERE id = ?" + (bounded ? " AND creation_time >= ? AND creation_time < ?" : "");
+	}
 
-		PreparedStatement stmt = conn.prepareStatement(strSQL);
+	private void populateUpdateStatement(PreparedStatement stmt, Message message, boolean bounded) throws SQLException {
+		if (message.getModificationTime() == null) {
+			message.setModificationTime(new Date());
+		}
 
 		stmt.setByte(1, message.getStatus());
 		stmt.setString(2, message.getDestination());
@@ -207,13 +404,11 @@ public abstract class AbstractSmsHandler implements MessageHandler {
 
 		stmt.setLong(10, (Long) message.getId());
 
-		int affected = stmt.executeUpdate();
-
-		if (affected == 0) {
-			return false;
+		if (bounded) {
+			long creationTime = message.getCreationTime().getTime();
+			stmt.setTimestamp(11, new Timestamp(creationTime - CREATION_TIME_MARGIN));
+			stmt.setTimestamp(12, new Timestamp(creationTime + CREATION_TIME_MARGIN));
 		}
-
-		return true;
 	}
 
 	@Override
@@ -221,21 +416,28 @@ public abstract class AbstractSmsHandler implements MessageHandler {
 		List<Object> params = new ArrayList<Object>();
 
 		String strSQL = "UPDATE " + tableName + " SET status = ?";
-		strSQL += addCommonCriteria(criteria, params);
+		strSQL += getCriteriaSQL(criteria, true, params);
 
-		PreparedStatement stmt = conn.prepareStatement(strSQL);
+		PreparedStatement stmt = null;
+		try {
+			stmt = conn.prepareStatement(strSQL);
 
-		stmt.setByte(1, newStatus);
+			stmt.setByte(1, newStatus);
 
-		if (!params.isEmpty()) {
-			int index = 2;
-			for (Object param : params) {
-				stmt.setObject(index, param);
-				index++;
+			if (!params.isEmpty()) {
+				int index = 2;
+				for (Object param : params) {
+					stmt.setObject(index, param);
+					index++;
+				}
 			}
-		}
 
-		stmt.executeUpdate();
+			stmt.executeUpdate();
+		} finally {
+			if (stmt != null) {
+				try { stmt.close(); } catch (Exception e) {}
+			}
+		}
 	}
 
 	@Override
@@ -243,7 +445,7 @@ public abstract class AbstractSmsHandler implements MessageHandler {
 		List<Object> params = new ArrayList<Object>();
 
 		String strSQL = "SELECT * FROM " + tableName;
-		strSQL += addCommonCriteria(criteria, params);
+		strSQL += getCriteriaSQL(criteria, true, params);
 		log.trace("List messages SQL: " + strSQL);
 
 		PreparedStatement stmt = null;
@@ -272,79 +474,252 @@ public abstract class AbstractSmsHandler implements MessageHandler {
 		}
 	}
 
-	private String addCommonCriteria(MessageCriteria criteria, List<Object> params) {
-		StringBuffer strSQL = new StringBuffer();
+	/**
+	 * Retrieves the messages in pages of {@link #getPageSize()} messages using a query ordered by id that starts after
+	 * the last id of the previous page (instead of an offset, which would have to skip the rows of all the previous
+	 * pages). The rows of each page are streamed from the database as configured by the {@link SqlEngine}. If no
+	 * SqlEngine is set, all the messages are retrieved with a single query.
+	 */
+	@Override
+	public final void iterateMessages(Connection conn, MessageCriteria criteria, MessageCallback callback)
+			throws SQLException {
 
-		if (criteria != null) {
-			boolean existsCriteria = false;
+		List<Object> criteriaParams = new ArrayList<Object>();
+		String where = getCriteriaSQL(criteria, false, criteriaParams);
 
-			// status
-			List<Byte> status = criteria.getStatus();
-			if (status != null && !status.isEmpty()) {
-				strSQL.append(addOperator(existsCriteria));
+		// the first page and the next ones only differ in the condition on the last id
+		String firstPageSQL = buildPageSQL(where, false);
+		String nextPageSQL = buildPageSQL(where, true);
 
-				boolean existsStatusCriteria = false;
-				for (Byte st : status) {
-					if (!existsStatusCriteria) {
-						strSQL.append(" status = ?");
-					} else {
-						strSQL.append(" or status = ?");
-					}
+		Long lastId = null;
+		int pageCount;
 
-					params.add(st);
-					existsStatusCriteria = true;
+		do {
+			List<Object> params = new ArrayList<Object>(criteriaParams);
+
+			String strSQL = firstPageSQL;
+			if (lastId != null) {
+				strSQL = nextPageSQL;
+				params.add(lastId);
+			}
+			log.trace("Iterate messages SQL: " + strSQL);
 
-					existsCriteria = true;
+			PreparedStatement stmt = null;
+			ResultSet rs = null;
+
+			try {
+				stmt = conn.prepareStatement(strSQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				if (sqlEngine != null) {
+					AbstractSqlEngine.enableStreaming(sqlEngine, stmt, pageSize);
+				}
+				setParameters(stmt, params);
+
+				rs = stmt.executeQuery();
+
+				pageCount = 0;
+				while (rs.next()) {
+					Message message = createMessage(rs);
+					lastId = (Long) message.getId();
+					pageCount++;
+
+					callback.process(message);
+				}
+			} finally {
+				if (rs != null) {
+					try { rs.close(); } catch (Exception e) {}
+				}
+				if (stmt != null) {
+					try { stmt.close(); } catch (Exception e) {}
 				}
 			}
+		} while (sqlEngine != null && pageCount == pageSize);
+	}
 
-			// destination
-			if (criteria.getDestination() != null) {
-				strSQL.append(addOperator(existsCriteria));
+	/**
+	 * Helper method. Builds the query of a page of {@link #iterateMessages(Connection, MessageCriteria, MessageCallback)}.
+	 */
+	private String buildPageSQL(String where, boolean afterLastId) {
+		StringBuffer strSQL = new StringBuffer("SELECT * FROM " + tableName + where);
+		if (afterLastId) {
+			strSQL.append(addOperator(!"".equals(where))).append(" id > ?");
+		}
+		strSQL.append(" ORDER BY id ASC");
+		if (sqlEngine != null) {
+			sqlEngine.addLimitToQuery(strSQL, 0, pageSize);
+		}
 
-				strSQL.append(" destination = ?");
-				params.add(criteria.getDestination());
+		return strSQL.toString();
+	}
+
+	@Override
+	public final long countMessages(Connection conn, MessageCriteria criteria) throws SQLException {
+		List<Object> params = new ArrayList<Object>();
 
-				existsCriteria = true;
+		String strSQL = "SELECT COUNT(*) FROM " + tableName + getCriteriaSQL(criteria, false, params);
+		log.trace("Count messages SQL: " + strSQL);
+
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+
+		try {
+			stmt = conn.prepareStatement(strSQL);
+			setParameters(stmt, params);
+
+			rs = stmt.executeQuery();
+			return rs.next() ? rs.getLong(1) : 0;
+		} finally {
+			if (rs != null) {
+				try { rs.close(); } catch (Exception e) {}
+			}
+			if (stmt != null) {
+				try { stmt.close(); } catch (Exception e) {}
 			}
+		}
+	}
 
-			// add additional properties
-			for (Map.Entry<String,Object> entry : criteria.getProperties().entrySet()) {
-				strSQL.append(addOperator(existsCriteria));
+	@Override
+	public final Collection<MessageCount> countMessagesGrouped(Connection conn, MessageCriteria criteria)
+			throws SQLException {
 
-				// map known values -- this is a hack while we deprecate the relational databases
-				String key = entry.getKey();
-				if ("to".equals(key)) {
-					key = "smsc_to";
-				} else if ("from".equals(key)) {
-					key = "smsc_from";
-				}
+		List<Object> params = new ArrayList<Object>();
+
+		String strSQL = "SELECT status, destination, COUNT(*) FROM " + tableName
+				+ getCriteriaSQL(criteria, false, params) + " GROUP BY status, destination";
+		log.trace("Count messages grouped SQL: " + strSQL);
+
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+
+		try {
+			stmt = conn.prepareStatement(strSQL);
+			setParameters(stmt, params);
 
-				strSQL.append(" " + key + " = ?");
-				params.add(entry.getValue());
+			rs = stmt.executeQuery();
 
-				existsCriteria = true;
+			Collection<MessageCount> counts = new ArrayList<MessageCount>();
+			while (rs.next()) {
+				counts.add(new MessageCount(getMessageDirection(), rs.getByte(1), rs.getString(2), rs.getLong(3)));
 			}
 
-			// order by
-			if (criteria.getOrderBy() != null && !"".equals(criteria.getOrderBy())) {
-				String orderBy = criteria.getOrderBy();
-				strSQL.append(" ORDER BY ").append(orderBy);
+			return counts;
+		} finally {
+			if (rs != null) {
+				try { rs.close(); } catch (Exception e) {}
+			}
+			if (stmt != null) {
+				try { stmt.close(); } catch (Exception e) {}
+			}
+		}
+	}
 
-				if (criteria.getOrderType() == OrderType.UPWARDS) {
-					strSQL.append(" ASC");
-				} else {
-					strSQL.append(" DESC");
-				}
+	/**
+	 * Helper method. Sets the parameters of the statement starting from the first one.
+	 */
+	private void setParameters(PreparedStatement stmt, List<Object> params) throws SQLException {
+		int index = 1;
+		for (Object param : params) {
+			stmt.setObject(index, param);
+			index++;
+		}
+	}
+
+	/**
+	 * Helper method. Returns the SQL of the criteria (only the WHERE clause or, if <code>orderAndLimit</code> is true,
+	 * also the order and limits) and adds the values to the <code>params</code> list in the same order of the
+	 * placeholders. Criteria with the same fields produce the same SQL, so it can be reused by the statement cache of
+	 * the pool.
+	 */
+	private String getCriteriaSQL(MessageCriteria criteria, boolean orderAndLimit, List<Object> params) {
+		StringBuffer strSQL = new StringBuffer();
+		if (criteria == null) {
+			return strSQL.toString();
+		}
+
+		boolean existsCriteria = false;
+
+		// status
+		List<Byte> status = criteria.getStatus();
+		if (status != null && !status.isEmpty()) {
+			strSQL.append(addOperator(existsCriteria)).append(" (");
+			for (int i=0; i < status.size(); i++) {
+				strSQL.append(i == 0 ? "status = ?" : " or status = ?");
 			}
+			strSQL.append(")");
+
+			params.addAll(status);
+			existsCriteria = true;
+		}
 
-			// limit
-			int lowerLimit = criteria.getLowerLimit();
-			int numRecords = criteria.getNumRecords();
-			if (numRecords > 0) {
-				sqlEngine.addLimitToQuery(strSQL, lowerLimit, numRecords);
+		// ids
+		List<Object> ids = criteria.getIds();
+		if (ids != null && !ids.isEmpty()) {
+			strSQL.append(addOperator(existsCriteria)).append(" id IN (");
+			for (int i=0; i < ids.size(); i++) {
+				strSQL.append(i == 0 ? "?" : ", ?");
 			}
+			strSQL.append(")");
+
+			params.addAll(ids);
+			existsCriteria = true;
+		}
+
+		// keyset pagination
+		if (criteria.getAfterId() != null) {
+			strSQL.append(addOperator(existsCriteria)).append(" id > ?");
+			params.add(criteria.getAfterId());
+			existsCriteria = true;
+		}
+
+		// destination
+		if (criteria.getDestination() != null) {
+			strSQL.append(addOperator(existsCriteria)).append(" destination = ?");
+			params.add(criteria.getDestination());
+			existsCriteria = true;
+		}
+
+		// creation time range, which also limits the partitions that are read
+		if (criteria.getCreatedFrom() != null) {
+			strSQL.append(addOperator(existsCriteria)).append(" creation_time >= ?");
+			params.add(new Timestamp(criteria.getCreatedFrom().getTime()));
+			existsCriteria = true;
+		}
 
+		if (criteria.getCreatedTo() != null) {
+			strSQL.append(addOperator(existsCriteria)).append(" creation_time < ?");
+			params.add(new Timestamp(criteria.getCreatedTo().getTime()));
+			existsCriteria = true;
+		}
+
+		// add additional properties
+		for (Map.Entry<String,Object> entry : criteria.getProperties().entrySet()) {
+			// map known values -- this is a hack while we deprecate the relational databases
+			String key = entry.getKey();
+			if ("to".equals(key)) {
+				key = "smsc_to";
+			} else if ("from".equals(key)) {
+				key = "smsc_from";
+			}
+
+			strSQL.append(addOperator(existsCriteria)).append(" " + key + " = ?");
+			params.add(entry.getValue());
+			existsCriteria = true;
+		}
+
+		if (!orderAndLimit) {
+			return strSQL.toString();
+		}
+
+		// order by
+		if (criteria.getOrderBy() != null && !"".equals(criteria.getOrderBy())) {
+			strSQL.append(" ORDER BY ").append(criteria.getOrderBy());
+			strSQL.append(criteria.getOrderType() == OrderType.UPWARDS ? " ASC" : " DESC");
+		}
+
+		// limit
+		int lowerLimit = criteria.getLowerLimit();
+		int numRecords = criteria.getNumRecords();
+		if (numRecords > 0) {
+			sqlEngine.addLimitToQuery(strSQL, lowerLimit, numRecords);
 		}
 
 		return strSQL.toString();
@@ -361,53 +736,68 @@ public abstract class AbstractSmsHandler implements MessageHandler {
 		return ret;
 	}
 
-	@SuppressWarnings("rawtypes")
 	private Collection<Message> createMessages(ResultSet rs) throws SQLException {
 		Collection<Message> messages = new ArrayList<Message>();
 
 		while (rs.next()) {
-			Message message = new Message();
-
-			message.setDirection(getMessageDirection());
-
-			message.setId(rs.getLong("id"));
-			message.setReference(rs.getString("reference"));
-			message.setSource(rs.getString("source"));
-			message.setDestination(rs.getString("destination"));
-			message.setStatus(rs.getByte("status"));
-
-			message.setProperty("to", rs.getString("smsc_to"));
-			message.setProperty("from", rs.getString("smsc_from"));
-			message.setProperty("text", rs.getString("smsc_text"));
-			message.setProperty("sequenceNumber", rs.getInt("smsc_sequencenumber"));
-			message.setProperty("messageId", rs.getString("smsc_messageid"));
-			message.setProperty("commandStatus", rs.getInt("smsc_commandstatus"));
-			message.setProperty("receiptStatus", rs.getString("smsc_receiptstatus"));
-			message.setProperty("receiptTime", rs.getTimestamp("smsc_receipttime"));
-
-			String jsonString = rs.getString("other");
-			if (jsonString != null && !"".equals(jsonString)) {
-				try {
-					JSONObject json = new JSONObject(jsonString);
+			messages.add(createMessage(rs));
+		}
 
-					Iterator iterator = json.keys();
-					while (iterator.hasNext()) {
-						String key = (String) iterator.next();
-						message.setProperty(key, json.get(key));
-					}
+		return messages;
+	}
 
-				} catch (JSONException e) {
-					log.error("JSONException while retreiving string: " + jsonString + ": " + e.getMessage(), e);
+	/**
+	 * Helper method. Creates a message from the current row of the result set.
+	 */
+	@SuppressWarnings("rawtypes")
+	private Message createMessage(ResultSet rs) throws SQLException {
+		Message message = new Message();
+
+		message.setDirection(getMessageDirection());
+
+		message.setId(rs.getLong("id"));
+		message.setReference(rs.getString("reference"));
+		message.setSource(rs.getString("source"));
+		message.setDestination(rs.getString("destination"));
+		message.setStatus(rs.getByte("status"));
+
+		message.setProperty("to", rs.getString("smsc_to"));
+		message.setProperty("from", rs.getString("smsc_from"));
+		message.setProperty("text", rs.getString("smsc_text"));
+		message.setProperty("sequenceNumber", rs.getInt("smsc_sequencenumber"));
+		message.setProperty("messageId", rs.getString("smsc_messageid"));
+		message.setProperty("commandStatus", rs.getInt("smsc_commandstatus"));
+		message.setProperty("receiptStatus", rs.getString("smsc_receiptstatus"));
+		message.setProperty("receiptTime", rs.getTimestamp("smsc_receipttime"));
+
+		String jsonString = rs.getString("other");
+		if (jsonString != null && !"".equals(jsonString)) {
+			try {
+				JSONObject json = new JSONObject(jsonString);
+
+				Iterator iterator = json.keys();
+				while (iterator.hasNext()) {
+					String key = (String) iterator.next();
+					message.setProperty(key, json.get(key));
 				}
+
+			} catch (JSONException e) {
+				log.error("JSONException while retreiving string: " + jsonString + ": " + e.getMessage(), e);
 			}
+		}
 
-			message.setCreationTime(rs.getTimestamp("creation_time"));
-			message.setModificationTime(rs.getTimestamp("modification_time"));
+		message.setCreationTime(rs.getTimestamp("creation_time"));
+		message.setModificationTime(rs.getTimestamp("modification_time"));
 
-			messages.add(message);
-		}
+		return message;
+	}
 
-		return messages;
+	/**
+	 * Supports transactions if the engine does (see {@link AbstractSqlEngine#supportsTransactions()}).
+	 */
+	@Override
+	public final boolean supportsTransactions() {
+		return AbstractSqlEngine.supportsTransactions(sqlEngine);
 	}
 
 	public SqlEngine getSqlEngine() {
@@ -418,12 +808,24 @@ public abstract class AbstractSmsHandler implements MessageHandler {
 		this.sqlEngine = sqlEngine;
 	}
 
+	public final int getPageSize() {
+		return pageSize;
+	}
+
+	public final void setPageSize(int pageSize) {
+		Validate.isTrue(pageSize > 0, "pageSize must be greater than 0");
+		this.pageSize = pageSize;
+	}
+
 	public final String getTableName() {
 		return tableName;
 	}
 
 	public final void setTableName(String tableName) {
 		this.tableName = tableName;
+
+		this.insertSQL = null;
+		this.updateSQL = null;
 	}
 
 	protected abstract String getDefaultTableName();
@@ -1,16 +1,27 @@
 package org.mokai.persist.jdbc.sms;
 
+import java.sql.SQLException;
+import java.util.Date;
+
 import javax.sql.DataSource;
 
+import org.apache.commons.lang.Validate;
+import org.mokai.persist.jdbc.AbstractSqlEngine;
 import org.mokai.persist.jdbc.JdbcHelper;
-import org.mokai.persist.jdbc.SqlEngine;
 
-public class DerbyEngine implements SqlEngine {
+public class DerbyEngine extends AbstractSqlEngine {
 
 	private DataSource dataSource;
 
 	private boolean initialized;
 
+	public static final int DEFAULT_DELETE_BATCH_SIZE = 1000;
+
+	/**
+	 * The max number of messages deleted by each statement of {@link #removeMessages(Date)}.
+	 */
+	private int deleteBatchSize = DEFAULT_DELETE_BATCH_SIZE;
+
 	public DerbyEngine() {}
 
 	public DerbyEngine(DataSource dataSource) {
@@ -26,9 +37,40 @@ public class DerbyEngine implements SqlEngine {
 		JdbcHelper.checkCreateTable(dataSource, null, ConnectionsSmsHandler.DEFAULT_TABLENAME, getConnectionsCreateScript());
 		JdbcHelper.checkCreateTable(dataSource, null, ApplicationsSmsHandler.DEFAULT_TABLENAME, getApplicationsCreateScript());
 
+		// the indexes are also created in the tables of previous versions
+		checkCreateIndexes(ConnectionsSmsHandler.DEFAULT_TABLENAME, true);
+		checkCreateIndexes(ApplicationsSmsHandler.DEFAULT_TABLENAME, false);
+
 		initialized = true;
 	}
 
+	@Override
+	public boolean supportsTransactions() {
+		return true;
+	}
+
+	/**
+	 * Helper method. Creates the indexes used by the correlation queries of the connectors, the retries and the
+	 * listings of a time range (see {@link MySqlEngine#getConnectionsCreateScript(String)}). Derby index names are
+	 * unique in the schema, so they are prefixed with the table name.
+	 */
+	private void checkCreateIndexes(String tableName, boolean recipientIndex) throws SQLException {
+		checkCreateIndex(tableName, "DEST_SEQ_IDX", "destination, smsc_sequencenumber");
+		checkCreateIndex(tableName, "DEST_MSGID_IDX", "destination, smsc_messageid");
+		if (recipientIndex) {
+			checkCreateIndex(tableName, "TO_IDX", "smsc_to");
+		}
+		checkCreateIndex(tableName, "STATUS_IDX", "status, id");
+		checkCreateIndex(tableName, "STATUS_DATE_IDX", "status, creation_time");
+		checkCreateIndex(tableName, "DATE_IDX", "creation_time");
+	}
+
+	private void checkCreateIndex(String tableName, String suffix, String columns) throws SQLException {
+		String indexName = tableName + "_" + suffix;
+		JdbcHelper.checkCreateIndex(dataSource, null, tableName, indexName,
+				"CREATE INDEX " + indexName + " ON " + tableName + " (" + columns + ")");
+	}
+
 	@Override
 	public boolean isInitialized() {
 		return initialized;
@@ -39,10 +81,42 @@ public class DerbyEngine implements SqlEngine {
 		query.append(" OFFSET " + offset + " ROWS FETCH NEXT " + numRows + " ROWS ONLY");
 	}
 
+	/**
+	 * Derby only returns the generated key of the last row of a batch.
+	 */
+	@Override
+	public boolean supportsBatchGeneratedKeys() {
+		return false;
+	}
+
+	/**
+	 * Derby doesn't support partitioned tables, so there is nothing to create.
+	 */
+	@Override
+	public void createPartitions(Date until) throws SQLException {}
+
+	/**
+	 * Derby doesn't support partitioned tables, so the messages are deleted in batches.
+	 */
+	@Override
+	public void removeMessages(Date before) throws SQLException {
+		JdbcHelper.deleteCreatedBefore(dataSource, this, ConnectionsSmsHandler.DEFAULT_TABLENAME, before, deleteBatchSize);
+		JdbcHelper.deleteCreatedBefore(dataSource, this, ApplicationsSmsHandler.DEFAULT_TABLENAME, before, deleteBatchSize);
+	}
+
 	public void setDataSource(DataSource dataSource) {
 		this.dataSource = dataSource;
 	}
 
+	public int getDeleteBatchSize() {
+		return deleteBatchSize;
+	}
+
+	public void setDeleteBatchSize(int deleteBatchSize) {
+		Validate.isTrue(deleteBatchSize > 0, "deleteBatchSize must be greater than 0");
+		this.deleteBatchSize = deleteBatchSize;
+	}
+
 	protected String getConnectionsCreateScript() {
 		return "CREATE TABLE " + ConnectionsSmsHandler.DEFAULT_TABLENAME + " (" +
 					"id BIGINT NOT NULL GENERATED ALWAYS AS IDENTITY (START WITH 1, INCREMENT BY 1), " +
@@ -60,7 +134,8 @@ public class DerbyEngine implements SqlEngine {
 					"smsc_receipttime TIMESTAMP, " +
 					"other VARCHAR(1000), " +
 					"creation_time TIMESTAMP NOT NULL, " +
-					"modification_time TIMESTAMP)";
+					"modification_time TIMESTAMP, " +
+					"PRIMARY KEY (id))";
 	}
 
 	protected String getApplicationsCreateScript() {
@@ -80,7 +155,8 @@ public class DerbyEngine implements SqlEngine {
 					"smsc_receipttime TIMESTAMP, " +
 					"other VARCHAR(1000), " +
 					"creation_time TIMESTAMP NOT NULL, " +
-					"modification_time TIMESTAMP)";
+					"modification_time TIMESTAMP, " +
+					"PRIMARY KEY (id))";
 	}
 
 }
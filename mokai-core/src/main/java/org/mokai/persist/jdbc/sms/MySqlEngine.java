@@ -1,18 +1,82 @@
 package org.mokai.persist.jdbc.sms;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
 import javax.sql.DataSource;
 
+import org.apache.commons.lang.Validate;
+import org.mokai.persist.jdbc.AbstractSqlEngine;
 import org.mokai.persist.jdbc.JdbcHelper;
+import org.mokai.persist.jdbc.PartitionPeriod;
 import org.mokai.persist.jdbc.SqlEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>The {@link SqlEngine} of MySQL.</p>
+ *
+ * <p>If a {@link PartitionPeriod} is set, the message tables are created with a range partition by the creation time
+ * for each period (plus a last partition for any later message), so the queries with a creation time range only read
+ * the partitions of the range and the old messages are removed by dropping whole partitions (or exchanging them with
+ * archive tables, which requires MySQL 5.6). The partitions of the next periods must be created periodically with
+ * {@link #createPartitions(Date)}. Existing tables are not partitioned automatically because it would lock them
+ * until all the messages are copied.</p>
+ *
+ * <p>The tables are created with the InnoDB storage engine by default, which locks rows instead of whole tables, so
+ * the inserts and updates of the messages don't block the correlation queries of the connectors. Existing tables can
+ * be converted with the {@link MySqlTableMigrator}.</p>
+ *
+ * @author German Escobar
+ */
+public class MySqlEngine extends AbstractSqlEngine {
+
+	private Logger log = LoggerFactory.getLogger(MySqlEngine.class);
+
+	/**
+	 * The last partition, which holds the messages created after the last period.
+	 */
+	private static final String MAX_PARTITION = "pmax";
 
-public class MySqlEngine implements SqlEngine {
+	public static final int DEFAULT_DELETE_BATCH_SIZE = 1000;
+
+	public static final String DEFAULT_STORAGE_ENGINE = "InnoDB";
 
 	private DataSource dataSource;
 
+	/**
+	 * The storage engine of the tables that are created, InnoDB or MyISAM.
+	 */
+	private String storageEngine = DEFAULT_STORAGE_ENGINE;
+
 	private String schema = "mokai";
 
 	private boolean initialized;
 
+	/**
+	 * The period of each partition of the message tables or null if the tables are not partitioned.
+	 */
+	private PartitionPeriod partitionPeriod;
+
+	/**
+	 * If the expired partitions should be exchanged with archive tables (named after the table and the partition)
+	 * instead of being dropped.
+	 */
+	private boolean archivePartitions;
+
+	/**
+	 * The max number of messages deleted by each statement of {@link #removeMessages(Date)} if the tables are not
+	 * partitioned.
+	 */
+	private int deleteBatchSize = DEFAULT_DELETE_BATCH_SIZE;
+
 	@Override
 	public void init() throws Exception {
 		if (initialized) {
@@ -43,13 +107,320 @@ public class MySqlEngine implements SqlEngine {
 		query.append(" LIMIT " + offset + "," + numRows);
 	}
 
+	/**
+	 * The tables are partitioned if a {@link PartitionPeriod} is configured. Tables created before it was configured
+	 * may not be partitioned, but bounding the updates by creation time doesn't change their result.
+	 */
+	@Override
+	public boolean isPartitioned() {
+		return partitionPeriod != null;
+	}
+
+	@Override
+	public boolean supportsBatchGeneratedKeys() {
+		return true;
+	}
+
+	/**
+	 * Only the InnoDB tables support transactions, a MyISAM table keeps the rows inserted before a rollback.
+	 */
+	@Override
+	public boolean supportsTransactions() {
+		return DEFAULT_STORAGE_ENGINE.equalsIgnoreCase(storageEngine);
+	}
+
+	/**
+	 * MySQL Connector/J reads the whole result set into memory unless the fetch size is Integer.MIN_VALUE, in which
+	 * case it streams the rows one by one.
+	 */
+	@Override
+	public void enableStreaming(Statement stmt, int fetchSize) throws SQLException {
+		stmt.setFetchSize(Integer.MIN_VALUE);
+	}
+
+	@Override
+	public void createPartitions(Date until) throws SQLException {
+		if (partitionPeriod == null) {
+			return;
+		}
+
+		createPartitions(ConnectionsSmsHandler.DEFAULT_TABLENAME, until);
+		createPartitions(ApplicationsSmsHandler.DEFAULT_TABLENAME, until);
+	}
+
+	/**
+	 * Helper method. Creates the partitions of the periods after the last partition of the table up to the date by
+	 * splitting the max partition, which is usually empty.
+	 */
+	private void createPartitions(String tableName, Date until) throws SQLException {
+		List<String> partitions = getPartitions(tableName);
+		if (partitions.isEmpty()) {
+			log.warn("table " + tableName + " is not partitioned, its partitions will not be created");
+			return;
+		}
+
+		// find the start of the first missing period
+		Date start = null;
+		for (String partition : partitions) {
+			Date partitionStart = partitionPeriod.parsePartitionName(partition);
+			if (partitionStart != null && (start == null || !partitionStart.before(start))) {
+				start = partitionPeriod.getNext(partitionStart);
+			}
+		}
+		if (start == null) {
+			start = partitionPeriod.getStart(new Date());
+		}
+
+		StringBuffer definitions = new StringBuffer();
+		while (!start.after(until)) {
+			definitions.append(definitions.length() == 0 ? "" : ", ").append(getPartitionDefinition(start));
+			start = partitionPeriod.getNext(start);
+		}
+
+		if (definitions.length() == 0) {
+			return;
+		}
+
+		if (partitions.contains(MAX_PARTITION)) {
+			execute("ALTER TABLE " + tableName + " REORGANIZE PARTITION " + MAX_PARTITION + " INTO (" + definitions
+					+ ", PARTITION " + MAX_PARTITION + " VALUES LESS THAN MAXVALUE)");
+		} else {
+			execute("ALTER TABLE " + tableName + " ADD PARTITION (" + definitions + ")");
+		}
+
+		log.info("partitions created in table " + tableName + ": " + definitions);
+	}
+
+	/**
+	 * If the tables are partitioned, drops (or archives) the partitions of the periods that ended before the date.
+	 * Otherwise, the messages are deleted in batches.
+	 */
+	@Override
+	public void removeMessages(Date before) throws SQLException {
+		removeMessages(ConnectionsSmsHandler.DEFAULT_TABLENAME, before);
+		removeMessages(ApplicationsSmsHandler.DEFAULT_TABLENAME, before);
+	}
+
+	/**
+	 * Helper method. Removes the messages of a table created before the date.
+	 */
+	private void removeMessages(String tableName, Date before) throws SQLException {
+		List<String> partitions = partitionPeriod != null ? getPartitions(tableName) : new ArrayList<String>();
+		if (partitions.isEmpty()) {
+			long deleted = JdbcHelper.deleteCreatedBefore(dataSource, this, tableName, before, deleteBatchSize);
+			log.info(deleted + " messages created before " + before + " deleted from table " + tableName);
+
+			return;
+		}
+
+		List<String> expired = new ArrayList<String>();
+		for (String partition : partitions) {
+			Date start = partitionPeriod.parsePartitionName(partition);
+			if (start != null && !partitionPeriod.getNext(start).after(before)) {
+				expired.add(partition);
+			}
+		}
+
+		for (String partition : expired) {
+			if (archivePartitions) {
+				archivePartition(tableName, partition);
+			} else {
+				execute("ALTER TABLE " + tableName + " DROP PARTITION " + partition);
+			}
+
+			log.info("partition " + partition + " of table " + tableName + (archivePartitions ? " archived" : " dropped"));
+		}
+	}
+
+	/**
+	 * Helper method. Moves the messages of the partition to an empty archive table, which doesn't copy the messages,
+	 * and drops the partition.
+	 */
+	private void archivePartition(String tableName, String partition) throws SQLException {
+		String archiveTableName = tableName + "_" + partition;
+
+		if (!tableExists(archiveTableName)) {
+			execute("CREATE TABLE " + archiveTableName + " LIKE " + tableName);
+			execute("ALTER TABLE " + archiveTableName + " REMOVE PARTITIONING");
+			execute("ALTER TABLE " + tableName + " EXCHANGE PARTITION " + partition + " WITH TABLE " + archiveTableName);
+		} else if (countMessages(tableName, partition) > 0) {
+			// exchanging the partition again would move the archived messages back to the table
+			throw new SQLException("archive table " + archiveTableName + " already exists and partition "
+					+ partition + " of table " + tableName + " is not empty");
+		}
+
+		execute("ALTER TABLE " + tableName + " DROP PARTITION " + partition);
+	}
+
+	/**
+	 * Helper method. Returns the names of the partitions of the table in order or an empty list if the table is not
+	 * partitioned.
+	 */
+	private List<String> getPartitions(String tableName) throws SQLException {
+		List<String> partitions = new ArrayList<String>();
+
+		Connection connection = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+
+		try {
+			connection = dataSource.getConnection();
+			stmt = connection.prepareStatement("SELECT partition_name FROM information_schema.partitions " +
+					"WHERE table_schema = ? AND table_name = ? AND partition_name IS NOT NULL " +
+					"ORDER BY partition_ordinal_position");
+			stmt.setString(1, getSchema());
+			stmt.setString(2, tableName);
+
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				partitions.add(rs.getString(1));
+			}
+
+			return partitions;
+		} finally {
+			closeResources(rs, stmt, connection);
+		}
+	}
+
+	private boolean tableExists(String tableName) throws SQLException {
+		Connection connection = null;
+		ResultSet rs = null;
+
+		try {
+			connection = dataSource.getConnection();
+			rs = connection.getMetaData().getTables("", getSchema(), tableName, null);
+
+			return rs.next();
+		} finally {
+			closeResources(rs, null, connection);
+		}
+	}
+
+	private long countMessages(String tableName, String partition) throws SQLException {
+		Connection connection = null;
+		Statement stmt = null;
+		ResultSet rs = null;
+
+		try {
+			connection = dataSource.getConnection();
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM " + tableName + " PARTITION (" + partition + ")");
+
+			return rs.next() ? rs.getLong(1) : 0;
+		} finally {
+			closeResources(rs, stmt, connection);
+		}
+	}
+
+	private void execute(String sql) throws SQLException {
+		Connection connection = null;
+		Statement stmt = null;
+
+		try {
+			connection = dataSource.getConnection();
+			stmt = connection.createStatement();
+			stmt.executeUpdate(sql);
+		} finally {
+			closeResources(null, stmt, connection);
+		}
+	}
+
+	private void closeResources(ResultSet rs, Statement stmt, Connection connection) {
+		if (rs != null) {
+			try { rs.close(); } catch (Exception e) {}
+		}
+		if (stmt != null) {
+			try { stmt.close(); } catch (Exception e) {}
+		}
+		if (connection != null) {
+			try { connection.close(); } catch (Exception e) {}
+		}
+	}
+
+	/**
+	 * Helper method. The definition of the partition of the period that starts at the date.
+	 */
+	private String getPartitionDefinition(Date start) {
+		return "PARTITION " + partitionPeriod.getPartitionName(start) + " VALUES LESS THAN (TO_DAYS('"
+				+ new SimpleDateFormat("yyyy-MM-dd").format(partitionPeriod.getNext(start)) + "'))";
+	}
+
+	/**
+	 * Helper method. The primary key columns of the message tables: partitioned tables must include the creation
+	 * time in every unique key.
+	 */
+	private String getPrimaryKey() {
+		return partitionPeriod == null ? "PRIMARY KEY (id)" : "PRIMARY KEY (id, creation_time)";
+	}
+
+	/**
+	 * Helper method. The partitioning clause of the create scripts with the partition of the current period and the
+	 * max partition, or an empty string if the tables are not partitioned.
+	 */
+	private String getPartitionClause() {
+		if (partitionPeriod == null) {
+			return "";
+		}
+
+		return " PARTITION BY RANGE (TO_DAYS(creation_time)) (" +
+					getPartitionDefinition(partitionPeriod.getStart(new Date())) + ", " +
+					"PARTITION " + MAX_PARTITION + " VALUES LESS THAN MAXVALUE" +
+				")";
+	}
+
 	public void setDataSource(DataSource dataSource) {
 		this.dataSource = dataSource;
 	}
 
+	public PartitionPeriod getPartitionPeriod() {
+		return partitionPeriod;
+	}
+
+	public void setPartitionPeriod(PartitionPeriod partitionPeriod) {
+		this.partitionPeriod = partitionPeriod;
+	}
+
+	public boolean isArchivePartitions() {
+		return archivePartitions;
+	}
+
+	public void setArchivePartitions(boolean archivePartitions) {
+		this.archivePartitions = archivePartitions;
+	}
+
+	public String getStorageEngine() {
+		return storageEngine;
+	}
+
+	public void setStorageEngine(String storageEngine) {
+		Validate.notEmpty(storageEngine, "storageEngine must not be empty");
+		this.storageEngine = storageEngine;
+	}
+
+	public int getDeleteBatchSize() {
+		return deleteBatchSize;
+	}
+
+	public void setDeleteBatchSize(int deleteBatchSize) {
+		Validate.isTrue(deleteBatchSize > 0, "deleteBatchSize must be greater than 0");
+		this.deleteBatchSize = deleteBatchSize;
+	}
+
 	protected String getConnectionsCreateScript() {
-		return "CREATE TABLE " + ConnectionsSmsHandler.DEFAULT_TABLENAME + " (" +
-					"id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, " +
+		return getConnectionsCreateScript(ConnectionsSmsHandler.DEFAULT_TABLENAME);
+	}
+
+	/**
+	 * The indexes match the queries of the connectors (correlation by destination and sequence number or message
+	 * id) and the retries (status with the id, which InnoDB appends to every secondary index, to paginate by id).
+	 * The status and creation time index serves the counts and listings of a time range.
+	 *
+	 * @param tableName the name of the table to create.
+	 * @return the script that creates the table of the messages sent to the connections.
+	 */
+	protected String getConnectionsCreateScript(String tableName) {
+		return "CREATE TABLE " + tableName + " (" +
+					"id BIGINT NOT NULL AUTO_INCREMENT, " +
 					"reference VARCHAR(100), " +
 					"source VARCHAR(30) NOT NULL, " +
 					"destination VARCHAR(30), " +
@@ -69,13 +440,25 @@ public class MySqlEngine implements SqlEngine {
 					"KEY DEST_MSGID_IDX (destination, smsc_messageid)," +
 					"KEY TO_IDX (smsc_to)," +
 					"KEY STATUS_IDX (status)," +
-					"KEY DATE_IDX (creation_time)" +
-				") ENGINE=MyISAM DEFAULT CHARSET=utf8;";
+					"KEY STATUS_DATE_IDX (status, creation_time)," +
+					"KEY DATE_IDX (creation_time)," +
+					getPrimaryKey() +
+				") ENGINE=" + storageEngine + " DEFAULT CHARSET=utf8" + getPartitionClause() + ";";
 	}
 
 	protected String getApplicationsCreateScript() {
-		return "CREATE TABLE " + ApplicationsSmsHandler.DEFAULT_TABLENAME + " (" +
-					"id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY, " +
+		return getApplicationsCreateScript(ApplicationsSmsHandler.DEFAULT_TABLENAME);
+	}
+
+	/**
+	 * @param tableName the name of the table to create.
+	 * @return the script that creates the table of the messages sent to the applications, with the same indexes
+	 * of the connections table except the one by recipient.
+	 * @see #getConnectionsCreateScript(String)
+	 */
+	protected String getApplicationsCreateScript(String tableName) {
+		return "CREATE TABLE " + tableName + " (" +
+					"id BIGINT NOT NULL AUTO_INCREMENT, " +
 					"reference VARCHAR(100), " +
 					"source VARCHAR(30) NOT NULL, " +
 					"destination VARCHAR(30), " +
@@ -92,8 +475,12 @@ public class MySqlEngine implements SqlEngine {
 					"creation_time DATETIME NOT NULL, " +
 					"modification_time DATETIME," +
 					"KEY DEST_SEQNUM_IDX (destination, smsc_sequencenumber)," +
-					"KEY DEST_MSGID_IDX (destination, smsc_messageid)" +
-				") ENGINE=MyISAM DEFAULT CHARSET=utf8;";
+					"KEY DEST_MSGID_IDX (destination, smsc_messageid)," +
+					"KEY STATUS_IDX (status)," +
+					"KEY STATUS_DATE_IDX (status, creation_time)," +
+					"KEY DATE_IDX (creation_time)," +
+					getPrimaryKey() +
+				") ENGINE=" + storageEngine + " DEFAULT CHARSET=utf8" + getPartitionClause() + ";";
 	}
 
 }
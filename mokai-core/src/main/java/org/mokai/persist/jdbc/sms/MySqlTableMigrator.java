@@ -0,0 +1,334 @@
+package org.mokai.persist.jdbc.sms;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.lang.Validate;
+import org.mokai.persist.jdbc.PartitionPeriod;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Converts the existing message tables of MySQL to the schema of the {@link MySqlEngine} (i.e. its storage engine,
+ * indexes and partitions) while the gateway keeps reading and writing messages. An <code>ALTER TABLE</code> would
+ * lock the table until all the messages are copied, so each table is migrated like this:</p>
+ *
+ * <ol>
+ *   <li>A new table is created with the script of the MySqlEngine (named after the table with a <code>_new</code>
+ *   suffix).</li>
+ *   <li>Triggers are added to the table to copy every insert, update and delete to the new table.</li>
+ *   <li>The existing messages are copied in small batches by id.</li>
+ *   <li>The tables are renamed atomically, so the table becomes <code>_old</code> and the new table takes its
+ *   name, and the triggers are dropped.</li>
+ * </ol>
+ *
+ * <p>The old table is kept unless {@link #setDropOldTable(boolean)} is set. If the migration fails before the tables
+ * are renamed, the triggers and the new table are dropped and the table is left as it was.</p>
+ *
+ * <p>Triggers require MySQL 5.0.2 and the TRIGGER privilege. Run it from the command line with
+ * <code>java -cp ... org.mokai.persist.jdbc.sms.MySqlTableMigrator &lt;url&gt; &lt;username&gt; &lt;password&gt;
+ * [DAILY|MONTHLY]</code>.</p>
+ *
+ * @author German Escobar
+ */
+public class MySqlTableMigrator {
+
+	private Logger log = LoggerFactory.getLogger(MySqlTableMigrator.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final String NEW_SUFFIX = "_new";
+
+	private static final String OLD_SUFFIX = "_old";
+
+	private final DataSource dataSource;
+
+	private final MySqlEngine sqlEngine;
+
+	/**
+	 * The max number of messages copied by each statement.
+	 */
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	/**
+	 * If the old table should be dropped after the migration.
+	 */
+	private boolean dropOldTable;
+
+	/**
+	 * @param dataSource the DataSource of the database.
+	 * @param sqlEngine the MySqlEngine that defines the new schema of the tables.
+	 */
+	public MySqlTableMigrator(DataSource dataSource, MySqlEngine sqlEngine) {
+		Validate.notNull(dataSource);
+		Validate.notNull(sqlEngine);
+
+		this.dataSource = dataSource;
+		this.sqlEngine = sqlEngine;
+	}
+
+	/**
+	 * Migrates the tables of the messages sent to the connections and to the applications.
+	 *
+	 * @throws SQLException if something goes wrong.
+	 */
+	public void migrate() throws SQLException {
+		migrate(ConnectionsSmsHandler.DEFAULT_TABLENAME,
+				sqlEngine.getConnectionsCreateScript(ConnectionsSmsHandler.DEFAULT_TABLENAME + NEW_SUFFIX));
+		migrate(ApplicationsSmsHandler.DEFAULT_TABLENAME,
+				sqlEngine.getApplicationsCreateScript(ApplicationsSmsHandler.DEFAULT_TABLENAME + NEW_SUFFIX));
+	}
+
+	/**
+	 * Migrates a table to a new table created with the script, which must use the name of the table with the
+	 * <code>_new</code> suffix.
+	 *
+	 * @param tableName the name of the table to migrate.
+	 * @param createScript the script that creates the new table.
+	 * @throws SQLException if something goes wrong.
+	 */
+	public void migrate(String tableName, String createScript) throws SQLException {
+		String newTableName = tableName + NEW_SUFFIX;
+		String oldTableName = tableName + OLD_SUFFIX;
+
+		log.info("migrating table " + tableName + " ... ");
+
+		execute(createScript);
+
+		boolean renamed = false;
+		try {
+			List<String> columns = getCommonColumns(tableName, newTableName);
+			createTriggers(tableName, newTableName, columns);
+
+			long copied = copyMessages(tableName, newTableName, columns);
+			log.info(copied + " messages copied from table " + tableName);
+
+			execute("RENAME TABLE " + tableName + " TO " + oldTableName + ", " + newTableName + " TO " + tableName);
+			renamed = true;
+		} finally {
+			// after the rename the triggers belong to the old table
+			dropTriggers(tableName);
+			if (!renamed) {
+				execute("DROP TABLE IF EXISTS " + newTableName);
+			}
+		}
+
+		if (dropOldTable) {
+			execute("DROP TABLE " + oldTableName);
+		}
+
+		log.info("<< table " + tableName + " migrated >>");
+	}
+
+	/**
+	 * Helper method. Returns the columns of the table that also exist in the new table.
+	 */
+	private List<String> getCommonColumns(String tableName, String newTableName) throws SQLException {
+		List<String> newColumns = getColumns(newTableName);
+
+		List<String> columns = new ArrayList<String>();
+		for (String column : getColumns(tableName)) {
+			if (newColumns.contains(column)) {
+				columns.add(column);
+			}
+		}
+
+		Validate.isTrue(columns.contains("id"), "table " + tableName + " doesn't have an id column");
+
+		return columns;
+	}
+
+	private List<String> getColumns(String tableName) throws SQLException {
+		List<String> columns = new ArrayList<String>();
+
+		Connection connection = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+
+		try {
+			connection = dataSource.getConnection();
+			stmt = connection.prepareStatement("SELECT column_name FROM information_schema.columns " +
+					"WHERE table_schema = ? AND table_name = ? ORDER BY ordinal_position");
+			stmt.setString(1, sqlEngine.getSchema());
+			stmt.setString(2, tableName);
+
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				columns.add(rs.getString(1).toLowerCase());
+			}
+
+			return columns;
+		} finally {
+			closeResources(rs, stmt, connection);
+		}
+	}
+
+	/**
+	 * Helper method. Creates the triggers that copy the changes of the table to the new table. A message that is
+	 * changed after it was copied is replaced, and a message that is changed before it is copied is not overwritten
+	 * by the copy (see {@link #copyMessages(String, String, List)}).
+	 */
+	private void createTriggers(String tableName, String newTableName, List<String> columns) throws SQLException {
+		String columnList = join(columns, "");
+		String newValues = join(columns, "NEW.");
+
+		execute("CREATE TRIGGER " + getTriggerName(tableName, "ins") + " AFTER INSERT ON " + tableName
+				+ " FOR EACH ROW REPLACE INTO " + newTableName + " (" + columnList + ") VALUES (" + newValues + ")");
+		execute("CREATE TRIGGER " + getTriggerName(tableName, "upd") + " AFTER UPDATE ON " + tableName
+				+ " FOR EACH ROW REPLACE INTO " + newTableName + " (" + columnList + ") VALUES (" + newValues + ")");
+		execute("CREATE TRIGGER " + getTriggerName(tableName, "del") + " AFTER DELETE ON " + tableName
+				+ " FOR EACH ROW DELETE FROM " + newTableName + " WHERE id = OLD.id");
+	}
+
+	private void dropTriggers(String tableName) {
+		for (String suffix : new String[] { "ins", "upd", "del" }) {
+			try {
+				execute("DROP TRIGGER IF EXISTS " + getTriggerName(tableName, suffix));
+			} catch (SQLException e) {
+				log.error("Exception dropping trigger " + getTriggerName(tableName, suffix) + ": " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private String getTriggerName(String tableName, String suffix) {
+		return tableName + "_migrate_" + suffix;
+	}
+
+	/**
+	 * Helper method. Copies the messages that existed when the triggers were created in batches of ids. The
+	 * messages that were already copied by the triggers are ignored.
+	 */
+	private long copyMessages(String tableName, String newTableName, List<String> columns) throws SQLException {
+		String columnList = join(columns, "");
+		String copySQL = "INSERT IGNORE INTO " + newTableName + " (" + columnList + ") SELECT " + columnList
+				+ " FROM " + tableName + " WHERE id > ? AND id <= ?";
+
+		long copied = 0;
+
+		Connection connection = null;
+		Statement maxStmt = null;
+		PreparedStatement copyStmt = null;
+		ResultSet rs = null;
+
+		try {
+			connection = dataSource.getConnection();
+
+			// the messages inserted after this point are copied by the triggers
+			maxStmt = connection.createStatement();
+			rs = maxStmt.executeQuery("SELECT MAX(id) FROM " + tableName);
+			long maxId = rs.next() ? rs.getLong(1) : 0;
+
+			copyStmt = connection.prepareStatement(copySQL);
+			for (long lastId = 0; lastId < maxId; lastId += batchSize) {
+				copyStmt.setLong(1, lastId);
+				copyStmt.setLong(2, Math.min(lastId + batchSize, maxId));
+				copied += copyStmt.executeUpdate();
+			}
+
+			return copied;
+		} finally {
+			if (copyStmt != null) {
+				try { copyStmt.close(); } catch (Exception e) {}
+			}
+			closeResources(rs, maxStmt, connection);
+		}
+	}
+
+	private String join(List<String> columns, String prefix) {
+		StringBuffer result = new StringBuffer();
+		for (String column : columns) {
+			result.append(result.length() == 0 ? "" : ", ").append(prefix).append(column);
+		}
+
+		return result.toString();
+	}
+
+	private void execute(String sql) throws SQLException {
+		Connection connection = null;
+		Statement stmt = null;
+
+		try {
+			connection = dataSource.getConnection();
+			stmt = connection.createStatement();
+			stmt.executeUpdate(sql);
+		} finally {
+			closeResources(null, stmt, connection);
+		}
+	}
+
+	private void closeResources(ResultSet rs, Statement stmt, Connection connection) {
+		if (rs != null) {
+			try { rs.close(); } catch (Exception e) {}
+		}
+		if (stmt != null) {
+			try { stmt.close(); } catch (Exception e) {}
+		}
+		if (connection != null) {
+			try { connection.close(); } catch (Exception e) {}
+		}
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		Validate.isTrue(batchSize > 0, "batchSize must be greater than 0");
+		this.batchSize = batchSize;
+	}
+
+	public boolean isDropOldTable() {
+		return dropOldTable;
+	}
+
+	public void setDropOldTable(boolean dropOldTable) {
+		this.dropOldTable = dropOldTable;
+	}
+
+	/**
+	 * Migrates the message tables of the database.
+	 *
+	 * @param args the JDBC url, the username, the password and, optionally, the partition period (DAILY or MONTHLY).
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.out.println("usage: MySqlTableMigrator <url> <username> <password> [DAILY|MONTHLY]");
+			return;
+		}
+
+		BasicDataSource dataSource = new BasicDataSource();
+		dataSource.setDriverClassName("com.mysql.jdbc.Driver");
+		dataSource.setUrl(args[0]);
+		dataSource.setUsername(args[1]);
+		dataSource.setPassword(args[2]);
+
+		try {
+			MySqlEngine sqlEngine = new MySqlEngine();
+			sqlEngine.setDataSource(dataSource);
+			if (args.length > 3) {
+				sqlEngine.setPartitionPeriod(PartitionPeriod.valueOf(args[3].toUpperCase()));
+			}
+
+			// the schema is the database of the url
+			Connection connection = dataSource.getConnection();
+			try {
+				sqlEngine.setSchema(connection.getCatalog());
+			} finally {
+				connection.close();
+			}
+
+			new MySqlTableMigrator(dataSource, sqlEngine).migrate();
+		} finally {
+			dataSource.close();
+		}
+	}
+
+}
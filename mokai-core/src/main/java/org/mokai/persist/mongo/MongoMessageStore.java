@@ -9,11 +9,16 @@ import java.util.Map;
 import org.bson.types.ObjectId;
 import org.mokai.Message;
 import org.mokai.Message.Direction;
+import org.mokai.persist.AbstractMessageStore;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
 import org.mokai.persist.MessageCriteria;
+import org.mokai.persist.MessageCriteria.OrderType;
 import org.mokai.persist.MessageStore;
 import org.mokai.persist.RejectedException;
 import org.mokai.persist.StoreException;
 
+import com.mongodb.BasicDBList;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
@@ -25,7 +30,7 @@ import com.mongodb.DBObject;
  *
  * @author German Escobar
  */
-public class MongoMessageStore implements MessageStore {
+public class MongoMessageStore extends AbstractMessageStore {
 
 	/**
 	 * The collection name for messages sent to connections.
@@ -37,11 +42,18 @@ public class MongoMessageStore implements MessageStore {
 	 */
 	public static final String APPLICATIONS_MSGS = "applicationsMsgs";
 
+	/**
+	 * The number of documents retrieved per query by {@link #iterate(MessageCriteria, MessageCallback)}.
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 1000;
+
 	/**
 	 * The underlying MongoDB API.
 	 */
 	private DB mongo;
 
+	private int pageSize = DEFAULT_PAGE_SIZE;
+
 	@Override
 	public void saveOrUpdate(Message message) throws StoreException, RejectedException {
 		if (mongo == null) throw new IllegalStateException("No mongo specified");
@@ -65,6 +77,93 @@ public class MongoMessageStore implements MessageStore {
 		}
 	}
 
+	/**
+	 * Inserts the new messages of each collection with a single bulk insert and updates the ones that are already
+	 * persisted with a single <code>$set</code> operation each (instead of reading the document first).
+	 */
+	@Override
+	public void saveOrUpdateAll(Collection<Message> messages) throws StoreException, RejectedException {
+		if (mongo == null) throw new IllegalStateException("No mongo specified");
+		if (messages == null) throw new IllegalArgumentException("No messages specified");
+
+		// check if the direction of all the messages is valid
+		for (Message message : messages) {
+			if (!Direction.TO_CONNECTIONS.equals(message.getDirection())
+					&& !Direction.TO_APPLICATIONS.equals(message.getDirection())) {
+				throw new RejectedException("can't save/update a message with direction: " + message.getDirection());
+			}
+		}
+
+		try {
+			List<Message> connectionsMsgs = new ArrayList<Message>();
+			List<Message> applicationsMsgs = new ArrayList<Message>();
+
+			for (Message message : messages) {
+				if (message.getId() != null) { // already persisted
+					updateFields(message);
+				} else if (Direction.TO_CONNECTIONS.equals(message.getDirection())) {
+					connectionsMsgs.add(message);
+				} else {
+					applicationsMsgs.add(message);
+				}
+			}
+
+			saveAll(CONNECTIONS_MSGS, connectionsMsgs);
+			saveAll(APPLICATIONS_MSGS, applicationsMsgs);
+		} catch (Exception e) {
+			throw new StoreException(e);
+		}
+	}
+
+	/**
+	 * Helper method. Saves the <code>messages</code> in the specified <code>collectionName</code> with a single
+	 * insert.
+	 *
+	 * @param collectionName the name of the collection in which we are saving the messages.
+	 * @param messages the messages to save.
+	 */
+	private void saveAll(String collectionName, List<Message> messages) {
+		if (messages.isEmpty()) {
+			return;
+		}
+
+		DBCollection col = mongo.getCollection(collectionName);
+
+		List<DBObject> docs = new ArrayList<DBObject>(messages.size());
+		for (Message message : messages) {
+			docs.add(createDocument(message));
+		}
+
+		col.insert(docs);
+
+		for (int i=0; i < messages.size(); i++) {
+			ObjectId id = (ObjectId) docs.get(i).get( "_id" );
+			messages.get(i).setId(id.toString());
+		}
+	}
+
+	/**
+	 * Helper method. Updates the fields of a message in the persistence store without retrieving the document.
+	 *
+	 * @param message the message to be updated.
+	 */
+	private void updateFields(Message message) {
+		String collectionName = Direction.TO_CONNECTIONS.equals(message.getDirection()) ? CONNECTIONS_MSGS
+				: APPLICATIONS_MSGS;
+		DBCollection col = mongo.getCollection(collectionName);
+
+		BasicDBObject fields = new BasicDBObject();
+		fields.put("status", message.getStatus());
+		fields.put("source", message.getSource());
+		fields.put("destination", message.getDestination());
+		fields.put("reference", message.getReference());
+		fields.put("modificationTime", message.getModificationTime());
+		fields.put("properties", message.getProperties());
+
+		BasicDBObject idObject = new BasicDBObject( "_id", new ObjectId(message.getId().toString()) );
+		col.update(idObject, new BasicDBObject("$set", fields));
+	}
+
 	/**
 	 * Helper method. Saves a messages in the persistence store.
 	 *
@@ -87,6 +186,20 @@ public class MongoMessageStore implements MessageStore {
 	private void save(String collectionName, Message message) {
 		DBCollection col = mongo.getCollection(collectionName);
 
+		BasicDBObject doc = createDocument(message);
+		col.insert(doc);
+
+		ObjectId id = (ObjectId) doc.get( "_id" );
+		message.setId(id.toString());
+	}
+
+	/**
+	 * Helper method. Creates the document that is inserted in the persistence store for a new message.
+	 *
+	 * @param message the message from which we are creating the document.
+	 * @return a BasicDBObject representing the message.
+	 */
+	private BasicDBObject createDocument(Message message) {
 		BasicDBObject doc = new BasicDBObject();
 		doc.put("status", message.getStatus());
 		doc.put("source", message.getSource());
@@ -95,10 +208,7 @@ public class MongoMessageStore implements MessageStore {
 		doc.put("creationTime", message.getCreationTime());
 		doc.put("properties", message.getProperties());
 
-		col.insert(doc);
-
-		ObjectId id = (ObjectId) doc.get( "_id" );
-		message.setId(id.toString());
+		return doc;
 	}
 
 	/**
@@ -213,7 +323,6 @@ public class MongoMessageStore implements MessageStore {
 	 * @return a java.util.List<Message> object with the messages that match the criteria or an empty list if no
 	 * record matches.
 	 */
-	@SuppressWarnings("unchecked")
 	private List<Message> list(String collectionName, MessageCriteria criteria) {
 		List<Message> messages = new ArrayList<Message>();
 		DBCollection col = mongo.getCollection(collectionName);
@@ -222,38 +331,215 @@ public class MongoMessageStore implements MessageStore {
 		addCommonCriteria(criteria, mongoCriteria);
 
 		DBCursor cursor = col.find(mongoCriteria, null);
+		if (criteria != null && "id".equals(criteria.getOrderBy())) {
+			int order = OrderType.UPWARDS.equals(criteria.getOrderType()) ? 1 : -1;
+			cursor.sort(new BasicDBObject("_id", order));
+		}
 		if (criteria != null) {
 			cursor.skip(criteria.getLowerLimit());
 			cursor.limit(criteria.getNumRecords());
 		}
 
 		while(cursor.hasNext()) {
-			BasicDBObject object = (BasicDBObject) cursor.next();
-
-			Message message = new Message();
-			message.setId( object.getString("_id") );
-			message.setStatus( (byte) object.getInt("status") );
-			message.setSource( object.getString("source") );
-			message.setDestination( object.getString("destination") );
-			message.setReference( object.getString("reference") );
-			message.setCreationTime( (Date) object.get("creationTime") );
-			message.setModificationTime( (Date) object.get("modificationTime") );
-
-			Map<String,Object> properties = (Map<String,Object>) object.get("properties");
-			for (Map.Entry<String,Object> entry : properties.entrySet()) {
-				message.setProperty(entry.getKey(), entry.getValue());
+			messages.add( createMessage((BasicDBObject) cursor.next(), collectionName) );
+		}
+
+		return messages;
+	}
+
+	/**
+	 * Helper method. Creates a message from a document of the specified <code>collectionName</code>.
+	 *
+	 * @param object the document from which we are creating the message.
+	 * @param collectionName the name of the collection of the document.
+	 * @return the created Message object.
+	 */
+	@SuppressWarnings("unchecked")
+	private Message createMessage(BasicDBObject object, String collectionName) {
+		Message message = new Message();
+		message.setId( object.getString("_id") );
+		message.setStatus( (byte) object.getInt("status") );
+		message.setSource( object.getString("source") );
+		message.setDestination( object.getString("destination") );
+		message.setReference( object.getString("reference") );
+		message.setCreationTime( (Date) object.get("creationTime") );
+		message.setModificationTime( (Date) object.get("modificationTime") );
+
+		Map<String,Object> properties = (Map<String,Object>) object.get("properties");
+		for (Map.Entry<String,Object> entry : properties.entrySet()) {
+			message.setProperty(entry.getKey(), entry.getValue());
+		}
+
+		if (CONNECTIONS_MSGS.equals(collectionName)) {
+			message.setDirection(Direction.TO_CONNECTIONS);
+		} else if (APPLICATIONS_MSGS.equals(collectionName)) {
+			message.setDirection(Direction.TO_APPLICATIONS);
+		}
+
+		return message;
+	}
+
+	@Override
+	public void iterate(MessageCriteria criteria, MessageCallback callback) throws StoreException {
+		if (mongo == null) throw new IllegalStateException("No mongo specified");
+		if (callback == null) throw new IllegalArgumentException("No callback specified");
+
+		Direction direction = null;
+		if (criteria != null) {
+			direction = criteria.getDirection();
+		}
+
+		try {
+			if (direction == null || direction.equals(Direction.TO_CONNECTIONS)) {
+				iterate(CONNECTIONS_MSGS, criteria, callback);
+			}
+
+			if (direction == null || direction.equals(Direction.TO_APPLICATIONS)) {
+				iterate(APPLICATIONS_MSGS, criteria, callback);
+			}
+		} catch (Exception e) {
+			throw new StoreException(e);
+		}
+	}
+
+	/**
+	 * Helper method. Passes the messages from the specified <code>collectionName</code> that match the specified
+	 * <code>criteria</code> to the <code>callback</code>. The messages are retrieved in pages of {@link #pageSize}
+	 * documents sorted by id, each one starting after the last id of the previous page, so no cursor is kept open
+	 * between pages (and it can't time out if the callback is slow).
+	 *
+	 * @param collectionName the name of the collection from which we are retrieving the messages.
+	 * @param criteria the criteria used to match the messages.
+	 * @param callback receives each message.
+	 */
+	private void iterate(String collectionName, MessageCriteria criteria, MessageCallback callback) {
+		DBCollection col = mongo.getCollection(collectionName);
+
+		ObjectId lastId = null;
+		int pageCount;
+
+		do {
+			BasicDBObject mongoCriteria = new BasicDBObject();
+			addCommonCriteria(criteria, mongoCriteria);
+
+			if (lastId != null) {
+				BasicDBObject idCriteria = (BasicDBObject) mongoCriteria.get("_id");
+				if (idCriteria == null) {
+					idCriteria = new BasicDBObject();
+					mongoCriteria.append("_id", idCriteria);
+				}
+
+				// the last id is always greater than the afterId of the criteria
+				idCriteria.put("$gt", lastId);
 			}
 
-			if (CONNECTIONS_MSGS.equals(collectionName)) {
-				message.setDirection(Direction.TO_CONNECTIONS);
-			} else if (APPLICATIONS_MSGS.equals(collectionName)) {
-				message.setDirection(Direction.TO_APPLICATIONS);
+			DBCursor cursor = col.find(mongoCriteria, null)
+				.sort(new BasicDBObject("_id", 1))
+				.limit(pageSize)
+				.batchSize(pageSize);
+
+			pageCount = 0;
+			try {
+				while (cursor.hasNext()) {
+					BasicDBObject object = (BasicDBObject) cursor.next();
+					lastId = (ObjectId) object.get("_id");
+					pageCount++;
+
+					callback.process( createMessage(object, collectionName) );
+				}
+			} finally {
+				cursor.close();
 			}
+		} while (pageCount == pageSize);
+	}
 
-			messages.add(message);
+	@Override
+	public long count(MessageCriteria criteria) throws StoreException {
+		if (mongo == null) throw new IllegalStateException("No mongo specified");
+
+		Direction direction = null;
+		if (criteria != null) {
+			direction = criteria.getDirection();
 		}
 
-		return messages;
+		BasicDBObject mongoCriteria = new BasicDBObject();
+		addCommonCriteria(criteria, mongoCriteria);
+
+		try {
+			long count = 0;
+
+			if (direction == null || direction.equals(Direction.TO_CONNECTIONS)) {
+				count += mongo.getCollection(CONNECTIONS_MSGS).count(mongoCriteria);
+			}
+
+			if (direction == null || direction.equals(Direction.TO_APPLICATIONS)) {
+				count += mongo.getCollection(APPLICATIONS_MSGS).count(mongoCriteria);
+			}
+
+			return count;
+		} catch (Exception e) {
+			throw new StoreException(e);
+		}
+	}
+
+	@Override
+	public Collection<MessageCount> countGrouped(MessageCriteria criteria) throws StoreException {
+		if (mongo == null) throw new IllegalStateException("No mongo specified");
+
+		Collection<MessageCount> counts = new ArrayList<MessageCount>();
+
+		Direction direction = null;
+		if (criteria != null) {
+			direction = criteria.getDirection();
+		}
+
+		try {
+			if (direction == null || direction.equals(Direction.TO_CONNECTIONS)) {
+				counts.addAll(countGrouped(CONNECTIONS_MSGS, Direction.TO_CONNECTIONS, criteria));
+			}
+
+			if (direction == null || direction.equals(Direction.TO_APPLICATIONS)) {
+				counts.addAll(countGrouped(APPLICATIONS_MSGS, Direction.TO_APPLICATIONS, criteria));
+			}
+
+			return counts;
+		} catch (Exception e) {
+			throw new StoreException(e);
+		}
+	}
+
+	/**
+	 * Helper method. Counts the messages from the specified <code>collectionName</code> that match the specified
+	 * <code>criteria</code> grouped by status and destination with a single group command.
+	 *
+	 * @param collectionName the name of the collection in which we are counting the messages.
+	 * @param direction the direction of the messages of the collection.
+	 * @param criteria the criteria used to count the messages.
+	 *
+	 * @return a java.util.List<MessageCount> object with a count for each status and destination.
+	 */
+	private List<MessageCount> countGrouped(String collectionName, Direction direction, MessageCriteria criteria) {
+		DBCollection col = mongo.getCollection(collectionName);
+
+		BasicDBObject mongoCriteria = new BasicDBObject();
+		addCommonCriteria(criteria, mongoCriteria);
+
+		BasicDBObject key = new BasicDBObject("status", true).append("destination", true);
+		BasicDBObject initial = new BasicDBObject("count", 0);
+		String reduce = "function(doc, out) { out.count++; }";
+
+		BasicDBList groups = (BasicDBList) col.group(key, mongoCriteria, initial, reduce);
+
+		List<MessageCount> counts = new ArrayList<MessageCount>(groups.size());
+		for (Object group : groups) {
+			BasicDBObject object = (BasicDBObject) group;
+
+			byte status = ((Number) object.get("status")).byteValue();
+			long count = ((Number) object.get("count")).longValue();
+			counts.add(new MessageCount(direction, status, object.getString("destination"), count));
+		}
+
+		return counts;
 	}
 
 	/**
@@ -275,11 +561,40 @@ public class MongoMessageStore implements MessageStore {
 				mongoCriteria.append("status", new BasicDBObject("$in", list));
 			}
 
+			// ids and keyset pagination
+			BasicDBObject idCriteria = new BasicDBObject();
+			if (criteria.getIds() != null && !criteria.getIds().isEmpty()) {
+				List<ObjectId> list = new ArrayList<ObjectId>();
+				for (Object id : criteria.getIds()) {
+					list.add(new ObjectId(id.toString()));
+				}
+
+				idCriteria.append("$in", list);
+			}
+			if (criteria.getAfterId() != null) {
+				idCriteria.append("$gt", new ObjectId(criteria.getAfterId().toString()));
+			}
+			if (!idCriteria.isEmpty()) {
+				mongoCriteria.append("_id", idCriteria);
+			}
+
 			// destination
 			if (criteria.getDestination() != null) {
 				mongoCriteria.append( "destination", criteria.getDestination() );
 			}
 
+			// creation time range
+			BasicDBObject creationTimeCriteria = new BasicDBObject();
+			if (criteria.getCreatedFrom() != null) {
+				creationTimeCriteria.append("$gte", criteria.getCreatedFrom());
+			}
+			if (criteria.getCreatedTo() != null) {
+				creationTimeCriteria.append("$lt", criteria.getCreatedTo());
+			}
+			if (!creationTimeCriteria.isEmpty()) {
+				mongoCriteria.append("creationTime", creationTimeCriteria);
+			}
+
 			// other properties
 			if (criteria.getProperties() != null) {
 				for (Map.Entry<String,Object> entry : criteria.getProperties().entrySet()) {
@@ -293,4 +608,13 @@ public class MongoMessageStore implements MessageStore {
 		this.mongo = mongo;
 	}
 
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	public void setPageSize(int pageSize) {
+		if (pageSize <= 0) throw new IllegalArgumentException("pageSize must be greater than 0");
+		this.pageSize = pageSize;
+	}
+
 }
@@ -2,6 +2,7 @@ package org.mokai.ui;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -35,6 +36,11 @@ public class InputFields {
 
 		Field[] classFields = clazz.getDeclaredFields();
 		for (Field classField : classFields) {
+			// static and transient fields are not part of the configuration
+			if (Modifier.isStatic(classField.getModifiers()) || Modifier.isTransient(classField.getModifiers())) {
+				continue;
+			}
+
 			String name = classField.getName();
 			String label = name;
 
@@ -0,0 +1,117 @@
+package org.mokai.acceptor.test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.mokai.Acceptor;
+import org.mokai.Message;
+import org.mokai.acceptor.AcceptorChangeListener;
+import org.mokai.acceptor.RegExpAcceptor;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RegExpAcceptorTest {
+
+	@Test
+	public void shouldAcceptMatchingMessage() throws Exception {
+		RegExpAcceptor acceptor = new RegExpAcceptor("^573[0-9]*");
+		acceptor.setField("to");
+
+		Assert.assertTrue(acceptor.accepts(new Message().setProperty("to", "573001234567")));
+		Assert.assertFalse(acceptor.accepts(new Message().setProperty("to", "563001234567")));
+		Assert.assertFalse(acceptor.accepts(new Message()));
+	}
+
+	@Test
+	public void shouldUseNewRegexpAfterSetter() throws Exception {
+		RegExpAcceptor acceptor = new RegExpAcceptor("^573.*");
+		acceptor.setField("to");
+
+		Message message = new Message().setProperty("to", "563001234567");
+		Assert.assertFalse(acceptor.accepts(message));
+
+		acceptor.setRegexp("^56.*");
+		Assert.assertTrue(acceptor.accepts(message));
+	}
+
+	@Test
+	public void shouldNotifyChangeListeners() throws Exception {
+		RegExpAcceptor acceptor = new RegExpAcceptor("^573.*");
+
+		final List<Acceptor> changed = new ArrayList<Acceptor>();
+		AcceptorChangeListener listener = new AcceptorChangeListener() {
+
+			@Override
+			public void acceptorChanged(Acceptor acceptor) {
+				changed.add(acceptor);
+			}
+
+		};
+		acceptor.addChangeListener(listener);
+		acceptor.addChangeListener(listener);
+
+		acceptor.setField("to");
+		acceptor.setRegexp("^56.*");
+		Assert.assertEquals(changed.size(), 2);
+		Assert.assertSame(changed.get(0), acceptor);
+
+		acceptor.removeChangeListener(listener);
+		acceptor.setRegexp("^57.*");
+		Assert.assertEquals(changed.size(), 2);
+	}
+
+	@Test
+	public void shouldUseRegexpSetOnField() throws Exception {
+		RegExpAcceptor acceptor = new RegExpAcceptor();
+		acceptor.setField("to");
+
+		// this is how the xml configuration sets the values
+		Field field = RegExpAcceptor.class.getDeclaredField("regexp");
+		field.setAccessible(true);
+		field.set(acceptor, "^573.*");
+
+		Assert.assertTrue(acceptor.accepts(new Message().setProperty("to", "573001234567")));
+
+		field.set(acceptor, "^56.*");
+		Assert.assertFalse(acceptor.accepts(new Message().setProperty("to", "573001234567")));
+	}
+
+	@Test
+	public void shouldAcceptFromMultipleThreads() throws Exception {
+		final RegExpAcceptor acceptor = new RegExpAcceptor("^573.*");
+		acceptor.setField("to");
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Future<?>[] futures = new Future<?>[4];
+			for (int i=0; i < futures.length; i++) {
+				final String prefix = i % 2 == 0 ? "573" : "563";
+				futures[i] = executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						for (int j=0; j < 1000; j++) {
+							Message message = new Message().setProperty("to", prefix + j);
+							Assert.assertEquals(acceptor.accepts(message), prefix.equals("573"));
+						}
+
+						return null;
+					}
+
+				});
+			}
+
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
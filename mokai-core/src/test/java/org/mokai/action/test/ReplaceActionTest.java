@@ -31,6 +31,51 @@ public class ReplaceActionTest {
 		Assert.assertEquals(message.getProperty("message", String.class), "aenh _");
 	}
 
+	@Test
+	public void shouldUseReplacementsModifiedAfterExecute() throws Exception {
+		ReplaceAction action = new ReplaceAction();
+		action.setField("message");
+		action.getReplace().put("[0-9]", "#");
+
+		Message message = new Message();
+		message.setProperty("message", "abc123");
+		action.execute(message);
+		Assert.assertEquals(message.getProperty("message", String.class), "abc###");
+
+		action.getReplace().put("a", "A");
+
+		message.setProperty("message", "abc123");
+		action.execute(message);
+		Assert.assertEquals(message.getProperty("message", String.class), "Abc###");
+
+		Map<String,String> replace = new HashMap<String,String>();
+		replace.put("b", "B");
+		action.setReplace(replace);
+
+		message.setProperty("message", "abc123");
+		action.execute(message);
+		Assert.assertEquals(message.getProperty("message", String.class), "aBc123");
+	}
+
+	@Test
+	public void shouldReplaceManyKeys() throws Exception {
+		ReplaceAction action = new ReplaceAction();
+		action.setField("message");
+
+		for (int i=0; i < 300; i++) {
+			action.getReplace().put("k" + i + "_", "v" + i + "_");
+		}
+
+		Message message = new Message();
+		message.setProperty("message", "k0_k150_k299_");
+		action.execute(message);
+		Assert.assertEquals(message.getProperty("message", String.class), "v0_v150_v299_");
+
+		message.setProperty("message", "k299_k0_");
+		action.execute(message);
+		Assert.assertEquals(message.getProperty("message", String.class), "v299_v0_");
+	}
+
 	@Test(expectedExceptions=IllegalArgumentException.class)
 	public void shouldFailIfFieldIsNotSet() throws Exception {
 		ReplaceAction action = new ReplaceAction();
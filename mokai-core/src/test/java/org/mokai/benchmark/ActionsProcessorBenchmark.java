@@ -0,0 +1,240 @@
+package org.mokai.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.builder.RouteBuilder;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.mokai.Action;
+import org.mokai.Execution;
+import org.mokai.Message;
+import org.mokai.annotation.Resource;
+import org.mokai.impl.camel.ActionsProcessor;
+import org.mokai.impl.camel.ResourceInjector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per message cost of executing a chain of 5 actions with the {@link ActionsProcessor} (a shared
+ * ProducerTemplate and an executor reused by the thread) against the previous implementation, which created a
+ * ProducerTemplate per message and an executor per action, calling itself recursively.
+ *
+ * Run with <code>mvn -P benchmark verify -Dbenchmark=ActionsProcessorBenchmark</code> from the mokai-core
+ * directory. Add <code>-prof gc</code> to the arguments of the profile to see the allocations per message.
+ *
+ * @author German Escobar
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class ActionsProcessorBenchmark {
+
+	private static final int NUM_ACTIONS = 5;
+
+	private static final String ENDPOINT = "direct:processed";
+
+	private CamelContext camelContext;
+
+	private ProducerTemplate producerTemplate;
+
+	private List<Action> actions;
+
+	private ActionsProcessor actionsProcessor;
+
+	private LegacyActionsProcessor legacyActionsProcessor;
+
+	private Message message;
+
+	@Setup
+	public void setup() throws Exception {
+		camelContext = new DefaultCamelContext();
+		camelContext.addRoutes(new RouteBuilder() {
+
+			@Override
+			public void configure() throws Exception {
+				from(ENDPOINT).process(new Processor() {
+
+					@Override
+					public void process(Exchange exchange) throws Exception {}
+
+				});
+			}
+
+		});
+		camelContext.start();
+
+		producerTemplate = camelContext.createProducerTemplate();
+
+		actions = new ArrayList<Action>();
+		for (int i=0; i < NUM_ACTIONS; i++) {
+			Action action = new CountAction();
+			ActionsProcessor.injectExecution(action);
+
+			actions.add(action);
+		}
+
+		actionsProcessor = new ActionsProcessor(actions, ENDPOINT, producerTemplate);
+		legacyActionsProcessor = new LegacyActionsProcessor(actions, ENDPOINT);
+
+		message = new Message();
+		message.setProperty("to", "573001234567");
+		message.setProperty("text", "test");
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		producerTemplate.stop();
+		camelContext.stop();
+	}
+
+	@Benchmark
+	public Exchange sharedTemplateIterative() throws Exception {
+		Exchange exchange = new DefaultExchange(camelContext);
+		exchange.getIn().setBody(message);
+
+		actionsProcessor.process(exchange);
+
+		return exchange;
+	}
+
+	@Benchmark
+	public Exchange templatePerMessageRecursive() throws Exception {
+		Exchange exchange = new DefaultExchange(camelContext);
+		exchange.getIn().setBody(message);
+
+		legacyActionsProcessor.process(exchange);
+
+		return exchange;
+	}
+
+	/**
+	 * An action that counts the messages, with an {@link Execution} field so it is injected as in the real
+	 * actions.
+	 */
+	public static class CountAction implements Action {
+
+		@Resource
+		private Execution execution;
+
+		private long count;
+
+		@Override
+		public void execute(Message message) throws Exception {
+			count++;
+		}
+
+		public Execution getExecution() {
+			return execution;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+	}
+
+	/**
+	 * The previous implementation of the {@link ActionsProcessor}. The ProducerTemplate is stopped after each
+	 * message (the previous implementation didn't) so the benchmark doesn't run out of memory.
+	 */
+	private static class LegacyActionsProcessor implements Processor {
+
+		private List<Action> actions;
+
+		private String endpoint;
+
+		public LegacyActionsProcessor(List<Action> actions, String endpoint) {
+			this.actions = actions;
+			this.endpoint = endpoint;
+		}
+
+		@Override
+		public void process(Exchange exchange) throws Exception {
+			Message message = exchange.getIn().getBody(Message.class);
+			ProducerTemplate producerTemplate = exchange.getContext().createProducerTemplate();
+
+			try {
+				LegacyActionsExecutor executor = new LegacyActionsExecutor(producerTemplate, 0);
+				executor.route(message);
+			} finally {
+				producerTemplate.stop();
+			}
+
+			exchange.setProperty(Exchange.ROUTE_STOP, Boolean.TRUE);
+		}
+
+		private class LegacyActionsExecutor implements Execution {
+
+			private ProducerTemplate producerTemplate;
+
+			private int initialIndex;
+
+			private int index;
+
+			private boolean stopped;
+
+			public LegacyActionsExecutor(ProducerTemplate producerTemplate, int index) {
+				this.producerTemplate = producerTemplate;
+				this.initialIndex = index;
+			}
+
+			@Override
+			public void stop() {
+				stopped = true;
+			}
+
+			@Override
+			public void route(Message message) throws Exception {
+				index = initialIndex;
+				doRoute(message);
+			}
+
+			private void doRoute(final Message message) throws Exception {
+				if (index == actions.size()) {
+					producerTemplate.send(endpoint, new Processor() {
+						public void process(Exchange outExchange) {
+							outExchange.getIn().setBody(message);
+						}
+					});
+
+					return;
+				}
+
+				Action action = actions.get(index);
+
+				LegacyActionsExecutor executor = new LegacyActionsExecutor(producerTemplate, index + 1);
+				ResourceInjector.inject(action, executor);
+
+				action.execute(message);
+
+				if (executor.stopped) {
+					return;
+				}
+
+				index++;
+				doRoute(message);
+			}
+
+		}
+
+	}
+
+}
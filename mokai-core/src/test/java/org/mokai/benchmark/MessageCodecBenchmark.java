@@ -0,0 +1,107 @@
+package org.mokai.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.mokai.Message;
+import org.mokai.Message.Direction;
+import org.mokai.impl.camel.BinaryMessageCodec;
+import org.mokai.impl.camel.MessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the throughput of encoding and decoding a typical {@link Message} with the {@link BinaryMessageCodec}
+ * against Java serialization (the format of the ObjectMessages that were sent through the JMS queues). The
+ * serialized sizes are printed when the benchmark is set up.
+ *
+ * Run with <code>mvn -P benchmark verify -Dbenchmark=MessageCodecBenchmark</code> from the mokai-core directory.
+ *
+ * @author German Escobar
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+	private MessageCodec codec = new BinaryMessageCodec();
+
+	private Message message;
+
+	private byte[] encoded;
+
+	private byte[] serialized;
+
+	@Setup
+	public void setup() throws Exception {
+		message = new Message();
+		message.setId(123456789L);
+		message.setStatus(Message.STATUS_PROCESSED);
+		message.setDirection(Direction.TO_CONNECTIONS);
+		message.setSource("test-app");
+		message.setDestination("test-connection");
+		message.setProperty("to", "573001234567");
+		message.setProperty("from", "1234");
+		message.setProperty("text", "Your verification code is 1234");
+		message.setProperty("sequenceNumber", 1);
+		message.setProperty("messageId", "abc123");
+		message.setProperty("receptionTime", new Date());
+
+		encoded = codec.encode(message);
+		serialized = javaSerialize(message);
+
+		System.out.println();
+		System.out.println("serialized size: binary codec = " + encoded.length + " bytes, java serialization = "
+				+ serialized.length + " bytes");
+	}
+
+	@Benchmark
+	public byte[] encodeBinary() {
+		return codec.encode(message);
+	}
+
+	@Benchmark
+	public Message decodeBinary() {
+		return codec.decode(encoded);
+	}
+
+	@Benchmark
+	public byte[] encodeJavaSerialization() throws Exception {
+		return javaSerialize(message);
+	}
+
+	@Benchmark
+	public Message decodeJavaSerialization() throws Exception {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+		try {
+			return (Message) in.readObject();
+		} finally {
+			in.close();
+		}
+	}
+
+	private byte[] javaSerialize(Message message) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(message);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+}
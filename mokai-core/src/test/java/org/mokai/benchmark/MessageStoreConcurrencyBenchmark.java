@@ -0,0 +1,230 @@
+package org.mokai.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.mokai.Message;
+import org.mokai.Message.Direction;
+import org.mokai.persist.MessageCriteria;
+import org.mokai.persist.jdbc.JdbcMessageStore;
+import org.mokai.persist.jdbc.SqlEngine;
+import org.mokai.persist.jdbc.sms.ApplicationsSmsHandler;
+import org.mokai.persist.jdbc.sms.ConnectionsSmsHandler;
+import org.mokai.persist.jdbc.sms.DerbyEngine;
+import org.mokai.persist.jdbc.sms.MySqlEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the {@link JdbcMessageStore} under the mixed traffic of the gateway: threads that insert
+ * new messages, threads that update the status of existing messages and threads that look up messages by
+ * destination and sequence number or message id (the correlation queries of the SMPP connector), all of them running
+ * at the same time against the same table.
+ *
+ * By default the messages are stored in an in-memory Derby database, which locks rows like InnoDB. Run with
+ * <code>mvn -P benchmark verify -Dbenchmark=MessageStoreConcurrencyBenchmark</code> from the mokai-core directory.
+ * To compare the storage engines of MySQL, call the JMH main class directly with the
+ * <code>mokai.benchmark.mysql.url</code> system property pointing to an empty database (the tables are dropped
+ * when the benchmark ends) and the <code>-p engine=mysql -p storageEngine=InnoDB,MyISAM</code> options.
+ *
+ * @author German Escobar
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class MessageStoreConcurrencyBenchmark {
+
+	private static final String DERBY_URL = "jdbc:derby:memory:concurrency";
+
+	private static final String DESTINATION = "test-connection";
+
+	/**
+	 * The number of messages that are saved before the benchmark starts.
+	 */
+	private static final int PRELOADED_MESSAGES = 10000;
+
+	@Param({"derby"})
+	private String engine;
+
+	@Param({"InnoDB"})
+	private String storageEngine;
+
+	private BasicDataSource dataSource;
+
+	private JdbcMessageStore messageStore;
+
+	/**
+	 * The ids of the preloaded messages, the message with index i has the sequence number i.
+	 */
+	private long[] ids = new long[PRELOADED_MESSAGES];
+
+	private AtomicInteger sequenceNumber = new AtomicInteger(PRELOADED_MESSAGES);
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+
+		private Random random = new Random();
+
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		dataSource = new BasicDataSource();
+		dataSource.setMaxActive(16);
+		dataSource.setPoolPreparedStatements(true);
+
+		SqlEngine sqlEngine;
+		if ("mysql".equals(engine)) {
+			String url = System.getProperty("mokai.benchmark.mysql.url");
+			if (url == null) {
+				throw new IllegalStateException("set the mokai.benchmark.mysql.url system property to run against MySQL");
+			}
+
+			dataSource.setDriverClassName("com.mysql.jdbc.Driver");
+			dataSource.setUrl(url);
+
+			MySqlEngine mySqlEngine = new MySqlEngine();
+			mySqlEngine.setDataSource(dataSource);
+			mySqlEngine.setStorageEngine(storageEngine);
+
+			// the schema is the database of the url
+			Connection connection = dataSource.getConnection();
+			try {
+				mySqlEngine.setSchema(connection.getCatalog());
+			} finally {
+				connection.close();
+			}
+
+			sqlEngine = mySqlEngine;
+		} else {
+			dataSource.setDriverClassName("org.apache.derby.jdbc.EmbeddedDriver");
+			dataSource.setUrl(DERBY_URL + ";create=true");
+
+			sqlEngine = new DerbyEngine(dataSource);
+		}
+		sqlEngine.init();
+
+		ConnectionsSmsHandler handler = new ConnectionsSmsHandler();
+		handler.setSqlEngine(sqlEngine);
+
+		messageStore = new JdbcMessageStore();
+		messageStore.setDataSource(dataSource);
+		messageStore.setMessageHandler(handler);
+
+		for (int i=0; i < PRELOADED_MESSAGES; i++) {
+			Message message = createMessage(i);
+			messageStore.saveOrUpdate(message);
+
+			ids[i] = (Long) message.getId();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		if ("mysql".equals(engine)) {
+			Connection connection = dataSource.getConnection();
+			try {
+				Statement stmt = connection.createStatement();
+				stmt.executeUpdate("DROP TABLE " + ConnectionsSmsHandler.DEFAULT_TABLENAME);
+				stmt.executeUpdate("DROP TABLE " + ApplicationsSmsHandler.DEFAULT_TABLENAME);
+				stmt.close();
+			} finally {
+				connection.close();
+			}
+		}
+
+		dataSource.close();
+
+		if (!"mysql".equals(engine)) {
+			try {
+				DriverManager.getConnection(DERBY_URL + ";drop=true");
+			} catch (Exception e) {
+				// derby always throws an exception when the database is dropped
+			}
+		}
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public Object insert() throws Exception {
+		Message message = createMessage(sequenceNumber.incrementAndGet());
+		messageStore.saveOrUpdate(message);
+
+		return message.getId();
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public void update(ThreadState state) throws Exception {
+		int index = state.random.nextInt(PRELOADED_MESSAGES);
+
+		Message message = createMessage(index);
+		message.setId(ids[index]);
+		message.setStatus(state.random.nextBoolean() ? Message.STATUS_PROCESSED : Message.STATUS_FAILED);
+
+		messageStore.saveOrUpdate(message);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public Collection<Message> lookupBySequenceNumber(ThreadState state) throws Exception {
+		MessageCriteria criteria = new MessageCriteria()
+			.direction(Direction.TO_CONNECTIONS)
+			.addProperty("destination", DESTINATION)
+			.addProperty("smsc_sequencenumber", state.random.nextInt(PRELOADED_MESSAGES));
+
+		return messageStore.list(criteria);
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public Collection<Message> lookupByMessageId(ThreadState state) throws Exception {
+		MessageCriteria criteria = new MessageCriteria()
+			.direction(Direction.TO_CONNECTIONS)
+			.addProperty("destination", DESTINATION)
+			.addProperty("smsc_messageid", "id-" + state.random.nextInt(PRELOADED_MESSAGES));
+
+		return messageStore.list(criteria);
+	}
+
+	private Message createMessage(int sequenceNumber) {
+		Message message = new Message();
+		message.setDirection(Direction.TO_CONNECTIONS);
+		message.setStatus(Message.STATUS_PROCESSED);
+		message.setSource("test-app");
+		message.setDestination(DESTINATION);
+		message.setProperty("to", "573001234567");
+		message.setProperty("from", "1234");
+		message.setProperty("text", "Your verification code is 1234");
+		message.setProperty("sequenceNumber", sequenceNumber);
+		message.setProperty("messageId", "id-" + sequenceNumber);
+
+		return message;
+	}
+
+}
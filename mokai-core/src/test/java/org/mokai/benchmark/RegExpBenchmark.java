@@ -0,0 +1,113 @@
+package org.mokai.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.mokai.Message;
+import org.mokai.acceptor.RegExpAcceptor;
+import org.mokai.action.ReplaceAction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per message cost of matching and replacing with regular expressions compiled on every message (as
+ * the {@link RegExpAcceptor} and the {@link ReplaceAction} used to do) against the precompiled patterns.
+ *
+ * Run with <code>mvn -P benchmark verify -Dbenchmark=RegExpBenchmark</code> from the mokai-core directory.
+ *
+ * @author German Escobar
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class RegExpBenchmark {
+
+	private static final String REGEXP = "^57(300|301|310|311|312)[0-9]*";
+
+	private Map<String,String> replace;
+
+	private RegExpAcceptor acceptor;
+
+	private ReplaceAction action;
+
+	private Message message;
+
+	@Setup
+	public void setup() {
+		acceptor = new RegExpAcceptor(REGEXP);
+		acceptor.setField("to");
+
+		replace = new HashMap<String,String>();
+		replace.put("á", "a");
+		replace.put("é", "e");
+		replace.put("í", "i");
+		replace.put("ó", "o");
+		replace.put("ú", "u");
+
+		action = new ReplaceAction();
+		action.setField("text");
+		action.setReplace(replace);
+
+		message = new Message();
+		message.setProperty("to", "573001234567");
+		message.setProperty("text", "Tú código de verificación está aquí");
+	}
+
+	@Benchmark
+	public boolean acceptCompilingPattern() {
+		String value = message.getProperty("to", String.class);
+		return Pattern.compile(REGEXP).matcher(value).matches();
+	}
+
+	@Benchmark
+	public boolean acceptCachedPattern() {
+		return acceptor.accepts(message);
+	}
+
+	@Benchmark
+	public String replaceCompilingPattern() {
+		Message copy = copyMessage();
+
+		String value = copy.getProperty("text", String.class);
+		for (Map.Entry<String,String> entry : replace.entrySet()) {
+			value = value.replaceAll(entry.getKey(), entry.getValue());
+		}
+		copy.setProperty("text", value);
+
+		return copy.getProperty("text", String.class);
+	}
+
+	@Benchmark
+	public String replaceCachedPattern() throws Exception {
+		Message copy = copyMessage();
+
+		action.execute(copy);
+
+		return copy.getProperty("text", String.class);
+	}
+
+	/**
+	 * Helper method. Both replace benchmarks work on a copy of the message (the action modifies it), so they pay
+	 * the same allocation and property costs and only the replacement differs.
+	 */
+	private Message copyMessage() {
+		Message copy = new Message();
+		copy.setProperty("text", message.getProperty("text", String.class));
+
+		return copy;
+	}
+
+}
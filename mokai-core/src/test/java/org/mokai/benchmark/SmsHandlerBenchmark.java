@@ -0,0 +1,145 @@
+package org.mokai.benchmark;
+
+import java.sql.DriverManager;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.mokai.Message;
+import org.mokai.Message.Direction;
+import org.mokai.persist.jdbc.JdbcMessageStore;
+import org.mokai.persist.jdbc.SqlEngine;
+import org.mokai.persist.jdbc.sms.AbstractSmsHandler;
+import org.mokai.persist.jdbc.sms.ConnectionsSmsHandler;
+import org.mokai.persist.jdbc.sms.DerbyEngine;
+import org.mokai.persist.jdbc.sms.MySqlEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of inserting and updating messages through the {@link JdbcMessageStore} and the
+ * {@link ConnectionsSmsHandler}, with and without the pooled prepared statements of the DataSource (each operation
+ * takes a new connection from the pool, as the message store does).
+ *
+ * By default the messages are stored in an in-memory Derby database. Run with
+ * <code>mvn -P benchmark verify -Dbenchmark=SmsHandlerBenchmark</code> from the mokai-core directory. To run it
+ * against a MySQL server, call the JMH main class directly with the <code>mokai.benchmark.mysql.url</code> system
+ * property (e.g. <code>jdbc:mysql://localhost:3306/mokai?user=root&amp;password=...</code>) and the
+ * <code>-p engine=mysql</code> option.
+ *
+ * @author German Escobar
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class SmsHandlerBenchmark {
+
+	private static final String DERBY_URL = "jdbc:derby:memory:benchmark";
+
+	@Param({"derby"})
+	private String engine;
+
+	@Param({"false", "true"})
+	private boolean poolPreparedStatements;
+
+	private BasicDataSource dataSource;
+
+	private JdbcMessageStore messageStore;
+
+	private Message persistedMessage;
+
+	@Setup
+	public void setup() throws Exception {
+		dataSource = new BasicDataSource();
+		dataSource.setPoolPreparedStatements(poolPreparedStatements);
+		dataSource.setMaxOpenPreparedStatements(50);
+
+		SqlEngine sqlEngine;
+		if ("mysql".equals(engine)) {
+			String url = System.getProperty("mokai.benchmark.mysql.url");
+			if (url == null) {
+				throw new IllegalStateException("set the mokai.benchmark.mysql.url system property to run against MySQL");
+			}
+
+			dataSource.setDriverClassName("com.mysql.jdbc.Driver");
+			dataSource.setUrl(url);
+
+			MySqlEngine mySqlEngine = new MySqlEngine();
+			mySqlEngine.setDataSource(dataSource);
+			sqlEngine = mySqlEngine;
+		} else {
+			dataSource.setDriverClassName("org.apache.derby.jdbc.EmbeddedDriver");
+			dataSource.setUrl(DERBY_URL + ";create=true");
+
+			sqlEngine = new DerbyEngine(dataSource);
+		}
+		sqlEngine.init();
+
+		AbstractSmsHandler handler = new ConnectionsSmsHandler();
+		handler.setSqlEngine(sqlEngine);
+
+		messageStore = new JdbcMessageStore();
+		messageStore.setDataSource(dataSource);
+		messageStore.setMessageHandler(handler);
+
+		persistedMessage = createMessage();
+		messageStore.saveOrUpdate(persistedMessage);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		dataSource.close();
+
+		if (!"mysql".equals(engine)) {
+			try {
+				DriverManager.getConnection(DERBY_URL + ";drop=true");
+			} catch (Exception e) {
+				// derby always throws an exception when the database is dropped
+			}
+		}
+	}
+
+	@Benchmark
+	public Object insertMessage() throws Exception {
+		Message message = createMessage();
+		messageStore.saveOrUpdate(message);
+
+		return message.getId();
+	}
+
+	@Benchmark
+	public void updateMessage() throws Exception {
+		persistedMessage.setStatus(persistedMessage.getStatus() == Message.STATUS_PROCESSED ?
+				Message.STATUS_FAILED : Message.STATUS_PROCESSED);
+		persistedMessage.setModificationTime(null);
+
+		messageStore.saveOrUpdate(persistedMessage);
+	}
+
+	private Message createMessage() {
+		Message message = new Message();
+		message.setDirection(Direction.TO_CONNECTIONS);
+		message.setStatus(Message.STATUS_PROCESSED);
+		message.setSource("test-app");
+		message.setDestination("test-connection");
+		message.setProperty("to", "573001234567");
+		message.setProperty("from", "1234");
+		message.setProperty("text", "Your verification code is 1234");
+		message.setProperty("sequenceNumber", 1);
+
+		return message;
+	}
+
+}
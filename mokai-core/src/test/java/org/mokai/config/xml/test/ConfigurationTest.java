@@ -27,6 +27,8 @@ import org.mokai.Acceptor;
 import org.mokai.Action;
 import org.mokai.Connector;
 import org.mokai.ConnectorService;
+import org.mokai.ConnectorService.QueueFullPolicy;
+import org.mokai.ConnectorService.Transport;
 import org.mokai.Processor;
 import org.mokai.acceptor.AndAcceptor;
 import org.mokai.acceptor.OrAcceptor;
@@ -92,6 +94,20 @@ public class ConfigurationTest {
 		verify(connectorService1).setMaxConcurrentMsgs(10);
 		verify(connectorService2).setMaxConcurrentMsgs(1);
 
+		// check the maxTps and maxBurst of the ConnectorService
+		verify(connectorService1).setMaxTps(50);
+		verify(connectorService1).setMaxBurst(5);
+		verify(connectorService2).setMaxTps(0);
+		verify(connectorService2).setMaxBurst(1);
+
+		// check the transport, queue size and queue full policy of the ConnectorService
+		verify(connectorService1).setTransport(Transport.MEMORY);
+		verify(connectorService1).setQueueSize(500);
+		verify(connectorService1).setQueueFullPolicy(QueueFullPolicy.DROP_OLDEST);
+		verify(connectorService2).setTransport(Transport.JMS);
+		verify(connectorService2).setQueueSize(10000);
+		verify(connectorService2).setQueueFullPolicy(QueueFullPolicy.BLOCK);
+
 		// check that nothing was added to connector service 1
 		verify(connectorService1, never()).addAcceptor(any(Acceptor.class));
 		verify(connectorService1, never()).addPreProcessingAction(any(Action.class));
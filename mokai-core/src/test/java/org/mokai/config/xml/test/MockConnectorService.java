@@ -24,6 +24,16 @@ public class MockConnectorService implements ConnectorService {
 
 	private int maxConcurrentMsgs;
 
+	private int maxTps;
+
+	private int maxBurst;
+
+	private Transport transport = Transport.JMS;
+
+	private int queueSize;
+
+	private QueueFullPolicy queueFullPolicy = QueueFullPolicy.BLOCK;
+
 	private Connector connector;
 
 	private List<Acceptor> acceptors = new ArrayList<Acceptor>();
@@ -81,6 +91,56 @@ public class MockConnectorService implements ConnectorService {
 		this.maxConcurrentMsgs = maxConcurrentMsgs;
 	}
 
+	@Override
+	public int getMaxTps() {
+		return maxTps;
+	}
+
+	@Override
+	public void setMaxTps(int maxTps) {
+		this.maxTps = maxTps;
+	}
+
+	@Override
+	public int getMaxBurst() {
+		return maxBurst;
+	}
+
+	@Override
+	public void setMaxBurst(int maxBurst) {
+		this.maxBurst = maxBurst;
+	}
+
+	@Override
+	public Transport getTransport() {
+		return transport;
+	}
+
+	@Override
+	public void setTransport(Transport transport) {
+		this.transport = transport;
+	}
+
+	@Override
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	@Override
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	@Override
+	public QueueFullPolicy getQueueFullPolicy() {
+		return queueFullPolicy;
+	}
+
+	@Override
+	public void setQueueFullPolicy(QueueFullPolicy queueFullPolicy) {
+		this.queueFullPolicy = queueFullPolicy;
+	}
+
 	@Override
 	public Connector getConnector() {
 		return connector;
@@ -0,0 +1,193 @@
+package org.mokai.impl.camel.test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.apache.camel.ProducerTemplate;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.impl.DefaultExchange;
+import org.mokai.Action;
+import org.mokai.Execution;
+import org.mokai.Message;
+import org.mokai.annotation.Resource;
+import org.mokai.impl.camel.ActionsProcessor;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ActionsProcessorTest {
+
+	private static final String ENDPOINT = "direct:test";
+
+	@Test
+	public void shouldExecuteActionsAndSendMessage() throws Exception {
+		ProducerTemplate producer = mock(ProducerTemplate.class);
+
+		CountAction action1 = new CountAction();
+		CountAction action2 = new CountAction();
+
+		ActionsProcessor processor = new ActionsProcessor(actions(action1, action2), ENDPOINT, producer);
+
+		Exchange exchange = createExchange(new Message());
+		processor.process(exchange);
+
+		Assert.assertEquals(action1.getCount(), 1);
+		Assert.assertEquals(action2.getCount(), 1);
+		Assert.assertEquals(exchange.getProperty(Exchange.ROUTE_STOP), Boolean.TRUE);
+
+		verify(producer).send(eq(ENDPOINT), any(Processor.class));
+	}
+
+	@Test
+	public void shouldSendMessageWithoutActions() throws Exception {
+		ProducerTemplate producer = mock(ProducerTemplate.class);
+
+		ActionsProcessor processor = new ActionsProcessor(new ArrayList<Action>(), ENDPOINT, producer);
+		processor.process(createExchange(new Message()));
+
+		verify(producer).send(eq(ENDPOINT), any(Processor.class));
+	}
+
+	@Test
+	public void shouldStopExecution() throws Exception {
+		ProducerTemplate producer = mock(ProducerTemplate.class);
+
+		CountAction action1 = new CountAction();
+		StopAction action2 = new StopAction();
+		CountAction action3 = new CountAction();
+
+		ActionsProcessor processor = new ActionsProcessor(actions(action1, action2, action3), ENDPOINT, producer);
+		processor.process(createExchange(new Message()));
+
+		Assert.assertEquals(action1.getCount(), 1);
+		Assert.assertEquals(action3.getCount(), 0);
+
+		verify(producer, never()).send(any(String.class), any(Processor.class));
+	}
+
+	@Test
+	public void shouldRouteNewMessagesFromNextAction() throws Exception {
+		ProducerTemplate producer = mock(ProducerTemplate.class);
+
+		CountAction action1 = new CountAction();
+		ForkAction action2 = new ForkAction();
+		CountAction action3 = new CountAction();
+
+		ActionsProcessor processor = new ActionsProcessor(actions(action1, action2, action3), ENDPOINT, producer);
+		processor.process(createExchange(new Message()));
+
+		// the new message doesn't pass through the first action
+		Assert.assertEquals(action1.getCount(), 1);
+		Assert.assertEquals(action3.getCount(), 2);
+
+		verify(producer, times(2)).send(eq(ENDPOINT), any(Processor.class));
+	}
+
+	@Test
+	public void shouldNotStopMessageWhenNewMessageIsStopped() throws Exception {
+		ProducerTemplate producer = mock(ProducerTemplate.class);
+
+		ForkAction action1 = new ForkAction();
+		StopAction action2 = new StopAction();
+		action2.setProperty("forked");
+		CountAction action3 = new CountAction();
+
+		ActionsProcessor processor = new ActionsProcessor(actions(action1, action2, action3), ENDPOINT, producer);
+		processor.process(createExchange(new Message()));
+
+		// only the original message reaches the last action
+		Assert.assertEquals(action3.getCount(), 1);
+
+		verify(producer, times(1)).send(eq(ENDPOINT), any(Processor.class));
+	}
+
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void shouldFailToUseExecutionOutsideAction() throws Exception {
+		StopAction action = new StopAction();
+		ActionsProcessor.injectExecution(action);
+
+		action.execute(new Message());
+	}
+
+	private List<Action> actions(Action... actions) {
+		List<Action> ret = new ArrayList<Action>();
+		for (Action action : actions) {
+			ActionsProcessor.injectExecution(action);
+			ret.add(action);
+		}
+
+		return ret;
+	}
+
+	private Exchange createExchange(Message message) {
+		Exchange exchange = new DefaultExchange(new DefaultCamelContext());
+		exchange.getIn().setBody(message);
+
+		return exchange;
+	}
+
+	private class CountAction implements Action {
+
+		private int count;
+
+		@Override
+		public void execute(Message message) throws Exception {
+			count++;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+	}
+
+	/**
+	 * Stops all the messages or only the ones that have a property.
+	 */
+	private class StopAction implements Action {
+
+		@Resource
+		private Execution execution;
+
+		private String property;
+
+		@Override
+		public void execute(Message message) throws Exception {
+			if (property == null || message.getProperty(property) != null) {
+				execution.stop();
+			}
+		}
+
+		public void setProperty(String property) {
+			this.property = property;
+		}
+
+	}
+
+	/**
+	 * Routes a new message with the "forked" property.
+	 */
+	private class ForkAction implements Action {
+
+		@Resource
+		private Execution execution;
+
+		@Override
+		public void execute(Message message) throws Exception {
+			Message newMessage = new Message();
+			newMessage.setProperty("forked", true);
+
+			execution.route(newMessage);
+		}
+
+	}
+
+}
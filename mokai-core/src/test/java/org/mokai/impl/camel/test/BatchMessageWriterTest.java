@@ -0,0 +1,294 @@
+package org.mokai.impl.camel.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.mokai.Message;
+import org.mokai.impl.camel.BatchMessageWriter;
+import org.mokai.impl.camel.ResourceRegistry;
+import org.mokai.persist.AbstractMessageStore;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
+import org.mokai.persist.MessageCriteria;
+import org.mokai.persist.MessageStore;
+import org.mokai.persist.StoreException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class BatchMessageWriterTest {
+
+	@Test
+	public void shouldPersistMessagesInBatches() throws Exception {
+		RecordingMessageStore messageStore = new RecordingMessageStore();
+
+		BatchMessageWriter messageWriter = new BatchMessageWriter(createResourceRegistry(messageStore));
+		messageWriter.setBatchSize(10);
+		messageWriter.setFlushInterval(5000);
+		messageWriter.start();
+
+		for (int i=0; i < 25; i++) {
+			messageWriter.write(new Message());
+		}
+
+		messageWriter.stop();
+
+		Assert.assertEquals(messageStore.getMessages().size(), 25);
+		Assert.assertEquals(messageStore.getSingleWrites(), 0);
+		Assert.assertTrue(messageStore.getBatches().contains(10));
+		Assert.assertEquals(messageWriter.getWrittenMessages(), 25);
+		Assert.assertEquals(messageWriter.getQueueSize(), 0);
+	}
+
+	@Test
+	public void shouldFlushAfterInterval() throws Exception {
+		RecordingMessageStore messageStore = new RecordingMessageStore();
+
+		BatchMessageWriter messageWriter = new BatchMessageWriter(createResourceRegistry(messageStore));
+		messageWriter.setBatchSize(100);
+		messageWriter.setFlushInterval(50);
+		messageWriter.start();
+
+		try {
+			messageWriter.write(new Message());
+
+			long timeout = System.currentTimeMillis() + 3000;
+			while (messageStore.getMessages().isEmpty() && System.currentTimeMillis() < timeout) {
+				Thread.sleep(20);
+			}
+
+			Assert.assertEquals(messageStore.getMessages().size(), 1);
+			Assert.assertEquals(messageWriter.getFlushes(), 1);
+		} finally {
+			messageWriter.stop();
+		}
+	}
+
+	@Test
+	public void shouldPersistSynchronouslyIfNotStarted() throws Exception {
+		RecordingMessageStore messageStore = new RecordingMessageStore();
+
+		BatchMessageWriter messageWriter = new BatchMessageWriter(createResourceRegistry(messageStore));
+		messageWriter.write(new Message());
+
+		Assert.assertEquals(messageStore.getSingleWrites(), 1);
+		Assert.assertEquals(messageWriter.getSynchronousWrites(), 1);
+	}
+
+	@Test
+	public void shouldPersistSynchronouslyIfBufferIsFull() throws Exception {
+		final CountDownLatch flushing = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		RecordingMessageStore messageStore = new RecordingMessageStore() {
+
+			@Override
+			public void saveOrUpdateAll(Collection<Message> messages) throws StoreException {
+				flushing.countDown();
+				try { release.await(5, TimeUnit.SECONDS); } catch (InterruptedException e) {}
+
+				super.saveOrUpdateAll(messages);
+			}
+
+		};
+
+		BatchMessageWriter messageWriter = new BatchMessageWriter(createResourceRegistry(messageStore));
+		messageWriter.setCapacity(1);
+		messageWriter.setBatchSize(1);
+		messageWriter.setEnqueueTimeout(0);
+		messageWriter.start();
+
+		try {
+			// the writer thread takes the first message and blocks
+			messageWriter.write(new Message());
+			Assert.assertTrue(flushing.await(5, TimeUnit.SECONDS));
+
+			// the second message fills the buffer and the third one is persisted synchronously
+			messageWriter.write(new Message());
+			messageWriter.write(new Message());
+
+			Assert.assertEquals(messageStore.getSingleWrites(), 1);
+			Assert.assertEquals(messageWriter.getSynchronousWrites(), 1);
+		} finally {
+			release.countDown();
+			messageWriter.stop();
+		}
+
+		Assert.assertEquals(messageStore.getMessages().size(), 3);
+	}
+
+	@Test
+	public void shouldPersistOneByOneIfBatchFails() throws Exception {
+		RecordingMessageStore messageStore = new RecordingMessageStore() {
+
+			@Override
+			public void saveOrUpdateAll(Collection<Message> messages) throws StoreException {
+				throw new StoreException("batch failed");
+			}
+
+			@Override
+			public boolean isAtomicBatch() {
+				return true;
+			}
+
+		};
+
+		BatchMessageWriter messageWriter = new BatchMessageWriter(createResourceRegistry(messageStore));
+		messageWriter.setFlushInterval(5000);
+		messageWriter.start();
+
+		messageWriter.write(new Message());
+		messageWriter.write(new Message());
+
+		messageWriter.stop();
+
+		Assert.assertEquals(messageStore.getSingleWrites(), 2);
+		Assert.assertEquals(messageWriter.getWrittenMessages(), 2);
+	}
+
+	@Test
+	public void shouldNotPersistNewMessagesAgainIfBatchIsNotAtomic() throws Exception {
+		RecordingMessageStore messageStore = new RecordingMessageStore() {
+
+			@Override
+			public void saveOrUpdateAll(Collection<Message> messages) throws StoreException {
+				throw new StoreException("batch failed");
+			}
+
+		};
+
+		BatchMessageWriter messageWriter = new BatchMessageWriter(createResourceRegistry(messageStore));
+		messageWriter.setFlushInterval(5000);
+		messageWriter.start();
+
+		Message persistedMessage = new Message();
+		persistedMessage.setId(1L);
+
+		messageWriter.write(new Message());
+		messageWriter.write(persistedMessage);
+
+		messageWriter.stop();
+
+		// only the update is retried, the new message could have been saved by the failed batch
+		Assert.assertEquals(messageStore.getSingleWrites(), 1);
+		Assert.assertEquals(messageStore.getMessages().get(0), persistedMessage);
+		Assert.assertEquals(messageWriter.getWrittenMessages(), 1);
+		Assert.assertEquals(messageWriter.getFailedMessages(), 1);
+	}
+
+	@Test
+	public void shouldPersistPendingMessagesIfInterrupted() throws Exception {
+		RecordingMessageStore messageStore = new RecordingMessageStore();
+
+		BatchMessageWriter messageWriter = new BatchMessageWriter(createResourceRegistry(messageStore));
+		messageWriter.setBatchSize(100);
+		messageWriter.setFlushInterval(60000);
+		messageWriter.start();
+
+		try {
+			// the writer thread takes the messages and waits for the batch to be full
+			messageWriter.write(new Message());
+			messageWriter.write(new Message());
+			long timeout = System.currentTimeMillis() + 3000;
+			while (messageWriter.getQueueSize() > 0 && System.currentTimeMillis() < timeout) {
+				Thread.sleep(20);
+			}
+
+			Thread writerThread = findWriterThread();
+			Assert.assertNotNull(writerThread);
+			writerThread.interrupt();
+			writerThread.join(3000);
+
+			Assert.assertFalse(writerThread.isAlive());
+			Assert.assertFalse(messageWriter.isStarted());
+			Assert.assertEquals(messageStore.getMessages().size(), 2);
+
+			// the following messages are persisted synchronously
+			messageWriter.write(new Message());
+			Assert.assertEquals(messageStore.getSingleWrites(), 1);
+			Assert.assertEquals(messageWriter.getWrittenMessages(), 3);
+		} finally {
+			messageWriter.stop();
+		}
+	}
+
+	private Thread findWriterThread() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if ("mokai-message-writer".equals(thread.getName()) && thread.isAlive()) {
+				return thread;
+			}
+		}
+
+		return null;
+	}
+
+	private ResourceRegistry createResourceRegistry(MessageStore messageStore) {
+		ResourceRegistry resourceRegistry = new ResourceRegistry();
+		resourceRegistry.putResource(MessageStore.class, messageStore);
+
+		return resourceRegistry;
+	}
+
+	private class RecordingMessageStore extends AbstractMessageStore {
+
+		private List<Message> messages = Collections.synchronizedList(new ArrayList<Message>());
+
+		private List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+
+		private volatile int singleWrites;
+
+		@Override
+		public void saveOrUpdate(Message message) throws StoreException {
+			singleWrites++;
+			messages.add(message);
+		}
+
+		@Override
+		public void saveOrUpdateAll(Collection<Message> messages) throws StoreException {
+			batches.add(messages.size());
+			this.messages.addAll(messages);
+		}
+
+		@Override
+		public void updateStatus(MessageCriteria criteria, byte newStatus) throws StoreException {
+
+		}
+
+		@Override
+		public Collection<Message> list(MessageCriteria criteria) throws StoreException {
+			return new ArrayList<Message>();
+		}
+
+		@Override
+		public void iterate(MessageCriteria criteria, MessageCallback callback) throws StoreException {
+
+		}
+
+		@Override
+		public long count(MessageCriteria criteria) throws StoreException {
+			return 0;
+		}
+
+		@Override
+		public Collection<MessageCount> countGrouped(MessageCriteria criteria) throws StoreException {
+			return new ArrayList<MessageCount>();
+		}
+
+		public List<Message> getMessages() {
+			return messages;
+		}
+
+		public List<Integer> getBatches() {
+			return batches;
+		}
+
+		public int getSingleWrites() {
+			return singleWrites;
+		}
+
+	}
+
+}
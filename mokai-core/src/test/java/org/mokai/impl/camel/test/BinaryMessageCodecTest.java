@@ -0,0 +1,192 @@
+package org.mokai.impl.camel.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.mokai.Message;
+import org.mokai.Message.Direction;
+import org.mokai.impl.camel.BinaryMessageCodec;
+import org.mokai.impl.camel.MessageCodec;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class BinaryMessageCodecTest {
+
+	private MessageCodec codec = new BinaryMessageCodec();
+
+	@Test
+	public void shouldEncodeAndDecodeMessage() throws Exception {
+		Message message = new Message();
+		message.setId(12345L);
+		message.setStatus(Message.STATUS_FAILED);
+		message.setDirection(Direction.TO_CONNECTIONS);
+		message.setSource("test-app");
+		message.setDestination("test-connection");
+		message.setCreationTime(new Date(1000000L));
+		message.setModificationTime(new Date(2000000L));
+		message.setProperty("to", "573001234567");
+		message.setProperty("text", "Código de verificación: 1234");
+
+		Message decoded = codec.decode(codec.encode(message));
+
+		Assert.assertEquals(decoded.getId(), 12345L);
+		Assert.assertEquals(decoded.getStatus(), Message.STATUS_FAILED);
+		Assert.assertEquals(decoded.getDirection(), Direction.TO_CONNECTIONS);
+		Assert.assertEquals(decoded.getSource(), "test-app");
+		Assert.assertEquals(decoded.getDestination(), "test-connection");
+		Assert.assertEquals(decoded.getReference(), message.getReference());
+		Assert.assertEquals(decoded.getCreationTime(), new Date(1000000L));
+		Assert.assertEquals(decoded.getModificationTime(), new Date(2000000L));
+		Assert.assertEquals(decoded.getProperties().size(), 2);
+		Assert.assertEquals(decoded.getProperty("to"), "573001234567");
+		Assert.assertEquals(decoded.getProperty("text"), "Código de verificación: 1234");
+	}
+
+	@Test
+	public void shouldEncodeAndDecodeNullFields() throws Exception {
+		Message message = new Message();
+		message.setDirection(null);
+		message.setReference(null);
+		message.setCreationTime(null);
+		message.setModificationTime(null);
+
+		Message decoded = codec.decode(codec.encode(message));
+
+		Assert.assertNull(decoded.getId());
+		Assert.assertEquals(decoded.getStatus(), Message.STATUS_CREATED);
+		Assert.assertNull(decoded.getDirection());
+		Assert.assertNull(decoded.getSource());
+		Assert.assertNull(decoded.getDestination());
+		Assert.assertNull(decoded.getReference());
+		Assert.assertNull(decoded.getCreationTime());
+		Assert.assertNull(decoded.getModificationTime());
+		Assert.assertTrue(decoded.getProperties().isEmpty());
+	}
+
+	@Test
+	public void shouldKeepTypesOfProperties() throws Exception {
+		List<String> list = new ArrayList<String>();
+		list.add("test");
+
+		Message message = new Message();
+		message.setProperty("string", "");
+		message.setProperty("int", -1);
+		message.setProperty("maxInt", Integer.MAX_VALUE);
+		message.setProperty("long", Long.MIN_VALUE);
+		message.setProperty("true", true);
+		message.setProperty("false", false);
+		message.setProperty("double", 1.5);
+		message.setProperty("float", 2.5f);
+		message.setProperty("short", (short) -300);
+		message.setProperty("byte", (byte) 7);
+		message.setProperty("char", 'ñ');
+		message.setProperty("date", new Date(1356998400000L));
+		message.setProperty("timestamp", new Timestamp(1356998400001L));
+		message.setProperty("bigDecimal", new BigDecimal("123.4500"));
+		message.setProperty("bigInteger", new BigInteger("-123456789012345678901234567890"));
+		message.setProperty("list", list);
+		message.setProperty("null", null);
+
+		Message decoded = codec.decode(codec.encode(message));
+
+		Assert.assertEquals(decoded.getProperty("string"), "");
+		Assert.assertEquals(decoded.getProperty("int"), -1);
+		Assert.assertEquals(decoded.getProperty("maxInt"), Integer.MAX_VALUE);
+		Assert.assertEquals(decoded.getProperty("long"), Long.MIN_VALUE);
+		Assert.assertEquals(decoded.getProperty("true"), Boolean.TRUE);
+		Assert.assertEquals(decoded.getProperty("false"), Boolean.FALSE);
+		Assert.assertEquals(decoded.getProperty("double"), 1.5);
+		Assert.assertEquals(decoded.getProperty("float"), 2.5f);
+		Assert.assertEquals(decoded.getProperty("short"), (short) -300);
+		Assert.assertEquals(decoded.getProperty("byte"), (byte) 7);
+		Assert.assertEquals(decoded.getProperty("char"), 'ñ');
+		Assert.assertEquals(decoded.getProperty("date"), new Date(1356998400000L));
+		Assert.assertEquals(decoded.getProperty("timestamp").getClass(), Timestamp.class);
+		Assert.assertEquals(decoded.getProperty("timestamp"), new Timestamp(1356998400001L));
+		Assert.assertEquals(decoded.getProperty("bigDecimal"), new BigDecimal("123.4500"));
+		Assert.assertEquals(decoded.getProperty("bigInteger"), new BigInteger("-123456789012345678901234567890"));
+		Assert.assertEquals(decoded.getProperty("list"), list);
+		Assert.assertTrue(decoded.getProperties().containsKey("null"));
+		Assert.assertNull(decoded.getProperty("null"));
+	}
+
+	@Test
+	public void shouldKeepReservedProperties() throws Exception {
+		Message message = new Message();
+		message.setProperty("MK_CUSTOM", "value");
+
+		Message decoded = codec.decode(codec.encode(message));
+
+		Assert.assertEquals(decoded.getProperty("MK_CUSTOM"), "value");
+		Assert.assertTrue(decoded.getProperties().isEmpty());
+	}
+
+	@Test
+	public void shouldBeSmallerThanJavaSerialization() throws Exception {
+		Message message = new Message();
+		message.setDirection(Direction.TO_CONNECTIONS);
+		message.setSource("test-app");
+		message.setProperty("to", "573001234567");
+		message.setProperty("text", "test");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(message);
+		out.close();
+
+		Assert.assertTrue(codec.encode(message).length * 4 < bytes.size());
+	}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void shouldFailWithNonSerializableProperty() throws Exception {
+		Message message = new Message();
+		message.setProperty("object", new Object());
+
+		codec.encode(message);
+	}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void shouldFailWithUntrustedSerializedProperty() throws Exception {
+		List<String> list = new ArrayList<String>();
+		list.add("test");
+
+		Message message = new Message();
+		message.setProperty("list", list);
+
+		// java.util is not trusted
+		MessageCodec codec = new BinaryMessageCodec("java.lang,org.mokai");
+		codec.decode(codec.encode(message));
+	}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void shouldFailWithUnsupportedVersion() throws Exception {
+		byte[] bytes = codec.encode(new Message());
+		bytes[1] = 99;
+
+		codec.decode(bytes);
+	}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void shouldFailWithInvalidBytes() throws Exception {
+		codec.decode("not a message".getBytes("UTF-8"));
+	}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void shouldFailWithTruncatedBytes() throws Exception {
+		Message message = new Message();
+		message.setProperty("to", "573001234567");
+
+		byte[] bytes = codec.encode(message);
+		byte[] truncated = new byte[bytes.length - 3];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+		codec.decode(truncated);
+	}
+
+}
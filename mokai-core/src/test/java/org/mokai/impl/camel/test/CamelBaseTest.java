@@ -9,6 +9,7 @@ import org.apache.camel.impl.DefaultCamelContext;
 import org.mokai.Action;
 import org.mokai.Message;
 import org.mokai.annotation.Resource;
+import org.mokai.impl.camel.RedeliveryPolicy;
 import org.mokai.impl.camel.ResourceRegistry;
 import org.mokai.persist.MessageStore;
 import org.testng.annotations.AfterMethod;
@@ -38,13 +39,19 @@ public class CamelBaseTest {
 		resourceRegistry = new ResourceRegistry();
 		resourceRegistry.putResource(CamelContext.class, camelContext);
 		
+		// redeliver quickly so the tests don't wait for the default delays
+		RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+		redeliveryPolicy.setRedeliveryDelay(50);
+		redeliveryPolicy.setMaxRedeliveryDelay(200);
+		resourceRegistry.putResource(RedeliveryPolicy.class, redeliveryPolicy);
+		
 		camelProducer = camelContext.createProducerTemplate();
 	}
 	
 	protected JmsComponent defaultJmsComponent() throws Exception{
 		// a simple activemq connection factory
 		ActiveMQConnectionFactory connectionFactory = 
-			new ActiveMQConnectionFactory("vm://broker1?broker.persistent=false");
+			new ActiveMQConnectionFactory("vm://broker1?broker.persistent=false&broker.schedulerSupport=true");
                 connectionFactory.setTrustAllPackages(true);
 		connectionFactory.setDispatchAsync(false);
 		
@@ -1,7 +1,9 @@
 package org.mokai.impl.camel.test;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.camel.CamelContext;
 import org.apache.camel.Exchange;
@@ -13,6 +15,8 @@ import org.mokai.Configurable;
 import org.mokai.Connector;
 import org.mokai.ConnectorContext;
 import org.mokai.ConnectorService;
+import org.mokai.ConnectorService.QueueFullPolicy;
+import org.mokai.ConnectorService.Transport;
 import org.mokai.Execution;
 import org.mokai.ExecutionException;
 import org.mokai.Message;
@@ -26,6 +30,8 @@ import org.mokai.Service.State;
 import org.mokai.Serviceable;
 import org.mokai.annotation.Resource;
 import org.mokai.impl.camel.AbstractCamelConnectorService;
+import org.mokai.impl.camel.CircuitBreaker;
+import org.mokai.impl.camel.RedeliveryPolicy;
 import org.mokai.impl.camel.ResourceRegistry;
 import org.mokai.persist.MessageStore;
 import org.mokai.types.mock.MockAcceptor;
@@ -463,6 +469,281 @@ public class CamelConnectorServiceTest extends CamelBaseTest {
 		outboundEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
 	}
 
+	@Test
+	public void shouldProcessMessagesWhileRedelivering() throws Exception {
+		MockEndpoint outboundEndpoint = getProcessedMessagesEndpoint(2);
+		MockEndpoint failedEndpoint = getFailedMessagesEndpoint(0);
+
+		RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+		redeliveryPolicy.setRedeliveryDelay(1000);
+		redeliveryPolicy.setJitter(0);
+		resourceRegistry.putResource(RedeliveryPolicy.class, redeliveryPolicy);
+
+		ConnectorService processorService = new MockConnectorService("test", new Processor() {
+
+			@Override
+			public void process(Message message) {
+				if (message.getProperty("fail") != null) {
+					message.removeProperty("fail");
+					throw new NullPointerException();
+				}
+			}
+
+			@Override
+			public boolean supports(Message message) {
+				return true;
+			}
+
+		}, resourceRegistry);
+		processorService.start();
+
+		Message failedMessage = new Message();
+		failedMessage.setProperty("fail", true);
+		simulateMessage(failedMessage, "activemq:mokai-test");
+		simulateMessage(new Message(), "activemq:mokai-test");
+
+		outboundEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+		failedEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+
+		// the second message didn't wait for the redelivery of the first one
+		List<Exchange> exchanges = outboundEndpoint.getReceivedExchanges();
+		Message message = exchanges.get(1).getIn().getBody(Message.class);
+		Assert.assertEquals(message.getReference(), failedMessage.getReference());
+	}
+
+	@Test
+	public void shouldOpenAndCloseCircuitBreaker() throws Exception {
+		MockEndpoint outboundEndpoint = getProcessedMessagesEndpoint(0);
+		MockEndpoint failedEndpoint = getFailedMessagesEndpoint(2);
+
+		RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+		redeliveryPolicy.setMaxRedeliveries(1);
+		resourceRegistry.putResource(RedeliveryPolicy.class, redeliveryPolicy);
+
+		final AtomicBoolean failing = new AtomicBoolean(true);
+		AbstractCamelConnectorService processorService = new MockConnectorService("test", new Processor() {
+
+			@Override
+			public void process(Message message) {
+				if (failing.get()) {
+					throw new NullPointerException();
+				}
+			}
+
+			@Override
+			public boolean supports(Message message) {
+				return true;
+			}
+
+		}, resourceRegistry);
+		processorService.getCircuitBreaker().setThreshold(2);
+		processorService.getCircuitBreaker().setOpenTimeout(1000);
+		processorService.start();
+
+		simulateMessage(new Message(), "activemq:mokai-test");
+		simulateMessage(new Message(), "activemq:mokai-test");
+
+		failedEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+		outboundEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+
+		Assert.assertEquals(processorService.getCircuitBreaker().getState(), CircuitBreaker.State.OPEN);
+		Assert.assertEquals(processorService.getStatus(), Status.FAILED);
+
+		// the next message waits in the queue until the breaker is half-open and closes it
+		failing.set(false);
+		outboundEndpoint.reset();
+		outboundEndpoint.expectedMessageCount(1);
+		failedEndpoint.reset();
+		failedEndpoint.expectedMessageCount(0);
+
+		simulateMessage(new Message(), "activemq:mokai-test");
+
+		outboundEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+		failedEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+
+		Assert.assertEquals(processorService.getCircuitBreaker().getState(), CircuitBreaker.State.CLOSED);
+		Assert.assertEquals(processorService.getStatus(), Status.UNKNOWN);
+	}
+
+	@Test
+	public void shouldProcessMessageWithMemoryTransport() throws Exception {
+		MockEndpoint outboundEndpoint = getProcessedMessagesEndpoint(1);
+		MockEndpoint failedEndpoint = getFailedMessagesEndpoint(0);
+
+		MockProcessor processor = new MockProcessor();
+		AbstractCamelConnectorService connectorService = new MockConnectorService("test", processor, resourceRegistry);
+		connectorService.setTransport(Transport.MEMORY);
+		connectorService.start();
+
+		Assert.assertEquals(connectorService.getQueueUri(), "seda:mokai-test");
+
+		simulateMessage(new Message(), connectorService.getQueueUri());
+
+		outboundEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+		failedEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+
+		Assert.assertEquals(1, processor.getCount());
+		Assert.assertEquals("test", processor.getMessage(0).getDestination());
+		Assert.assertEquals(connectorService.getNumQueuedMessages(), 0);
+
+		connectorService.destroy();
+	}
+
+	@Test
+	public void shouldRedeliverMessageWithMemoryTransport() throws Exception {
+		MockEndpoint outboundEndpoint = getProcessedMessagesEndpoint(1);
+		MockEndpoint failedEndpoint = getFailedMessagesEndpoint(0);
+
+		final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+		AbstractCamelConnectorService connectorService = new MockConnectorService("test", new Processor() {
+
+			@Override
+			public void process(Message message) {
+				threads.add(Thread.currentThread().getName());
+				if (threads.size() == 1) {
+					throw new NullPointerException();
+				}
+			}
+
+			@Override
+			public boolean supports(Message message) {
+				return true;
+			}
+
+		}, resourceRegistry);
+		connectorService.setTransport(Transport.MEMORY);
+		connectorService.start();
+
+		simulateMessage(new Message(), connectorService.getQueueUri());
+
+		outboundEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+		failedEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+
+		// the redelivery is not executed in the scheduler thread
+		Assert.assertEquals(threads.size(), 2);
+		Assert.assertTrue(threads.get(1).startsWith("redelivery-"), threads.get(1));
+
+		connectorService.destroy();
+	}
+
+	@Test
+	public void shouldParkMessagesWithMemoryTransportWhileCircuitBreakerIsOpen() throws Exception {
+		MockEndpoint outboundEndpoint = getProcessedMessagesEndpoint(3);
+		MockEndpoint failedEndpoint = getFailedMessagesEndpoint(1);
+
+		RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+		redeliveryPolicy.setMaxRedeliveries(1);
+		resourceRegistry.putResource(RedeliveryPolicy.class, redeliveryPolicy);
+
+		final AtomicBoolean failing = new AtomicBoolean(true);
+		AbstractCamelConnectorService connectorService = new MockConnectorService("test", new Processor() {
+
+			@Override
+			public void process(Message message) {
+				if (failing.getAndSet(false)) {
+					throw new NullPointerException();
+				}
+			}
+
+			@Override
+			public boolean supports(Message message) {
+				return true;
+			}
+
+		}, resourceRegistry);
+		connectorService.setTransport(Transport.MEMORY);
+		connectorService.setMaxConcurrentMsgs(2);
+		connectorService.setQueueSize(1);
+		connectorService.getCircuitBreaker().setThreshold(1);
+		connectorService.getCircuitBreaker().setOpenTimeout(500);
+		connectorService.start();
+
+		// the consumers don't put the messages back in their own full queue
+		for (int i=0; i < 4; i++) {
+			simulateMessage(new Message(), connectorService.getQueueUri());
+		}
+
+		outboundEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+		failedEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+
+		Assert.assertEquals(connectorService.getCircuitBreaker().getState(), CircuitBreaker.State.CLOSED);
+
+		connectorService.destroy();
+	}
+
+	@Test
+	public void shouldDeferThrottledMessages() throws Exception {
+		MockEndpoint outboundEndpoint = getProcessedMessagesEndpoint(3);
+		MockEndpoint failedEndpoint = getFailedMessagesEndpoint(0);
+
+		AbstractCamelConnectorService connectorService = new MockConnectorService("test", new MockProcessor(), resourceRegistry);
+		connectorService.setMaxTps(5);
+		connectorService.start();
+
+		simulateMessage(new Message(), connectorService.getQueueUri());
+		simulateMessage(new Message(), connectorService.getQueueUri());
+		simulateMessage(new Message(), connectorService.getQueueUri());
+
+		outboundEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+		failedEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+
+		// the second and third messages were deferred with their tokens, they didn't reserve a new one
+		Assert.assertEquals(connectorService.getTokenBucket().getThrottledCount(), 2);
+
+		connectorService.destroy();
+	}
+
+	@Test
+	public void shouldQueueMessagesWithMemoryTransport() throws Exception {
+		AbstractCamelConnectorService connectorService = new MockConnectorService("test", new MockProcessor(), resourceRegistry);
+		connectorService.setTransport(Transport.MEMORY);
+
+		// the connector is not started so the messages stay in the queue
+		simulateMessage(new Message(), connectorService.getQueueUri());
+		simulateMessage(new Message(), connectorService.getQueueUri());
+
+		Assert.assertEquals(connectorService.getNumQueuedMessages(), 2);
+
+		// the messages that were not processed are sent to the failed messages when the connector is destroyed
+		MockEndpoint failedEndpoint = getFailedMessagesEndpoint(2);
+		connectorService.destroy();
+
+		failedEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+		Assert.assertEquals(connectorService.getNumQueuedMessages(), 0);
+	}
+
+	@Test
+	public void shouldDropOldestMessageWhenMemoryQueueIsFull() throws Exception {
+		MockEndpoint failedEndpoint = getFailedMessagesEndpoint(1);
+
+		AbstractCamelConnectorService connectorService = new MockConnectorService("test", new MockProcessor(), resourceRegistry);
+		connectorService.setQueueSize(2);
+		connectorService.setQueueFullPolicy(QueueFullPolicy.DROP_OLDEST);
+		connectorService.setTransport(Transport.MEMORY);
+
+		Message message1 = new Message();
+		simulateMessage(message1, connectorService.getQueueUri());
+		simulateMessage(new Message(), connectorService.getQueueUri());
+		simulateMessage(new Message(), connectorService.getQueueUri());
+
+		failedEndpoint.assertIsSatisfied(DEFAULT_TIMEOUT);
+
+		Message failedMessage = failedEndpoint.getReceivedExchanges().get(0).getIn().getBody(Message.class);
+		Assert.assertEquals(failedMessage.getReference(), message1.getReference());
+		Assert.assertEquals(failedMessage.getStatus(), Message.STATUS_FAILED);
+
+		Assert.assertEquals(connectorService.getNumQueuedMessages(), 2);
+		Assert.assertEquals(connectorService.getDroppedMessages(), 1);
+	}
+
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void shouldFailToChangeTransportAfterStart() throws Exception {
+		ConnectorService connectorService = new MockConnectorService("test", new MockProcessor(), resourceRegistry);
+		connectorService.start();
+
+		connectorService.setTransport(Transport.MEMORY);
+	}
+
 	@Test
 	public void testAddRemoveAcceptors() throws Exception {
 		ConnectorService processorService = new MockConnectorService("test", new MockProcessor(), resourceRegistry);
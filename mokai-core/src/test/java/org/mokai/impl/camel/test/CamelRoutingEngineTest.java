@@ -1,7 +1,10 @@
 package org.mokai.impl.camel.test;
 
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -16,6 +19,8 @@ import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.camel.ProducerTemplate;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.mokai.Acceptor;
 import org.mokai.Configurable;
 import org.mokai.Connector;
@@ -26,6 +31,7 @@ import org.mokai.ObjectAlreadyExistsException;
 import org.mokai.ObjectNotFoundException;
 import org.mokai.Processor;
 import org.mokai.Service;
+import org.mokai.acceptor.RegExpAcceptor;
 import org.mokai.impl.camel.CamelRoutingEngine;
 import org.mokai.impl.camel.ConnectorServiceChangeListener;
 import org.mokai.impl.camel.UriConstants;
@@ -600,25 +606,24 @@ public class CamelRoutingEngineTest {
 
 	@Test
 	public void testRetryFailedMessages() throws Exception {
-		Collection<Message> failedMessages = new ArrayList<Message>();
-
 		Message m1 = new Message();
+		m1.setId(1L);
 		m1.setStatus(Message.STATUS_FAILED);
 		m1.setDirection(Direction.TO_CONNECTIONS);
-		failedMessages.add(m1);
 
 		Message m2 = new Message();
+		m2.setId(2L);
 		m2.setStatus(Message.STATUS_FAILED);
 		m2.setDirection(Direction.TO_APPLICATIONS);
-		failedMessages.add(m2);
 
 		MessageStore messageStore = mock(MessageStore.class);
-		when(messageStore.list(any(MessageCriteria.class))).thenReturn(failedMessages);
+		when(messageStore.list(any(MessageCriteria.class))).thenAnswer(new MessagesByDirectionAnswer(m1, m2));
 
 		CamelRoutingEngine routingEngine = new CamelRoutingEngine();
 
 		try {
 			routingEngine.setMessageStore(messageStore);
+			routingEngine.setRetryCheckpointDir(null);
 			routingEngine.start();
 
 			// create the processors
@@ -652,7 +657,59 @@ public class CamelRoutingEngineTest {
 			// verify
 			verify(connectionProcessor, timeout(1500)).process(any(Message.class));
 			verify(applicationProcessor, timeout(1500)).process(any(Message.class));
-			verify(messageStore, times(4)).saveOrUpdate(any(Message.class));
+			verify(messageStore, times(2)).updateStatus(any(MessageCriteria.class), eq(Message.STATUS_RETRYING)); // update the status to retrying
+			verify(messageStore, timeout(1500).times(2)).saveOrUpdate(any(Message.class)); // processed messages
+
+		} finally {
+			routingEngine.shutdown();
+		}
+	}
+
+	@Test
+	public void testRetryUnRoutableMessages() throws Exception {
+		Message m1 = new Message();
+		m1.setId(1L);
+		m1.setStatus(Message.STATUS_UNROUTABLE);
+		m1.setDirection(Direction.TO_CONNECTIONS);
+		m1.setProperty("to", "573001234567");
+
+		Message m2 = new Message();
+		m2.setId(2L);
+		m2.setStatus(Message.STATUS_UNROUTABLE);
+		m2.setDirection(Direction.TO_CONNECTIONS);
+		m2.setProperty("to", "13051234567");
+
+		MessageStore messageStore = mock(MessageStore.class);
+		when(messageStore.list(any(MessageCriteria.class))).thenAnswer(new MessagesByDirectionAnswer(m1, m2));
+
+		CamelRoutingEngine routingEngine = new CamelRoutingEngine();
+
+		try {
+			routingEngine.setMessageStore(messageStore);
+			routingEngine.setRetryCheckpointDir(null);
+			routingEngine.setUnroutableRetryDelay(100);
+			routingEngine.start();
+
+			Processor connectionProcessor = mock(Processor.class);
+			when(connectionProcessor.supports(any(Message.class))).thenReturn(true);
+
+			ConnectorService connectionService = routingEngine.addConnection("1", connectionProcessor);
+
+			RegExpAcceptor acceptor = new RegExpAcceptor("^57300.*");
+			acceptor.setField("to");
+			connectionService.addAcceptor(acceptor);
+			connectionService.start();
+
+			// the routing changed, only the message that matches the new acceptor is re-injected
+			verify(connectionProcessor, timeout(3000)).process(any(Message.class));
+			verify(messageStore).updateStatus(any(MessageCriteria.class), eq(Message.STATUS_RETRYING));
+			Assert.assertEquals(m1.getStatus(), Message.STATUS_RETRYING);
+			Assert.assertEquals(m2.getStatus(), Message.STATUS_UNROUTABLE);
+
+			// nothing changed since the last retry, the store is not queried
+			reset(messageStore);
+			routingEngine.retryUnRoutableMessages();
+			verify(messageStore, never()).list(any(MessageCriteria.class));
 
 		} finally {
 			routingEngine.shutdown();
@@ -727,4 +784,32 @@ public class CamelRoutingEngineTest {
 				throws StoreException {}
 
 	}
+
+	/**
+	 * Returns the messages with the direction of the criteria, as the {@link MessageStore} does.
+	 */
+	private class MessagesByDirectionAnswer implements Answer<Collection<Message>> {
+
+		private Message[] messages;
+
+		public MessagesByDirectionAnswer(Message... messages) {
+			this.messages = messages;
+		}
+
+		@Override
+		public Collection<Message> answer(InvocationOnMock invocation) throws Throwable {
+			MessageCriteria criteria = (MessageCriteria) invocation.getArguments()[0];
+
+			Collection<Message> ret = new ArrayList<Message>();
+			for (Message message : messages) {
+				if (criteria.getDirection() == null || criteria.getDirection().equals(message.getDirection())) {
+					ret.add(message);
+				}
+			}
+
+			return ret;
+		}
+
+	}
+
 }
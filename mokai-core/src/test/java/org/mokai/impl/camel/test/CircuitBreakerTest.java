@@ -0,0 +1,105 @@
+package org.mokai.impl.camel.test;
+
+import org.mokai.impl.camel.CircuitBreaker;
+import org.mokai.impl.camel.CircuitBreaker.State;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class CircuitBreakerTest {
+
+	@Test
+	public void shouldOpenWhenThresholdIsReached() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker();
+		circuitBreaker.setThreshold(3);
+
+		Assert.assertFalse(circuitBreaker.onFailure(1));
+		Assert.assertFalse(circuitBreaker.onFailure(2));
+		Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+		Assert.assertTrue(circuitBreaker.allowRequest());
+
+		Assert.assertTrue(circuitBreaker.onFailure(3));
+		Assert.assertEquals(circuitBreaker.getState(), State.OPEN);
+		Assert.assertFalse(circuitBreaker.allowRequest());
+		Assert.assertTrue(circuitBreaker.getOpenedAt() > 0);
+
+		// only the first call opens the breaker
+		Assert.assertFalse(circuitBreaker.onFailure(4));
+	}
+
+	@Test
+	public void shouldCloseWhenProbeSucceeds() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker();
+		circuitBreaker.setThreshold(1);
+
+		Assert.assertTrue(circuitBreaker.onFailure(1));
+		Assert.assertTrue(circuitBreaker.halfOpen());
+		Assert.assertEquals(circuitBreaker.getState(), State.HALF_OPEN);
+		Assert.assertTrue(circuitBreaker.allowRequest());
+
+		Assert.assertTrue(circuitBreaker.onSuccess());
+		Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+		Assert.assertFalse(circuitBreaker.onSuccess());
+	}
+
+	@Test
+	public void shouldAllowSingleProbeWhenHalfOpen() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker();
+		circuitBreaker.setThreshold(1);
+
+		Assert.assertTrue(circuitBreaker.onFailure(1));
+		Assert.assertTrue(circuitBreaker.halfOpen());
+
+		// only the first message probes the connector
+		Assert.assertTrue(circuitBreaker.allowRequest());
+		Assert.assertFalse(circuitBreaker.allowRequest());
+
+		// the probe fails, no message is allowed until the breaker is half-open again
+		Assert.assertTrue(circuitBreaker.onFailure(1));
+		Assert.assertFalse(circuitBreaker.allowRequest());
+
+		Assert.assertTrue(circuitBreaker.halfOpen());
+		Assert.assertTrue(circuitBreaker.allowRequest());
+		Assert.assertFalse(circuitBreaker.allowRequest());
+
+		// the probe succeeds, all the messages are allowed
+		Assert.assertTrue(circuitBreaker.onSuccess());
+		Assert.assertTrue(circuitBreaker.allowRequest());
+		Assert.assertTrue(circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void shouldReopenWhenProbeFails() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker();
+		circuitBreaker.setThreshold(5);
+
+		Assert.assertTrue(circuitBreaker.onFailure(5));
+		Assert.assertTrue(circuitBreaker.halfOpen());
+		Assert.assertFalse(circuitBreaker.halfOpen());
+
+		// a single failure opens the breaker again
+		Assert.assertTrue(circuitBreaker.onFailure(1));
+		Assert.assertEquals(circuitBreaker.getState(), State.OPEN);
+	}
+
+	@Test
+	public void shouldNotOpenIfDisabled() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker();
+		circuitBreaker.setThreshold(0);
+
+		Assert.assertFalse(circuitBreaker.onFailure(1000));
+		Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+	}
+
+	@Test
+	public void shouldReset() throws Exception {
+		CircuitBreaker circuitBreaker = new CircuitBreaker();
+		circuitBreaker.setThreshold(1);
+
+		Assert.assertFalse(circuitBreaker.reset());
+
+		circuitBreaker.onFailure(1);
+		Assert.assertTrue(circuitBreaker.reset());
+		Assert.assertEquals(circuitBreaker.getState(), State.CLOSED);
+	}
+
+}
@@ -0,0 +1,73 @@
+package org.mokai.impl.camel.test;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.camel.Exchange;
+import org.mokai.ConnectorService.QueueFullPolicy;
+import org.mokai.impl.camel.MemoryQueue;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MemoryQueueTest {
+
+	@Test
+	public void shouldRejectExchangeWhenFullWithBlockPolicy() throws Exception {
+		RecordingHandler handler = new RecordingHandler();
+		MemoryQueue queue = new MemoryQueue(2, QueueFullPolicy.BLOCK, handler);
+
+		Assert.assertTrue(queue.offer(mock(Exchange.class)));
+		Assert.assertTrue(queue.offer(mock(Exchange.class)));
+		Assert.assertFalse(queue.offer(mock(Exchange.class)));
+
+		Assert.assertEquals(queue.size(), 2);
+		Assert.assertTrue(handler.dropped.isEmpty());
+	}
+
+	@Test
+	public void shouldDropOldestExchangeWhenFull() throws Exception {
+		RecordingHandler handler = new RecordingHandler();
+		MemoryQueue queue = new MemoryQueue(2, QueueFullPolicy.DROP_OLDEST, handler);
+
+		Exchange exchange1 = mock(Exchange.class);
+		Exchange exchange2 = mock(Exchange.class);
+		Exchange exchange3 = mock(Exchange.class);
+
+		queue.add(exchange1);
+		queue.add(exchange2);
+		queue.add(exchange3);
+
+		Assert.assertEquals(queue.size(), 2);
+		Assert.assertEquals(handler.dropped.size(), 1);
+		Assert.assertSame(handler.dropped.get(0), exchange1);
+
+		Assert.assertSame(queue.poll(), exchange2);
+		Assert.assertSame(queue.poll(), exchange3);
+	}
+
+	@Test
+	public void shouldDropOldestExchangeWithoutHandler() throws Exception {
+		MemoryQueue queue = new MemoryQueue(1, QueueFullPolicy.DROP_OLDEST, null);
+
+		Exchange exchange = mock(Exchange.class);
+		queue.add(mock(Exchange.class));
+		queue.add(exchange);
+
+		Assert.assertEquals(queue.size(), 1);
+		Assert.assertSame(queue.peek(), exchange);
+	}
+
+	private class RecordingHandler implements MemoryQueue.OverflowHandler {
+
+		private List<Exchange> dropped = new ArrayList<Exchange>();
+
+		@Override
+		public void dropped(Exchange exchange) {
+			dropped.add(exchange);
+		}
+
+	}
+
+}
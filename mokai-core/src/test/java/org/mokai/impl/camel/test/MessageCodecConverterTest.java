@@ -0,0 +1,82 @@
+package org.mokai.impl.camel.test;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.jms.BytesMessage;
+import javax.jms.Session;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQObjectMessage;
+import org.mokai.Message;
+import org.mokai.impl.camel.BinaryMessageCodec;
+import org.mokai.impl.camel.MessageCodecConverter;
+import org.springframework.jms.support.converter.MessageConversionException;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MessageCodecConverterTest {
+
+	@Test
+	public void shouldWriteMessageToBytesMessage() throws Exception {
+		MessageCodecConverter converter = new MessageCodecConverter(new BinaryMessageCodec());
+
+		Message message = new Message();
+		message.setProperty("to", "573001234567");
+
+		ActiveMQBytesMessage jmsMessage = (ActiveMQBytesMessage) converter.toMessage(message, mockSession());
+		Assert.assertEquals(jmsMessage.getStringProperty(MessageCodecConverter.CODEC_PROPERTY), BinaryMessageCodec.class.getName());
+
+		jmsMessage.reset();
+		Message decoded = (Message) converter.fromMessage(jmsMessage);
+
+		Assert.assertEquals(decoded.getReference(), message.getReference());
+		Assert.assertEquals(decoded.getProperty("to"), "573001234567");
+	}
+
+	@Test
+	public void shouldReadJavaSerializedMessage() throws Exception {
+		MessageCodecConverter converter = new MessageCodecConverter(new BinaryMessageCodec());
+
+		Message message = new Message();
+
+		ActiveMQObjectMessage jmsMessage = new ActiveMQObjectMessage();
+		jmsMessage.setObject(message);
+
+		Assert.assertSame(converter.fromMessage(jmsMessage), message);
+	}
+
+	@Test
+	public void shouldReadEncodedMessageAfterCodecIsDisabled() throws Exception {
+		MessageCodecConverter converter = new MessageCodecConverter(new BinaryMessageCodec());
+
+		Message message = new Message();
+		ActiveMQBytesMessage jmsMessage = (ActiveMQBytesMessage) converter.toMessage(message, mockSession());
+		jmsMessage.reset();
+
+		converter.setCodec(null);
+		Message decoded = (Message) converter.fromMessage(jmsMessage);
+
+		Assert.assertEquals(decoded.getReference(), message.getReference());
+	}
+
+	@Test(expectedExceptions=MessageConversionException.class)
+	public void shouldFailWithInvalidBytesMessage() throws Exception {
+		MessageCodecConverter converter = new MessageCodecConverter(new BinaryMessageCodec());
+
+		ActiveMQBytesMessage jmsMessage = new ActiveMQBytesMessage();
+		jmsMessage.setStringProperty(MessageCodecConverter.CODEC_PROPERTY, BinaryMessageCodec.class.getName());
+		jmsMessage.writeBytes("not a message".getBytes("UTF-8"));
+		jmsMessage.reset();
+
+		converter.fromMessage(jmsMessage);
+	}
+
+	private Session mockSession() throws Exception {
+		Session session = mock(Session.class);
+		when(session.createBytesMessage()).thenReturn(new ActiveMQBytesMessage());
+
+		return session;
+	}
+
+}
@@ -0,0 +1,268 @@
+package org.mokai.impl.camel.test;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.ExchangePattern;
+import org.apache.camel.ProducerTemplate;
+import org.mockito.ArgumentCaptor;
+import org.mokai.Acceptor;
+import org.mokai.Message;
+import org.mokai.Message.Direction;
+import org.mokai.impl.camel.MessageRetrier;
+import org.mokai.impl.camel.UriConstants;
+import org.mokai.persist.AbstractMessageStore;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
+import org.mokai.persist.MessageCriteria;
+import org.mokai.persist.MessageStore;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class MessageRetrierTest {
+
+	@Test
+	public void shouldRetryMessagesInPages() throws Exception {
+		InMemoryMessageStore messageStore = new InMemoryMessageStore();
+		for (long i=1; i <= 5; i++) {
+			messageStore.add(i, Message.STATUS_FAILED, "test");
+		}
+		messageStore.add(6, Message.STATUS_PROCESSED, "test");
+
+		ProducerTemplate producer = mock(ProducerTemplate.class);
+
+		MessageRetrier retrier = new MessageRetrier(messageStore, producer);
+		retrier.setPageSize(2);
+
+		int count = retrier.retry("failed", new MessageCriteria()
+				.direction(Direction.TO_CONNECTIONS)
+				.addStatus(Message.STATUS_FAILED), null);
+
+		Assert.assertEquals(count, 5);
+		Assert.assertEquals(messageStore.getNumPages(), 3); // 2 + 2 + 1
+		Assert.assertEquals(messageStore.getNumUpdates(), 3);
+		Assert.assertEquals(messageStore.countByStatus(Message.STATUS_RETRYING), 5);
+		Assert.assertEquals(messageStore.countByStatus(Message.STATUS_PROCESSED), 1);
+
+		verify(producer, times(5)).sendBody(eq(UriConstants.CONNECTIONS_ROUTER), eq(ExchangePattern.InOnly), any(Message.class));
+	}
+
+	@Test
+	public void shouldOnlyRetryFilteredMessages() throws Exception {
+		InMemoryMessageStore messageStore = new InMemoryMessageStore();
+		messageStore.add(1, Message.STATUS_UNROUTABLE, "test-1");
+		messageStore.add(2, Message.STATUS_UNROUTABLE, "test-2");
+		messageStore.add(3, Message.STATUS_UNROUTABLE, "test-1");
+
+		ProducerTemplate producer = mock(ProducerTemplate.class);
+
+		MessageRetrier retrier = new MessageRetrier(messageStore, producer);
+		int count = retrier.retry("unroutable", new MessageCriteria()
+				.direction(Direction.TO_CONNECTIONS)
+				.addStatus(Message.STATUS_UNROUTABLE), new Acceptor() {
+
+			@Override
+			public boolean accepts(Message message) {
+				return "test-1".equals(message.getDestination());
+			}
+
+		});
+
+		Assert.assertEquals(count, 2);
+		Assert.assertEquals(messageStore.countByStatus(Message.STATUS_RETRYING), 2);
+		Assert.assertEquals(messageStore.countByStatus(Message.STATUS_UNROUTABLE), 1);
+	}
+
+	@Test
+	public void shouldAlternateDestinationsAcrossPages() throws Exception {
+		InMemoryMessageStore messageStore = new InMemoryMessageStore();
+		for (long i=1; i <= 4; i++) {
+			messageStore.add(i, Message.STATUS_FAILED, "test-1");
+		}
+		messageStore.add(5, Message.STATUS_FAILED, "test-2");
+		messageStore.add(6, Message.STATUS_FAILED, "test-2");
+
+		ProducerTemplate producer = mock(ProducerTemplate.class);
+
+		MessageRetrier retrier = new MessageRetrier(messageStore, producer);
+		retrier.setPageSize(2);
+
+		int count = retrier.retry("failed", new MessageCriteria()
+				.direction(Direction.TO_CONNECTIONS)
+				.addStatus(Message.STATUS_FAILED), null);
+
+		Assert.assertEquals(count, 6);
+		Assert.assertEquals(messageStore.countByStatus(Message.STATUS_RETRYING), 6);
+
+		// the messages of test-2 are not delayed by the first page of test-1
+		ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+		verify(producer, times(6)).sendBody(eq(UriConstants.CONNECTIONS_ROUTER), eq(ExchangePattern.InOnly), captor.capture());
+
+		List<Object> ids = new ArrayList<Object>();
+		for (Message message : captor.getAllValues()) {
+			ids.add(message.getId());
+		}
+		Assert.assertEquals(ids, Arrays.<Object>asList(1L, 5L, 2L, 6L, 3L, 4L));
+	}
+
+	@Test
+	public void shouldNotRetryIfNoMessages() throws Exception {
+		InMemoryMessageStore messageStore = new InMemoryMessageStore();
+		ProducerTemplate producer = mock(ProducerTemplate.class);
+
+		MessageRetrier retrier = new MessageRetrier(messageStore, producer);
+		int count = retrier.retry("failed", new MessageCriteria()
+				.direction(Direction.TO_APPLICATIONS)
+				.addStatus(Message.STATUS_FAILED), null);
+
+		Assert.assertEquals(count, 0);
+		Assert.assertEquals(messageStore.getNumUpdates(), 0);
+		verify(producer, never()).sendBody(any(String.class), any(ExchangePattern.class), any());
+	}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void shouldFailWithoutDirection() throws Exception {
+		MessageRetrier retrier = new MessageRetrier(new InMemoryMessageStore(), mock(ProducerTemplate.class));
+		retrier.retry("failed", new MessageCriteria().addStatus(Message.STATUS_FAILED), null);
+	}
+
+	/**
+	 * A {@link MessageStore} that supports the criteria used by the {@link MessageRetrier}.
+	 */
+	private class InMemoryMessageStore extends AbstractMessageStore {
+
+		private List<Message> messages = new ArrayList<Message>();
+
+		private int numPages;
+
+		private int numUpdates;
+
+		public void add(long id, byte status, String destination) {
+			Message message = new Message();
+			message.setId(id);
+			message.setStatus(status);
+			message.setDestination(destination);
+			message.setDirection(Direction.TO_CONNECTIONS);
+
+			messages.add(message);
+		}
+
+		@Override
+		public void saveOrUpdate(Message message) {}
+
+		@Override
+		public void saveOrUpdateAll(Collection<Message> messages) {}
+
+		@Override
+		public void updateStatus(MessageCriteria criteria, byte newStatus) {
+			numUpdates++;
+			for (Message message : messages) {
+				if (matches(message, criteria)) {
+					message.setStatus(newStatus);
+				}
+			}
+		}
+
+		@Override
+		public Collection<Message> list(MessageCriteria criteria) {
+			numPages++;
+
+			List<Message> ret = new ArrayList<Message>();
+			for (Message message : messages) {
+				if (matches(message, criteria) && (criteria.getNumRecords() == 0 || ret.size() < criteria.getNumRecords())) {
+					Message copy = new Message();
+					copy.setId(message.getId());
+					copy.setStatus(message.getStatus());
+					copy.setDestination(message.getDestination());
+					copy.setDirection(message.getDirection());
+
+					ret.add(copy);
+				}
+			}
+
+			return ret;
+		}
+
+		@Override
+		public void iterate(MessageCriteria criteria, MessageCallback callback) {
+			for (Message message : messages) {
+				if (matches(message, criteria)) {
+					callback.process(message);
+				}
+			}
+		}
+
+		@Override
+		public long count(MessageCriteria criteria) {
+			long count = 0;
+			for (Message message : messages) {
+				if (matches(message, criteria)) {
+					count++;
+				}
+			}
+
+			return count;
+		}
+
+		@Override
+		public Collection<MessageCount> countGrouped(MessageCriteria criteria) {
+			Map<String,Long> counts = new LinkedHashMap<String,Long>();
+			for (Message message : messages) {
+				if (matches(message, criteria)) {
+					Long count = counts.get(message.getDestination());
+					counts.put(message.getDestination(), count == null ? 1 : count + 1);
+				}
+			}
+
+			Collection<MessageCount> ret = new ArrayList<MessageCount>();
+			for (Map.Entry<String,Long> entry : counts.entrySet()) {
+				ret.add(new MessageCount(criteria.getDirection(), criteria.getStatus().get(0), entry.getKey(),
+						entry.getValue()));
+			}
+
+			return ret;
+		}
+
+		private boolean matches(Message message, MessageCriteria criteria) {
+			long id = (Long) message.getId();
+
+			return message.getDirection().equals(criteria.getDirection())
+					&& criteria.getStatus().contains(message.getStatus())
+					&& (criteria.getDestination() == null || criteria.getDestination().equals(message.getDestination()))
+					&& (criteria.getIds().isEmpty() || criteria.getIds().contains(id))
+					&& (criteria.getAfterId() == null || id > (Long) criteria.getAfterId());
+		}
+
+		public int countByStatus(byte status) {
+			int count = 0;
+			for (Message message : messages) {
+				if (message.getStatus() == status) {
+					count++;
+				}
+			}
+
+			return count;
+		}
+
+		public int getNumPages() {
+			return numPages;
+		}
+
+		public int getNumUpdates() {
+			return numUpdates;
+		}
+
+	}
+
+}
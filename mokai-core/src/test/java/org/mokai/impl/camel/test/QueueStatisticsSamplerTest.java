@@ -0,0 +1,128 @@
+package org.mokai.impl.camel.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mokai.impl.camel.QueueStatistics;
+import org.mokai.impl.camel.QueueStatisticsSampler;
+import org.mokai.impl.camel.QueueStatisticsSource;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class QueueStatisticsSamplerTest {
+
+	@Test
+	public void shouldReturnNullBeforeFirstSample() throws Exception {
+		QueueStatisticsSampler sampler = new QueueStatisticsSampler(new FakeSource());
+		Assert.assertNull(sampler.getStatistics("connection-test"));
+	}
+
+	@Test
+	public void shouldPublishDepthAndCounters() throws Exception {
+		FakeSource source = new FakeSource();
+		source.statistics.put("connection-test", new QueueStatistics(5, 10, 5));
+
+		QueueStatisticsSampler sampler = new QueueStatisticsSampler(source);
+		sampler.sample();
+
+		QueueStatistics statistics = sampler.getStatistics("connection-test");
+		Assert.assertNotNull(statistics);
+		Assert.assertEquals(statistics.getDepth(), 5);
+		Assert.assertEquals(statistics.getEnqueueCount(), 10);
+		Assert.assertEquals(statistics.getDequeueCount(), 5);
+		Assert.assertEquals(statistics.getEnqueueRate(), 0.0);
+		Assert.assertEquals(statistics.getDequeueRate(), 0.0);
+	}
+
+	@Test
+	public void shouldCalculateRates() throws Exception {
+		FakeSource source = new FakeSource();
+		source.statistics.put("connection-test", new QueueStatistics(0, 0, 0));
+
+		QueueStatisticsSampler sampler = new QueueStatisticsSampler(source);
+		sampler.sample();
+
+		Thread.sleep(100);
+
+		source.statistics.put("connection-test", new QueueStatistics(50, 100, 50));
+		sampler.sample();
+
+		QueueStatistics statistics = sampler.getStatistics("connection-test");
+		Assert.assertEquals(statistics.getDepth(), 50);
+		Assert.assertTrue(statistics.getEnqueueRate() > 0);
+		Assert.assertTrue(statistics.getEnqueueRate() <= 1000);
+		Assert.assertTrue(statistics.getDequeueRate() > 0);
+		Assert.assertTrue(statistics.getDequeueRate() < statistics.getEnqueueRate());
+	}
+
+	@Test
+	public void shouldNotReportNegativeRatesWhenCountersAreReset() throws Exception {
+		FakeSource source = new FakeSource();
+		source.statistics.put("connection-test", new QueueStatistics(0, 100, 100));
+
+		QueueStatisticsSampler sampler = new QueueStatisticsSampler(source);
+		sampler.sample();
+
+		Thread.sleep(10);
+
+		source.statistics.put("connection-test", new QueueStatistics(0, 0, 0));
+		sampler.sample();
+
+		QueueStatistics statistics = sampler.getStatistics("connection-test");
+		Assert.assertEquals(statistics.getEnqueueRate(), 0.0);
+		Assert.assertEquals(statistics.getDequeueRate(), 0.0);
+	}
+
+	@Test
+	public void shouldKeepLastSnapshotIfSourceFails() throws Exception {
+		FakeSource source = new FakeSource();
+		source.statistics.put("connection-test", new QueueStatistics(5, 10, 5));
+
+		QueueStatisticsSampler sampler = new QueueStatisticsSampler(source);
+		sampler.sample();
+
+		source.fail = true;
+		sampler.sample();
+
+		Assert.assertEquals(sampler.getStatistics("connection-test").getDepth(), 5);
+	}
+
+	@Test
+	public void shouldSampleWhenStarted() throws Exception {
+		FakeSource source = new FakeSource();
+		source.statistics.put("connection-test", new QueueStatistics(3, 3, 0));
+
+		QueueStatisticsSampler sampler = new QueueStatisticsSampler(source);
+		sampler.setInterval(50);
+		sampler.start();
+
+		try {
+			long timeout = System.currentTimeMillis() + 2000;
+			while (sampler.getStatistics("connection-test") == null && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+			}
+
+			Assert.assertEquals(sampler.getStatistics("connection-test").getDepth(), 3);
+		} finally {
+			sampler.stop();
+		}
+	}
+
+	private class FakeSource implements QueueStatisticsSource {
+
+		private Map<String,QueueStatistics> statistics = new HashMap<String,QueueStatistics>();
+
+		private volatile boolean fail;
+
+		@Override
+		public Map<String,QueueStatistics> read() throws Exception {
+			if (fail) {
+				throw new Exception("test failure");
+			}
+
+			return new HashMap<String,QueueStatistics>(statistics);
+		}
+
+	}
+
+}
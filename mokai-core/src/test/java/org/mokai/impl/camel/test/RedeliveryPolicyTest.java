@@ -0,0 +1,69 @@
+package org.mokai.impl.camel.test;
+
+import org.mokai.impl.camel.RedeliveryPolicy;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class RedeliveryPolicyTest {
+
+	@Test
+	public void shouldUseFixedDelayByDefault() throws Exception {
+		RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(1), 3000);
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(2), 3000);
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(3), 3000);
+
+		redeliveryPolicy.setMaxRedeliveryDelay(5000);
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(1), 5000);
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(2), 5000);
+	}
+
+	@Test
+	public void shouldIncreaseDelayExponentially() throws Exception {
+		RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+		redeliveryPolicy.setRedeliveryDelay(100);
+		redeliveryPolicy.setBackOffMultiplier(2);
+		redeliveryPolicy.setMaxRedeliveryDelay(1000);
+		redeliveryPolicy.setJitter(0);
+
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(1), 100);
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(2), 200);
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(3), 400);
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(4), 800);
+
+		// the max delay is not exceeded
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(5), 1000);
+		Assert.assertEquals(redeliveryPolicy.getRedeliveryDelay(50), 1000);
+	}
+
+	@Test
+	public void shouldAddJitter() throws Exception {
+		RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+		redeliveryPolicy.setRedeliveryDelay(1000);
+		redeliveryPolicy.setMaxRedeliveryDelay(10000);
+		redeliveryPolicy.setJitter(0.5);
+
+		boolean different = false;
+		for (int i=0; i < 100; i++) {
+			long delay = redeliveryPolicy.getRedeliveryDelay(1);
+			Assert.assertTrue(delay >= 500 && delay <= 1500, "delay " + delay);
+
+			different |= delay != 1000;
+		}
+		Assert.assertTrue(different);
+	}
+
+	@Test
+	public void shouldNotExceedMaxDelayWithJitter() throws Exception {
+		RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+		redeliveryPolicy.setRedeliveryDelay(1000);
+		redeliveryPolicy.setMaxRedeliveryDelay(1000);
+		redeliveryPolicy.setJitter(0.5);
+
+		for (int i=0; i < 100; i++) {
+			Assert.assertTrue(redeliveryPolicy.getRedeliveryDelay(3) <= 1000);
+		}
+	}
+
+}
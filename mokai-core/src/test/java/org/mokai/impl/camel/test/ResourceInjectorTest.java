@@ -0,0 +1,73 @@
+package org.mokai.impl.camel.test;
+
+import org.mokai.annotation.Resource;
+import org.mokai.impl.camel.ResourceInjector;
+import org.mokai.impl.camel.ResourceRegistry;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ResourceInjectorTest {
+
+	@Test
+	public void shouldInjectAnnotatedFields() throws Exception {
+		ResourceHolder holder = new ResourceHolder();
+		ResourceInjector.inject(holder, "test");
+
+		Assert.assertEquals(holder.getResource(), "test");
+		Assert.assertNull(holder.getNotAnnotated());
+		Assert.assertNull(holder.getNumber());
+
+		// the fields are cached, a second object of the same class is also injected
+		ResourceHolder other = new ResourceHolder();
+		ResourceInjector.inject(other, "other");
+		Assert.assertEquals(other.getResource(), "other");
+	}
+
+	@Test
+	public void shouldInjectResourcesFromRegistry() throws Exception {
+		ResourceRegistry resourceRegistry = new ResourceRegistry();
+		resourceRegistry.putResource(String.class, "test");
+		resourceRegistry.putResource(Integer.class, 1);
+
+		ResourceHolder holder = new ResourceHolder();
+		ResourceInjector.inject(holder, resourceRegistry);
+
+		Assert.assertEquals(holder.getResource(), "test");
+		Assert.assertEquals(holder.getNumber(), new Integer(1));
+		Assert.assertNull(holder.getNotAnnotated());
+	}
+
+	@Test
+	public void shouldIgnoreObjectsWithoutAnnotatedFields() throws Exception {
+		ResourceRegistry resourceRegistry = new ResourceRegistry();
+		resourceRegistry.putResource(String.class, "test");
+
+		ResourceInjector.inject(new Object(), resourceRegistry);
+		ResourceInjector.inject(new Object(), "test");
+	}
+
+	private class ResourceHolder {
+
+		@Resource
+		private String resource;
+
+		@Resource
+		private Integer number;
+
+		private String notAnnotated;
+
+		public String getResource() {
+			return resource;
+		}
+
+		public Integer getNumber() {
+			return number;
+		}
+
+		public String getNotAnnotated() {
+			return notAnnotated;
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+package org.mokai.impl.camel.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mokai.impl.camel.RetryCheckpoint;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class RetryCheckpointTest {
+
+	private File dir;
+
+	@BeforeMethod
+	public void createDir() throws Exception {
+		dir = File.createTempFile("retry", "");
+		dir.delete();
+	}
+
+	@AfterMethod
+	public void deleteDir() throws Exception {
+		File[] files = dir.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void shouldSaveAndLoadIds() throws Exception {
+		List<Object> ids = new ArrayList<Object>();
+		ids.add(1L);
+		ids.add(5L);
+		ids.add("507f1f77bcf86cd799439011");
+
+		RetryCheckpoint checkpoint = new RetryCheckpoint(dir);
+		checkpoint.save("failed-to_connections", ids);
+
+		// another instance, as if the node was restarted
+		List<Object> loaded = new RetryCheckpoint(dir).load("failed-to_connections");
+		Assert.assertEquals(loaded, ids);
+
+		// other keys are independent
+		Assert.assertTrue(checkpoint.load("failed-to_applications").isEmpty());
+	}
+
+	@Test
+	public void shouldReplacePreviousPage() throws Exception {
+		RetryCheckpoint checkpoint = new RetryCheckpoint(dir);
+
+		List<Object> ids = new ArrayList<Object>();
+		ids.add(1L);
+		checkpoint.save("failed", ids);
+
+		ids.clear();
+		ids.add(2L);
+		checkpoint.save("failed", ids);
+
+		Assert.assertEquals(checkpoint.load("failed"), ids);
+	}
+
+	@Test
+	public void shouldClearPage() throws Exception {
+		RetryCheckpoint checkpoint = new RetryCheckpoint(dir);
+
+		List<Object> ids = new ArrayList<Object>();
+		ids.add(1L);
+		checkpoint.save("failed", ids);
+		checkpoint.clear("failed");
+
+		Assert.assertTrue(checkpoint.load("failed").isEmpty());
+	}
+
+}
@@ -13,6 +13,9 @@ import org.mokai.Connector;
 import org.mokai.ConnectorService;
 import org.mokai.Message;
 import org.mokai.Processor;
+import org.mokai.acceptor.AcceptorChangeListener;
+import org.mokai.acceptor.ExactMatchAcceptor;
+import org.mokai.acceptor.RegExpAcceptor;
 import org.mokai.impl.camel.AbstractRouter;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -151,6 +154,142 @@ public class RouterTest {
 		Assert.assertEquals(endpointUri, "unroutable");
 	}
 
+	@Test
+	public void shouldKeepRoutingTableUntilInvalidated() throws Exception {
+		Processor p1 = mock(Processor.class);
+		when(p1.supports(any(Message.class))).thenReturn(true);
+
+		List<ConnectorService> connectorServices = new ArrayList<ConnectorService>();
+		connectorServices.add(buildConnectorService("test1", p1, buildAcceptor(false)));
+
+		TestRouter router = new TestRouter(connectorServices);
+		Assert.assertEquals(router.route(new Message()), "unroutable");
+
+		// the new connector service is not seen until the router is invalidated
+		connectorServices.add(buildConnectorService("test2", p1, buildAcceptor(true)));
+		Assert.assertEquals(router.route(new Message()), "unroutable");
+
+		router.invalidate();
+		Assert.assertEquals(router.route(new Message()), "endpoint-test2");
+	}
+
+	@Test
+	public void shouldUseAcceptorsAddedBeforeInvalidate() throws Exception {
+		Processor p1 = mock(Processor.class);
+		when(p1.supports(any(Message.class))).thenReturn(true);
+
+		List<Acceptor> acceptors = new ArrayList<Acceptor>();
+		ConnectorService cs1 = mock(ConnectorService.class);
+		when(cs1.getId()).thenReturn("test1");
+		when(cs1.getConnector()).thenReturn(p1);
+		when(cs1.getAcceptors()).thenReturn(acceptors);
+
+		TestRouter router = new TestRouter(Collections.singletonList(cs1));
+		Assert.assertEquals(router.route(new Message()), "unroutable");
+
+		acceptors.add(buildAcceptor(true));
+		router.invalidate();
+
+		Assert.assertEquals(router.route(new Message()), "endpoint-test1");
+	}
+
+	@Test
+	public void shouldRouteWithIndexedAcceptorsByPriority() throws Exception {
+		Processor p1 = mock(Processor.class);
+		when(p1.supports(any(Message.class))).thenReturn(true);
+
+		RegExpAcceptor prefixAcceptor = new RegExpAcceptor("^573.*");
+		prefixAcceptor.setField("to");
+
+		List<ConnectorService> connectorServices = new ArrayList<ConnectorService>();
+		connectorServices.add(buildConnectorService("test1", p1, new ExactMatchAcceptor("to", "3001234567")));
+		connectorServices.add(buildConnectorService("test2", p1, prefixAcceptor));
+		connectorServices.add(buildConnectorService("test3", p1, new ExactMatchAcceptor("to", "573001234567")));
+
+		TestRouter router = new TestRouter(connectorServices);
+
+		Assert.assertEquals(router.route(new Message().setProperty("to", "3001234567")), "endpoint-test1");
+		Assert.assertEquals(router.route(new Message().setProperty("to", "573001234567")), "endpoint-test2");
+		Assert.assertEquals(router.route(new Message().setProperty("to", "563001234567")), "unroutable");
+		Assert.assertEquals(router.route(new Message()), "unroutable");
+	}
+
+	@Test
+	public void shouldRebuildRoutingTableWhenIndexedAcceptorChanges() throws Exception {
+		Processor p1 = mock(Processor.class);
+		when(p1.supports(any(Message.class))).thenReturn(true);
+
+		ExactMatchAcceptor exactMatchAcceptor = new ExactMatchAcceptor("to", "3001234567");
+		RegExpAcceptor prefixAcceptor = new RegExpAcceptor("^573.*");
+		prefixAcceptor.setField("to");
+
+		List<ConnectorService> connectorServices = new ArrayList<ConnectorService>();
+		connectorServices.add(buildConnectorService("test1", p1, exactMatchAcceptor));
+		connectorServices.add(buildConnectorService("test2", p1, prefixAcceptor));
+
+		final TestRouter router = new TestRouter(connectorServices);
+		Assert.assertEquals(router.route(new Message().setProperty("to", "3009876543")), "unroutable");
+		Assert.assertEquals(router.route(new Message().setProperty("to", "563001234567")), "unroutable");
+
+		// the connector services invalidate the router when their acceptors change
+		AcceptorChangeListener listener = new AcceptorChangeListener() {
+
+			@Override
+			public void acceptorChanged(Acceptor acceptor) {
+				router.invalidate();
+			}
+
+		};
+		exactMatchAcceptor.addChangeListener(listener);
+		prefixAcceptor.addChangeListener(listener);
+
+		exactMatchAcceptor.setExpression("3009876543");
+		prefixAcceptor.setRegexp("^563.*");
+
+		Assert.assertEquals(router.route(new Message().setProperty("to", "3009876543")), "endpoint-test1");
+		Assert.assertEquals(router.route(new Message().setProperty("to", "563001234567")), "endpoint-test2");
+		Assert.assertEquals(router.route(new Message().setProperty("to", "3001234567")), "unroutable");
+	}
+
+	@Test
+	public void shouldEvaluateNonIndexedAcceptorsByPriority() throws Exception {
+		Processor p1 = mock(Processor.class);
+		when(p1.supports(any(Message.class))).thenReturn(true);
+
+		RegExpAcceptor prefixAcceptor = new RegExpAcceptor("57300[0-9]*");
+		prefixAcceptor.setField("to");
+
+		List<ConnectorService> connectorServices = new ArrayList<ConnectorService>();
+		connectorServices.add(buildConnectorService("test1", p1, new ExactMatchAcceptor("to", "1")));
+		connectorServices.add(buildConnectorService("test2", p1, prefixAcceptor));
+		connectorServices.add(buildConnectorService("test3", p1, new ExactMatchAcceptor("to", "573001234567")));
+
+		TestRouter router = new TestRouter(connectorServices);
+
+		Assert.assertEquals(router.route(new Message().setProperty("to", "573001234567")), "endpoint-test2");
+		Assert.assertEquals(router.route(new Message().setProperty("to", "1")), "endpoint-test1");
+		Assert.assertEquals(router.route(new Message().setProperty("to", "2")), "unroutable");
+	}
+
+	@Test
+	public void shouldSkipIndexedRouteIfProcessorDoesntSupportMessage() throws Exception {
+		Processor p1 = mock(Processor.class);
+		when(p1.supports(any(Message.class))).thenReturn(false);
+
+		Processor p2 = mock(Processor.class);
+		when(p2.supports(any(Message.class))).thenReturn(true);
+
+		RegExpAcceptor prefixAcceptor = new RegExpAcceptor("57.*");
+		prefixAcceptor.setField("to");
+
+		List<ConnectorService> connectorServices = new ArrayList<ConnectorService>();
+		connectorServices.add(buildConnectorService("test1", p1, new ExactMatchAcceptor("to", "573001234567")));
+		connectorServices.add(buildConnectorService("test2", p2, prefixAcceptor));
+
+		TestRouter router = new TestRouter(connectorServices);
+		Assert.assertEquals(router.route(new Message().setProperty("to", "573001234567")), "endpoint-test2");
+	}
+
 	public ConnectorService buildConnectorService(String id, Connector connector, Acceptor...acceptors) {
 		List<Acceptor> lstAcceptors = new ArrayList<Acceptor>();
 		for (Acceptor acceptor : acceptors) {
@@ -185,17 +324,6 @@ public class RouterTest {
 			return connectorServices;
 		}
 
-		@Override
-		protected ConnectorService getConnectorService(String id) {
-			for (ConnectorService cs : connectorServices) {
-				if (cs.getId().equals(id)) {
-					return cs;
-				}
-			}
-
-			return null;
-		}
-
 		@Override
 		protected String getUriPrefix() {
 			return "endpoint-";
@@ -0,0 +1,131 @@
+package org.mokai.impl.camel.test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mokai.impl.camel.TokenBucket;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TokenBucketTest {
+
+	@Test
+	public void shouldAllowBurstAndThenSustainedRate() throws Exception {
+		final AtomicLong clock = new AtomicLong(0);
+		TokenBucket tokenBucket = createTokenBucket(clock, 10, 3);
+
+		// the burst is available immediately
+		Assert.assertEquals(tokenBucket.reserve(), 0);
+		Assert.assertEquals(tokenBucket.reserve(), 0);
+		Assert.assertEquals(tokenBucket.reserve(), 0);
+
+		// the next tokens are separated by 100 millis
+		Assert.assertEquals(tokenBucket.reserve(), millis(100));
+		Assert.assertEquals(tokenBucket.reserve(), millis(200));
+
+		Assert.assertEquals(tokenBucket.getThrottledCount(), 2);
+		Assert.assertEquals(tokenBucket.getTotalWaitMillis(), 300);
+		Assert.assertEquals(tokenBucket.getMaxWaitMillis(), 200);
+	}
+
+	@Test
+	public void shouldNotAccumulateMoreThanBurst() throws Exception {
+		final AtomicLong clock = new AtomicLong(0);
+		TokenBucket tokenBucket = createTokenBucket(clock, 10, 2);
+
+		// idle for 10 seconds
+		clock.set(millis(10000));
+
+		Assert.assertEquals(tokenBucket.reserve(), 0);
+		Assert.assertEquals(tokenBucket.reserve(), 0);
+		Assert.assertEquals(tokenBucket.reserve(), millis(100));
+	}
+
+	@Test
+	public void shouldRefillTokensOverTime() throws Exception {
+		final AtomicLong clock = new AtomicLong(0);
+		TokenBucket tokenBucket = createTokenBucket(clock, 10, 1);
+
+		Assert.assertEquals(tokenBucket.reserve(), 0);
+		Assert.assertEquals(tokenBucket.reserve(), millis(100));
+
+		// the token is available again after the interval
+		clock.set(millis(250));
+		Assert.assertEquals(tokenBucket.reserve(), 0);
+		Assert.assertEquals(tokenBucket.reserve(), millis(100));
+	}
+
+	@Test
+	public void shouldNotLimitIfDisabled() throws Exception {
+		final AtomicLong clock = new AtomicLong(0);
+		TokenBucket tokenBucket = createTokenBucket(clock, 0, 1);
+		Assert.assertFalse(tokenBucket.isEnabled());
+
+		for (int i=0; i < 1000; i++) {
+			Assert.assertEquals(tokenBucket.reserve(), 0);
+		}
+		Assert.assertEquals(tokenBucket.getThrottledCount(), 0);
+	}
+
+	@Test
+	public void shouldChangeRateAtRuntime() throws Exception {
+		final AtomicLong clock = new AtomicLong(0);
+		TokenBucket tokenBucket = createTokenBucket(clock, 0, 1);
+		Assert.assertEquals(tokenBucket.reserve(), 0);
+
+		tokenBucket.setRate(100, 1);
+		Assert.assertTrue(tokenBucket.isEnabled());
+		Assert.assertEquals(tokenBucket.getTps(), 100);
+
+		Assert.assertEquals(tokenBucket.reserve(), 0);
+		Assert.assertEquals(tokenBucket.reserve(), millis(10));
+	}
+
+	@Test
+	public void shouldLimitConcurrentThreads() throws Exception {
+		final TokenBucket tokenBucket = new TokenBucket(100, 10);
+
+		final int numThreads = 4;
+		final int tokensPerThread = 15;
+		final CountDownLatch latch = new CountDownLatch(numThreads);
+
+		long startTime = System.currentTimeMillis();
+		for (int i=0; i < numThreads; i++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j=0; j < tokensPerThread; j++) {
+							tokenBucket.acquire();
+						}
+					} catch (InterruptedException e) {
+					} finally {
+						latch.countDown();
+					}
+				}
+			}.start();
+		}
+		latch.await();
+
+		// 60 tokens, 10 of them immediately, the other 50 at 100 tps
+		long elapsed = System.currentTimeMillis() - startTime;
+		Assert.assertTrue(elapsed >= 450, "elapsed " + elapsed);
+		Assert.assertEquals(tokenBucket.getThrottledCount(), 50);
+	}
+
+	private TokenBucket createTokenBucket(final AtomicLong clock, int tps, int burst) {
+		return new TokenBucket(tps, burst) {
+
+			@Override
+			protected long nanoTime() {
+				return clock.get();
+			}
+
+		};
+	}
+
+	private long millis(long millis) {
+		return millis * 1000000;
+	}
+
+}
@@ -1,5 +1,10 @@
 package org.mokai.persist.jdbc.sms.test;
 
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -7,8 +12,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import javax.sql.DataSource;
 
@@ -17,6 +25,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.mokai.Message;
 import org.mokai.Message.Direction;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
 import org.mokai.persist.MessageCriteria;
 import org.mokai.persist.jdbc.JdbcHelper;
 import org.mokai.persist.jdbc.sms.ConnectionsSmsHandler;
@@ -164,6 +174,44 @@ public class ConnectionsSmsHandlerTest {
 
 	}
 
+	@Test
+	public void testUpdateMessageWithCreationTimeOutsideMargin() throws Exception {
+		long id = generateRecordToUpdate();
+
+		Message message = new Message();
+		message.setId(id);
+		message.setStatus(Message.STATUS_RETRYING);
+
+		// e.g. the creation time stored in the table was shifted by a timezone change
+		message.setCreationTime(new Date(System.currentTimeMillis() - 3600000));
+
+		// the updates are bounded by the creation time only if the tables are partitioned
+		ConnectionsSmsHandler handler = new ConnectionsSmsHandler();
+		handler.setSqlEngine(new DerbyEngine(dataSource));
+		Assert.assertTrue(handler.updateMessage(connection, message));
+
+		handler.setSqlEngine(new DerbyEngine(dataSource) {
+
+			@Override
+			public boolean isPartitioned() {
+				return true;
+			}
+
+		});
+		message.setStatus(Message.STATUS_FAILED);
+		Assert.assertTrue(handler.updateMessage(connection, message));
+		Assert.assertEquals(handler.updateMessages(connection, Collections.singletonList(message)), new boolean[] { true });
+
+		validateMessage(id, new MessageValidator() {
+
+			@Override
+			public void validate(ResultSet rs) throws SQLException {
+				Assert.assertEquals(rs.getByte("status"), Message.STATUS_FAILED);
+			}
+
+		});
+	}
+
 	@Test
 	public void testUpdateNotFoundMessage() throws Exception {
 		final Message message = new Message();
@@ -177,6 +225,24 @@ public class ConnectionsSmsHandlerTest {
 		Assert.assertFalse(found);
 	}
 
+	@Test
+	public void testUpdateMessageClosesStatement() throws Exception {
+		PreparedStatement stmt = mock(PreparedStatement.class);
+		when(stmt.executeUpdate()).thenReturn(1);
+
+		Connection conn = mock(Connection.class);
+		when(conn.prepareStatement(anyString())).thenReturn(stmt);
+
+		Message message = new Message();
+		message.setId(1L);
+		message.setStatus(Message.STATUS_RETRYING);
+
+		ConnectionsSmsHandler handler = new ConnectionsSmsHandler();
+		Assert.assertTrue(handler.updateMessage(conn, message));
+
+		verify(stmt).close();
+	}
+
 	@Test
 	public void testUpdateStatusToAllMessages() throws Exception {
 		generateTestData();
@@ -260,6 +326,171 @@ public class ConnectionsSmsHandlerTest {
 		Assert.assertEquals(messages.size(), 3);
 	}
 
+	@Test
+	public void testRetrieveMessagesWithSameCriteriaShape() throws Exception {
+		generateTestData();
+
+		ConnectionsSmsHandler handler = new ConnectionsSmsHandler();
+		handler.setSqlEngine(new DerbyEngine(dataSource));
+
+		Collection<Message> messages = handler.listMessages(connection, new MessageCriteria()
+			.addStatus(Message.STATUS_UNROUTABLE).addProperty("smsc_messageid", "8"));
+		Assert.assertEquals(messages.size(), 1);
+		Assert.assertEquals(messages.iterator().next().getProperty("messageId", String.class), "8");
+
+		// the cached SQL is reused with the new values
+		messages = handler.listMessages(connection, new MessageCriteria()
+			.addStatus(Message.STATUS_FAILED).addProperty("smsc_messageid", "2"));
+		Assert.assertEquals(messages.size(), 1);
+		Assert.assertEquals(messages.iterator().next().getProperty("messageId", String.class), "2");
+
+		messages = handler.listMessages(connection, new MessageCriteria()
+			.addStatus(Message.STATUS_FAILED).addProperty("smsc_messageid", "8"));
+		Assert.assertTrue(messages.isEmpty());
+
+		// a different shape with the same handler
+		messages = handler.listMessages(connection, new MessageCriteria()
+			.addStatus(Message.STATUS_FAILED).addStatus(Message.STATUS_UNROUTABLE).addProperty("smsc_messageid", "8"));
+		Assert.assertEquals(messages.size(), 1);
+	}
+
+	@Test
+	public void testRetrieveMessagesByCreationTime() throws Exception {
+		generateTestData();
+
+		ConnectionsSmsHandler handler = new ConnectionsSmsHandler();
+		handler.setSqlEngine(new DerbyEngine(dataSource));
+
+		Date anHourAgo = new Date(System.currentTimeMillis() - 3600000);
+		Date inAnHour = new Date(System.currentTimeMillis() + 3600000);
+
+		Collection<Message> messages = handler.listMessages(connection, new MessageCriteria()
+			.createdFrom(anHourAgo).createdTo(inAnHour));
+		Assert.assertEquals(messages.size(), 9);
+
+		messages = handler.listMessages(connection, new MessageCriteria()
+			.addStatus(Message.STATUS_FAILED).createdFrom(anHourAgo));
+		Assert.assertEquals(messages.size(), 3);
+
+		messages = handler.listMessages(connection, new MessageCriteria().createdTo(anHourAgo));
+		Assert.assertTrue(messages.isEmpty());
+	}
+
+	@Test
+	public void testRemoveMessagesInBatches() throws Exception {
+		generateTestData();
+
+		DerbyEngine derbyEngine = new DerbyEngine(dataSource);
+		derbyEngine.setDeleteBatchSize(2);
+
+		// nothing is older than an hour
+		derbyEngine.removeMessages(new Date(System.currentTimeMillis() - 3600000));
+		Assert.assertEquals(getNumMessagesByStatus(Message.STATUS_FAILED), 3);
+
+		derbyEngine.removeMessages(new Date(System.currentTimeMillis() + 60000));
+		Assert.assertEquals(getNumMessagesByStatus(Message.STATUS_FAILED), 0);
+		Assert.assertEquals(getNumMessagesByStatus(Message.STATUS_PROCESSED), 0);
+		Assert.assertEquals(getNumMessagesByStatus(Message.STATUS_UNROUTABLE), 0);
+	}
+
+	@Test
+	public void testIterateMessagesInPages() throws Exception {
+		generateTestData();
+
+		ConnectionsSmsHandler handler = new ConnectionsSmsHandler();
+		handler.setSqlEngine(new DerbyEngine(dataSource));
+		handler.setPageSize(2);
+
+		final List<Message> messages = new ArrayList<Message>();
+		handler.iterateMessages(connection, new MessageCriteria().numRecords(3), new MessageCallback() {
+
+			@Override
+			public void process(Message message) {
+				messages.add(message);
+			}
+
+		});
+
+		Assert.assertEquals(messages.size(), 9);
+		for (int i=1; i < messages.size(); i++) {
+			Assert.assertTrue((Long) messages.get(i).getId() > (Long) messages.get(i - 1).getId());
+		}
+	}
+
+	@Test
+	public void testIterateMessagesByStatus() throws Exception {
+		generateTestData();
+
+		ConnectionsSmsHandler handler = new ConnectionsSmsHandler();
+		handler.setSqlEngine(new DerbyEngine(dataSource));
+		handler.setPageSize(2);
+
+		final List<Message> messages = new ArrayList<Message>();
+		MessageCriteria criteria = new MessageCriteria().addStatus(Message.STATUS_UNROUTABLE);
+		handler.iterateMessages(connection, criteria, new MessageCallback() {
+
+			@Override
+			public void process(Message message) {
+				messages.add(message);
+			}
+
+		});
+
+		Assert.assertEquals(messages.size(), 3);
+		for (Message message : messages) {
+			Assert.assertEquals(message.getStatus(), Message.STATUS_UNROUTABLE);
+			Assert.assertEquals(message.getDirection(), Direction.TO_CONNECTIONS);
+		}
+	}
+
+	@Test
+	public void testCountAllMessages() throws Exception {
+		generateTestData();
+
+		ConnectionsSmsHandler handler = new ConnectionsSmsHandler();
+		handler.setSqlEngine(new DerbyEngine(dataSource));
+
+		Assert.assertEquals(handler.countMessages(connection, null), 9);
+	}
+
+	@Test
+	public void testCountMessagesByStatusIgnoringLimits() throws Exception {
+		generateTestData();
+
+		ConnectionsSmsHandler handler = new ConnectionsSmsHandler();
+		handler.setSqlEngine(new DerbyEngine(dataSource));
+
+		MessageCriteria criteria = new MessageCriteria()
+			.addStatus(Message.STATUS_FAILED)
+			.addStatus(Message.STATUS_UNROUTABLE)
+			.orderBy("id")
+			.numRecords(2);
+
+		Assert.assertEquals(handler.countMessages(connection, criteria), 6);
+	}
+
+	@Test
+	public void testCountMessagesGroupedByStatus() throws Exception {
+		generateTestData();
+
+		ConnectionsSmsHandler handler = new ConnectionsSmsHandler();
+		handler.setSqlEngine(new DerbyEngine(dataSource));
+
+		MessageCriteria criteria = new MessageCriteria()
+			.addStatus(Message.STATUS_FAILED)
+			.addStatus(Message.STATUS_PROCESSED);
+
+		Collection<MessageCount> counts = handler.countMessagesGrouped(connection, criteria);
+		Assert.assertEquals(counts.size(), 2);
+
+		for (MessageCount count : counts) {
+			Assert.assertEquals(count.getDirection(), Direction.TO_CONNECTIONS);
+			Assert.assertTrue(count.getStatus() == Message.STATUS_FAILED || count.getStatus() == Message.STATUS_PROCESSED);
+			Assert.assertNull(count.getDestination());
+			Assert.assertEquals(count.getCount(), 3);
+		}
+	}
+
 	private int getNumMessagesByStatus(byte status) throws SQLException {
 		Connection conn = null;
 		PreparedStatement stmt = null;
@@ -2,6 +2,8 @@ package org.mokai.persist.jdbc.test;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyByte;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
@@ -9,6 +11,7 @@ import static org.mockito.Mockito.when;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -17,8 +20,12 @@ import javax.sql.DataSource;
 import org.mokai.Message;
 import org.mokai.Message.Direction;
 import org.mokai.ObjectNotFoundException;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
 import org.mokai.persist.MessageCriteria;
 import org.mokai.persist.RejectedException;
+import org.mokai.persist.StoreException;
+import org.mokai.persist.jdbc.AbstractMessageHandler;
 import org.mokai.persist.jdbc.JdbcMessageStore;
 import org.mokai.persist.jdbc.MessageHandler;
 import org.testng.Assert;
@@ -114,6 +121,123 @@ public class JdbcMessageStoreTest {
 		messageStore.saveOrUpdate(null);
 	}
 
+	@Test
+	public void shouldSaveAndUpdateAllMessages() throws Exception {
+		AbstractMessageHandler handler = mock(AbstractMessageHandler.class);
+		when(handler.supportsDirection(any(Direction.class))).thenReturn(true);
+		when(handler.insertMessages(any(Connection.class), anyListOf(Message.class)))
+			.thenReturn(new long[] { 10L });
+		when(handler.updateMessages(any(Connection.class), anyListOf(Message.class)))
+			.thenReturn(new boolean[] { true });
+
+		DataSource dataSource = mockDataSource();
+		JdbcMessageStore messageStore = createMessageStore(dataSource, handler);
+
+		Message newMessage = new Message();
+		Message persistedMessage = new Message();
+		persistedMessage.setId(5L);
+		messageStore.saveOrUpdateAll(Arrays.asList(newMessage, persistedMessage));
+
+		Assert.assertEquals(((Long) newMessage.getId()).longValue(), 10L);
+
+		verify(dataSource).getConnection();
+		verify(handler).insertMessages(any(Connection.class), anyListOf(Message.class));
+		verify(handler, never()).insertMessage(any(Connection.class), any(Message.class));
+		verify(handler).updateMessages(any(Connection.class), anyListOf(Message.class));
+	}
+
+	@Test
+	public void shouldSaveAndUpdateAllMessagesOneByOneWithPlainHandler() throws Exception {
+		MessageHandler handler = mock(MessageHandler.class);
+		when(handler.supportsDirection(any(Direction.class))).thenReturn(true);
+		when(handler.insertMessage(any(Connection.class), any(Message.class))).thenReturn(10L);
+		when(handler.updateMessage(any(Connection.class), any(Message.class))).thenReturn(true);
+
+		DataSource dataSource = mockDataSource();
+		JdbcMessageStore messageStore = createMessageStore(dataSource, handler);
+
+		Message newMessage = new Message();
+		Message persistedMessage = new Message();
+		persistedMessage.setId(5L);
+		messageStore.saveOrUpdateAll(Arrays.asList(newMessage, persistedMessage));
+
+		Assert.assertEquals(((Long) newMessage.getId()).longValue(), 10L);
+
+		verify(dataSource).getConnection();
+		verify(handler).insertMessage(any(Connection.class), eq(newMessage));
+		verify(handler).updateMessage(any(Connection.class), eq(persistedMessage));
+	}
+
+	@Test
+	public void shouldBeAtomicOnlyIfHandlerSupportsTransactions() throws Exception {
+		AbstractMessageHandler handler = mock(AbstractMessageHandler.class);
+		when(handler.supportsTransactions()).thenReturn(true);
+		Assert.assertTrue(createMessageStore(mockDataSource(), handler).isAtomicBatch());
+
+		Assert.assertFalse(createMessageStore(mockDataSource(), mock(MessageHandler.class)).isAtomicBatch());
+	}
+
+	@Test(expectedExceptions=RejectedException.class)
+	public void shouldFailSaveOrUpdateAllIfNotSupported() throws Exception {
+		MessageHandler handler = mock(MessageHandler.class);
+
+		DataSource dataSource = mockDataSource();
+		JdbcMessageStore messageStore = createMessageStore(dataSource, handler);
+
+		try {
+			messageStore.saveOrUpdateAll(Collections.singletonList(new Message()));
+		} finally {
+			verify(dataSource, never()).getConnection();
+		}
+	}
+
+	@Test(expectedExceptions=ObjectNotFoundException.class)
+	public void shouldFailSaveOrUpdateAllWithNonExistentId() throws Exception {
+		AbstractMessageHandler handler = mock(AbstractMessageHandler.class);
+		when(handler.supportsDirection(any(Direction.class))).thenReturn(true);
+		when(handler.updateMessages(any(Connection.class), anyListOf(Message.class)))
+			.thenReturn(new boolean[] { false });
+
+		DataSource dataSource = mockDataSource();
+		JdbcMessageStore messageStore = createMessageStore(dataSource, handler);
+
+		Message message = new Message();
+		message.setId(10L);
+		messageStore.saveOrUpdateAll(Collections.singletonList(message));
+	}
+
+	@Test
+	public void shouldRollbackSaveOrUpdateAllIfFails() throws Exception {
+		AbstractMessageHandler handler = mock(AbstractMessageHandler.class);
+		when(handler.supportsDirection(any(Direction.class))).thenReturn(true);
+		when(handler.insertMessages(any(Connection.class), anyListOf(Message.class)))
+			.thenReturn(new long[] { 10L });
+		when(handler.updateMessages(any(Connection.class), anyListOf(Message.class)))
+			.thenThrow(new SQLException("test exception"));
+
+		Connection conn = mock(Connection.class);
+		DataSource dataSource = mock(DataSource.class);
+		when(dataSource.getConnection()).thenReturn(conn);
+
+		JdbcMessageStore messageStore = createMessageStore(dataSource, handler);
+
+		Message newMessage = new Message();
+		Message persistedMessage = new Message();
+		persistedMessage.setId(5L);
+
+		try {
+			messageStore.saveOrUpdateAll(Arrays.asList(newMessage, persistedMessage));
+			Assert.fail("should have thrown a StoreException");
+		} catch (StoreException e) {}
+
+		// the inserted message is rolled back, so it doesn't get an id and can be saved again
+		Assert.assertNull(newMessage.getId());
+
+		verify(conn).setAutoCommit(false);
+		verify(conn).rollback();
+		verify(conn, never()).commit();
+	}
+
 	@Test
 	public void testUpdateStatusWithEmptyCriteria() throws Exception {
 		MessageHandler handler = mock(MessageHandler.class);
@@ -249,6 +373,92 @@ public class JdbcMessageStoreTest {
 		verify(handler, never()).listMessages(any(Connection.class), any(MessageCriteria.class));
 	}
 
+	@Test
+	public void testIterate() throws Exception {
+		AbstractMessageHandler handler = mock(AbstractMessageHandler.class);
+		MessageCallback callback = mock(MessageCallback.class);
+
+		DataSource dataSource = mockDataSource();
+		JdbcMessageStore messageStore = createMessageStore(dataSource, handler);
+
+		MessageCriteria criteria = new MessageCriteria();
+		messageStore.iterate(criteria, callback);
+
+		verify(handler).iterateMessages(any(Connection.class), eq(criteria), eq(callback));
+	}
+
+	@Test
+	public void testIterateWithNotSupportedDirectionCriteria() throws Exception {
+		AbstractMessageHandler handler = mock(AbstractMessageHandler.class);
+		when(handler.supportsDirection(any(Direction.class))).thenReturn(false);
+
+		DataSource dataSource = mockDataSource();
+		JdbcMessageStore messageStore = createMessageStore(dataSource, handler);
+
+		MessageCriteria criteria = new MessageCriteria()
+			.direction(Direction.TO_APPLICATIONS);
+		messageStore.iterate(criteria, mock(MessageCallback.class));
+
+		verify(handler, never())
+			.iterateMessages(any(Connection.class), any(MessageCriteria.class), any(MessageCallback.class));
+	}
+
+	@Test(expectedExceptions=IllegalArgumentException.class)
+	public void shouldFailIterateWithNullCallback() throws Exception {
+		JdbcMessageStore messageStore = createMessageStore(mockDataSource(), mock(MessageHandler.class));
+		messageStore.iterate(new MessageCriteria(), null);
+	}
+
+	@Test
+	public void testCount() throws Exception {
+		AbstractMessageHandler handler = mock(AbstractMessageHandler.class);
+		when(handler.countMessages(any(Connection.class), any(MessageCriteria.class))).thenReturn(5L);
+
+		DataSource dataSource = mockDataSource();
+		JdbcMessageStore messageStore = createMessageStore(dataSource, handler);
+
+		Assert.assertEquals(messageStore.count(new MessageCriteria()), 5);
+
+		verify(handler, never()).listMessages(any(Connection.class), any(MessageCriteria.class));
+	}
+
+	@Test
+	public void testCountWithNotSupportedDirectionCriteria() throws Exception {
+		AbstractMessageHandler handler = mock(AbstractMessageHandler.class);
+		when(handler.supportsDirection(any(Direction.class))).thenReturn(false);
+
+		DataSource dataSource = mockDataSource();
+		JdbcMessageStore messageStore = createMessageStore(dataSource, handler);
+
+		MessageCriteria criteria = new MessageCriteria()
+			.direction(Direction.TO_APPLICATIONS);
+		Assert.assertEquals(messageStore.count(criteria), 0);
+
+		verify(handler, never()).countMessages(any(Connection.class), any(MessageCriteria.class));
+	}
+
+	@Test
+	public void testCountGrouped() throws Exception {
+		MessageCount count = new MessageCount(Direction.TO_CONNECTIONS, Message.STATUS_FAILED, "test", 3);
+
+		AbstractMessageHandler handler = mock(AbstractMessageHandler.class);
+		when(handler.countMessagesGrouped(any(Connection.class), any(MessageCriteria.class)))
+			.thenReturn(Collections.singletonList(count));
+
+		DataSource dataSource = mockDataSource();
+		JdbcMessageStore messageStore = createMessageStore(dataSource, handler);
+
+		Collection<MessageCount> counts = messageStore.countGrouped(null);
+		Assert.assertEquals(counts.size(), 1);
+		Assert.assertSame(counts.iterator().next(), count);
+	}
+
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void shouldFailCountWithNullDataSource() throws Exception {
+		JdbcMessageStore messageStore = createMessageStoreNoDataSource();
+		messageStore.count(new MessageCriteria());
+	}
+
 	@Test(expectedExceptions=IllegalStateException.class)
 	public void shouldFailSaveOrUpdateWithNullDataSource() throws Exception {
 		JdbcMessageStore messageStore = createMessageStoreNoDataSource();
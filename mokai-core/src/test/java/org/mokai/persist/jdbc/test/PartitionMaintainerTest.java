@@ -0,0 +1,123 @@
+package org.mokai.persist.jdbc.test;
+
+import java.sql.SQLException;
+import java.util.Date;
+
+import org.mokai.persist.jdbc.AbstractSqlEngine;
+import org.mokai.persist.jdbc.PartitionMaintainer;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PartitionMaintainerTest {
+
+	private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+	@Test
+	public void shouldCreatePartitionsAhead() throws Exception {
+		FakeSqlEngine sqlEngine = new FakeSqlEngine();
+
+		PartitionMaintainer maintainer = new PartitionMaintainer();
+		maintainer.setSqlEngine(sqlEngine);
+		maintainer.setLookaheadDays(3);
+
+		long now = System.currentTimeMillis();
+		maintainer.maintain();
+
+		Assert.assertNotNull(sqlEngine.until);
+		Assert.assertTrue(sqlEngine.until.getTime() >= now + 3 * DAY_MILLIS);
+
+		// no retention by default
+		Assert.assertNull(sqlEngine.before);
+	}
+
+	@Test
+	public void shouldRemoveExpiredMessages() throws Exception {
+		FakeSqlEngine sqlEngine = new FakeSqlEngine();
+
+		PartitionMaintainer maintainer = new PartitionMaintainer();
+		maintainer.setSqlEngine(sqlEngine);
+		maintainer.setRetentionDays(30);
+
+		long now = System.currentTimeMillis();
+		maintainer.maintain();
+
+		Assert.assertNotNull(sqlEngine.before);
+		Assert.assertTrue(sqlEngine.before.getTime() >= now - 30 * DAY_MILLIS);
+		Assert.assertTrue(sqlEngine.before.getTime() <= System.currentTimeMillis() - 30 * DAY_MILLIS);
+	}
+
+	@Test
+	public void shouldRemoveExpiredMessagesIfPartitionsFail() throws Exception {
+		FakeSqlEngine sqlEngine = new FakeSqlEngine();
+		sqlEngine.failPartitions = true;
+
+		PartitionMaintainer maintainer = new PartitionMaintainer();
+		maintainer.setSqlEngine(sqlEngine);
+		maintainer.setRetentionDays(30);
+
+		maintainer.maintain();
+
+		Assert.assertNotNull(sqlEngine.before);
+	}
+
+	@Test
+	public void shouldMaintainWhenStarted() throws Exception {
+		FakeSqlEngine sqlEngine = new FakeSqlEngine();
+
+		PartitionMaintainer maintainer = new PartitionMaintainer();
+		maintainer.setSqlEngine(sqlEngine);
+		maintainer.start();
+
+		try {
+			long timeout = System.currentTimeMillis() + 2000;
+			while (sqlEngine.until == null && System.currentTimeMillis() < timeout) {
+				Thread.sleep(10);
+			}
+
+			Assert.assertNotNull(sqlEngine.until);
+		} finally {
+			maintainer.stop();
+		}
+	}
+
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void shouldFailToStartWithoutSqlEngine() throws Exception {
+		new PartitionMaintainer().start();
+	}
+
+	private class FakeSqlEngine extends AbstractSqlEngine {
+
+		private volatile Date until;
+
+		private volatile Date before;
+
+		private boolean failPartitions;
+
+		@Override
+		public void init() throws Exception {}
+
+		@Override
+		public boolean isInitialized() {
+			return true;
+		}
+
+		@Override
+		public void addLimitToQuery(StringBuffer query, int offset, int numRows) {}
+
+		@Override
+		public void createPartitions(Date until) throws SQLException {
+			if (failPartitions) {
+				throw new SQLException("test exception");
+			}
+
+			this.until = until;
+		}
+
+		@Override
+		public void removeMessages(Date before) throws SQLException {
+			this.before = before;
+		}
+
+	}
+
+}
@@ -0,0 +1,47 @@
+package org.mokai.persist.jdbc.test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.mokai.persist.jdbc.PartitionPeriod;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PartitionPeriodTest {
+
+	private SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+	@Test
+	public void shouldCalculateDailyPeriods() throws Exception {
+		Date date = format.parse("2013-05-31 17:25:10");
+
+		Assert.assertEquals(PartitionPeriod.DAILY.getStart(date), format.parse("2013-05-31 00:00:00"));
+		Assert.assertEquals(PartitionPeriod.DAILY.getNext(date), format.parse("2013-06-01 00:00:00"));
+		Assert.assertEquals(PartitionPeriod.DAILY.getPartitionName(date), "p20130531");
+	}
+
+	@Test
+	public void shouldCalculateMonthlyPeriods() throws Exception {
+		Date date = format.parse("2013-12-15 08:00:00");
+
+		Assert.assertEquals(PartitionPeriod.MONTHLY.getStart(date), format.parse("2013-12-01 00:00:00"));
+		Assert.assertEquals(PartitionPeriod.MONTHLY.getNext(date), format.parse("2014-01-01 00:00:00"));
+		Assert.assertEquals(PartitionPeriod.MONTHLY.getPartitionName(date), "p201312");
+	}
+
+	@Test
+	public void shouldParsePartitionNames() throws Exception {
+		Assert.assertEquals(PartitionPeriod.DAILY.parsePartitionName("p20130531"), format.parse("2013-05-31 00:00:00"));
+		Assert.assertEquals(PartitionPeriod.MONTHLY.parsePartitionName("p201312"), format.parse("2013-12-01 00:00:00"));
+	}
+
+	@Test
+	public void shouldNotParseOtherPartitionNames() throws Exception {
+		Assert.assertNull(PartitionPeriod.DAILY.parsePartitionName("pmax"));
+		Assert.assertNull(PartitionPeriod.DAILY.parsePartitionName("p201312"));
+		Assert.assertNull(PartitionPeriod.MONTHLY.parsePartitionName("p20130531"));
+		Assert.assertNull(PartitionPeriod.MONTHLY.parsePartitionName("p201313"));
+		Assert.assertNull(PartitionPeriod.MONTHLY.parsePartitionName(null));
+	}
+
+}
@@ -1,12 +1,16 @@
 package org.mokai.persists.mongo;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import org.bson.types.ObjectId;
 import org.mokai.Message;
 import org.mokai.Message.Direction;
+import org.mokai.persist.MessageCallback;
+import org.mokai.persist.MessageCount;
 import org.mokai.persist.MessageCriteria;
 import org.mokai.persist.RejectedException;
 import org.mokai.persist.mongo.MongoMessageStore;
@@ -400,6 +404,92 @@ public class MongoMessageStoreTest {
 		Assert.assertEquals(messages.size(), 1);
 	}
 
+	@Test
+	public void testIterateInPages() throws Exception {
+		DBCollection applicationsCol = db.getCollection(MongoMessageStore.APPLICATIONS_MSGS);
+		DBCollection connectionsCol = db.getCollection(MongoMessageStore.CONNECTIONS_MSGS);
+
+		createMessageForUpdate(connectionsCol, Message.STATUS_FAILED);
+		createMessageForUpdate(connectionsCol, Message.STATUS_FAILED);
+		createMessageForUpdate(connectionsCol, Message.STATUS_PROCESSED);
+		createMessageForUpdate(connectionsCol, Message.STATUS_FAILED);
+		createMessageForUpdate(applicationsCol, Message.STATUS_FAILED);
+
+		MongoMessageStore store = new MongoMessageStore();
+		store.setMongo(db);
+		store.setPageSize(2);
+
+		final List<Message> messages = new ArrayList<Message>();
+		store.iterate(new MessageCriteria().addStatus(Message.STATUS_FAILED), new MessageCallback() {
+
+			@Override
+			public void process(Message message) {
+				messages.add(message);
+			}
+
+		});
+
+		Assert.assertEquals(messages.size(), 4);
+		Assert.assertEquals(messages.get(0).getDirection(), Direction.TO_CONNECTIONS);
+		Assert.assertEquals(messages.get(2).getDirection(), Direction.TO_CONNECTIONS);
+		Assert.assertEquals(messages.get(3).getDirection(), Direction.TO_APPLICATIONS);
+
+		// the connection messages are sorted by id
+		Assert.assertTrue(new ObjectId(messages.get(0).getId().toString())
+				.compareTo(new ObjectId(messages.get(2).getId().toString())) < 0);
+	}
+
+	@Test
+	public void testCountWithStatusCriteria() throws Exception {
+		DBCollection applicationsCol = db.getCollection(MongoMessageStore.APPLICATIONS_MSGS);
+		DBCollection connectionsCol = db.getCollection(MongoMessageStore.CONNECTIONS_MSGS);
+
+		createMessageForUpdate(connectionsCol, Message.STATUS_FAILED);
+		createMessageForUpdate(connectionsCol, Message.STATUS_PROCESSED);
+		createMessageForUpdate(applicationsCol, Message.STATUS_FAILED);
+
+		MongoMessageStore store = new MongoMessageStore();
+		store.setMongo(db);
+
+		Assert.assertEquals(store.count(null), 3);
+		Assert.assertEquals(store.count(new MessageCriteria().addStatus(Message.STATUS_FAILED)), 2);
+		Assert.assertEquals(store.count(new MessageCriteria().addStatus(Message.STATUS_FAILED)
+				.direction(Direction.TO_APPLICATIONS)), 1);
+	}
+
+	@Test
+	public void testCountGrouped() throws Exception {
+		DBCollection applicationsCol = db.getCollection(MongoMessageStore.APPLICATIONS_MSGS);
+		DBCollection connectionsCol = db.getCollection(MongoMessageStore.CONNECTIONS_MSGS);
+
+		createMessageForUpdate(connectionsCol, Message.STATUS_FAILED);
+		createMessageForUpdate(connectionsCol, Message.STATUS_FAILED);
+		createMessageForUpdate(connectionsCol, Message.STATUS_PROCESSED);
+		createMessageForUpdate(applicationsCol, Message.STATUS_FAILED);
+
+		MongoMessageStore store = new MongoMessageStore();
+		store.setMongo(db);
+
+		Collection<MessageCount> counts = store.countGrouped(new MessageCriteria().addStatus(Message.STATUS_FAILED));
+		Assert.assertEquals(counts.size(), 2);
+
+		for (MessageCount count : counts) {
+			Assert.assertEquals(count.getStatus(), Message.STATUS_FAILED);
+			if (count.getDirection() == Direction.TO_CONNECTIONS) {
+				Assert.assertEquals(count.getCount(), 2);
+			} else {
+				Assert.assertEquals(count.getDirection(), Direction.TO_APPLICATIONS);
+				Assert.assertEquals(count.getCount(), 1);
+			}
+		}
+	}
+
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void shouldFailCountWithNullDB() throws Exception {
+		MongoMessageStore store = new MongoMessageStore();
+		store.count(null);
+	}
+
 	@Test(expectedExceptions=IllegalStateException.class)
 	public void shouldFailSaveOrUpdateWithNullDB() throws Exception {
 		MongoMessageStore store = new MongoMessageStore();
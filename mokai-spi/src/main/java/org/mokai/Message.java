@@ -1,14 +1,20 @@
 package org.mokai;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.UUID;
 
 /**
- * Represents a message that is being routing through the gateway.
+ * <p>Represents a message that is being routing through the gateway.</p>
+ *
+ * <p>The direction, source, destination and reference are held in fields although they can also be accessed as
+ * properties (e.g. {@link #DIRECTION_PROPERTY}). The rest of the properties are held in a {@link PropertyMap}. The
+ * serialized form is the same of the previous versions (a map with all the properties).</p>
  *
  * @author German Escobar
  */
@@ -19,6 +25,17 @@ public class Message implements Serializable {
 	 */
 	private static final long serialVersionUID = -2265738328900734732L;
 
+	/**
+	 * The fields of the serialized form.
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("id", Object.class),
+		new ObjectStreamField("status", byte.class),
+		new ObjectStreamField("properties", Map.class),
+		new ObjectStreamField("creationTime", Date.class),
+		new ObjectStreamField("modificationTime", Date.class)
+	};
+
 	public static final String DIRECTION_PROPERTY = "MK_DIRECTION";
 	public static final String SOURCE_PROPERTY = "MK_SOURCE";
 	public static final String DESTINATION_PROPERTY = "MK_DESTINATION";
@@ -91,10 +108,18 @@ public class Message implements Serializable {
 	 */
 	private byte status = STATUS_CREATED;
 
+	private Direction direction = Direction.UNKNOWN;
+
+	private String source;
+
+	private String destination;
+
+	private String reference;
+
 	/**
-	 * The properties of the message
+	 * The properties of the message (except the direction, source, destination and reference).
 	 */
-	private Map<String,Object> properties = new HashMap<String,Object>();
+	private transient PropertyMap properties = new PropertyMap();
 
 	/**
 	 * The creation time of the message.
@@ -107,8 +132,7 @@ public class Message implements Serializable {
 	private Date modificationTime = new Date();
 
 	public Message() {
-		properties.put(DIRECTION_PROPERTY, Direction.UNKNOWN);
-		properties.put(REFERENCE_PROPERTY, UUID.randomUUID().toString());
+		reference = ReferenceGenerator.next();
 	}
 
 	public final Object getId() {
@@ -120,19 +144,19 @@ public class Message implements Serializable {
 	}
 
 	public final String getSource() {
-		return getProperty(SOURCE_PROPERTY, String.class);
+		return source;
 	}
 
 	public final void setSource(String source) {
-		setProperty(SOURCE_PROPERTY, source);
+		this.source = source;
 	}
 
 	public final String getDestination() {
-		return getProperty(DESTINATION_PROPERTY, String.class);
+		return destination;
 	}
 
 	public final void setDestination(String destination) {
-		setProperty(DESTINATION_PROPERTY, destination);
+		this.destination = destination;
 	}
 
 	public final Message withDestination(String destination) {
@@ -142,19 +166,19 @@ public class Message implements Serializable {
 	}
 
 	public final Direction getDirection() {
-		return getProperty(DIRECTION_PROPERTY, Direction.class);
+		return direction;
 	}
 
 	public final void setDirection(Direction direction) {
-		setProperty(DIRECTION_PROPERTY, direction);
+		this.direction = direction;
 	}
 
 	public final String getReference() {
-		return getProperty(REFERENCE_PROPERTY, String.class);
+		return reference;
 	}
 
 	public final void setReference(String reference) {
-		setProperty(REFERENCE_PROPERTY, reference);
+		this.reference = reference;
 	}
 
 	public final byte getStatus() {
@@ -166,20 +190,13 @@ public class Message implements Serializable {
 	}
 
 	/**
-	 * Returns the user properties (i.e. it excludes the Mokai properties, those that start with MK_).
+	 * Returns the user properties (i.e. it excludes the Mokai properties, those that start with MK_). The returned
+	 * map is a read-only view of the properties of the message, not a copy.
 	 *
 	 * @return a map of string-object tuples.
 	 */
 	public final Map<String, Object> getProperties() {
-		Map<String, Object> ret = new HashMap<String, Object>();
-
-		for (Map.Entry<String, Object> entry : properties.entrySet()) {
-			if (!entry.getKey().startsWith("MK_")) {
-				ret.put(entry.getKey(), entry.getValue());
-			}
-		}
-
-		return Collections.unmodifiableMap(ret);
+		return properties.userView();
 	}
 
 	/**
@@ -189,6 +206,16 @@ public class Message implements Serializable {
 	 * @return the value of the property if it exists or null otherwise.
 	 */
 	public final Object getProperty(String key) {
+		if (DIRECTION_PROPERTY.equals(key)) {
+			return direction;
+		} else if (SOURCE_PROPERTY.equals(key)) {
+			return source;
+		} else if (DESTINATION_PROPERTY.equals(key)) {
+			return destination;
+		} else if (REFERENCE_PROPERTY.equals(key)) {
+			return reference;
+		}
+
 		return properties.get(key);
 	}
 
@@ -203,7 +230,7 @@ public class Message implements Serializable {
 	 */
 	@SuppressWarnings("unchecked")
 	public final <T> T getProperty(String key, Class<T> clazz) {
-		return (T) properties.get(key);
+		return (T) getProperty(key);
 	}
 
 	/**
@@ -214,7 +241,17 @@ public class Message implements Serializable {
 	 * @return the Message instance for chaining.
 	 */
 	public final Message setProperty(String key, Object value) {
-		properties.put(key, value);
+		if (DIRECTION_PROPERTY.equals(key)) {
+			direction = (Direction) value;
+		} else if (SOURCE_PROPERTY.equals(key)) {
+			source = (String) value;
+		} else if (DESTINATION_PROPERTY.equals(key)) {
+			destination = (String) value;
+		} else if (REFERENCE_PROPERTY.equals(key)) {
+			reference = (String) value;
+		} else {
+			properties.put(key, value);
+		}
 
 		return this;
 	}
@@ -225,7 +262,28 @@ public class Message implements Serializable {
 	 * @param key the key of the property to be removed.
 	 */
 	public final void removeProperty(String key) {
-		properties.remove(key);
+		if (DIRECTION_PROPERTY.equals(key)) {
+			direction = null;
+		} else if (SOURCE_PROPERTY.equals(key)) {
+			source = null;
+		} else if (DESTINATION_PROPERTY.equals(key)) {
+			destination = null;
+		} else if (REFERENCE_PROPERTY.equals(key)) {
+			reference = null;
+		} else {
+			properties.remove(key);
+		}
+	}
+
+	/**
+	 * Copies the properties of the message into a map, including the Mokai properties that are not held in fields
+	 * (the direction, source, destination and reference are not copied). Used by the codecs that transport the
+	 * messages.
+	 *
+	 * @param map the map into which we are copying the properties.
+	 */
+	public final void copyPropertiesTo(Map<String,Object> map) {
+		properties.copyTo(map);
 	}
 
 	public final Date getCreationTime() {
@@ -244,4 +302,50 @@ public class Message implements Serializable {
 		this.modificationTime = modificationTime;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Writes the same fields of the previous versions, the direction, source, destination and reference are added to
+	 * the map of properties.
+	 */
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		Map<String,Object> map = new HashMap<String,Object>();
+		properties.copyTo(map);
+		putIfNotNull(map, DIRECTION_PROPERTY, direction);
+		putIfNotNull(map, SOURCE_PROPERTY, source);
+		putIfNotNull(map, DESTINATION_PROPERTY, destination);
+		putIfNotNull(map, REFERENCE_PROPERTY, reference);
+
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("id", id);
+		fields.put("status", status);
+		fields.put("properties", map);
+		fields.put("creationTime", creationTime);
+		fields.put("modificationTime", modificationTime);
+		out.writeFields();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		id = fields.get("id", null);
+		status = fields.get("status", STATUS_CREATED);
+		creationTime = (Date) fields.get("creationTime", null);
+		modificationTime = (Date) fields.get("modificationTime", null);
+
+		properties = new PropertyMap();
+		direction = null;
+
+		Map<String,Object> map = (Map<String,Object>) fields.get("properties", null);
+		if (map != null) {
+			for (Map.Entry<String,Object> entry : map.entrySet()) {
+				setProperty(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	private static void putIfNotNull(Map<String,Object> map, String key, Object value) {
+		if (value != null) {
+			map.put(key, value);
+		}
+	}
+
+}
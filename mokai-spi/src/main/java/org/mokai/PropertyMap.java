@@ -0,0 +1,324 @@
+package org.mokai;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * <p>Holds the properties of a {@link Message} in an open addressing hash table (linear probing) backed by two
+ * arrays, so adding a property doesn't allocate an entry object. The arrays are allocated when the first property
+ * is added.</p>
+ *
+ * <p>The methods that read or modify the table are synchronized. The view returned by {@link #userView()} is
+ * read-only and doesn't copy the properties, except for its iterators: each one traverses a snapshot of the user
+ * properties taken (under the lock) when it is created, so it doesn't reflect later modifications and never throws
+ * a <code>ConcurrentModificationException</code>.</p>
+ *
+ * @author German Escobar
+ */
+final class PropertyMap {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	/**
+	 * The properties whose key starts with this prefix are reserved for Mokai and are not returned in the user view.
+	 */
+	static final String RESERVED_PREFIX = "MK_";
+
+	private String[] keys;
+
+	private Object[] values;
+
+	/**
+	 * The number of properties (including the reserved ones).
+	 */
+	private int size;
+
+	/**
+	 * The number of properties whose key doesn't start with {@link #RESERVED_PREFIX}.
+	 */
+	private int userSize;
+
+	private final Map<String,Object> userView = new UserView();
+
+	public synchronized Object get(String key) {
+		if (keys == null) {
+			return null;
+		}
+
+		int index = indexOf(keys, key);
+		return index >= 0 ? values[index] : null;
+	}
+
+	public synchronized boolean containsKey(String key) {
+		return keys != null && indexOf(keys, key) >= 0;
+	}
+
+	public synchronized void put(String key, Object value) {
+		if (key == null) {
+			throw new IllegalArgumentException("null keys are not supported");
+		}
+
+		if (keys == null) {
+			keys = new String[INITIAL_CAPACITY];
+			values = new Object[INITIAL_CAPACITY];
+		}
+
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while (keys[index] != null) {
+			if (keys[index].equals(key)) {
+				values[index] = value;
+				return;
+			}
+
+			index = (index + 1) & mask;
+		}
+
+		keys[index] = key;
+		values[index] = value;
+		size++;
+		if (!isReserved(key)) {
+			userSize++;
+		}
+
+		// keep the load factor under 0.75
+		if (size * 4 > keys.length * 3) {
+			resize(keys.length * 2);
+		}
+	}
+
+	public synchronized void remove(String key) {
+		if (keys == null) {
+			return;
+		}
+
+		int index = indexOf(keys, key);
+		if (index < 0) {
+			return;
+		}
+
+		size--;
+		if (!isReserved(key)) {
+			userSize--;
+		}
+
+		// backward shift deletion: move the following entries of the cluster that can fill the hole
+		int mask = keys.length - 1;
+		int hole = index;
+		int next = (hole + 1) & mask;
+		while (keys[next] != null) {
+			int home = hash(keys[next]) & mask;
+
+			// the entry can be moved if its home slot is not between the hole (exclusive) and its slot (inclusive)
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				values[hole] = values[next];
+				hole = next;
+			}
+
+			next = (next + 1) & mask;
+		}
+
+		keys[hole] = null;
+		values[hole] = null;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Copies all the properties (including the reserved ones) into a map.
+	 *
+	 * @param map the map into which we are copying the properties.
+	 */
+	public synchronized void copyTo(Map<String,Object> map) {
+		if (keys == null) {
+			return;
+		}
+
+		for (int i=0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				map.put(keys[i], values[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return a read-only view of the properties whose key doesn't start with {@link #RESERVED_PREFIX}.
+	 */
+	public Map<String,Object> userView() {
+		return userView;
+	}
+
+	private void resize(int capacity) {
+		String[] oldKeys = keys;
+		Object[] oldValues = values;
+
+		String[] newKeys = new String[capacity];
+		Object[] newValues = new Object[capacity];
+
+		int mask = capacity - 1;
+		for (int i=0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int index = hash(oldKeys[i]) & mask;
+				while (newKeys[index] != null) {
+					index = (index + 1) & mask;
+				}
+
+				newKeys[index] = oldKeys[i];
+				newValues[index] = oldValues[i];
+			}
+		}
+
+		keys = newKeys;
+		values = newValues;
+	}
+
+	private static int indexOf(String[] keys, Object key) {
+		if (key == null) {
+			return -1;
+		}
+
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		while (keys[index] != null) {
+			if (keys[index].equals(key)) {
+				return index;
+			}
+
+			index = (index + 1) & mask;
+		}
+
+		return -1;
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	static boolean isReserved(String key) {
+		return key.startsWith(RESERVED_PREFIX);
+	}
+
+	/**
+	 * The read-only view of the user properties.
+	 */
+	private class UserView extends AbstractMap<String,Object> {
+
+		private final Set<Map.Entry<String,Object>> entrySet = new AbstractSet<Map.Entry<String,Object>>() {
+
+			@Override
+			public Iterator<Map.Entry<String,Object>> iterator() {
+				return new UserIterator();
+			}
+
+			@Override
+			public int size() {
+				return UserView.this.size();
+			}
+
+		};
+
+		@Override
+		public Set<Map.Entry<String,Object>> entrySet() {
+			return entrySet;
+		}
+
+		@Override
+		public int size() {
+			synchronized (PropertyMap.this) {
+				return userSize;
+			}
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return key instanceof String && !isReserved((String) key) && PropertyMap.this.containsKey((String) key);
+		}
+
+		@Override
+		public Object get(Object key) {
+			if (!(key instanceof String) || isReserved((String) key)) {
+				return null;
+			}
+
+			return PropertyMap.this.get((String) key);
+		}
+
+		@Override
+		public Object remove(Object key) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void putAll(Map<? extends String,? extends Object> map) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void clear() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+	/**
+	 * Iterates a snapshot of the user properties taken when the iterator is created, as the arrays are modified in
+	 * place by {@link PropertyMap#put(String, Object)} and {@link PropertyMap#remove(String)}.
+	 */
+	private class UserIterator implements Iterator<Map.Entry<String,Object>> {
+
+		private final String[] iteratorKeys;
+
+		private final Object[] iteratorValues;
+
+		private int next;
+
+		public UserIterator() {
+			synchronized (PropertyMap.this) {
+				iteratorKeys = new String[userSize];
+				iteratorValues = new Object[userSize];
+
+				int count = 0;
+				for (int i=0; keys != null && i < keys.length; i++) {
+					if (keys[i] != null && !isReserved(keys[i])) {
+						iteratorKeys[count] = keys[i];
+						iteratorValues[count] = values[i];
+						count++;
+					}
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next < iteratorKeys.length;
+		}
+
+		@Override
+		public Map.Entry<String,Object> next() {
+			if (next >= iteratorKeys.length) {
+				throw new NoSuchElementException();
+			}
+
+			Map.Entry<String,Object> entry = new AbstractMap.SimpleImmutableEntry<String,Object>(iteratorKeys[next],
+					iteratorValues[next]);
+			next++;
+
+			return entry;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
@@ -0,0 +1,78 @@
+package org.mokai;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>Generates the references of the messages. A reference has the format of a
+ * <a href="https://github.com/ulid/spec">ULID</a>: 26 characters (Crockford's base 32) that encode the time in
+ * milliseconds (48 bits) followed by 80 bits that identify the reference.</p>
+ *
+ * <p>Instead of generating 80 random bits for each reference (which requires a <code>SecureRandom</code> to avoid
+ * collisions and can block), the first 32 bits are chosen randomly when the class is loaded (they identify the
+ * process) and the last 48 bits are a counter that starts at a random value and is incremented with a
+ * compare-and-set. The references of a process are unique and sortable by creation time.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author German Escobar
+ */
+public final class ReferenceGenerator {
+
+	private static final char[] ENCODING = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+	private static final int LENGTH = 26;
+
+	private static final long COUNTER_MASK = 0xFFFFFFFFFFFFL;
+
+	/**
+	 * Identifies the process, 32 random bits.
+	 */
+	private static final long NODE;
+
+	private static final AtomicLong counter;
+
+	static {
+		SecureRandom random = new SecureRandom();
+
+		NODE = random.nextInt() & 0xFFFFFFFFL;
+		counter = new AtomicLong(random.nextLong() & COUNTER_MASK);
+	}
+
+	private ReferenceGenerator() {}
+
+	/**
+	 * @return a new reference.
+	 */
+	public static String next() {
+		return generate(System.currentTimeMillis(), counter.incrementAndGet() & COUNTER_MASK);
+	}
+
+	/**
+	 * Helper method. Encodes the time, the node and the counter in base 32.
+	 */
+	static String generate(long time, long count) {
+		char[] chars = new char[LENGTH];
+
+		// 48 bits of time in 10 characters (the first one only has 3 bits)
+		long value = time & 0xFFFFFFFFFFFFL;
+		for (int i=9; i >= 0; i--) {
+			chars[i] = ENCODING[(int) (value & 0x1F)];
+			value >>>= 5;
+		}
+
+		// 32 bits of node and 48 bits of counter in 16 characters (80 bits)
+		long low = count; // the last 48 bits
+		long high = NODE; // the first 32 bits
+		for (int i=25; i >= 10; i--) {
+			chars[i] = ENCODING[(int) (low & 0x1F)];
+
+			// shift the 80 bits number to the right by 5 bits
+			low = (low >>> 5) | ((high & 0x1F) << 43);
+			high >>>= 5;
+		}
+
+		return new String(chars);
+	}
+
+}
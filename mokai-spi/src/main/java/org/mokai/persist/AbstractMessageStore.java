@@ -0,0 +1,208 @@
+package org.mokai.persist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mokai.Message;
+import org.mokai.Message.Direction;
+
+/**
+ * <p>Base class of the {@link MessageStore} implementations. The operations that were added after the
+ * {@link MessageStore} interface was published are defined in this class instead of in the interface, so the
+ * stores that implement the interface directly keep working. Each operation has a fallback implemented with the
+ * methods of the interface that implementations should override with the most efficient mechanism of the
+ * underlying store.</p>
+ *
+ * <p>Callers that receive a {@link MessageStore} should use the static helpers of this class (e.g.
+ * {@link #count(MessageStore, MessageCriteria)}), which use the store if it extends this class or the fallback
+ * otherwise.</p>
+ *
+ * @author German Escobar
+ */
+public abstract class AbstractMessageStore implements MessageStore {
+
+	/**
+	 * Saves the messages that are not persisted and updates the ones that are already persisted. Defaults to
+	 * calling {@link #saveOrUpdate(Message)} for each message, implementations should use the most efficient
+	 * mechanism of the underlying store to persist all the messages at once (e.g. batches).
+	 *
+	 * @param messages the {@link Message}s we want to save or update.
+	 * @throws StoreException if something goes wrong. Some of the messages could have been persisted unless the
+	 * store persists all the messages or none of them (see {@link #isAtomicBatch()}).
+	 * @throws RejectedException if the message store refuses to save or update at least one of the messages.
+	 */
+	public void saveOrUpdateAll(Collection<Message> messages) throws StoreException, RejectedException {
+		for (Message message : messages) {
+			saveOrUpdate(message);
+		}
+	}
+
+	/**
+	 * Tells if {@link #saveOrUpdateAll(Collection)} persists all the messages or none of them (e.g. in a
+	 * transaction) and sets the id of a new message only if it was saved, so the new messages of a failed batch can
+	 * be saved again without duplicating them. Defaults to false.
+	 *
+	 * @return true if a failed batch doesn't persist any message, false otherwise.
+	 */
+	public boolean isAtomicBatch() {
+		return false;
+	}
+
+	/**
+	 * Retrieves the messages that matches the criteria one by one and passes them to the callback without holding
+	 * them in memory, which should be used instead of {@link #list(MessageCriteria)} to process large result sets.
+	 * Implementations retrieve the messages in pages by ascending id (each page starting after the last id of the
+	 * previous one), so the order and limits of the criteria are ignored. Defaults to retrieving the messages with
+	 * {@link #list(MessageCriteria)}, which holds them in memory.
+	 *
+	 * @param criteria the {@link MessageCriteria} used to match the messages, can be null.
+	 * @param callback the {@link MessageCallback} that receives each message.
+	 * @throws StoreException if something goes wrong.
+	 */
+	public void iterate(MessageCriteria criteria, MessageCallback callback) throws StoreException {
+		for (Message message : list(criteria)) {
+			callback.process(message);
+		}
+	}
+
+	/**
+	 * Counts the messages that matches the criteria without retrieving them. The order and limits of the criteria
+	 * are ignored by the implementations. Defaults to the size of {@link #list(MessageCriteria)}.
+	 *
+	 * @param criteria the {@link MessageCriteria} used to match the messages, can be null.
+	 * @return the number of messages that matched the criteria.
+	 * @throws StoreException if something goes wrong.
+	 */
+	public long count(MessageCriteria criteria) throws StoreException {
+		return list(criteria).size();
+	}
+
+	/**
+	 * Counts the messages that matches the criteria grouped by direction, status and destination. The order and
+	 * limits of the criteria are ignored by the implementations. Defaults to grouping the messages of
+	 * {@link #list(MessageCriteria)}.
+	 *
+	 * @param criteria the {@link MessageCriteria} used to match the messages, can be null.
+	 * @return a Collection of {@link MessageCount} objects, one for each combination of direction, status and
+	 * destination that matched the criteria, or an empty Collection.
+	 * @throws StoreException if something goes wrong.
+	 */
+	public Collection<MessageCount> countGrouped(MessageCriteria criteria) throws StoreException {
+		return group(list(criteria));
+	}
+
+	/**
+	 * Helper method. Persists the messages with the store (see {@link #saveOrUpdateAll(Collection)}) or, if it is
+	 * not an AbstractMessageStore, one by one.
+	 *
+	 * @param messageStore the store in which the messages are persisted.
+	 * @param messages the {@link Message}s we want to save or update.
+	 * @throws StoreException if something goes wrong.
+	 * @throws RejectedException if the message store refuses to save or update at least one of the messages.
+	 */
+	public static void saveOrUpdateAll(MessageStore messageStore, Collection<Message> messages)
+			throws StoreException, RejectedException {
+
+		if (messageStore instanceof AbstractMessageStore) {
+			((AbstractMessageStore) messageStore).saveOrUpdateAll(messages);
+		} else {
+			for (Message message : messages) {
+				messageStore.saveOrUpdate(message);
+			}
+		}
+	}
+
+	/**
+	 * Helper method. Tells if a store persists a batch atomically (see {@link #isAtomicBatch()}).
+	 *
+	 * @param messageStore the store to check, can be null.
+	 * @return true if the store is an AbstractMessageStore that persists a batch atomically, false otherwise.
+	 */
+	public static boolean isAtomicBatch(MessageStore messageStore) {
+		return messageStore instanceof AbstractMessageStore && ((AbstractMessageStore) messageStore).isAtomicBatch();
+	}
+
+	/**
+	 * Helper method. Iterates the messages with the store (see {@link #iterate(MessageCriteria, MessageCallback)})
+	 * or, if it is not an AbstractMessageStore, with the messages of {@link MessageStore#list(MessageCriteria)}.
+	 *
+	 * @param messageStore the store from which the messages are retrieved.
+	 * @param criteria the {@link MessageCriteria} used to match the messages, can be null.
+	 * @param callback the {@link MessageCallback} that receives each message.
+	 * @throws StoreException if something goes wrong.
+	 */
+	public static void iterate(MessageStore messageStore, MessageCriteria criteria, MessageCallback callback)
+			throws StoreException {
+
+		if (messageStore instanceof AbstractMessageStore) {
+			((AbstractMessageStore) messageStore).iterate(criteria, callback);
+		} else {
+			for (Message message : messageStore.list(criteria)) {
+				callback.process(message);
+			}
+		}
+	}
+
+	/**
+	 * Helper method. Counts the messages with the store (see {@link #count(MessageCriteria)}) or, if it is not an
+	 * AbstractMessageStore, with the size of {@link MessageStore#list(MessageCriteria)}.
+	 *
+	 * @param messageStore the store in which the messages are counted.
+	 * @param criteria the {@link MessageCriteria} used to match the messages, can be null.
+	 * @return the number of messages that matched the criteria.
+	 * @throws StoreException if something goes wrong.
+	 */
+	public static long count(MessageStore messageStore, MessageCriteria criteria) throws StoreException {
+		if (messageStore instanceof AbstractMessageStore) {
+			return ((AbstractMessageStore) messageStore).count(criteria);
+		}
+
+		return messageStore.list(criteria).size();
+	}
+
+	/**
+	 * Helper method. Counts the messages grouped by direction, status and destination with the store (see
+	 * {@link #countGrouped(MessageCriteria)}) or, if it is not an AbstractMessageStore, grouping the messages of
+	 * {@link MessageStore#list(MessageCriteria)}.
+	 *
+	 * @param messageStore the store in which the messages are counted.
+	 * @param criteria the {@link MessageCriteria} used to match the messages, can be null.
+	 * @return a Collection of {@link MessageCount} objects or an empty Collection.
+	 * @throws StoreException if something goes wrong.
+	 */
+	public static Collection<MessageCount> countGrouped(MessageStore messageStore, MessageCriteria criteria)
+			throws StoreException {
+
+		if (messageStore instanceof AbstractMessageStore) {
+			return ((AbstractMessageStore) messageStore).countGrouped(criteria);
+		}
+
+		return group(messageStore.list(criteria));
+	}
+
+	/**
+	 * Helper method. Counts the messages grouped by direction, status and destination.
+	 *
+	 * @param messages the messages to be counted.
+	 * @return a Collection of {@link MessageCount} objects or an empty Collection.
+	 */
+	public static Collection<MessageCount> group(Collection<Message> messages) {
+		Map<String,MessageCount> counts = new LinkedHashMap<String,MessageCount>();
+		for (Message message : messages) {
+			Direction direction = message.getDirection();
+			byte status = message.getStatus();
+			String destination = message.getDestination();
+
+			String key = direction + "|" + status + "|" + destination;
+			MessageCount count = counts.get(key);
+			long value = count == null ? 1 : count.getCount() + 1;
+
+			counts.put(key, new MessageCount(direction, status, destination, value));
+		}
+
+		return new ArrayList<MessageCount>(counts.values());
+	}
+
+}
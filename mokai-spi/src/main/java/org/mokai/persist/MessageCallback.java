@@ -0,0 +1,22 @@
+package org.mokai.persist;
+
+import org.mokai.Message;
+
+/**
+ * Receives the messages that are retrieved one by one from the {@link MessageStore}.
+ * @see AbstractMessageStore#iterate(MessageCriteria, MessageCallback)
+ *
+ * @author German Escobar
+ */
+public interface MessageCallback {
+
+	/**
+	 * Called for each message that matches the criteria. Any exception thrown from this method stops the iteration
+	 * and is propagated to the caller of {@link AbstractMessageStore#iterate(MessageCriteria, MessageCallback)}, possibly
+	 * wrapped in a {@link StoreException}.
+	 *
+	 * @param message the retrieved message.
+	 */
+	void process(Message message);
+
+}
@@ -0,0 +1,56 @@
+package org.mokai.persist;
+
+import java.io.Serializable;
+
+import org.mokai.Message.Direction;
+
+/**
+ * The number of messages with the same direction, status and destination.
+ * @see AbstractMessageStore#countGrouped(MessageCriteria)
+ *
+ * @author German Escobar
+ */
+public class MessageCount implements Serializable {
+
+	/**
+	 * Generated Serial Version UID
+	 */
+	private static final long serialVersionUID = -2316403390587457146L;
+
+	private final Direction direction;
+
+	private final byte status;
+
+	private final String destination;
+
+	private final long count;
+
+	public MessageCount(Direction direction, byte status, String destination, long count) {
+		this.direction = direction;
+		this.status = status;
+		this.destination = destination;
+		this.count = count;
+	}
+
+	public final Direction getDirection() {
+		return direction;
+	}
+
+	public final byte getStatus() {
+		return status;
+	}
+
+	public final String getDestination() {
+		return destination;
+	}
+
+	public final long getCount() {
+		return count;
+	}
+
+	@Override
+	public String toString() {
+		return "direction=" + direction + ", status=" + status + ", destination=" + destination + ", count=" + count;
+	}
+
+}
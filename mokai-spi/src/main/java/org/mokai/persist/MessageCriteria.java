@@ -2,6 +2,7 @@ package org.mokai.persist;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +34,29 @@ public class MessageCriteria implements Serializable {
 
 	private Map<String,Object> properties = new HashMap<String,Object>();
 
+	/**
+	 * The ids of the messages to match.
+	 */
+	private List<Object> ids;
+
+	/**
+	 * If not null, only the messages with an id greater than this one are matched. Used with an order by "id" to
+	 * paginate through the messages (keyset pagination), which, unlike the lowerLimit, doesn't need to skip the
+	 * records of the previous pages.
+	 */
+	private Object afterId;
+
+	/**
+	 * If not null, only the messages created at or after this date are matched.
+	 */
+	private Date createdFrom;
+
+	/**
+	 * If not null, only the messages created before this date are matched. Together with the createdFrom date, it
+	 * allows a partitioned store to read only the partitions of the range.
+	 */
+	private Date createdTo;
+
 	/**
 	 * The column by which the query should be ordered.
 	 */
@@ -55,6 +79,7 @@ public class MessageCriteria implements Serializable {
 
 	public MessageCriteria() {
 		this.status = new ArrayList<Byte>();
+		this.ids = new ArrayList<Object>();
 	}
 
 	public final String getOrderBy() {
@@ -113,6 +138,62 @@ public class MessageCriteria implements Serializable {
 		return this;
 	}
 
+	public final List<Object> getIds() {
+		return ids;
+	}
+
+	public final void setIds(List<Object> ids) {
+		this.ids = ids;
+	}
+
+	public final MessageCriteria addId(Object id) {
+		this.ids.add(id);
+
+		return this;
+	}
+
+	public final Object getAfterId() {
+		return afterId;
+	}
+
+	public final void setAfterId(Object afterId) {
+		this.afterId = afterId;
+	}
+
+	public final MessageCriteria afterId(Object afterId) {
+		setAfterId(afterId);
+
+		return this;
+	}
+
+	public final Date getCreatedFrom() {
+		return createdFrom;
+	}
+
+	public final void setCreatedFrom(Date createdFrom) {
+		this.createdFrom = createdFrom;
+	}
+
+	public final MessageCriteria createdFrom(Date createdFrom) {
+		setCreatedFrom(createdFrom);
+
+		return this;
+	}
+
+	public final Date getCreatedTo() {
+		return createdTo;
+	}
+
+	public final void setCreatedTo(Date createdTo) {
+		this.createdTo = createdTo;
+	}
+
+	public final MessageCriteria createdTo(Date createdTo) {
+		setCreatedTo(createdTo);
+
+		return this;
+	}
+
 	public final String getDestination() {
 		return destination;
 	}
@@ -0,0 +1,203 @@
+package org.mokai.persist;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A durable allocator of sequence numbers in the range 1 to {@link Integer#MAX_VALUE} (the range of SMPP sequence
+ * numbers). When the maximum value is reached, the sequence starts again from 1.</p>
+ *
+ * <p>The numbers are allocated in memory with a compare-and-set and only the high-water mark is saved, in a small
+ * memory mapped file, every time a block of numbers is reserved. If the process crashes, the numbers that were
+ * reserved but not allocated are skipped; a number is never allocated twice.</p>
+ *
+ * <p>This class is thread safe.</p>
+ *
+ * @author German Escobar
+ */
+public class SequenceAllocator {
+
+	/**
+	 * The default number of sequence numbers that are reserved every time the file is written.
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+	/**
+	 * The size of the file: the high-water mark is saved as a long.
+	 */
+	private static final int FILE_SIZE = 8;
+
+	private final int blockSize;
+
+	private final RandomAccessFile file;
+
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * The next value to allocate. It is monotonic, it is converted to the sequence range when allocated.
+	 */
+	private final AtomicLong counter;
+
+	/**
+	 * The first value that hasn't been reserved (the one saved in the file).
+	 */
+	private volatile long limit;
+
+	private volatile boolean closed;
+
+	/**
+	 * Constructor. Creates an instance with the {@link #DEFAULT_BLOCK_SIZE}.
+	 *
+	 * @see #SequenceAllocator(File, long, int)
+	 */
+	public SequenceAllocator(File file, long initialValue) throws IOException {
+		this(file, initialValue, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Constructor. Opens (or creates) the file that holds the high-water mark.
+	 *
+	 * @param file the file in which the high-water mark is saved. The parent directories are created if necessary.
+	 * @param initialValue the first value to allocate if the file doesn't exist.
+	 * @param blockSize the number of values that are reserved every time the file is written.
+	 * @throws IOException if the file can't be opened or mapped.
+	 */
+	public SequenceAllocator(File file, long initialValue, int blockSize) throws IOException {
+		if (file == null) {
+			throw new IllegalArgumentException("no file specified");
+		}
+		if (initialValue < 1) {
+			throw new IllegalArgumentException("initialValue must be greater than 0");
+		}
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be greater than 0");
+		}
+
+		this.blockSize = blockSize;
+
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null) {
+			parent.mkdirs();
+		}
+
+		boolean exists = file.exists() && file.length() >= FILE_SIZE;
+
+		this.file = new RandomAccessFile(file, "rw");
+		try {
+			this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+		} catch (IOException e) {
+			try { this.file.close(); } catch (Exception f) {}
+			throw e;
+		}
+
+		long next = initialValue;
+		if (exists) {
+			long saved = buffer.getLong(0);
+			if (saved > 0) {
+				next = saved;
+			}
+		}
+
+		this.counter = new AtomicLong(next);
+		this.limit = next;
+	}
+
+	/**
+	 * Allocates the next sequence number.
+	 *
+	 * @return a number between 1 and {@link Integer#MAX_VALUE}.
+	 * @throws IllegalStateException if the allocator has been closed or the block can't be reserved.
+	 */
+	public int next() throws IllegalStateException {
+		while (true) {
+			long current = counter.get();
+			if (current >= limit) {
+				reserve(current);
+			} else if (counter.compareAndSet(current, current + 1)) {
+				return toSequence(current);
+			}
+		}
+	}
+
+	/**
+	 * Helper method. Saves a new high-water mark if the current one has been reached.
+	 *
+	 * @param current the value that couldn't be allocated.
+	 */
+	private synchronized void reserve(long current) {
+		if (closed) {
+			throw new IllegalStateException("sequence allocator closed");
+		}
+
+		if (current < limit) {
+			// another thread already reserved a new block
+			return;
+		}
+
+		long newLimit = current + blockSize;
+		buffer.putLong(0, newLimit);
+		buffer.force();
+
+		limit = newLimit;
+	}
+
+	/**
+	 * Helper method. Converts a value of the counter to the range of the sequence numbers, starting from 1 again
+	 * after {@link Integer#MAX_VALUE}.
+	 */
+	private static int toSequence(long value) {
+		return (int) ((value - 1) % Integer.MAX_VALUE) + 1;
+	}
+
+	/**
+	 * Saves the high-water mark and closes the file. Sequence numbers can't be allocated after this method is
+	 * called.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+
+		closed = true;
+		limit = 0;
+
+		try {
+			buffer.force();
+		} finally {
+			try { file.close(); } catch (Exception e) {}
+		}
+	}
+
+	/**
+	 * Helper method used to migrate from a text file that holds the next sequence number (the format used by the
+	 * connectors before this class existed).
+	 *
+	 * @param file the text file.
+	 * @param defaultValue the value to return if the file doesn't exist or can't be read.
+	 * @return the number in the text file or the default value.
+	 */
+	public static long readTextValue(File file, long defaultValue) {
+		if (file == null || !file.exists()) {
+			return defaultValue;
+		}
+
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new FileReader(file));
+			return Long.parseLong(in.readLine().trim());
+		} catch (Exception e) {
+			return defaultValue;
+		} finally {
+			if (in != null) {
+				try { in.close(); } catch (Exception e) {}
+			}
+		}
+	}
+
+}
@@ -1,5 +1,9 @@
 package org.mokai;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Map;
 
 import org.mokai.Message.Direction;
@@ -44,4 +48,77 @@ public class MessageTest {
 		properties.remove("test");
 	}
 
+	@Test
+	public void shouldReturnViewOfUserProperties() throws Exception {
+		Message message = new Message();
+		message.setDestination("test");
+		message.setProperty("MK_OTHER", "reserved");
+
+		Map<String,Object> properties = message.getProperties();
+		Assert.assertEquals(properties.size(), 0);
+
+		// the view reflects the changes
+		message.setProperty("to", "1234");
+		Assert.assertEquals(properties.size(), 1);
+		Assert.assertEquals(properties.get("to"), "1234");
+		Assert.assertNull(properties.get("MK_OTHER"));
+		Assert.assertNull(properties.get(Message.DESTINATION_PROPERTY));
+
+		message.removeProperty("to");
+		Assert.assertTrue(properties.isEmpty());
+	}
+
+	@Test
+	public void shouldAccessFieldsAsProperties() throws Exception {
+		Message message = new Message();
+
+		message.setProperty(Message.DESTINATION_PROPERTY, "test-destination");
+		message.setProperty(Message.SOURCE_PROPERTY, "test-source");
+		message.setProperty(Message.DIRECTION_PROPERTY, Direction.TO_CONNECTIONS);
+		message.setProperty(Message.REFERENCE_PROPERTY, "12345");
+
+		Assert.assertEquals(message.getDestination(), "test-destination");
+		Assert.assertEquals(message.getSource(), "test-source");
+		Assert.assertEquals(message.getDirection(), Direction.TO_CONNECTIONS);
+		Assert.assertEquals(message.getReference(), "12345");
+
+		message.removeProperty(Message.DESTINATION_PROPERTY);
+		Assert.assertNull(message.getDestination());
+	}
+
+	@Test
+	public void shouldGenerateDifferentReferences() throws Exception {
+		Assert.assertFalse(new Message().getReference().equals(new Message().getReference()));
+	}
+
+	@Test
+	public void shouldSerializeAndDeserialize() throws Exception {
+		Message message = new Message();
+		message.setId(1L);
+		message.setStatus(Message.STATUS_PROCESSED);
+		message.setDirection(Direction.TO_APPLICATIONS);
+		message.setSource("test-source");
+		message.setProperty("to", "1234");
+		message.setProperty("count", 2);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(message);
+		out.close();
+
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		Message copy = (Message) in.readObject();
+
+		Assert.assertEquals(copy.getId(), 1L);
+		Assert.assertEquals(copy.getStatus(), Message.STATUS_PROCESSED);
+		Assert.assertEquals(copy.getDirection(), Direction.TO_APPLICATIONS);
+		Assert.assertEquals(copy.getSource(), "test-source");
+		Assert.assertNull(copy.getDestination());
+		Assert.assertEquals(copy.getReference(), message.getReference());
+		Assert.assertEquals(copy.getCreationTime(), message.getCreationTime());
+		Assert.assertEquals(copy.getProperties().size(), 2);
+		Assert.assertEquals(copy.getProperty("to"), "1234");
+		Assert.assertEquals(copy.getProperty("count"), 2);
+	}
+
 }
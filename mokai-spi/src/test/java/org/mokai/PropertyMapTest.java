@@ -0,0 +1,117 @@
+package org.mokai;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PropertyMapTest {
+
+	@Test
+	public void shouldPutGetAndRemove() throws Exception {
+		PropertyMap map = new PropertyMap();
+		Assert.assertNull(map.get("test"));
+		Assert.assertEquals(map.size(), 0);
+
+		map.put("test", "1");
+		map.put("other", null);
+		Assert.assertEquals(map.get("test"), "1");
+		Assert.assertNull(map.get("other"));
+		Assert.assertTrue(map.containsKey("other"));
+		Assert.assertEquals(map.size(), 2);
+
+		map.put("test", "2");
+		Assert.assertEquals(map.get("test"), "2");
+		Assert.assertEquals(map.size(), 2);
+
+		map.remove("test");
+		map.remove("non-existing");
+		Assert.assertNull(map.get("test"));
+		Assert.assertFalse(map.containsKey("test"));
+		Assert.assertEquals(map.size(), 1);
+	}
+
+	@Test
+	public void shouldBehaveAsHashMap() throws Exception {
+		PropertyMap map = new PropertyMap();
+		Map<String,Object> expected = new HashMap<String,Object>();
+
+		// random puts and removes over a small set of keys exercise the resizes and the backward shift deletion
+		Random random = new Random(42);
+		for (int i=0; i < 10000; i++) {
+			String key = "key-" + random.nextInt(100);
+			if (random.nextInt(3) == 0) {
+				map.remove(key);
+				expected.remove(key);
+			} else {
+				map.put(key, i);
+				expected.put(key, i);
+			}
+
+			Assert.assertEquals(map.size(), expected.size());
+		}
+
+		for (int i=0; i < 100; i++) {
+			String key = "key-" + i;
+			Assert.assertEquals(map.get(key), expected.get(key));
+		}
+		Assert.assertEquals(map.userView(), expected);
+	}
+
+	@Test
+	public void shouldExcludeReservedPropertiesFromView() throws Exception {
+		PropertyMap map = new PropertyMap();
+		map.put("MK_TEST", "reserved");
+		map.put("test", "user");
+
+		Map<String,Object> view = map.userView();
+		Assert.assertEquals(view.size(), 1);
+		Assert.assertEquals(view.get("test"), "user");
+		Assert.assertNull(view.get("MK_TEST"));
+		Assert.assertFalse(view.containsKey("MK_TEST"));
+
+		Iterator<Map.Entry<String,Object>> iterator = view.entrySet().iterator();
+		Assert.assertTrue(iterator.hasNext());
+		Assert.assertEquals(iterator.next().getKey(), "test");
+		Assert.assertFalse(iterator.hasNext());
+
+		Map<String,Object> all = new HashMap<String,Object>();
+		map.copyTo(all);
+		Assert.assertEquals(all.size(), 2);
+	}
+
+	@Test
+	public void shouldIterateSnapshotWhenPropertiesAreRemoved() throws Exception {
+		PropertyMap map = new PropertyMap();
+		Map<String,Object> expected = new HashMap<String,Object>();
+		for (int i=0; i < 5; i++) {
+			map.put("key-" + i, i);
+			expected.put("key-" + i, i);
+		}
+
+		// removing the properties shifts the entries of the arrays, the iterator must not see it
+		Map<String,Object> iterated = new HashMap<String,Object>();
+		Iterator<Map.Entry<String,Object>> iterator = map.userView().entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String,Object> entry = iterator.next();
+			iterated.put(entry.getKey(), entry.getValue());
+
+			map.remove(entry.getKey());
+		}
+
+		Assert.assertEquals(iterated, expected);
+		Assert.assertEquals(map.size(), 0);
+	}
+
+	@Test(expectedExceptions=UnsupportedOperationException.class)
+	public void shouldNotModifyView() throws Exception {
+		PropertyMap map = new PropertyMap();
+		map.put("test", "user");
+
+		map.userView().put("other", "value");
+	}
+
+}
@@ -0,0 +1,39 @@
+package org.mokai;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ReferenceGeneratorTest {
+
+	@Test
+	public void shouldGenerateUniqueReferences() throws Exception {
+		Set<String> references = new HashSet<String>();
+		for (int i=0; i < 10000; i++) {
+			String reference = ReferenceGenerator.next();
+
+			Assert.assertEquals(reference.length(), 26);
+			Assert.assertTrue(reference.matches("[0-9A-HJKMNP-TV-Z]{26}"), reference);
+			Assert.assertTrue(references.add(reference));
+		}
+	}
+
+	@Test
+	public void shouldSortByTime() throws Exception {
+		String first = ReferenceGenerator.generate(1000L, 5);
+		String second = ReferenceGenerator.generate(1001L, 1);
+
+		Assert.assertTrue(first.compareTo(second) < 0);
+		Assert.assertTrue(ReferenceGenerator.generate(1000L, 1).compareTo(first) < 0);
+	}
+
+	@Test
+	public void shouldEncodeTime() throws Exception {
+		// the first 10 characters encode the time
+		Assert.assertEquals(ReferenceGenerator.generate(0, 0).substring(0, 10), "0000000000");
+		Assert.assertEquals(ReferenceGenerator.generate(32, 0).substring(0, 10), "0000000010");
+	}
+
+}
@@ -0,0 +1,162 @@
+package org.mokai.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.mokai.Message;
+import org.mokai.Message.Direction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the cost of creating a {@link Message}, setting its properties and serializing them (as the JDBC
+ * handlers and the HTTP connector do, iterating the user properties) against the previous implementation, a
+ * <code>HashMap</code> with all the properties, a <code>UUID</code> reference and a copy of the user properties on
+ * every call to <code>getProperties()</code>.
+ *
+ * Run with <code>mvn -P benchmark verify -Dbenchmark=MessageBenchmark</code> from the mokai-spi directory.
+ *
+ * @author German Escobar
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5)
+@Measurement(iterations=5)
+@Fork(1)
+public class MessageBenchmark {
+
+	private Message message;
+
+	private LegacyMessage legacyMessage;
+
+	@Setup
+	public void setup() {
+		message = fill(new Message());
+		legacyMessage = fill(new LegacyMessage());
+	}
+
+	@Benchmark
+	public Message create() {
+		return new Message();
+	}
+
+	@Benchmark
+	public LegacyMessage createLegacy() {
+		return new LegacyMessage();
+	}
+
+	@Benchmark
+	public Message createAndSet() {
+		return fill(new Message());
+	}
+
+	@Benchmark
+	public LegacyMessage createAndSetLegacy() {
+		return fill(new LegacyMessage());
+	}
+
+	@Benchmark
+	public String serializeProperties() {
+		return toJSON(message.getProperties());
+	}
+
+	@Benchmark
+	public String serializePropertiesLegacy() {
+		return toJSON(legacyMessage.getProperties());
+	}
+
+	@Benchmark
+	public int javaSerialization() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(message);
+		out.close();
+
+		return bytes.size();
+	}
+
+	private Message fill(Message message) {
+		message.setDirection(Direction.TO_CONNECTIONS);
+		message.setSource("test-app");
+		message.setDestination("test-connection");
+		message.setProperty("to", "573001234567");
+		message.setProperty("from", "1234");
+		message.setProperty("text", "Your verification code is 1234");
+		message.setProperty("sequenceNumber", 1);
+		message.setProperty("messageId", "abc123");
+
+		return message;
+	}
+
+	private LegacyMessage fill(LegacyMessage message) {
+		message.setProperty(Message.DIRECTION_PROPERTY, Direction.TO_CONNECTIONS);
+		message.setProperty(Message.SOURCE_PROPERTY, "test-app");
+		message.setProperty(Message.DESTINATION_PROPERTY, "test-connection");
+		message.setProperty("to", "573001234567");
+		message.setProperty("from", "1234");
+		message.setProperty("text", "Your verification code is 1234");
+		message.setProperty("sequenceNumber", 1);
+		message.setProperty("messageId", "abc123");
+
+		return message;
+	}
+
+	/**
+	 * The same serialization of the AbstractSmsHandler#buildJSON method.
+	 */
+	private String toJSON(Map<String,Object> properties) {
+		StringBuilder json = new StringBuilder("{");
+		for (Map.Entry<String,Object> entry : properties.entrySet()) {
+			if (json.length() > 1) {
+				json.append(",");
+			}
+			json.append("\"").append(entry.getKey()).append("\":\"").append(entry.getValue()).append("\"");
+		}
+
+		return json.append("}").toString();
+	}
+
+	/**
+	 * The previous implementation of the properties of the {@link Message}.
+	 */
+	public static class LegacyMessage {
+
+		private Map<String,Object> properties = new HashMap<String,Object>();
+
+		public LegacyMessage() {
+			properties.put(Message.DIRECTION_PROPERTY, Direction.UNKNOWN);
+			properties.put(Message.REFERENCE_PROPERTY, UUID.randomUUID().toString());
+		}
+
+		public Map<String,Object> getProperties() {
+			Map<String,Object> ret = new HashMap<String,Object>();
+			for (Map.Entry<String,Object> entry : properties.entrySet()) {
+				if (!entry.getKey().startsWith("MK_")) {
+					ret.put(entry.getKey(), entry.getValue());
+				}
+			}
+
+			return Collections.unmodifiableMap(ret);
+		}
+
+		public void setProperty(String key, Object value) {
+			properties.put(key, value);
+		}
+
+	}
+
+}
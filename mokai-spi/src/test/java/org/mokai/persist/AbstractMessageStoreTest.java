@@ -0,0 +1,79 @@
+package org.mokai.persist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.mokai.Message;
+import org.mokai.Message.Direction;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class AbstractMessageStoreTest {
+
+	@Test
+	public void shouldFallbackToInterfaceMethodsWithPlainStore() throws Exception {
+		ListMessageStore messageStore = new ListMessageStore();
+		AbstractMessageStore.saveOrUpdateAll(messageStore, Arrays.asList(
+				createMessage("test-1", Message.STATUS_FAILED),
+				createMessage("test-1", Message.STATUS_FAILED),
+				createMessage("test-2", Message.STATUS_FAILED)));
+
+		Assert.assertEquals(messageStore.messages.size(), 3);
+		Assert.assertEquals(AbstractMessageStore.count(messageStore, new MessageCriteria()), 3);
+
+		final List<Message> iterated = new ArrayList<Message>();
+		AbstractMessageStore.iterate(messageStore, new MessageCriteria(), new MessageCallback() {
+
+			@Override
+			public void process(Message message) {
+				iterated.add(message);
+			}
+
+		});
+		Assert.assertEquals(iterated, messageStore.messages);
+
+		Collection<MessageCount> counts = AbstractMessageStore.countGrouped(messageStore, new MessageCriteria());
+		Assert.assertEquals(counts.size(), 2);
+		for (MessageCount count : counts) {
+			Assert.assertEquals(count.getDirection(), Direction.TO_CONNECTIONS);
+			Assert.assertEquals(count.getStatus(), Message.STATUS_FAILED);
+			Assert.assertEquals(count.getCount(), "test-1".equals(count.getDestination()) ? 2 : 1);
+		}
+	}
+
+	private Message createMessage(String destination, byte status) {
+		Message message = new Message();
+		message.setDirection(Direction.TO_CONNECTIONS);
+		message.setDestination(destination);
+		message.setStatus(status);
+
+		return message;
+	}
+
+	/**
+	 * A {@link MessageStore} that only implements the methods of the interface.
+	 */
+	private class ListMessageStore implements MessageStore {
+
+		private List<Message> messages = new ArrayList<Message>();
+
+		@Override
+		public void saveOrUpdate(Message message) throws StoreException, RejectedException {
+			messages.add(message);
+		}
+
+		@Override
+		public void updateStatus(MessageCriteria criteria, byte newStatus) throws StoreException {
+
+		}
+
+		@Override
+		public Collection<Message> list(MessageCriteria criteria) throws StoreException {
+			return new ArrayList<Message>(messages);
+		}
+
+	}
+
+}
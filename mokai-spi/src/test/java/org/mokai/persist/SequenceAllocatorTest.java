@@ -0,0 +1,129 @@
+package org.mokai.persist;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class SequenceAllocatorTest {
+
+	private File file;
+
+	@BeforeMethod
+	public void createFile() throws Exception {
+		file = File.createTempFile("sequence", ".seqmap");
+		file.delete();
+	}
+
+	@AfterMethod
+	public void deleteFile() throws Exception {
+		file.delete();
+	}
+
+	@Test
+	public void shouldAllocateConsecutiveNumbers() throws Exception {
+		SequenceAllocator allocator = new SequenceAllocator(file, 1, 10);
+		try {
+			for (int i=1; i <= 25; i++) {
+				Assert.assertEquals(allocator.next(), i);
+			}
+		} finally {
+			allocator.close();
+		}
+	}
+
+	@Test
+	public void shouldNotReuseNumbersAfterReopening() throws Exception {
+		SequenceAllocator allocator = new SequenceAllocator(file, 1, 10);
+		for (int i=0; i < 15; i++) {
+			allocator.next();
+		}
+		allocator.close();
+
+		// the initial value is ignored because the file exists
+		allocator = new SequenceAllocator(file, 1, 10);
+		try {
+			// the rest of the reserved block is skipped
+			Assert.assertEquals(allocator.next(), 21);
+		} finally {
+			allocator.close();
+		}
+	}
+
+	@Test
+	public void shouldWrapAround() throws Exception {
+		SequenceAllocator allocator = new SequenceAllocator(file, Integer.MAX_VALUE - 1, 10);
+		try {
+			Assert.assertEquals(allocator.next(), Integer.MAX_VALUE - 1);
+			Assert.assertEquals(allocator.next(), Integer.MAX_VALUE);
+			Assert.assertEquals(allocator.next(), 1);
+			Assert.assertEquals(allocator.next(), 2);
+		} finally {
+			allocator.close();
+		}
+	}
+
+	@Test
+	public void shouldAllocateUniqueNumbersConcurrently() throws Exception {
+		final SequenceAllocator allocator = new SequenceAllocator(file, 1, 100);
+		final Set<Integer> numbers = Collections.synchronizedSet(new HashSet<Integer>());
+
+		final int numThreads = 4;
+		final int numbersPerThread = 5000;
+		final CountDownLatch latch = new CountDownLatch(numThreads);
+
+		try {
+			for (int i=0; i < numThreads; i++) {
+				new Thread() {
+					@Override
+					public void run() {
+						try {
+							for (int j=0; j < numbersPerThread; j++) {
+								numbers.add(allocator.next());
+							}
+						} finally {
+							latch.countDown();
+						}
+					}
+				}.start();
+			}
+
+			latch.await();
+
+			Assert.assertEquals(numbers.size(), numThreads * numbersPerThread);
+		} finally {
+			allocator.close();
+		}
+	}
+
+	@Test(expectedExceptions=IllegalStateException.class)
+	public void shouldFailIfClosed() throws Exception {
+		SequenceAllocator allocator = new SequenceAllocator(file, 1, 10);
+		allocator.close();
+
+		allocator.next();
+	}
+
+	@Test
+	public void shouldReadTextValue() throws Exception {
+		File textFile = File.createTempFile("sequence", ".seq");
+		try {
+			FileWriter writer = new FileWriter(textFile);
+			writer.write("345\n");
+			writer.close();
+
+			Assert.assertEquals(SequenceAllocator.readTextValue(textFile, 1), 345);
+			Assert.assertEquals(SequenceAllocator.readTextValue(new File("nonexistent.seq"), 1), 1);
+		} finally {
+			textFile.delete();
+		}
+	}
+
+}
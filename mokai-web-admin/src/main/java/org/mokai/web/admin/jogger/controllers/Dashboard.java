@@ -8,6 +8,7 @@ import org.jogger.http.Request;
 import org.jogger.http.Response;
 import org.mokai.Message;
 import org.mokai.RoutingEngine;
+import org.mokai.persist.AbstractMessageStore;
 import org.mokai.persist.MessageCriteria;
 import org.mokai.web.admin.jogger.annotations.Secured;
 
@@ -28,10 +29,10 @@ public class Dashboard {
 		MessageCriteria criteria = new MessageCriteria()
 			.addStatus(Message.STATUS_FAILED)
 			.addStatus(Message.STATUS_RETRYING);
-		int failed = routingEngine.getMessageStore().list(criteria).size();
+		long failed = AbstractMessageStore.count(routingEngine.getMessageStore(), criteria);
 
 		criteria = new MessageCriteria().addStatus(Message.STATUS_UNROUTABLE);
-		int unroutable = routingEngine.getMessageStore().list(criteria).size();
+		long unroutable = AbstractMessageStore.count(routingEngine.getMessageStore(), criteria);
 
 		Map<String,Object> root = new HashMap<String,Object>();
 		root.put("connections", connections);
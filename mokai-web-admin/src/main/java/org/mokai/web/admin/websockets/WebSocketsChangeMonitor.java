@@ -13,6 +13,8 @@ import org.mokai.Monitorable.Status;
 import org.mokai.RoutingEngine;
 import org.mokai.Service;
 import org.mokai.impl.camel.ConnectorServiceChangeListener;
+import org.mokai.persist.AbstractMessageStore;
+import org.mokai.persist.MessageCount;
 import org.mokai.persist.MessageCriteria;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -123,12 +125,12 @@ public class WebSocketsChangeMonitor implements Service {
 		/**
 		 * The number of messages that failed.
 		 */
-		private int failed;
+		private long failed;
 
 		/**
 		 * The number of messages that are unroutable.
 		 */
-		private int unroutable;
+		private long unroutable;
 
 		/**
 		 * The interval between executions.
@@ -151,10 +153,22 @@ public class WebSocketsChangeMonitor implements Service {
 			changed = monitorConnectors(routingEngine.getConnections(), connections,
 					Direction.TO_CONNECTIONS) ? true : changed;
 
+			// count the failed, retrying and unroutable messages with a single grouped query
 			MessageCriteria criteria = new MessageCriteria()
 				.addStatus(Message.STATUS_FAILED)
-				.addStatus(Message.STATUS_RETRYING);
-			int actualFailed = routingEngine.getMessageStore().list(criteria).size();
+				.addStatus(Message.STATUS_RETRYING)
+				.addStatus(Message.STATUS_UNROUTABLE);
+
+			long actualFailed = 0;
+			long actualUnroutable = 0;
+			for (MessageCount count : AbstractMessageStore.countGrouped(routingEngine.getMessageStore(), criteria)) {
+				if (count.getStatus() == Message.STATUS_UNROUTABLE) {
+					actualUnroutable += count.getCount();
+				} else {
+					actualFailed += count.getCount();
+				}
+			}
+
 			if (failed != actualFailed) {
 				failed = actualFailed;
 				try {
@@ -167,8 +181,6 @@ public class WebSocketsChangeMonitor implements Service {
 				changed = true;
 			}
 
-			criteria = new MessageCriteria().addStatus(Message.STATUS_UNROUTABLE);
-			int actualUnroutable =  routingEngine.getMessageStore().list(criteria).size();
 			if (unroutable != actualUnroutable) {
 				unroutable = actualUnroutable;
 				try {